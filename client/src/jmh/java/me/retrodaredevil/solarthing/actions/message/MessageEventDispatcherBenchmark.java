@@ -0,0 +1,79 @@
+package me.retrodaredevil.solarthing.actions.message;
+
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares running every event for every packet group with dispatching each packet group through a {@link MessageEventDispatcher}.
+ * Each invocation runs 100 events for 5000 status and event packet groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEventDispatcherBenchmark {
+	private static final int EVENT_COUNT = 100;
+
+	private final List<FragmentedPacketGroup> statusPacketGroups = new ArrayList<>();
+	private final List<InstancePacketGroup> eventPacketGroups = new ArrayList<>();
+	private final List<Integer> calls = new ArrayList<>();
+	private final MessageEventDispatcher dispatcher = new MessageEventDispatcher();
+	private List<MessageEventDispatcherTest.CountingEvent> events;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		for (int i = 0; i < 5_000; i++) {
+			statusPacketGroups.add(MessageEventDispatcherTest.createStatusPacketGroup(random, i * 1000L));
+			eventPacketGroups.add(MessageEventDispatcherTest.createEventPacketGroup(random, i * 1000L));
+		}
+		events = MessageEventDispatcherTest.createEvents(EVENT_COUNT, calls);
+		for (MessageEventDispatcherTest.CountingEvent event : events) {
+			dispatcher.add(event, MessageEventDispatcherTest.NO_OP_SENDER);
+		}
+	}
+
+	@Benchmark
+	public int everyEvent() {
+		for (int i = 1; i < statusPacketGroups.size(); i++) {
+			for (MessageEventDispatcherTest.CountingEvent event : events) {
+				event.run(MessageEventDispatcherTest.NO_OP_SENDER, statusPacketGroups.get(i - 1), statusPacketGroups.get(i));
+				event.runForEvent(MessageEventDispatcherTest.NO_OP_SENDER, eventPacketGroups.get(i));
+			}
+		}
+		return clearCalls();
+	}
+
+	@Benchmark
+	public int dispatch() {
+		for (int i = 1; i < statusPacketGroups.size(); i++) {
+			dispatcher.dispatchStatus(statusPacketGroups.get(i - 1), statusPacketGroups.get(i));
+			dispatcher.dispatchEvent(eventPacketGroups.get(i));
+		}
+		return clearCalls();
+	}
+
+	/** @return The number of calls, which are then cleared so they do not build up across invocations */
+	private int clearCalls() {
+		int callCount = calls.size();
+		calls.clear();
+		return callCount;
+	}
+}
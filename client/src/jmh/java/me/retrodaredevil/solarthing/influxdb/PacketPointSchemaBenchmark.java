@@ -0,0 +1,53 @@
+package me.retrodaredevil.solarthing.influxdb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.solarthing.packets.Packet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PacketPointSchema} with the old path of calling {@link ObjectMapper#valueToTree(Object)} and {@link PointUtil#flattenJsonObject(ObjectNode)}.
+ * Each invocation converts every packet in testing/packets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketPointSchemaBenchmark {
+	private List<Packet> packets;
+
+	@Setup
+	public void setup() throws IOException {
+		packets = PacketPointSchemaTest.readPackets();
+	}
+
+	@Benchmark
+	public void schema(Blackhole blackhole) {
+		for (Packet packet : packets) {
+			blackhole.consume(PacketPointSchemaTest.describeUsingSchema(packet));
+		}
+	}
+
+	@Benchmark
+	public void tree(Blackhole blackhole) {
+		for (Packet packet : packets) {
+			blackhole.consume(PacketPointSchemaTest.describeUsingTree(packet));
+		}
+	}
+}
@@ -19,6 +19,7 @@ import me.retrodaredevil.solarthing.commands.util.CommandManager;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
 import me.retrodaredevil.solarthing.database.cache.DatabaseCache;
 import me.retrodaredevil.solarthing.message.implementations.SlackMessageSender;
+import me.retrodaredevil.solarthing.message.queue.OutboundMessageQueueRegistry;
 import me.retrodaredevil.solarthing.util.sync.ResourceManager;
 import okhttp3.OkHttpClient;
 
@@ -96,7 +97,7 @@ public class SlackChatBotActionNode implements ActionNode {
 
 		return new SlackChatBotAction(
 				appToken,
-				new SlackMessageSender(authToken, channelId, slack),
+				new SlackMessageSender(authToken, channelId, slack, null, false, OutboundMessageQueueRegistry.getDefault()),
 				slack,
 				new HelpChatBotHandler(
 						new ChatBotHandlerMultiplexer(Arrays.asList(
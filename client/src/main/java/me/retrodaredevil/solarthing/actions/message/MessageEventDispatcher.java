@@ -0,0 +1,101 @@
+package me.retrodaredevil.solarthing.actions.message;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.message.MessageSender;
+import me.retrodaredevil.solarthing.message.event.MessageEvent;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Calls {@link MessageEvent}s only for the packet groups that contain packets they are interested in.
+ * <p>
+ * For each concrete packet class that is seen, the events interested in that class are found once and remembered, so dispatching a packet group
+ * only costs a map lookup per packet rather than a check of every event. Events are always called in the order they were given.
+ * <p>
+ * This is not thread safe.
+ */
+final class MessageEventDispatcher {
+	private final List<MessageEvent> events = new ArrayList<>();
+	private final List<MessageSender> senders = new ArrayList<>();
+	/** The indices of events that are called for every new status packet group */
+	private final BitSet alwaysStatusIndices = new BitSet();
+	private final Map<Class<?>, BitSet> statusIndicesMap = new HashMap<>();
+	private final Map<Class<?>, BitSet> eventIndicesMap = new HashMap<>();
+	private final Function<Class<?>, BitSet> findStatusIndices = packetClass -> findIndices(packetClass, MessageEvent::getStatusPacketTypes);
+	private final Function<Class<?>, BitSet> findEventIndices = packetClass -> findIndices(packetClass, MessageEvent::getEventPacketTypes);
+	private final BitSet indices = new BitSet();
+
+	/**
+	 * Adds {@code event}, which sends messages to {@code sender}
+	 */
+	public void add(MessageEvent event, MessageSender sender) {
+		int index = events.size();
+		events.add(requireNonNull(event));
+		senders.add(requireNonNull(sender));
+		if (event.getStatusPacketTypes() == null) {
+			alwaysStatusIndices.set(index);
+		}
+		statusIndicesMap.clear();
+		eventIndicesMap.clear();
+	}
+
+	public int getEventCount() {
+		return events.size();
+	}
+
+	public void dispatchStatus(FragmentedPacketGroup previous, FragmentedPacketGroup current) {
+		indices.clear();
+		indices.or(alwaysStatusIndices);
+		addIndices(current, statusIndicesMap, findStatusIndices);
+		for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+			events.get(i).run(senders.get(i), previous, current);
+		}
+	}
+
+	public void dispatchEvent(InstancePacketGroup packetGroup) {
+		indices.clear();
+		addIndices(packetGroup, eventIndicesMap, findEventIndices);
+		for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+			events.get(i).runForEvent(senders.get(i), packetGroup);
+		}
+	}
+
+	private void addIndices(PacketGroup packetGroup, Map<Class<?>, BitSet> indicesMap, Function<Class<?>, BitSet> findIndices) {
+		Class<?> lastClass = null;
+		for (Packet packet : packetGroup.getPackets()) {
+			Class<?> packetClass = packet.getClass();
+			if (packetClass != lastClass) { // packets of the same type are usually next to each other
+				indices.or(indicesMap.computeIfAbsent(packetClass, findIndices));
+				lastClass = packetClass;
+			}
+		}
+	}
+
+	private BitSet findIndices(Class<?> packetClass, Function<MessageEvent, @Nullable Set<Class<? extends Packet>>> getPacketTypes) {
+		BitSet r = new BitSet();
+		for (int i = 0; i < events.size(); i++) {
+			Set<Class<? extends Packet>> packetTypes = getPacketTypes.apply(events.get(i));
+			if (packetTypes != null) {
+				for (Class<? extends Packet> packetType : packetTypes) {
+					if (packetType.isAssignableFrom(packetClass)) {
+						r.set(i);
+						break;
+					}
+				}
+			}
+		}
+		return r;
+	}
+}
@@ -72,22 +72,39 @@ public class MessageSenderActionNode implements ActionNode {
 		return senderMap;
 	}
 
-	private MessageSender getMessageSenderFrom(MessageEventNode messageEventNode) {
+	private MessageSender getMessageSenderFrom(MessageEventNode messageEventNode, Map<List<String>, MessageSender> senderCache) {
+		List<String> sendTo = messageEventNode.getSendTo();
+		MessageSender cachedSender = senderCache.get(sendTo);
+		if (cachedSender != null) {
+			return cachedSender;
+		}
 		List<MessageSender> messageSenders = new ArrayList<>();
-		for (String senderName : messageEventNode.getSendTo()) {
+		for (String senderName : sendTo) {
 			MessageSender sender = messageSenderMap.get(senderName);
 			if (sender == null) {
 				throw new IllegalArgumentException("senderName: " + senderName + " is not defined!");
 			}
 			messageSenders.add(sender);
 		}
-		return new MessageSenderMultiplexer(messageSenders);
+		MessageSender sender = messageSenders.size() == 1 ? messageSenders.get(0) : new MessageSenderMultiplexer(messageSenders);
+		senderCache.put(List.copyOf(sendTo), sender);
+		return sender;
+	}
+
+	private MessageEventDispatcher createDispatcher() {
+		MessageEventDispatcher dispatcher = new MessageEventDispatcher();
+		Map<List<String>, MessageSender> senderCache = new HashMap<>();
+		for (MessageEventNode messageEventNode : messageEventNodes) {
+			dispatcher.add(messageEventNode.getMessageEvent(), getMessageSenderFrom(messageEventNode, senderCache));
+		}
+		return dispatcher;
 	}
 
 	@Override
 	public Action createAction(ActionEnvironment actionEnvironment) {
 		LatestFragmentedPacketGroupEnvironment latestPacketGroupEnvironment = actionEnvironment.getInjectEnvironment().get(LatestFragmentedPacketGroupEnvironment.class);
 		EventDatabaseCacheEnvironment eventDatabaseCacheEnvironment = actionEnvironment.getInjectEnvironment().get(EventDatabaseCacheEnvironment.class);
+		MessageEventDispatcher dispatcher = createDispatcher();
 		return Actions.createRunOnce(() -> {
 			FragmentedPacketGroup packetGroup = latestPacketGroupEnvironment.getFragmentedPacketGroupProvider().getPacketGroup();
 			FragmentedPacketGroup last = this.last;
@@ -113,14 +130,11 @@ public class MessageSenderActionNode implements ActionNode {
 					.map(PacketGroups::parseToInstancePacketGroupRequireNoDefaults)
 					.collect(Collectors.toList());
 
-			for (MessageEventNode messageEventNode : messageEventNodes) {
-				MessageSender sender = getMessageSenderFrom(messageEventNode);
-				if (statusRun) {
-					messageEventNode.getMessageEvent().run(sender, last, packetGroup);
-				}
-				for (InstancePacketGroup instancePacketGroup : unhandledEventInstancePacketGroups) {
-					messageEventNode.getMessageEvent().runForEvent(sender, instancePacketGroup);
-				}
+			if (statusRun) {
+				dispatcher.dispatchStatus(last, packetGroup);
+			}
+			for (InstancePacketGroup instancePacketGroup : unhandledEventInstancePacketGroups) {
+				dispatcher.dispatchEvent(instancePacketGroup);
 			}
 		});
 	}
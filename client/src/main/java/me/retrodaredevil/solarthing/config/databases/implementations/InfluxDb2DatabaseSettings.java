@@ -1,5 +1,6 @@
 package me.retrodaredevil.solarthing.config.databases.implementations;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -10,19 +11,29 @@ import me.retrodaredevil.solarthing.config.databases.DatabaseSettings;
 import me.retrodaredevil.solarthing.config.databases.DatabaseType;
 import me.retrodaredevil.solarthing.config.databases.SimpleDatabaseType;
 
+import java.time.Duration;
+
 import static java.util.Objects.requireNonNull;
 
 @JsonDeserialize(using = InfluxDb2DatabaseSettings.Deserializer.class)
 @JsonTypeName("influxdb2")
 public class InfluxDb2DatabaseSettings implements DatabaseSettings {
 	public static final DatabaseType TYPE = new SimpleDatabaseType("influxdb2");
+	private static final Duration DEFAULT_BATCH_MAX_AGE = Duration.ofMinutes(1);
 
 	private final InfluxDb2Properties influxDbProperties;
 	private final OkHttpProperties okHttpProperties;
+	private final int batchMaxPoints;
+	private final Duration batchMaxAge;
 
-	public InfluxDb2DatabaseSettings(InfluxDb2Properties influxDbProperties, OkHttpProperties okHttpProperties) {
+	public InfluxDb2DatabaseSettings(InfluxDb2Properties influxDbProperties, OkHttpProperties okHttpProperties, int batchMaxPoints, Duration batchMaxAge) {
 		requireNonNull(this.influxDbProperties = influxDbProperties);
 		requireNonNull(this.okHttpProperties = okHttpProperties);
+		this.batchMaxPoints = batchMaxPoints;
+		requireNonNull(this.batchMaxAge = batchMaxAge);
+		if (batchMaxPoints < 0) {
+			throw new IllegalArgumentException("batch_max_points cannot be negative!");
+		}
 	}
 
 	@Override
@@ -41,6 +52,20 @@ public class InfluxDb2DatabaseSettings implements DatabaseSettings {
 	public OkHttpProperties getOkHttpProperties() {
 		return okHttpProperties;
 	}
+
+	/**
+	 * @return The number of status points to buffer before writing them, or 0 if batching is disabled
+	 */
+	public int getBatchMaxPoints() {
+		return batchMaxPoints;
+	}
+
+	/**
+	 * @return The maximum amount of time a status point is buffered before it is written. Only used if batching is enabled
+	 */
+	public Duration getBatchMaxAge() {
+		return batchMaxAge;
+	}
 	static class Deserializer extends UnwrappedDeserializer<InfluxDb2DatabaseSettings, Builder> {
 		Deserializer() {
 			super(Builder.class, Builder::build);
@@ -51,9 +76,17 @@ public class InfluxDb2DatabaseSettings implements DatabaseSettings {
 		private InfluxDb2Properties influxDbProperties;
 		@JsonUnwrapped
 		private OkHttpProperties okHttpProperties;
+		@JsonProperty("batch_max_points")
+		private Integer batchMaxPoints;
+		@JsonProperty("batch_max_age")
+		private Duration batchMaxAge;
 
 		public InfluxDb2DatabaseSettings build() {
-			return new InfluxDb2DatabaseSettings(influxDbProperties, okHttpProperties);
+			return new InfluxDb2DatabaseSettings(
+					influxDbProperties, okHttpProperties,
+					batchMaxPoints == null ? 0 : batchMaxPoints,
+					batchMaxAge == null ? DEFAULT_BATCH_MAX_AGE : batchMaxAge
+			);
 		}
 
 	}
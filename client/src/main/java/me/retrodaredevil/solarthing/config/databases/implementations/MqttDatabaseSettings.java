@@ -22,6 +22,8 @@ public class MqttDatabaseSettings implements DatabaseSettings {
 	private final char[] password;
 	private final String topicFormat;
 	private final boolean retain;
+	private final boolean persistent;
+	private final int maxInflight;
 
 	@JsonCreator
 	public MqttDatabaseSettings(
@@ -30,13 +32,17 @@ public class MqttDatabaseSettings implements DatabaseSettings {
 			@JsonProperty(value = "username", required = true) String username,
 			@JsonProperty(value = "password", required = true) char[] password,
 			@JsonProperty("topic") String topicFormat,
-			@JsonProperty("retain") Boolean retain) {
+			@JsonProperty("retain") Boolean retain,
+			@JsonProperty("persistent") Boolean persistent,
+			@JsonProperty("max_inflight") Integer maxInflight) {
 		requireNonNull(this.broker = broker);
 		this.clientId = clientId;
 		requireNonNull(this.username = username);
 		requireNonNull(this.password = password);
 		this.topicFormat = topicFormat == null ? MqttPacketSaver.DEFAULT_TOPIC_FORMAT : topicFormat;
 		this.retain = retain == null || retain; // default to true
+		this.persistent = persistent == null || persistent; // default to true
+		this.maxInflight = maxInflight == null ? MqttPacketSaver.DEFAULT_MAX_INFLIGHT : maxInflight;
 	}
 
 	@Override
@@ -72,4 +78,15 @@ public class MqttDatabaseSettings implements DatabaseSettings {
 	public boolean isRetain() {
 		return retain;
 	}
+
+	/**
+	 * @return true if a single connection should be kept open and automatically reconnected, false to connect each time packets are published
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	public int getMaxInflight() {
+		return maxInflight;
+	}
 }
@@ -29,6 +29,10 @@ public class SerialIOConfig implements IOConfig {
 	@JsonDeserialize(as = SerialConfigBuilderJackson.class)
 	private SerialConfig serialConfig;
 
+	public String getPort() {
+		return port;
+	}
+
 	@Override
 	public IOBundle createIOBundle() throws Exception {
 		SerialConfig serialConfig = this.serialConfig;
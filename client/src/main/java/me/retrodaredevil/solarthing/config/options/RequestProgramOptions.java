@@ -1,12 +1,37 @@
 package me.retrodaredevil.solarthing.config.options;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+
+import java.time.Duration;
 
 @JsonTypeName("request")
+@SuppressWarnings({"FieldMayBeFinal", "CanBeFinal"})
 public class RequestProgramOptions extends RequestProgramOptionsBase{
+
+	@JsonProperty("parallel")
+	private boolean parallel = false;
+	@JsonProperty("request_deadline")
+	private @Nullable Duration requestDeadline = null;
+
 	@Override
 	public ProgramType getProgramType() {
 		return ProgramType.REQUEST;
 	}
 
+	/**
+	 * @return true if data requesters should be run in parallel. Data requesters that use the same IO (and so the same bus) are still run one after another
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @return The maximum amount of time to wait for each data requester when {@link #isParallel()} is true
+	 */
+	public Duration getRequestDeadline() {
+		Duration requestDeadline = this.requestDeadline;
+		return requestDeadline == null ? getPeriod() : requestDeadline;
+	}
 }
@@ -36,6 +36,11 @@ public class BatteryVoltageIODataRequester implements DataRequester {
 		this.invalidWhenAbove = invalidWhenAbove == null ? Double.MAX_VALUE : invalidWhenAbove;
 	}
 
+	@Override
+	public Path getIOBundleFile() {
+		return ioBundleFile;
+	}
+
 	@Override
 	public DataRequesterResult create(RequestObject requestObject) {
 		@SuppressWarnings("resource")
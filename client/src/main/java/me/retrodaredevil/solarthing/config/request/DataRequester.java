@@ -2,8 +2,11 @@ package me.retrodaredevil.solarthing.config.request;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.config.request.modbus.ModbusDataRequester;
 
+import java.nio.file.Path;
+
 /**
  * A {@link DataRequester} returns a {@link DataRequesterResult}, which can allow the addition of
  * packets to the packet collection that will end up in the status database.
@@ -24,4 +27,12 @@ public interface DataRequester {
 
 	DataRequesterResult create(RequestObject requestObject);
 
+	/**
+	 * When data requesters are requested in parallel, data requesters that use the same IO are requested one after another.
+	 * @return The IO bundle file this data requester uses, or null if it does not use one
+	 */
+	default @Nullable Path getIOBundleFile() {
+		return null;
+	}
+
 }
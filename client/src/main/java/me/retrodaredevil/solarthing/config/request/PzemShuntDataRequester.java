@@ -7,6 +7,9 @@ import me.retrodaredevil.io.IOBundle;
 import me.retrodaredevil.io.modbus.*;
 import me.retrodaredevil.solarthing.annotations.JsonExplicit;
 import me.retrodaredevil.solarthing.config.ConfigUtil;
+import me.retrodaredevil.solarthing.program.modbus.ModbusCacheSlave;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlan;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlanCacheReloader;
 import me.retrodaredevil.solarthing.program.receiver.PzemShuntPacketListUpdater;
 import me.retrodaredevil.solarthing.solar.pzem.PzemShuntReadTable;
 import me.retrodaredevil.solarthing.solar.pzem.modbus.PzemShuntModbusSlaveRead;
@@ -19,15 +22,28 @@ public class PzemShuntDataRequester implements DataRequester {
 	private final Path ioBundleFile;
 	private final int dataId;
 	private final int modbusAddress;
+	private final boolean bulkRequest;
+
+	/** The plan used when {@link #bulkRequest} is true */
+	private static final ModbusReadPlan BULK_READ_PLAN = ModbusReadPlan.builder()
+			.includeConstants(PzemShuntModbusSlaveRead.class)
+			.build();
 
 	@JsonCreator
 	public PzemShuntDataRequester(
 			@JsonProperty(value = "io", required = true) Path ioBundleFile,
 			@JsonProperty(value = "data_id", required = true) int dataId,
-			@JsonProperty(value = "modbus", required = true) int modbusAddress) {
+			@JsonProperty(value = "modbus", required = true) int modbusAddress,
+			@JsonProperty("bulk_request") Boolean bulkRequest) {
 		this.ioBundleFile = ioBundleFile;
 		this.dataId = dataId;
 		this.modbusAddress = modbusAddress;
+		this.bulkRequest = Boolean.TRUE.equals(bulkRequest); // default false
+	}
+
+	@Override
+	public Path getIOBundleFile() {
+		return ioBundleFile;
 	}
 
 	@Override
@@ -35,8 +51,18 @@ public class PzemShuntDataRequester implements DataRequester {
 		final IOBundle ioBundle = ConfigUtil.createIOBundle(ioBundleFile, PzemShuntReadTable.SERIAL_CONFIG);
 		ModbusSlaveBus bus = new IOModbusSlaveBus(ioBundle, new RtuDataEncoder());
 		ModbusSlave slave = new ImmutableAddressModbusSlave(modbusAddress, bus);
+		final PzemShuntReadTable read;
+		final Runnable reloadCache;
+		if (bulkRequest) {
+			ModbusCacheSlave modbusCacheSlave = new ModbusCacheSlave(slave);
+			read = new PzemShuntModbusSlaveRead(modbusCacheSlave);
+			reloadCache = new ModbusReadPlanCacheReloader(modbusCacheSlave, BULK_READ_PLAN);
+		} else {
+			read = new PzemShuntModbusSlaveRead(slave);
+			reloadCache = () -> {};
+		}
 		return DataRequesterResult.builder()
-				.statusPacketListReceiver(new PzemShuntPacketListUpdater(dataId, modbusAddress, new PzemShuntModbusSlaveRead(slave)))
+				.statusPacketListReceiver(new PzemShuntPacketListUpdater(dataId, modbusAddress, read, reloadCache))
 				.build();
 	}
 }
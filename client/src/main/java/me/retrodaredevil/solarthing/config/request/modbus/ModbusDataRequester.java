@@ -48,6 +48,11 @@ public class ModbusDataRequester implements DataRequester {
 		rtuEndTimeoutMillis = endTimeoutDurationString == null ? 40 : Duration.parse(endTimeoutDurationString).toMillis();
 	}
 
+	@Override
+	public Path getIOBundleFile() {
+		return ioBundleFile;
+	}
+
 	@Override
 	public DataRequesterResult create(RequestObject requestObject) {
 		ModbusRequester first = addressToModbusRequesterMap.values().stream().findFirst().orElseThrow(NoSuchElementException::new);
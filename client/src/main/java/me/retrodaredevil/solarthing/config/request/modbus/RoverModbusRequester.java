@@ -15,8 +15,11 @@ import me.retrodaredevil.solarthing.netcat.ConnectionHandler;
 import me.retrodaredevil.solarthing.netcat.NetCatServerHandler;
 import me.retrodaredevil.solarthing.packets.identification.NumberedIdentifier;
 import me.retrodaredevil.solarthing.program.modbus.ModbusCacheSlave;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlan;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlanCacheReloader;
 import me.retrodaredevil.solarthing.program.receiver.ModbusListUpdaterWrapper;
 import me.retrodaredevil.solarthing.program.receiver.RoverPacketListUpdater;
+import me.retrodaredevil.solarthing.solar.renogy.rover.Rover;
 import me.retrodaredevil.solarthing.solar.renogy.rover.RoverReadTable;
 import me.retrodaredevil.solarthing.solar.renogy.rover.RoverWriteTable;
 import me.retrodaredevil.solarthing.solar.renogy.rover.modbus.RoverModbusSlaveRead;
@@ -58,16 +61,26 @@ public class RoverModbusRequester implements ModbusRequester {
 		return RoverReadTable.SERIAL_CONFIG;
 	}
 
-	private static void cacheRegisters(ModbusCacheSlave modbusCacheSlave) {
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x000A, 0x001A);
+	/**
+	 * The plan used when {@link #bulkRequest} is true.
+	 * <p>
+	 * 0x010A is excluded because it is used as the command to turn the street light on/off.
+	 * 0xE022 to 0xE02D are excluded because they do not work when querying in bulk for some reason.
+	 * 0xE02E and 0xE02F are excluded because they are not part of rover status packets, and would need their own request.
+	 */
+	private static final ModbusReadPlan BULK_READ_PLAN;
 
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x0100, 0x0109); // skip 0x010A
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x010B, 0x0122);
-
-		modbusCacheSlave.cacheHoldingRangeInclusive(0xE002, 0xE014);
-		// break here just because they're for different things
-		modbusCacheSlave.cacheHoldingRangeInclusive(0xE015, 0xE021);
-//			modbusCacheSlave.cacheRangeInclusive(0xE022, 0xE02D); these do not work when querying in bulk for some reason
+	static {
+		ModbusReadPlan.Builder builder = ModbusReadPlan.builder()
+				.includeConstants(RoverModbusSlaveRead.class)
+				.excludeHoldingRangeInclusive(0x010A, 0x010A)
+				.excludeHoldingRangeInclusive(0xE022, 0xE02D)
+				.excludeHoldingRangeInclusive(0xE02E, 0xE02F);
+		for (Rover.OperatingSetting operatingSetting : Rover.OperatingSetting.values()) {
+			builder.includeHolding(operatingSetting.getDurationHoursRegister(), 1);
+			builder.includeHolding(operatingSetting.getOperatingPowerPercentageRegister(), 1);
+		}
+		BULK_READ_PLAN = builder.build();
 	}
 
 	@Override
@@ -77,7 +90,7 @@ public class RoverModbusRequester implements ModbusRequester {
 		if (bulkRequest) {
 			ModbusCacheSlave modbusCacheSlave = new ModbusCacheSlave(modbus);
 			read = new RoverModbusSlaveRead(modbusCacheSlave);
-			reloadCache = () -> cacheRegisters(modbusCacheSlave);
+			reloadCache = new ModbusReadPlanCacheReloader(modbusCacheSlave, BULK_READ_PLAN);
 		} else {
 			read = new RoverModbusSlaveRead(modbus);
 			reloadCache = () -> {};
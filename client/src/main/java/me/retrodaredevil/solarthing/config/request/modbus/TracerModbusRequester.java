@@ -16,6 +16,8 @@ import me.retrodaredevil.solarthing.netcat.ConnectionHandler;
 import me.retrodaredevil.solarthing.netcat.NetCatServerHandler;
 import me.retrodaredevil.solarthing.packets.identification.NumberedIdentifier;
 import me.retrodaredevil.solarthing.program.modbus.ModbusCacheSlave;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlan;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlanCacheReloader;
 import me.retrodaredevil.solarthing.program.receiver.ModbusListUpdaterWrapper;
 import me.retrodaredevil.solarthing.program.receiver.TracerPacketListUpdater;
 import me.retrodaredevil.solarthing.solar.tracer.TracerReadTable;
@@ -70,28 +72,15 @@ public class TracerModbusRequester implements ModbusRequester {
 	public SerialConfig getDefaultSerialConfig() {
 		return TracerReadTable.SERIAL_CONFIG;
 	}
-	private static void cacheRegisters(ModbusCacheSlave modbusCacheSlave) {
-		modbusCacheSlave.cacheInputRangeInclusive(0x3000, 0x3008);
-		modbusCacheSlave.cacheInput(0x300E, 1);
-
-		modbusCacheSlave.cacheInputRangeInclusive(0x3100, 0x3107);
-		modbusCacheSlave.cacheInputRangeInclusive(0x310C, 0x3112);
-		modbusCacheSlave.cacheInputRangeInclusive(0x311A, 0x311B);
-		modbusCacheSlave.cacheInput(0x311D, 1);
-
-		modbusCacheSlave.cacheInputRangeInclusive(0x3200, 0x3201);
-
-		modbusCacheSlave.cacheInputRangeInclusive(0x3300, 0x3315);
-		modbusCacheSlave.cacheInputRangeInclusive(0x331B, 0x331E);
-
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9000, 0x900E);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9013, 0x9021);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x903D, 0x903F);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9042, 0x904D);
-		modbusCacheSlave.cacheHolding(0x9065, 1);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9069, 0x906E);
-		modbusCacheSlave.cacheHolding(0x9070, 1);
-	}
+	/**
+	 * The plan used when {@link #bulkRequest} is true.
+	 * <p>
+	 * This reads every register that {@link TracerModbusSlaveRead} has a constant for, which includes registers that the old hand written ranges skipped, such as 0x9067.
+	 * If a device cannot read one of them in bulk, the first poll splits the block it is in until that register is found. After that, the register is read individually.
+	 */
+	private static final ModbusReadPlan BULK_READ_PLAN = ModbusReadPlan.builder()
+			.includeConstants(TracerModbusSlaveRead.class)
+			.build();
 
 	@Override
 	public DataRequesterResult create(RequestObject requestObject, SuccessReporter successReporter, ModbusSlave modbus) {
@@ -100,7 +89,7 @@ public class TracerModbusRequester implements ModbusRequester {
 		if (bulkRequest) {
 			ModbusCacheSlave modbusCacheSlave = new ModbusCacheSlave(modbus);
 			read = new TracerModbusSlaveRead(modbusCacheSlave);
-			reloadCache = () -> cacheRegisters(modbusCacheSlave);
+			reloadCache = new ModbusReadPlanCacheReloader(modbusCacheSlave, BULK_READ_PLAN);
 		} else {
 			read = new TracerModbusSlaveRead(modbus);
 			reloadCache = () -> {};
@@ -2,27 +2,33 @@ package me.retrodaredevil.solarthing.couchdb;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import me.retrodaredevil.couchdbjava.CouchDbDatabase;
 import me.retrodaredevil.couchdbjava.exception.CouchDbException;
 import me.retrodaredevil.couchdbjava.exception.CouchDbNotFoundException;
 import me.retrodaredevil.couchdbjava.exception.CouchDbUpdateConflictException;
 import me.retrodaredevil.couchdbjava.json.JsonData;
 import me.retrodaredevil.couchdbjava.json.StringJsonData;
+import me.retrodaredevil.couchdbjava.request.BulkPostRequest;
+import me.retrodaredevil.couchdbjava.response.BulkDocumentResponse;
 import me.retrodaredevil.couchdbjava.response.DocumentResponse;
 import me.retrodaredevil.couchdbjava.tag.DocumentEntityTag;
 import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.handling.BulkPacketHandler;
 import me.retrodaredevil.solarthing.packets.handling.CommonPacketHandleException;
 import me.retrodaredevil.solarthing.packets.handling.PacketHandleException;
-import me.retrodaredevil.solarthing.packets.handling.PacketHandler;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-public class CouchDbPacketSaver implements PacketHandler {
+public class CouchDbPacketSaver implements BulkPacketHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CouchDbPacketSaver.class);
 	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
 
@@ -98,12 +104,82 @@ public class CouchDbPacketSaver implements PacketHandler {
 			}
 			throw new CommonPacketHandleException("Conflict while saving something to couchdb. id=" + id + " rev=" + revision + ". This usually means we put a packet in the database, but we weren't able to cache its rev id.", ex);
 		} catch(CouchDbException ex){
-			if (ex.getCause() instanceof IOException) {
-				throw new CommonPacketHandleException("We got a DbAccessException probably meaning we couldn't reach the database.", ex);
-			} else {
-				throw new PacketHandleException("Got a DbAccessException without IOException as a cause. Something must be wrong.", ex);
+			throw createException(ex);
+		}
+	}
+	private static PacketHandleException createException(CouchDbException ex) {
+		if (ex.getCause() instanceof IOException) {
+			return new CommonPacketHandleException("We got a DbAccessException probably meaning we couldn't reach the database.", ex);
+		}
+		return new PacketHandleException("Got a DbAccessException without IOException as a cause. Something must be wrong.", ex);
+	}
+
+	/**
+	 * When conflicts are ignored, all the packet collections are uploaded with a single {@code _bulk_docs} request, and a conflict on a document
+	 * means that the document was already uploaded.
+	 * <p>
+	 * When conflicts are not ignored, each packet collection is uploaded separately using {@link #handle(PacketCollection)}
+	 * because the revision of each document has to be known before it can be updated.
+	 */
+	@Override
+	public List<PacketCollection> handleAll(List<PacketCollection> packetCollections) throws PacketHandleException {
+		if (idMap != null) {
+			for (int i = 0; i < packetCollections.size(); i++) {
+				try {
+					handle(packetCollections.get(i));
+				} catch (PacketHandleException ex) {
+					if (i == 0) {
+						throw ex;
+					}
+					LOGGER.debug("Uploaded " + i + " / " + packetCollections.size() + " packet collections before getting exception", ex);
+					return new ArrayList<>(packetCollections.subList(i, packetCollections.size()));
+				}
 			}
+			return Collections.emptyList();
+		}
+		if (packetCollections.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<JsonData> jsonDataList = new ArrayList<>(packetCollections.size());
+		for (PacketCollection packetCollection : packetCollections) {
+			ObjectNode node = MAPPER.valueToTree(packetCollection);
+			node.put("_id", packetCollection.getDbId()); // the ID is not serialized as a part of the packet collection itself
+			try {
+				jsonDataList.add(new StringJsonData(MAPPER.writeValueAsString(node)));
+			} catch (JsonProcessingException e) {
+				throw new RuntimeException("Cannot serialize packet collection! This is bad!", e);
+			}
+		}
+		final List<BulkDocumentResponse> responses;
+		try {
+			responses = database.postDocumentsBulk(new BulkPostRequest(jsonDataList));
+		} catch (CouchDbNotFoundException ex) {
+			throw new PacketHandleException("Got 'not found'. Does the database exist? Make sure to run the couchdb-setup!", ex);
+		} catch (CouchDbException ex) {
+			throw createException(ex);
+		}
+		if (responses.size() != packetCollections.size()) {
+			throw new PacketHandleException("Expected " + packetCollections.size() + " responses from _bulk_docs, but got " + responses.size());
+		}
+		List<PacketCollection> failed = new ArrayList<>();
+		int conflictCount = 0;
+		for (int i = 0; i < responses.size(); i++) {
+			BulkDocumentResponse response = responses.get(i);
+			if (response.isOk()) {
+				continue;
+			}
+			if ("conflict".equals(response.getError())) { // we are ignoring conflicts, so this document was already uploaded
+				conflictCount++;
+				continue;
+			}
+			LOGGER.debug("Could not upload id=" + response.getId() + " error: " + response.getError() + " reason: " + response.getReason());
+			failed.add(packetCollections.get(i));
+		}
+		LOGGER.debug("Uploaded " + packetCollections.size() + " packet collections in bulk. conflicts (already uploaded): " + conflictCount + " failed: " + failed.size());
+		if (failed.size() == packetCollections.size()) {
+			throw new PacketHandleException("Could not upload any of the " + packetCollections.size() + " packet collections in bulk");
 		}
+		return failed;
 	}
 
 }
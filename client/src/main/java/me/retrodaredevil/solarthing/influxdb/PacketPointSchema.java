@@ -0,0 +1,151 @@
+package me.retrodaredevil.solarthing.influxdb;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import me.retrodaredevil.solarthing.packets.Packet;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes how packets of a particular class are turned into the fields and tags of a point.
+ * <p>
+ * A schema is created once per class. It holds the tag keys of the class (which would otherwise be found with reflection each time)
+ * and a cache of flattened field names. Calling {@link #visit(ObjectMapper, Packet, FieldVisitor)} serializes a packet into a {@link TokenBuffer}
+ * and walks its tokens, so no {@link com.fasterxml.jackson.databind.JsonNode} tree is created. The fields visited are the same as
+ * {@link PointUtil#flattenJsonObject(com.fasterxml.jackson.databind.node.ObjectNode)} would return for the serialized packet:
+ * nested objects are flattened with a "." separator, and nulls and arrays are ignored.
+ */
+public final class PacketPointSchema {
+	private static final ClassValue<PacketPointSchema> SCHEMA_CACHE = new ClassValue<>() {
+		@Override
+		protected PacketPointSchema computeValue(Class<?> type) {
+			return new PacketPointSchema(PointUtil.getTagKeys(type));
+		}
+	};
+
+	private final Collection<String> tagKeys;
+	/** A map of object prefixes (such as "a.b") to a map of field names to their flattened key (such as "a.b.c") */
+	private final Map<String, Map<String, String>> nestedKeyCache = new ConcurrentHashMap<>();
+
+	private PacketPointSchema(Collection<String> tagKeys) {
+		this.tagKeys = Collections.unmodifiableCollection(new HashSet<>(tagKeys));
+	}
+
+	public static PacketPointSchema forClass(Class<?> packetClass) {
+		return SCHEMA_CACHE.get(packetClass);
+	}
+
+	public Collection<String> getTagKeys() {
+		return tagKeys;
+	}
+
+	/**
+	 * Serializes {@code packet} and calls {@code visitor} for each flattened field.
+	 * If a field is a tag key, {@link FieldVisitor#tag(String, String)} is called before the field itself is visited.
+	 * @param mapper The object mapper to serialize {@code packet} with
+	 * @param packet The packet. Its class should be the class this schema was created for
+	 * @param visitor The visitor
+	 */
+	public void visit(ObjectMapper mapper, Packet packet, FieldVisitor visitor) {
+		TokenBuffer buffer = new TokenBuffer(mapper, false);
+		try {
+			mapper.writeValue(buffer, packet);
+			try (JsonParser parser = buffer.asParser(mapper)) {
+				JsonToken token = parser.nextToken();
+				if (token != JsonToken.START_OBJECT) {
+					throw new IllegalArgumentException("packet was not serialized to an object! token=" + token + " packet=" + packet);
+				}
+				visitObject(parser, "", visitor);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("We should be able to serialize this to JSON!", e);
+		}
+	}
+
+	private String getKey(String prefix, String name) {
+		if (prefix.isEmpty()) {
+			return name;
+		}
+		return nestedKeyCache.computeIfAbsent(prefix, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(name, k -> prefix + "." + name);
+	}
+
+	private void visitObject(JsonParser parser, String prefix, FieldVisitor visitor) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = getKey(prefix, parser.getCurrentName());
+			JsonToken token = parser.nextToken();
+			switch (token) {
+				case START_OBJECT:
+					visitObject(parser, key, visitor);
+					break;
+				case START_ARRAY:
+					parser.skipChildren(); // arrays are ignored
+					break;
+				case VALUE_NULL:
+					break;
+				case VALUE_NUMBER_INT:
+				case VALUE_NUMBER_FLOAT: {
+					Number value = parser.getNumberValue();
+					if (tagKeys.contains(key)) {
+						visitor.tag(key, value.toString());
+					}
+					visitor.numberField(key, value);
+					break;
+				}
+				case VALUE_STRING: {
+					String value = parser.getText();
+					if (tagKeys.contains(key)) {
+						visitor.tag(key, value);
+					}
+					visitor.stringField(key, value);
+					break;
+				}
+				case VALUE_TRUE:
+				case VALUE_FALSE: {
+					boolean value = token == JsonToken.VALUE_TRUE;
+					if (tagKeys.contains(key)) {
+						visitor.tag(key, Boolean.toString(value));
+					}
+					visitor.booleanField(key, value);
+					break;
+				}
+				case VALUE_EMBEDDED_OBJECT: {
+					Object embedded = parser.getEmbeddedObject();
+					if (!(embedded instanceof byte[])) {
+						throw new AssertionError("This primitive isn't a number, string/binary or boolean! It's: " + embedded + " class: " + (embedded == null ? null : embedded.getClass()));
+					}
+					String value = Base64Variants.getDefaultVariant().encode((byte[]) embedded);
+					if (tagKeys.contains(key)) {
+						visitor.tag(key, value);
+					}
+					visitor.stringField(key, value);
+					break;
+				}
+				default:
+					throw new AssertionError("Unexpected token: " + token);
+			}
+		}
+	}
+
+	/**
+	 * Receives the flattened fields of a packet
+	 */
+	public interface FieldVisitor {
+		void tag(String key, String value);
+
+		/**
+		 * @param value The number. This may be any subclass of {@link Number}, including {@link java.math.BigDecimal}
+		 */
+		void numberField(String key, Number value);
+		void stringField(String key, String value);
+		void booleanField(String key, boolean value);
+	}
+}
@@ -1,14 +1,12 @@
 package me.retrodaredevil.solarthing.influxdb.influxdb1;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ValueNode;
 import me.retrodaredevil.influxdb.influxdb1.InfluxProperties;
 import me.retrodaredevil.okhttp3.OkHttpProperties;
 import me.retrodaredevil.okhttp3.OkHttpUtil;
 import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.influxdb.NameGetter;
-import me.retrodaredevil.solarthing.influxdb.PointUtil;
+import me.retrodaredevil.solarthing.influxdb.PacketPointSchema;
 import me.retrodaredevil.solarthing.influxdb.retention.RetentionPolicy;
 import me.retrodaredevil.solarthing.influxdb.retention.RetentionPolicyGetter;
 import me.retrodaredevil.solarthing.influxdb.retention.RetentionPolicySetting;
@@ -31,9 +29,7 @@ import org.influxdb.dto.QueryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.Objects.requireNonNull;
@@ -155,23 +151,28 @@ public class InfluxDbPacketSaver implements PacketHandler {
 			for (Packet packet : packetGroup.getPackets()) {
 				Point.Builder pointBuilder = pointCreator.createBuilder(packet).time(time, TimeUnit.MILLISECONDS);
 
-				Collection<String> tagKeys = PointUtil.getTagKeys(packet.getClass());
-				ObjectNode json = OBJECT_MAPPER.valueToTree(packet);
-				for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(json)) {
-					String key = entry.getKey();
-					ValueNode prim = entry.getValue();
-					if(tagKeys.contains(key)){
-						pointBuilder.tag(key, prim.asText());
+				PacketPointSchema.forClass(packet.getClass()).visit(OBJECT_MAPPER, packet, new PacketPointSchema.FieldVisitor() {
+					@Override
+					public void tag(String key, String value) {
+						pointBuilder.tag(key, value);
 					}
-					if (prim.isNumber()) {
+
+					@Override
+					public void numberField(String key, Number value) {
 						// always store as float datatype
-						pointBuilder.addField(key, prim.asDouble());
-					} else if (prim.isTextual() || prim.isBinary()) {
-						pointBuilder.addField(key, prim.asText());
-					} else if (prim.isBoolean()) {
-						pointBuilder.addField(key, prim.asBoolean());
-					} else throw new AssertionError("This primitive isn't a number, string/binary or boolean! It's: " + prim + " class: " + prim.getClass() + " text=" + prim.asText());
-				}
+						pointBuilder.addField(key, value.doubleValue());
+					}
+
+					@Override
+					public void stringField(String key, String value) {
+						pointBuilder.addField(key, value);
+					}
+
+					@Override
+					public void booleanField(String key, boolean value) {
+						pointBuilder.addField(key, value);
+					}
+				});
 				points.point(pointBuilder.build());
 				packetsWritten++;
 			}
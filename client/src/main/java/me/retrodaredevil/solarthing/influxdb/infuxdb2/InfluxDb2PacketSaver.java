@@ -1,9 +1,6 @@
 package me.retrodaredevil.solarthing.influxdb.infuxdb2;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.DecimalNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ValueNode;
 import com.influxdb.LogLevel;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.InfluxDBClientFactory;
@@ -16,8 +13,9 @@ import com.influxdb.exceptions.InfluxException;
 import me.retrodaredevil.influxdb.influxdb2.InfluxDb2Properties;
 import me.retrodaredevil.okhttp3.OkHttpProperties;
 import me.retrodaredevil.okhttp3.OkHttpUtil;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.influxdb.NameGetter;
-import me.retrodaredevil.solarthing.influxdb.PointUtil;
+import me.retrodaredevil.solarthing.influxdb.PacketPointSchema;
 import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
 import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
@@ -30,17 +28,34 @@ import okhttp3.logging.HttpLoggingInterceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Saves packets to InfluxDB 2.
+ * <p>
+ * The organization and each bucket are found (or created) the first time they are needed and are then cached.
+ * A cached bucket (and the cached organization) is forgotten when a write to that bucket fails, so it will be found again on the next write.
+ * <p>
+ * If batching is enabled, points are not written right away. Instead, points are buffered until there are at least {@code batchMaxPoints} of them,
+ * or until the oldest buffered point has been waiting for {@code batchMaxAge}. Both are checked each time a packet collection is handled.
+ * If a write fails, the buffered points are kept so they can be written with the next batch. Since InfluxDB overwrites points with the same
+ * measurement, tags and time, writing the same point again is harmless.
+ */
 public class InfluxDb2PacketSaver implements PacketHandler {
-//	private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDbPacketSaver.class);
+	private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDb2PacketSaver.class);
 	private static final Logger INFLUX_LOGGER = LoggerFactory.getLogger("org.influxdb");
 	private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.defaultMapper();
+	/** While writes are failing, at most this many batches worth of points are buffered. Once this is exceeded, the oldest points are discarded. */
+	private static final int MAX_BUFFERED_BATCHES = 10;
 
 
 	private final InfluxDBClient client;
@@ -48,12 +63,34 @@ public class InfluxDb2PacketSaver implements PacketHandler {
 	private final InfluxDb2Properties properties;
 	private final NameGetter bucketNameGetter;
 	private final PacketPoint2Creator pointCreator;
+	private final int batchMaxPoints;
+	private final long batchMaxAgeNanos;
 
-	public InfluxDb2PacketSaver(InfluxDb2Properties properties, OkHttpProperties okHttpProperties, NameGetter bucketNameGetter, PacketPoint2Creator pointCreator) {
+	private volatile @Nullable Organization organization = null;
+	private final Map<String, Bucket> bucketCache = new ConcurrentHashMap<>();
+
+	/** A map of bucket names to points waiting to be written to that bucket. Only used if batching is enabled. */
+	private final Map<String, List<Point>> pendingPoints = new LinkedHashMap<>();
+	private int pendingPointCount = 0;
+	private long pendingStartNanos = 0;
+
+	/**
+	 * @param batchMaxPoints The number of points to buffer before writing them, or 0 to write each packet collection right away
+	 * @param batchMaxAge The maximum amount of time a point is buffered before it is written. Only used if {@code batchMaxPoints} is not 0
+	 */
+	public InfluxDb2PacketSaver(InfluxDb2Properties properties, OkHttpProperties okHttpProperties, NameGetter bucketNameGetter, PacketPoint2Creator pointCreator, int batchMaxPoints, Duration batchMaxAge) {
+		if (batchMaxPoints < 0) {
+			throw new IllegalArgumentException("batchMaxPoints cannot be negative! batchMaxPoints=" + batchMaxPoints);
+		}
 		client = createClient(properties, okHttpProperties);
 		this.properties = properties;
 		this.bucketNameGetter = bucketNameGetter;
 		this.pointCreator = pointCreator;
+		this.batchMaxPoints = batchMaxPoints;
+		this.batchMaxAgeNanos = batchMaxAge.toNanos();
+	}
+	public InfluxDb2PacketSaver(InfluxDb2Properties properties, OkHttpProperties okHttpProperties, NameGetter bucketNameGetter, PacketPoint2Creator pointCreator) {
+		this(properties, okHttpProperties, bucketNameGetter, pointCreator, 0, Duration.ZERO);
 	}
 
 	private static InfluxDBClient createClient(InfluxDb2Properties properties, OkHttpProperties okHttpProperties) {
@@ -75,6 +112,10 @@ public class InfluxDb2PacketSaver implements PacketHandler {
 				.enableGzip();
 	}
 	private Organization findOrCreateOrg() throws PacketHandleException {
+		Organization cachedOrganization = organization;
+		if (cachedOrganization != null) {
+			return cachedOrganization;
+		}
 		final List<Organization> organizations;
 		try {
 			organizations = client.getOrganizationsApi().findOrganizations();
@@ -83,17 +124,26 @@ public class InfluxDb2PacketSaver implements PacketHandler {
 		}
 		for (Organization organization : organizations) {
 			if (organization.getName().equals(properties.getOrg())) {
+				this.organization = organization;
 				return organization;
 			}
 		}
+		final Organization createdOrganization;
 		try {
-			return client.getOrganizationsApi().createOrganization(properties.getOrg());
+			createdOrganization = client.getOrganizationsApi().createOrganization(properties.getOrg());
 		} catch (InfluxException ex) {
 			throw new PacketHandleException("Couldn't create organization", ex);
 		}
+		organization = createdOrganization;
+		return createdOrganization;
 	}
-	private Bucket findOrCreateBucket(String name, Organization organization) throws PacketHandleException {
-		final Bucket r;
+	private Bucket findOrCreateBucket(String name) throws PacketHandleException {
+		Bucket cachedBucket = bucketCache.get(name);
+		if (cachedBucket != null) {
+			return cachedBucket;
+		}
+		Organization organization = findOrCreateOrg();
+		Bucket r;
 		try {
 			r = client.getBucketsApi().findBucketByName(name);
 		} catch (InfluxException ex) {
@@ -101,57 +151,107 @@ public class InfluxDb2PacketSaver implements PacketHandler {
 		}
 		if (r == null) {
 			try {
-				return client.getBucketsApi().createBucket(name, organization.getId());
+				r = client.getBucketsApi().createBucket(name, organization.getId());
 			} catch (InfluxException ex) {
 				throw new PacketHandleException("Couldn't create bucket", ex);
 			}
 		}
+		bucketCache.put(name, r);
 		return r;
 	}
+	private void writePoints(String bucketName, List<Point> points) throws PacketHandleException {
+		Bucket bucket = findOrCreateBucket(bucketName);
+		try {
+			client.getWriteApiBlocking().writePoints(bucket.getName(), bucket.getOrgID(), points);
+		} catch (InfluxException exception) {
+			// The bucket or organization may have been deleted or recreated, so we have to look them up again next time
+			bucketCache.remove(bucketName);
+			organization = null;
+			throw new PacketHandleException("Could not write points", exception);
+		}
+	}
 
 	@Override
 	public void handle(PacketCollection packetCollection) throws PacketHandleException {
 		final InstancePacketGroup packetGroup = PacketGroups.parseToInstancePacketGroup(packetCollection, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS);
 		DefaultInstanceOptions.requireNoDefaults(packetGroup);
-		Organization organization = findOrCreateOrg();
-		Bucket bucket = findOrCreateBucket(bucketNameGetter.getName(packetGroup), organization);
+		String bucketName = bucketNameGetter.getName(packetGroup);
 
 		final long time = packetCollection.getDateMillis();
 		List<Point> points = new ArrayList<>();
 		for (Packet packet : packetGroup.getPackets()) {
 			Point point = pointCreator.createBuilder(packet).time(time, WritePrecision.MS);
 
-			Collection<String> tagKeys = PointUtil.getTagKeys(packet.getClass());
-			ObjectNode json = OBJECT_MAPPER.valueToTree(packet);
-			for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(json)) {
-				String key = entry.getKey();
-				ValueNode prim = entry.getValue();
-				if(tagKeys.contains(key)){
-					point.addTag(key, prim.asText());
+			PacketPointSchema.forClass(packet.getClass()).visit(OBJECT_MAPPER, packet, new PacketPointSchema.FieldVisitor() {
+				@Override
+				public void tag(String key, String value) {
+					point.addTag(key, value);
 				}
-				if (prim.isNumber()) {
+
+				@Override
+				public void numberField(String key, Number value) {
 					// always store as float datatype because you can never change the type from int to float easily
-					final Number value;
-					if (prim.isBigDecimal()) {
-						DecimalNode decimal = (DecimalNode) prim;
-						value = decimal.decimalValue();
-					} else {
-						value = prim.asDouble();
-					}
+					point.addField(key, value instanceof BigDecimal ? value : value.doubleValue());
+				}
+
+				@Override
+				public void stringField(String key, String value) {
 					point.addField(key, value);
-				} else if (prim.isTextual() || prim.isBinary()) {
-					point.addField(key, prim.asText());
-				} else if (prim.isBoolean()) {
-					point.addField(key, prim.asBoolean());
-				} else throw new AssertionError("This primitive isn't a number, string/binary or boolean! It's: " + prim + " class: " + prim.getClass() + " text=" + prim.asText());
-			}
+				}
+
+				@Override
+				public void booleanField(String key, boolean value) {
+					point.addField(key, value);
+				}
+			});
 			points.add(point);
 		}
-		try {
-			client.getWriteApiBlocking().writePoints(bucket.getName(), bucket.getOrgID(), points);
-		} catch (InfluxException exception) {
-			throw new PacketHandleException("Could not write points", exception);
+		if (batchMaxPoints == 0) {
+			writePoints(bucketName, points);
+		} else {
+			addToBatch(bucketName, points);
+		}
+	}
+
+	private synchronized void addToBatch(String bucketName, List<Point> points) throws PacketHandleException {
+		long nowNanos = System.nanoTime();
+		if (pendingPointCount == 0) {
+			pendingStartNanos = nowNanos;
+		}
+		pendingPoints.computeIfAbsent(bucketName, k -> new ArrayList<>()).addAll(points);
+		pendingPointCount += points.size();
+		discardExcessPoints();
+		if (pendingPointCount >= batchMaxPoints || nowNanos - pendingStartNanos >= batchMaxAgeNanos) {
+			flush();
+		}
+	}
+	private void discardExcessPoints() {
+		int maxBufferedPoints = batchMaxPoints * MAX_BUFFERED_BATCHES;
+		if (pendingPointCount <= maxBufferedPoints) {
+			return;
+		}
+		int toDiscard = pendingPointCount - maxBufferedPoints;
+		LOGGER.warn("Too many points are waiting to be written. Discarding the " + toDiscard + " oldest points.");
+		for (List<Point> points : pendingPoints.values()) {
+			int discardCount = Math.min(toDiscard, points.size());
+			points.subList(0, discardCount).clear();
+			toDiscard -= discardCount;
+			pendingPointCount -= discardCount;
+		}
+		pendingPoints.values().removeIf(List::isEmpty);
+	}
+
+	/**
+	 * Writes every buffered point. If writing to a bucket fails, the points for that bucket (and any buckets after it) stay buffered.
+	 */
+	private void flush() throws PacketHandleException {
+		for (Iterator<Map.Entry<String, List<Point>>> iterator = pendingPoints.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<String, List<Point>> entry = iterator.next();
+			writePoints(entry.getKey(), entry.getValue());
+			pendingPointCount -= entry.getValue().size();
+			iterator.remove();
 		}
+		pendingStartNanos = System.nanoTime();
 	}
 
 }
@@ -0,0 +1,171 @@
+package me.retrodaredevil.solarthing.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads from an {@link InputStream} on a dedicated thread and stores the bytes in a ring buffer so that another thread can
+ * wait for data with a timeout, even if the {@link InputStream} itself does not support timeouts.
+ * <p>
+ * The reading thread blocks on {@link InputStream#read(byte[])}, so no CPU is used while no data is available.
+ * If the ring buffer is full, the reading thread waits for space rather than dropping bytes.
+ * <p>
+ * Once the stream reaches its end or throws an {@link IOException}, the reading thread stops. Any bytes read before that are
+ * still returned by {@link #read(byte[], long, TimeUnit)}, then the end or the exception is reported. A new instance must be created to read again.
+ */
+public class BackgroundInputStreamReader implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BackgroundInputStreamReader.class);
+	/** The amount of time to wait before reading again if a read did not block and did not return any data */
+	private static final long EMPTY_READ_SLEEP_MILLIS = 10;
+
+	private final InputStream in;
+	private final byte[] ringBuffer;
+	private final Thread thread;
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	/** The index of the next byte to be returned by {@link #read(byte[], long, TimeUnit)}. Guarded by {@link #lock} */
+	private int readIndex = 0;
+	/** The number of bytes in the ring buffer. Guarded by {@link #lock} */
+	private int size = 0;
+	/** Set once the reading thread has stopped. An {@link EOFException} represents the end of the stream. Guarded by {@link #lock} */
+	private IOException endException = null;
+
+	public BackgroundInputStreamReader(InputStream in, int bufferSize, String threadName) {
+		this.in = requireNonNull(in);
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive! bufferSize: " + bufferSize);
+		}
+		ringBuffer = new byte[bufferSize];
+		thread = new Thread(this::run, threadName);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the reading thread. This may only be called once.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	private void run() {
+		byte[] buffer = new byte[ringBuffer.length];
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				int len = in.read(buffer);
+				if (len < 0) {
+					// JSerial implementation ends up returning -1 when disconnected, which isn't the same as the end of the stream
+					int available = in.available();
+					if (available < 0) {
+						throw new IOException("available is " + available + ". (Stream has closed)");
+					}
+					throw new EOFException();
+				}
+				if (len == 0) {
+					// Some streams have a read timeout or do not block at all, so don't spin if that is the case
+					Thread.sleep(EMPTY_READ_SLEEP_MILLIS);
+					continue;
+				}
+				write(buffer, len);
+			}
+			stop(new InterruptedIOException("Reading thread was interrupted"));
+		} catch (IOException e) {
+			stop(e);
+		} catch (InterruptedException e) {
+			InterruptedIOException exception = new InterruptedIOException("Reading thread was interrupted");
+			exception.initCause(e);
+			stop(exception);
+		}
+	}
+
+	private void write(byte[] buffer, int length) throws InterruptedException {
+		int offset = 0;
+		lock.lock();
+		try {
+			while (offset < length) {
+				while (size == ringBuffer.length) {
+					notFull.await();
+				}
+				int writeIndex = (readIndex + size) % ringBuffer.length;
+				int amount = Math.min(length - offset, Math.min(ringBuffer.length - size, ringBuffer.length - writeIndex));
+				System.arraycopy(buffer, offset, ringBuffer, writeIndex, amount);
+				size += amount;
+				offset += amount;
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void stop(IOException exception) {
+		lock.lock();
+		try {
+			endException = exception;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for data to become available, then copies as much as possible into {@code buffer}.
+	 * @param buffer The buffer to copy data into
+	 * @param timeout The maximum amount of time to wait for data
+	 * @param unit The unit of {@code timeout}
+	 * @return The number of bytes copied into {@code buffer}, which is 0 if no data was available before the timeout
+	 * @throws EOFException If the end of the stream was reached and all the data before that has been read
+	 * @throws IOException If reading from the stream threw an exception and all the data before that has been read
+	 * @throws InterruptedException If the current thread was interrupted while waiting
+	 */
+	public int read(byte[] buffer, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		long remainingNanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (size == 0) {
+				if (endException != null) {
+					if (endException instanceof EOFException) {
+						throw new EOFException();
+					}
+					throw new IOException("Could not read from the stream", endException);
+				}
+				if (remainingNanos <= 0) {
+					return 0;
+				}
+				remainingNanos = notEmpty.awaitNanos(remainingNanos);
+			}
+			int amount = Math.min(buffer.length, size);
+			int firstAmount = Math.min(amount, ringBuffer.length - readIndex);
+			System.arraycopy(ringBuffer, readIndex, buffer, 0, firstAmount);
+			System.arraycopy(ringBuffer, 0, buffer, firstAmount, amount - firstAmount);
+			readIndex = (readIndex + amount) % ringBuffer.length;
+			size -= amount;
+			notFull.signal();
+			return amount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Interrupts the reading thread. Note that many streams do not respond to interrupts, in which case the thread stops after its next read.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+		LOGGER.debug("Closed background reader " + thread.getName());
+	}
+}
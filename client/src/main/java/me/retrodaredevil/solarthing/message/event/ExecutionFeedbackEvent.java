@@ -7,12 +7,21 @@ import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
 import me.retrodaredevil.solarthing.type.event.feedback.ExecutionFeedbackPacket;
 
+import java.util.Set;
+
 @JsonTypeName("feedback")
 public class ExecutionFeedbackEvent implements MessageEvent {
+	private static final Set<Class<? extends Packet>> EVENT_PACKET_TYPES = Set.of(ExecutionFeedbackPacket.class);
+
 	@JsonCreator
 	public ExecutionFeedbackEvent() {
 	}
 
+	@Override
+	public Set<Class<? extends Packet>> getEventPacketTypes() {
+		return EVENT_PACKET_TYPES;
+	}
+
 	@Override
 	public void runForEvent(MessageSender sender, InstancePacketGroup packetGroup) {
 		for (Packet packet : packetGroup.getPackets()) {
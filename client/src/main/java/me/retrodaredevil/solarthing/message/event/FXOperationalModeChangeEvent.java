@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import me.retrodaredevil.solarthing.message.MessageSender;
+import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
 import me.retrodaredevil.solarthing.solar.outback.OutbackUtil;
 import me.retrodaredevil.solarthing.solar.outback.fx.FXStatusPacket;
@@ -11,9 +12,12 @@ import me.retrodaredevil.solarthing.solar.outback.fx.OperationalMode;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 @JsonTypeName("fxchange")
 public class FXOperationalModeChangeEvent implements MessageEvent {
+	private static final Set<Class<? extends Packet>> STATUS_PACKET_TYPES = Set.of(FXStatusPacket.class);
+
 	private final List<OperationalMode> changeTo;
 	private final List<OperationalMode> changeFrom;
 
@@ -26,6 +30,11 @@ public class FXOperationalModeChangeEvent implements MessageEvent {
 		this.changeFrom = changeFrom == null ? Collections.emptyList() : changeFrom;
 	}
 
+	@Override
+	public Set<Class<? extends Packet>> getStatusPacketTypes() {
+		return STATUS_PACKET_TYPES;
+	}
+
 	@Override
 	public void run(MessageSender sender, FragmentedPacketGroup previous, FragmentedPacketGroup current) {
 		FXStatusPacket previousFX = OutbackUtil.getMasterFX(previous);
@@ -2,15 +2,25 @@ package me.retrodaredevil.solarthing.message.event;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import me.retrodaredevil.solarthing.message.MessageSender;
+import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
 import me.retrodaredevil.solarthing.solar.outback.OutbackUtil;
 import me.retrodaredevil.solarthing.solar.outback.fx.ACMode;
 import me.retrodaredevil.solarthing.solar.outback.fx.FXStatusPacket;
 
+import java.util.Set;
+
 @JsonTypeName("generatorstate")
 public class GeneratorStateEvent implements MessageEvent {
+	private static final Set<Class<? extends Packet>> STATUS_PACKET_TYPES = Set.of(FXStatusPacket.class);
+
 	private Boolean generatorOn = null;
 
+	@Override
+	public Set<Class<? extends Packet>> getStatusPacketTypes() {
+		return STATUS_PACKET_TYPES;
+	}
+
 	@Override
 	public void run(MessageSender sender, FragmentedPacketGroup previous, FragmentedPacketGroup current) {
 		FXStatusPacket fx = OutbackUtil.getMasterFX(current);
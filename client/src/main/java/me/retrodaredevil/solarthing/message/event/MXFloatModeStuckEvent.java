@@ -18,6 +18,7 @@ import org.slf4j.LoggerFactory;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This event is useful for MX charge controllers with older firmware where they will be "stuck" in float mode once
@@ -29,6 +30,7 @@ import java.util.Map;
 @JsonTypeName("mxfloatstuck")
 public class MXFloatModeStuckEvent implements MessageEvent {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MXFloatModeStuckEvent.class);
+	private static final Set<Class<? extends Packet>> STATUS_PACKET_TYPES = Set.of(MXStatusPacket.class);
 
 	private final Map<IdentifierFragment, Boolean> enabledMap = new HashMap<>();
 	/** Map of {@link IdentifierFragment} to nano second values relative to a nanoTime() call */
@@ -43,6 +45,11 @@ public class MXFloatModeStuckEvent implements MessageEvent {
 		this.timeout = Duration.parse(timeoutDurationString);
 	}
 
+	@Override
+	public Set<Class<? extends Packet>> getStatusPacketTypes() {
+		return STATUS_PACKET_TYPES;
+	}
+
 	@Override
 	public void run(MessageSender sender, FragmentedPacketGroup previous, FragmentedPacketGroup current) {
 		for (Packet previousPacket : previous.getPackets()) {
@@ -2,10 +2,15 @@ package me.retrodaredevil.solarthing.message.event;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.message.MessageSender;
+import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
 
+import java.util.Collections;
+import java.util.Set;
+
 @JsonSubTypes({
 		@JsonSubTypes.Type(LowBatteryVoltageEvent.class),
 		@JsonSubTypes.Type(FXOperationalModeChangeEvent.class),
@@ -23,4 +28,19 @@ import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
 public interface MessageEvent {
 	default void run(MessageSender sender, FragmentedPacketGroup previous, FragmentedPacketGroup current) {}
 	default void runForEvent(MessageSender sender, InstancePacketGroup packetGroup) {}
+
+	/**
+	 * If this returns a non-null value, {@link #run(MessageSender, FragmentedPacketGroup, FragmentedPacketGroup)} is only called when the current packet group
+	 * contains a packet that is an instance of one of the returned types. Only return a non-null value if {@link #run(MessageSender, FragmentedPacketGroup, FragmentedPacketGroup)}
+	 * does nothing when the current packet group does not contain any of these packets.
+	 * @return The types of status packets {@link #run(MessageSender, FragmentedPacketGroup, FragmentedPacketGroup)} needs, or null if it should be called for every new packet group
+	 */
+	default @Nullable Set<Class<? extends Packet>> getStatusPacketTypes() { return null; }
+
+	/**
+	 * {@link #runForEvent(MessageSender, InstancePacketGroup)} is only called for packet groups that contain a packet that is an instance of one of the returned types.
+	 * Implementations that override {@link #runForEvent(MessageSender, InstancePacketGroup)} must override this.
+	 * @return The types of event packets {@link #runForEvent(MessageSender, InstancePacketGroup)} needs
+	 */
+	default Set<Class<? extends Packet>> getEventPacketTypes() { return Collections.emptySet(); }
 }
@@ -13,12 +13,19 @@ import me.retrodaredevil.solarthing.util.heartbeat.HeartbeatNode;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 @JsonTypeName("noheartbeat")
 public class NoHeartbeatEvent implements MessageEvent {
+	private static final Set<Class<? extends Packet>> EVENT_PACKET_TYPES = Set.of(HeartbeatPacket.class);
 
 	private final Map<HeartbeatIdentifier, HeartbeatNode> map = new HashMap<>();
 
+	@Override
+	public Set<Class<? extends Packet>> getEventPacketTypes() {
+		return EVENT_PACKET_TYPES;
+	}
+
 	@Override
 	public void run(MessageSender sender, FragmentedPacketGroup previous, FragmentedPacketGroup current) {
 		// We aren't using this method to compare status packets, we're just using this method as a hook
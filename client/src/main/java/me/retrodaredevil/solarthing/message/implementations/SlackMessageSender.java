@@ -7,16 +7,19 @@ import com.slack.api.Slack;
 import com.slack.api.SlackConfig;
 import com.slack.api.methods.MethodsClient;
 import com.slack.api.methods.SlackApiException;
+import com.slack.api.methods.response.chat.ChatPostMessageResponse;
 import com.slack.api.util.http.SlackHttpClient;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.message.MessageSender;
+import me.retrodaredevil.solarthing.message.queue.DeliveryResult;
+import me.retrodaredevil.solarthing.message.queue.MessageQueueSettings;
+import me.retrodaredevil.solarthing.message.queue.OutboundMessageQueue;
+import me.retrodaredevil.solarthing.message.queue.OutboundMessageQueueRegistry;
 import okhttp3.OkHttpClient;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.time.Duration;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
 
 import static java.util.Objects.requireNonNull;
 
@@ -26,20 +29,49 @@ public class SlackMessageSender implements MessageSender {
 	When setting up in Slack, make sure your bot has the "chat:write" permission and "chat:write.public" permission
 	 */
 
-	private static final Logger LOGGER = LoggerFactory.getLogger(SlackMessageSender.class);
+	/** Used when Slack says we are rate limited, but does not tell us how long to wait */
+	private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(30);
+	/** Errors from chat.postMessage that will not go away if we try again. https://api.slack.com/methods/chat.postMessage#errors */
+	private static final Set<String> PERMANENT_ERRORS = Set.of(
+			"channel_not_found", "not_in_channel", "is_archived", "msg_too_long", "no_text",
+			"invalid_auth", "not_authed", "account_inactive", "token_revoked", "missing_scope", "restricted_action"
+	);
 
-	private final String channelId;
-	private final MethodsClient methodsClient;
-	private final ExecutorService executorService = Executors.newSingleThreadExecutor();
-	public SlackMessageSender(String authToken, String channelId, Slack slack) {
+	private final OutboundMessageQueue queue;
+	private final boolean deduplicate;
+
+	/**
+	 * Every {@link SlackMessageSender} with the same token and channel in {@code registry} shares a single queue,
+	 * so they share rate limits and only one of them delivers saved messages.
+	 *
+	 * @param queueSettings The settings of the queue, or null to use the settings of an existing queue for this channel
+	 * @param deduplicate false if identical messages sent by this sender should not be de-duplicated. Useful for replies, where the same reply may be expected many times in a row.
+	 * @param registry The registry to get the queue for this channel from
+	 */
+	public SlackMessageSender(String authToken, String channelId, Slack slack, @Nullable MessageQueueSettings queueSettings, boolean deduplicate, OutboundMessageQueueRegistry registry) {
 		requireNonNull(authToken);
-		requireNonNull(this.channelId = channelId);
+		requireNonNull(channelId);
 		requireNonNull(slack);
-		methodsClient = slack.methods(authToken);
+		this.deduplicate = deduplicate;
+		queue = registry.getQueue(
+				"slack:" + authToken + ":" + channelId,
+				"slack-" + channelId,
+				queueSettings,
+				() -> {
+					MethodsClient methodsClient = slack.methods(authToken);
+					return message -> post(methodsClient, channelId, message);
+				}
+		);
+	}
+	public SlackMessageSender(String authToken, String channelId, Slack slack) {
+		this(authToken, channelId, slack, null, true, OutboundMessageQueueRegistry.getDefault());
 	}
 
 	@JsonCreator
-	public SlackMessageSender(@JsonProperty("token") String authToken, @JsonProperty("channel_id") String channelId) {
+	public SlackMessageSender(
+			@JsonProperty("token") String authToken,
+			@JsonProperty("channel_id") String channelId,
+			@JsonProperty("queue") @Nullable MessageQueueSettings queueSettings) {
 		this(
 				authToken,
 				channelId,
@@ -47,40 +79,55 @@ public class SlackMessageSender implements MessageSender {
 						.callTimeout(Duration.ofSeconds(10))
 						.connectTimeout(Duration.ofSeconds(4))
 //						.addInterceptor(new UserAgentInterceptor(Collections.emptyMap()))
-						.build()))
+						.build())),
+				queueSettings,
+				true,
+				OutboundMessageQueueRegistry.getDefault()
 		);
 	}
 
 	@Override
 	public void sendMessage(String message) {
-		send(message, 0);
+		queue.sendMessage(message, deduplicate);
 	}
-	private void send(String message, int depth) {
-		if (depth >= 5) {
-			LOGGER.error("We tried sending '" + message + "' 5 times! Won't try again!");
-			return;
-		}
-		executorService.execute(() -> {
-			if (depth > 0) {
-				// If we've failed before, start waiting a tiny bit longer before doing another request.
-				//   This will also stop other messages from being sent, but that's OK because if we failed for some reason, we don't need other messages being sent. They can wait too.
-				try {
-					if (depth == 4) {
-						Thread.sleep(7000); // if we're about to fail for the last time, just wait a bit longer
-					} else {
-						Thread.sleep(depth * 700L);
-					}
-				} catch (InterruptedException e) {
-					LOGGER.error("Interrupted", e);
-					return;
-				}
-			}
-			try {
-				methodsClient.chatPostMessage(req -> req.channel(channelId).text(message));
-			} catch (IOException | SlackApiException e) {
-				LOGGER.error("Could not connect to slack. We tried to send: '" + message + "'.", e);
-				send(message, depth + 1);
+
+	public OutboundMessageQueue.Statistics getQueueStatistics() {
+		return queue.getStatistics();
+	}
+
+	private static DeliveryResult post(MethodsClient methodsClient, String channelId, String message) {
+		final ChatPostMessageResponse response;
+		try {
+			response = methodsClient.chatPostMessage(req -> req.channel(channelId).text(message));
+		} catch (SlackApiException e) {
+			if (e.getResponse().code() == 429) {
+				return DeliveryResult.rateLimited(parseRetryAfter(e.getResponse().header("Retry-After")));
 			}
-		});
+			return DeliveryResult.failed("Got status code " + e.getResponse().code() + " from slack", e);
+		} catch (IOException e) {
+			return DeliveryResult.failed("Could not connect to slack", e);
+		}
+		if (response.isOk()) {
+			return DeliveryResult.success();
+		}
+		String error = response.getError();
+		if ("ratelimited".equals(error)) {
+			return DeliveryResult.rateLimited(DEFAULT_RETRY_AFTER);
+		}
+		if (PERMANENT_ERRORS.contains(error)) {
+			return DeliveryResult.rejected("Slack responded with error: " + error);
+		}
+		return DeliveryResult.failed("Slack responded with error: " + error, null);
+	}
+
+	private static Duration parseRetryAfter(@Nullable String retryAfter) {
+		if (retryAfter == null) {
+			return DEFAULT_RETRY_AFTER;
+		}
+		try {
+			return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+		} catch (NumberFormatException e) {
+			return DEFAULT_RETRY_AFTER;
+		}
 	}
 }
@@ -0,0 +1,77 @@
+package me.retrodaredevil.solarthing.message.queue;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The result of a {@link MessageDelivery}
+ */
+public final class DeliveryResult {
+	private static final DeliveryResult SUCCESS = new DeliveryResult(Type.SUCCESS, null, null, null);
+
+	private final Type type;
+	private final @Nullable Duration retryAfter;
+	private final @Nullable String reason;
+	private final @Nullable Exception exception;
+
+	private DeliveryResult(Type type, @Nullable Duration retryAfter, @Nullable String reason, @Nullable Exception exception) {
+		this.type = type;
+		this.retryAfter = retryAfter;
+		this.reason = reason;
+		this.exception = exception;
+	}
+
+	public static DeliveryResult success() {
+		return SUCCESS;
+	}
+
+	/**
+	 * @param retryAfter The amount of time the service asked us to wait before trying again
+	 */
+	public static DeliveryResult rateLimited(Duration retryAfter) {
+		return new DeliveryResult(Type.RATE_LIMITED, requireNonNull(retryAfter), "Rate limited", null);
+	}
+
+	/**
+	 * The message could not be delivered, but may be delivered if it is tried again later
+	 */
+	public static DeliveryResult failed(String reason, @Nullable Exception exception) {
+		return new DeliveryResult(Type.FAILED, null, requireNonNull(reason), exception);
+	}
+
+	/**
+	 * The message was not accepted and will never be accepted, so it should not be tried again
+	 */
+	public static DeliveryResult rejected(String reason) {
+		return new DeliveryResult(Type.REJECTED, null, requireNonNull(reason), null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return The amount of time to wait before trying again. Only non-null for {@link Type#RATE_LIMITED}
+	 */
+	public @Nullable Duration getRetryAfter() {
+		return retryAfter;
+	}
+
+	public @Nullable String getReason() {
+		return reason;
+	}
+
+	public @Nullable Exception getException() {
+		return exception;
+	}
+
+	public enum Type {
+		SUCCESS,
+		RATE_LIMITED,
+		FAILED,
+		REJECTED,
+	}
+}
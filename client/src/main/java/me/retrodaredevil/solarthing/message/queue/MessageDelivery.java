@@ -0,0 +1,14 @@
+package me.retrodaredevil.solarthing.message.queue;
+
+/**
+ * Delivers a single message to a service, such as a Slack channel
+ */
+@FunctionalInterface
+public interface MessageDelivery {
+	/**
+	 * Delivers {@code message}. This may block.
+	 * @param message The message to deliver
+	 * @return The result of the delivery. This should describe failures rather than throwing an exception.
+	 */
+	DeliveryResult deliver(String message);
+}
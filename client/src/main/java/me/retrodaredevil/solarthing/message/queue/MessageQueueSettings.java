@@ -0,0 +1,115 @@
+package me.retrodaredevil.solarthing.message.queue;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings for an {@link OutboundMessageQueue}
+ */
+public final class MessageQueueSettings {
+	private static final Duration DEFAULT_COALESCE_WINDOW = Duration.ofSeconds(2);
+	private static final Duration DEFAULT_DUPLICATE_WINDOW = Duration.ofMinutes(10);
+	/** Slack allows about one message per second in a channel */
+	private static final Duration DEFAULT_MIN_INTERVAL = Duration.ofSeconds(1);
+	private static final Duration DEFAULT_MAX_AGE = Duration.ofDays(1);
+	private static final int DEFAULT_MAX_MESSAGE_LENGTH = 3000;
+
+	public static final MessageQueueSettings DEFAULT = new MessageQueueSettings(null, null, null, null, null, null);
+
+	private final @Nullable Path file;
+	private final Duration coalesceWindow;
+	private final Duration duplicateWindow;
+	private final Duration minInterval;
+	private final Duration maxAge;
+	private final int maxMessageLength;
+
+	@JsonCreator
+	public MessageQueueSettings(
+			@JsonProperty("file") @Nullable Path file,
+			@JsonProperty("coalesce_window") @Nullable Duration coalesceWindow,
+			@JsonProperty("duplicate_window") @Nullable Duration duplicateWindow,
+			@JsonProperty("min_interval") @Nullable Duration minInterval,
+			@JsonProperty("max_age") @Nullable Duration maxAge,
+			@JsonProperty("max_message_length") @Nullable Integer maxMessageLength) {
+		this.file = file;
+		this.coalesceWindow = coalesceWindow == null ? DEFAULT_COALESCE_WINDOW : coalesceWindow;
+		this.duplicateWindow = duplicateWindow == null ? DEFAULT_DUPLICATE_WINDOW : duplicateWindow;
+		this.minInterval = minInterval == null ? DEFAULT_MIN_INTERVAL : minInterval;
+		this.maxAge = maxAge == null ? DEFAULT_MAX_AGE : maxAge;
+		this.maxMessageLength = maxMessageLength == null ? DEFAULT_MAX_MESSAGE_LENGTH : maxMessageLength;
+		if (this.coalesceWindow.isNegative() || this.duplicateWindow.isNegative() || this.minInterval.isNegative()) {
+			throw new IllegalArgumentException("coalesce_window, duplicate_window, and min_interval cannot be negative!");
+		}
+		if (this.maxAge.isNegative() || this.maxAge.isZero()) {
+			throw new IllegalArgumentException("max_age must be positive!");
+		}
+		if (this.maxMessageLength <= 0) {
+			throw new IllegalArgumentException("max_message_length must be > 0!");
+		}
+	}
+
+	/**
+	 * @return The file that undelivered messages are saved to, or null if they are not saved. Only one queue may use a file at a time.
+	 */
+	public @Nullable Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The amount of time to wait after a message is queued before delivering it, so that messages queued soon after are delivered with it
+	 */
+	public Duration getCoalesceWindow() {
+		return coalesceWindow;
+	}
+
+	/**
+	 * @return The amount of time after a message is delivered that an identical message is not delivered again. Zero to never de-duplicate messages.
+	 */
+	public Duration getDuplicateWindow() {
+		return duplicateWindow;
+	}
+
+	/**
+	 * @return The minimum amount of time between deliveries
+	 */
+	public Duration getMinInterval() {
+		return minInterval;
+	}
+
+	/**
+	 * @return The amount of time a message is retried for before it is dropped
+	 */
+	public Duration getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * @return The maximum length of a delivery made of multiple messages. A single message longer than this is still delivered by itself.
+	 */
+	public int getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		MessageQueueSettings that = (MessageQueueSettings) o;
+		return maxMessageLength == that.maxMessageLength &&
+				Objects.equals(file, that.file) &&
+				coalesceWindow.equals(that.coalesceWindow) &&
+				duplicateWindow.equals(that.duplicateWindow) &&
+				minInterval.equals(that.minInterval) &&
+				maxAge.equals(that.maxAge);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(file, coalesceWindow, duplicateWindow, minInterval, maxAge, maxMessageLength);
+	}
+}
@@ -0,0 +1,398 @@
+package me.retrodaredevil.solarthing.message.queue;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.message.MessageSender;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link MessageSender} that queues messages and delivers them in order on a background thread using a {@link MessageDelivery}.
+ * <p>
+ * Messages are not delivered until the coalesce window has passed, so messages that are queued close together are joined into a single delivery.
+ * A message that is identical to an undelivered message, or to a message delivered within the duplicate window, is not delivered again.
+ * Instead, the undelivered message notes how many times it was repeated.
+ * <p>
+ * Deliveries are made no more often than the minimum interval. When the {@link MessageDelivery} is rate limited, nothing is delivered until
+ * the requested amount of time has passed. Failed deliveries are retried with an exponential back off until the message is older than the maximum age.
+ * Waiting never blocks the thread queuing messages or the thread delivering them.
+ * <p>
+ * If {@link MessageQueueSettings#getFile()} is set, undelivered messages are saved to that file so they can be delivered after a restart.
+ * <p>
+ * This is thread safe.
+ */
+public class OutboundMessageQueue implements MessageSender, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(OutboundMessageQueue.class);
+	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
+	private static final TypeReference<List<SavedMessage>> SAVED_MESSAGES_TYPE = new TypeReference<>() {};
+	private static final long INITIAL_BACK_OFF_MILLIS = 1000;
+	private static final long MAX_BACK_OFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	/** The maximum number of undelivered messages. When there are more than this, the oldest are dropped. */
+	private static final int MAX_QUEUE_SIZE = 1000;
+
+	private final String name;
+	private final MessageDelivery delivery;
+	private final MessageQueueSettings settings;
+	private final ScheduledExecutorService executor;
+
+	private final Object lock = new Object();
+	// all of these fields are guarded by lock
+	private final Deque<QueuedMessage> queue = new ArrayDeque<>();
+	/** The messages that are currently being delivered */
+	private final List<QueuedMessage> inFlight = new ArrayList<>();
+	/** Every message in {@link #queue} and {@link #inFlight}, keyed by its text */
+	private final Map<String, QueuedMessage> undeliveredMap = new HashMap<>();
+	/** The time each recently delivered message was delivered, in the order they were delivered */
+	private final Map<String, Long> recentlyDeliveredMap = new LinkedHashMap<>();
+	private long nextDeliveryMillis = 0;
+	private int consecutiveFailureCount = 0;
+	private @Nullable ScheduledFuture<?> scheduledFlush = null;
+	private long scheduledFlushMillis = 0;
+	private long deliveredCount = 0;
+	private long deliveryCount = 0;
+	private long duplicateCount = 0;
+	private long droppedCount = 0;
+
+	/**
+	 * @param name The name of this queue, used for logging and the name of its thread
+	 * @param delivery Used to deliver messages. Only called on this queue's thread.
+	 * @param settings The settings for this queue
+	 */
+	public OutboundMessageQueue(String name, MessageDelivery delivery, MessageQueueSettings settings) {
+		this.name = requireNonNull(name);
+		this.delivery = requireNonNull(delivery);
+		this.settings = requireNonNull(settings);
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "message-queue-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+		synchronized (lock) {
+			load();
+			schedule();
+		}
+	}
+
+	@Override
+	public void sendMessage(String message) {
+		sendMessage(message, true);
+	}
+
+	/**
+	 * @param message The message to queue
+	 * @param deduplicate true if the message should not be delivered when it is identical to an undelivered or recently delivered message.
+	 *                    This is ignored if the duplicate window is zero.
+	 */
+	public void sendMessage(String message, boolean deduplicate) {
+		requireNonNull(message);
+		long nowMillis = System.currentTimeMillis();
+		synchronized (lock) {
+			if (deduplicate && !settings.getDuplicateWindow().isZero()) {
+				QueuedMessage undelivered = undeliveredMap.get(message);
+				if (undelivered != null) {
+					undelivered.repeatCount++;
+					duplicateCount++;
+					save();
+					return;
+				}
+				Long deliveredMillis = recentlyDeliveredMap.get(message);
+				if (deliveredMillis != null && nowMillis - deliveredMillis < settings.getDuplicateWindow().toMillis()) {
+					duplicateCount++;
+					LOGGER.debug(name + " recently delivered '" + message + "', so it will not be delivered again");
+					return;
+				}
+			}
+			QueuedMessage queuedMessage = new QueuedMessage(message, nowMillis, 1);
+			queue.addLast(queuedMessage);
+			undeliveredMap.put(message, queuedMessage);
+			while (queue.size() + inFlight.size() > MAX_QUEUE_SIZE && !queue.isEmpty()) {
+				QueuedMessage dropped = queue.removeFirst();
+				removeUndelivered(dropped);
+				droppedCount++;
+				LOGGER.error(name + " has too many undelivered messages! Dropping: '" + dropped.text + "'");
+			}
+			save();
+			schedule();
+		}
+	}
+
+	/** Makes sure a flush is scheduled for the next time a delivery can be made. Must be called while holding the lock. */
+	private void schedule() {
+		QueuedMessage oldest = queue.peekFirst();
+		if (oldest == null || !inFlight.isEmpty() || executor.isShutdown()) {
+			return;
+		}
+		long flushMillis = Math.max(nextDeliveryMillis, oldest.queuedMillis + settings.getCoalesceWindow().toMillis());
+		if (scheduledFlush != null) {
+			if (scheduledFlushMillis <= flushMillis) {
+				return;
+			}
+			scheduledFlush.cancel(false);
+		}
+		scheduledFlushMillis = flushMillis;
+		scheduledFlush = executor.schedule(this::flush, Math.max(0, flushMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+	}
+
+	private void flush() {
+		final String text;
+		synchronized (lock) {
+			scheduledFlush = null;
+			long nowMillis = System.currentTimeMillis();
+			dropExpired(nowMillis);
+			QueuedMessage oldest = queue.peekFirst();
+			if (oldest == null) {
+				return;
+			}
+			if (nowMillis < nextDeliveryMillis || nowMillis < oldest.queuedMillis + settings.getCoalesceWindow().toMillis()) {
+				schedule();
+				return;
+			}
+			StringBuilder builder = new StringBuilder();
+			while (!queue.isEmpty()) {
+				String messageText = queue.peekFirst().getDeliveryText();
+				if (builder.length() > 0 && builder.length() + 1 + messageText.length() > settings.getMaxMessageLength()) {
+					break;
+				}
+				if (builder.length() > 0) {
+					builder.append('\n');
+				}
+				builder.append(messageText);
+				inFlight.add(queue.removeFirst());
+			}
+			text = builder.toString();
+		}
+		DeliveryResult result;
+		try {
+			result = requireNonNull(delivery.deliver(text));
+		} catch (RuntimeException e) {
+			result = DeliveryResult.failed("Got unexpected exception", e);
+		}
+		synchronized (lock) {
+			handleResult(result, System.currentTimeMillis());
+			inFlight.clear();
+			save();
+			schedule();
+		}
+	}
+
+	private void handleResult(DeliveryResult result, long nowMillis) {
+		switch (result.getType()) {
+			case SUCCESS:
+				for (QueuedMessage message : inFlight) {
+					removeUndelivered(message);
+					recentlyDeliveredMap.remove(message.text); // so that the message moves to the end
+					recentlyDeliveredMap.put(message.text, nowMillis);
+				}
+				long duplicateWindowMillis = settings.getDuplicateWindow().toMillis();
+				for (Iterator<Long> it = recentlyDeliveredMap.values().iterator(); it.hasNext(); ) {
+					if (nowMillis - it.next() < duplicateWindowMillis) {
+						break;
+					}
+					it.remove();
+				}
+				deliveredCount += inFlight.size();
+				deliveryCount++;
+				consecutiveFailureCount = 0;
+				nextDeliveryMillis = nowMillis + settings.getMinInterval().toMillis();
+				break;
+			case RATE_LIMITED:
+				Duration retryAfter = requireNonNull(result.getRetryAfter());
+				LOGGER.warn(name + " was rate limited. Waiting " + retryAfter + " before delivering " + (queue.size() + inFlight.size()) + " messages.");
+				requeueInFlight();
+				nextDeliveryMillis = nowMillis + Math.max(retryAfter.toMillis(), settings.getMinInterval().toMillis());
+				break;
+			case FAILED:
+				consecutiveFailureCount++;
+				long backOffMillis = Math.min(MAX_BACK_OFF_MILLIS, INITIAL_BACK_OFF_MILLIS << Math.min(20, consecutiveFailureCount - 1));
+				LOGGER.error(name + " could not deliver " + inFlight.size() + " messages. Reason: " + result.getReason() + ". Trying again in " + backOffMillis + "ms", result.getException());
+				requeueInFlight();
+				nextDeliveryMillis = nowMillis + backOffMillis;
+				break;
+			case REJECTED:
+				for (QueuedMessage message : inFlight) {
+					removeUndelivered(message);
+					LOGGER.error(name + " could not deliver '" + message.text + "' and will not try again. Reason: " + result.getReason());
+				}
+				droppedCount += inFlight.size();
+				nextDeliveryMillis = nowMillis + settings.getMinInterval().toMillis();
+				break;
+			default:
+				throw new AssertionError("Unknown type: " + result.getType());
+		}
+	}
+
+	private void requeueInFlight() {
+		for (int i = inFlight.size() - 1; i >= 0; i--) {
+			queue.addFirst(inFlight.get(i));
+		}
+	}
+
+	private void dropExpired(long nowMillis) {
+		long maxAgeMillis = settings.getMaxAge().toMillis();
+		while (!queue.isEmpty() && nowMillis - queue.peekFirst().queuedMillis > maxAgeMillis) {
+			QueuedMessage expired = queue.removeFirst();
+			removeUndelivered(expired);
+			droppedCount++;
+			LOGGER.error(name + " could not deliver '" + expired.text + "' within " + settings.getMaxAge() + ". Won't try again!");
+		}
+	}
+
+	private void removeUndelivered(QueuedMessage message) {
+		undeliveredMap.remove(message.text, message);
+	}
+
+	private void load() {
+		Path file = settings.getFile();
+		if (file == null) {
+			return;
+		}
+		final List<SavedMessage> savedMessages;
+		try {
+			savedMessages = MAPPER.readValue(Files.readAllBytes(file), SAVED_MESSAGES_TYPE);
+		} catch (NoSuchFileException e) {
+			return;
+		} catch (IOException e) {
+			LOGGER.error(name + " could not load undelivered messages from " + file + ". Starting with no messages.", e);
+			return;
+		}
+		for (SavedMessage savedMessage : savedMessages) {
+			QueuedMessage queuedMessage = new QueuedMessage(savedMessage.text, savedMessage.queuedMillis, savedMessage.repeatCount);
+			queue.addLast(queuedMessage);
+			undeliveredMap.put(queuedMessage.text, queuedMessage);
+		}
+		if (!savedMessages.isEmpty()) {
+			LOGGER.info(name + " loaded " + savedMessages.size() + " undelivered messages from " + file);
+		}
+	}
+
+	/** Saves every undelivered message, if there is a file to save to. Must be called while holding the lock. */
+	private void save() {
+		Path file = settings.getFile();
+		if (file == null) {
+			return;
+		}
+		List<SavedMessage> savedMessages = new ArrayList<>(inFlight.size() + queue.size());
+		for (QueuedMessage message : inFlight) {
+			savedMessages.add(new SavedMessage(message.text, message.queuedMillis, message.repeatCount));
+		}
+		for (QueuedMessage message : queue) {
+			savedMessages.add(new SavedMessage(message.text, message.queuedMillis, message.repeatCount));
+		}
+		Path temporaryPath = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(temporaryPath, MAPPER.writeValueAsBytes(savedMessages));
+			Files.move(temporaryPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.error(name + " could not save undelivered messages to " + file, e);
+		}
+	}
+
+	public Statistics getStatistics() {
+		synchronized (lock) {
+			return new Statistics(queue.size() + inFlight.size(), deliveredCount, deliveryCount, duplicateCount, droppedCount);
+		}
+	}
+
+	/**
+	 * Stops delivering messages. Undelivered messages are kept in the file, if there is one.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private static final class QueuedMessage {
+		private final String text;
+		private final long queuedMillis;
+		private int repeatCount;
+
+		private QueuedMessage(String text, long queuedMillis, int repeatCount) {
+			this.text = text;
+			this.queuedMillis = queuedMillis;
+			this.repeatCount = repeatCount;
+		}
+
+		private String getDeliveryText() {
+			return repeatCount <= 1 ? text : text + " (repeated " + repeatCount + " times)";
+		}
+	}
+
+	private static final class SavedMessage {
+		@JsonProperty("text")
+		private final String text;
+		@JsonProperty("queued_millis")
+		private final long queuedMillis;
+		@JsonProperty("repeat_count")
+		private final int repeatCount;
+
+		@JsonCreator
+		private SavedMessage(
+				@JsonProperty(value = "text", required = true) String text,
+				@JsonProperty(value = "queued_millis", required = true) long queuedMillis,
+				@JsonProperty("repeat_count") int repeatCount) {
+			this.text = requireNonNull(text);
+			this.queuedMillis = queuedMillis;
+			this.repeatCount = Math.max(1, repeatCount);
+		}
+	}
+
+	public static final class Statistics {
+		private final int undeliveredCount;
+		private final long deliveredCount;
+		private final long deliveryCount;
+		private final long duplicateCount;
+		private final long droppedCount;
+
+		private Statistics(int undeliveredCount, long deliveredCount, long deliveryCount, long duplicateCount, long droppedCount) {
+			this.undeliveredCount = undeliveredCount;
+			this.deliveredCount = deliveredCount;
+			this.deliveryCount = deliveryCount;
+			this.duplicateCount = duplicateCount;
+			this.droppedCount = droppedCount;
+		}
+
+		public int getUndeliveredCount() { return undeliveredCount; }
+		/** @return The number of messages that were delivered */
+		public long getDeliveredCount() { return deliveredCount; }
+		/** @return The number of successful deliveries. This is less than {@link #getDeliveredCount()} when messages are joined together. */
+		public long getDeliveryCount() { return deliveryCount; }
+		/** @return The number of messages that were not delivered because they were identical to another message */
+		public long getDuplicateCount() { return duplicateCount; }
+		/** @return The number of messages that were given up on */
+		public long getDroppedCount() { return droppedCount; }
+
+		@Override
+		public String toString() {
+			return "undelivered: " + undeliveredCount +
+					" delivered: " + deliveredCount +
+					" deliveries: " + deliveryCount +
+					" duplicates: " + duplicateCount +
+					" dropped: " + droppedCount;
+		}
+	}
+}
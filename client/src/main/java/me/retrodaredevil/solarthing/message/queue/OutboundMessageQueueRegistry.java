@@ -0,0 +1,79 @@
+package me.retrodaredevil.solarthing.message.queue;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps a single {@link OutboundMessageQueue} for each destination, so that everything that sends to a destination
+ * shares the same rate limits, back off, and persistence file.
+ * <p>
+ * Queues are never removed from a registry. This is thread safe.
+ */
+public final class OutboundMessageQueueRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(OutboundMessageQueueRegistry.class);
+	private static final OutboundMessageQueueRegistry DEFAULT = new OutboundMessageQueueRegistry();
+
+	private final Map<String, RegisteredQueue> queueMap = new HashMap<>();
+	/** The key of the queue that owns each persistence file */
+	private final Map<Path, String> fileOwnerMap = new HashMap<>();
+
+	/**
+	 * @return The registry shared by the whole process
+	 */
+	public static OutboundMessageQueueRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Gets the queue for {@code key}, creating it if it does not exist yet.
+	 * <p>
+	 * If the queue already exists, {@code deliveryCreator} is not called and the queue keeps the settings it was created with.
+	 *
+	 * @param key Identifies the destination. May contain secrets, as it is never logged.
+	 * @param name The name of the queue, used for logging
+	 * @param settings The settings to create the queue with, or null to use the settings of the existing queue (or the default settings)
+	 * @param deliveryCreator Creates the {@link MessageDelivery} for a new queue
+	 * @return The queue for {@code key}
+	 * @throws IllegalArgumentException if {@code settings} has a file that is already used by the queue of a different key
+	 */
+	public synchronized OutboundMessageQueue getQueue(String key, String name, @Nullable MessageQueueSettings settings, Supplier<? extends MessageDelivery> deliveryCreator) {
+		requireNonNull(key);
+		requireNonNull(name);
+		RegisteredQueue registered = queueMap.get(key);
+		if (registered != null) {
+			if (settings != null && !settings.equals(registered.settings)) {
+				LOGGER.warn(name + " was configured more than once with different queue settings. Using the settings it was first configured with.");
+			}
+			return registered.queue;
+		}
+		MessageQueueSettings queueSettings = settings == null ? MessageQueueSettings.DEFAULT : settings;
+		Path file = queueSettings.getFile() == null ? null : queueSettings.getFile().toAbsolutePath().normalize();
+		if (file != null && fileOwnerMap.containsKey(file)) {
+			throw new IllegalArgumentException(name + " cannot use " + file + " because another queue is already using it!");
+		}
+		OutboundMessageQueue queue = new OutboundMessageQueue(name, deliveryCreator.get(), queueSettings);
+		queueMap.put(key, new RegisteredQueue(queue, queueSettings));
+		if (file != null) {
+			fileOwnerMap.put(file, key);
+		}
+		return queue;
+	}
+
+	private static final class RegisteredQueue {
+		private final OutboundMessageQueue queue;
+		private final MessageQueueSettings settings;
+
+		private RegisteredQueue(OutboundMessageQueue queue, MessageQueueSettings settings) {
+			this.queue = queue;
+			this.settings = settings;
+		}
+	}
+}
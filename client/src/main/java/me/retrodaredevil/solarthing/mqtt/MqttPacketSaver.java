@@ -11,9 +11,13 @@ import me.retrodaredevil.solarthing.packets.handling.PacketHandleException;
 import me.retrodaredevil.solarthing.packets.handling.PacketHandler;
 import me.retrodaredevil.solarthing.packets.identification.Identifiable;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
-import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.slf4j.Logger;
@@ -21,30 +25,59 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Publishes each packet collection, along with each of its packets and their fields, to an MQTT broker.
+ * <p>
+ * When {@code persistent} is true, a single connection is kept open and is automatically reconnected if it is lost.
+ * Otherwise, a connection is made for each packet collection and is closed once everything has been published.
+ * <p>
+ * Messages are published asynchronously. At most {@code maxInflight} messages are waiting to be acknowledged at once,
+ * and {@link #handle(PacketCollection)} only returns once every message of the packet collection has been delivered.
+ */
 public class MqttPacketSaver implements PacketHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MqttPacketSaver.class);
 	private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.defaultMapper();
 	private static final Charset CHARSET = StandardCharsets.UTF_8;
+	private static final long TIMEOUT_MILLIS = 10_000;
 	/** The default topic format. Note that the ending "/" is optional. */
 	public static final String DEFAULT_TOPIC_FORMAT = "solarthing/%source/%fragment/%identifier";
+	public static final int DEFAULT_MAX_INFLIGHT = 100;
 
 	private final MemoryPersistence persistence = new MemoryPersistence();
-	private final MqttClient client;
+	private final MqttAsyncClient client;
 	private final MqttConnectOptions options;
 	/** The topic format similar to "solarthing/%source/%fragment/%identifier" (NO slash at end) */
 	private final String topicFormat;
 	private final String statusTopic;
 	private final boolean retain;
+	private final boolean persistent;
+	private final int maxInflight;
 
-	public MqttPacketSaver(String broker, String clientId, String username, char[] password, String topicFormat, boolean retain, String sourceId, int fragmentId) {
+	/** A cache of topics. The key of the outer map is the source ID, and the key of the inner map is the fragment ID */
+	private final Map<String, Map<Integer, InstanceTopics>> topicsCache = new HashMap<>();
+	private final Deque<IMqttDeliveryToken> inflightTokens = new ArrayDeque<>();
+	/** The token of the last connection attempt we started ourselves. Guarded by this */
+	private IMqttToken connectToken = null;
+	/** Set once a connection has succeeded. After this, Paho's automatic reconnect takes care of reconnecting when {@link #persistent} is true */
+	private volatile boolean hasConnected = false;
+
+	public MqttPacketSaver(String broker, String clientId, String username, char[] password, String topicFormat, boolean retain, boolean persistent, int maxInflight, String sourceId, int fragmentId) {
 		this.topicFormat = topicFormat;
 		this.retain = retain;
+		this.persistent = persistent;
+		this.maxInflight = maxInflight;
+		if (maxInflight < 1) {
+			throw new IllegalArgumentException("maxInflight must be >= 1! maxInflight=" + maxInflight);
+		}
 
 //		org.eclipse.paho.client.mqttv3.logging.LoggerFactory.setLogger();
 		try {
-			client = new MqttClient(broker, clientId, persistence);
+			client = new MqttAsyncClient(broker, clientId, persistence);
 		} catch (MqttPersistenceException ex) {
 			throw new RuntimeException("This shouldn't happen when using MemoryPersistence", ex);
 		} catch (MqttException ex) {
@@ -53,6 +86,8 @@ public class MqttPacketSaver implements PacketHandler {
 		options = new MqttConnectOptions();
 		options.setUserName(username);
 		options.setPassword(password);
+		options.setMaxInflight(maxInflight);
+		options.setAutomaticReconnect(persistent);
 		statusTopic = topicFormat.replace("%source", sourceId)
 				.replace("%fragment", "" + fragmentId)
 				.replace("%identifier", "status");
@@ -62,71 +97,156 @@ public class MqttPacketSaver implements PacketHandler {
 				1,
 				retain
 		);
+		client.setCallback(new MqttCallbackExtended() {
+			@Override
+			public void connectComplete(boolean reconnect, String serverURI) {
+				hasConnected = true;
+				if (reconnect) {
+					LOGGER.info("Reconnected to " + serverURI);
+				}
+				try { // since the will sets the status to offline, we have to set it back each time we connect
+					client.publish(statusTopic, "online".getBytes(CHARSET), 1, retain);
+				} catch (MqttException e) {
+					LOGGER.error("Could not publish online status", e);
+				}
+			}
+
+			@Override
+			public void connectionLost(Throwable cause) {
+				LOGGER.warn("Lost connection to MQTT broker." + (persistent ? " Will automatically reconnect." : ""), cause);
+			}
+
+			@Override
+			public void messageArrived(String topic, MqttMessage message) {
+			}
+
+			@Override
+			public void deliveryComplete(IMqttDeliveryToken token) {
+			}
+		});
 	}
 
 	@Override
-	public void handle(PacketCollection packetCollection) throws PacketHandleException {
+	public synchronized void handle(PacketCollection packetCollection) throws PacketHandleException {
 		InstancePacketGroup instancePacketGroup = PacketGroups.parseToInstancePacketGroup(packetCollection, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS);
 		try {
+			connectIfNeeded();
 			handle(instancePacketGroup, packetCollection);
+			waitForInflight(0);
 		} catch (MqttException e) {
 			throw new PacketHandleException("MQTT Exception", e);
 		} finally {
-			if (client.isConnected()) {
+			inflightTokens.clear();
+			if (!persistent && client.isConnected()) {
 				try {
-					client.disconnect();
+					client.disconnect().waitForCompletion(TIMEOUT_MILLIS);
 				} catch (MqttException e) {
 					LOGGER.error("We shouldn't get an exception while disconnecting... (Can't throw in finally)", e);
 				}
 			}
 		}
 	}
+	private void connectIfNeeded() throws MqttException, PacketHandleException {
+		if (client.isConnected()) {
+			return;
+		}
+		if (persistent && hasConnected) {
+			// Calling connect while automatic reconnect is running causes "connect already in progress" errors
+			throw new PacketHandleException("Not connected to MQTT broker. Waiting for it to automatically reconnect.");
+		}
+		if (connectToken == null || connectToken.isComplete()) {
+			connectToken = client.connect(options);
+		} // else a previous attempt timed out, but is still in progress, so wait for it instead of starting another
+		connectToken.waitForCompletion(TIMEOUT_MILLIS);
+	}
 	private void handle(InstancePacketGroup instancePacketGroup, PacketCollection entirePacketCollection) throws MqttException {
 		DefaultInstanceOptions.requireNoDefaults(instancePacketGroup);
 		long dateMillis = instancePacketGroup.getDateMillis();
-		final String partiallyFormattedTopic = topicFormat
-				.replace("%source", instancePacketGroup.getSourceId())
-				.replace("%fragment", "" + instancePacketGroup.getFragmentId());
+		InstanceTopics instanceTopics = topicsCache
+				.computeIfAbsent(instancePacketGroup.getSourceId(), sourceId -> new HashMap<>())
+				.computeIfAbsent(instancePacketGroup.getFragmentId(), fragmentId -> new InstanceTopics(instancePacketGroup.getSourceId(), fragmentId));
 
-		client.connect(options);
 		{ // block for entire packet collection
-			final String collectionJson;
+			final byte[] collectionJson;
 			try {
-				collectionJson = OBJECT_MAPPER.writeValueAsString(entirePacketCollection);
+				collectionJson = OBJECT_MAPPER.writeValueAsBytes(entirePacketCollection);
 			} catch (JsonProcessingException e) {
 				throw new RuntimeException("We should be able to serial this to JSON!", e);
 			}
-			client.publish(
-					partiallyFormattedTopic.replace("%identifier", "packetCollection"),
-					collectionJson.getBytes(CHARSET),
-					2,
-					retain
-			);
+			publish(instanceTopics.packetCollectionTopic, collectionJson, 2);
 		}
-		client.publish(statusTopic, "online".getBytes(CHARSET), 1, retain);
+		byte[] dateMillisPayload = ("" + dateMillis).getBytes(CHARSET);
 
 		for (Packet packet : instancePacketGroup.getPackets()) {
 			if (packet instanceof Identifiable) {
 				Identifiable identifiable = (Identifiable) packet;
-				String topic = partiallyFormattedTopic.replace("%identifier", identifiable.getIdentifier().getRepresentation()) + "/";
+				PacketTopics packetTopics = instanceTopics.packetTopicsMap.computeIfAbsent(identifiable.getIdentifier().getRepresentation(), instanceTopics::createPacketTopics);
 
-
-				final String rawJson;
+				ObjectNode json = OBJECT_MAPPER.valueToTree(packet);
+				final byte[] rawJson;
 				try {
-					rawJson = OBJECT_MAPPER.writeValueAsString(packet);
+					rawJson = OBJECT_MAPPER.writeValueAsBytes(json);
 				} catch (JsonProcessingException e) {
 					throw new RuntimeException("We should be able to serialize this to JSON!", e);
 				}
-				client.publish(topic + "dateMillis", ("" + dateMillis).getBytes(CHARSET), 2, retain);
-				client.publish(topic + "json", rawJson.getBytes(CHARSET), 2, retain);
-				ObjectNode json = OBJECT_MAPPER.valueToTree(packet);
+				publish(packetTopics.dateMillisTopic, dateMillisPayload, 2);
+				publish(packetTopics.jsonTopic, rawJson, 2);
 				for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(json, "/")) {
 					String key = entry.getKey();
 					ValueNode prim = entry.getValue();
 					// Make individual fields use QoS of 1 because we want them all to go through, but no one should be using them as "event"-like packets
-					client.publish(topic + "packet/" + key, prim.asText().getBytes(CHARSET), 1, retain);
+					publish(packetTopics.getFieldTopic(key), prim.asText().getBytes(CHARSET), 1);
 				}
 			}
 		}
 	}
+
+	private void publish(String topic, byte[] payload, int qos) throws MqttException {
+		waitForInflight(maxInflight - 1);
+		inflightTokens.add(client.publish(topic, payload, qos, retain));
+	}
+
+	/**
+	 * Waits for the oldest messages to be delivered until there are at most {@code maxRemaining} messages that have not been acknowledged
+	 */
+	private void waitForInflight(int maxRemaining) throws MqttException {
+		while (inflightTokens.size() > maxRemaining) {
+			inflightTokens.removeFirst().waitForCompletion(TIMEOUT_MILLIS);
+		}
+	}
+
+	private final class InstanceTopics {
+		/** The topic with %source and %fragment already replaced */
+		private final String partiallyFormattedTopic;
+		private final String packetCollectionTopic;
+		/** A map of identifier representations to the topics for the packet with that identifier */
+		private final Map<String, PacketTopics> packetTopicsMap = new HashMap<>();
+
+		private InstanceTopics(String sourceId, int fragmentId) {
+			partiallyFormattedTopic = topicFormat
+					.replace("%source", sourceId)
+					.replace("%fragment", "" + fragmentId);
+			packetCollectionTopic = partiallyFormattedTopic.replace("%identifier", "packetCollection");
+		}
+
+		private PacketTopics createPacketTopics(String identifierRepresentation) {
+			return new PacketTopics(partiallyFormattedTopic.replace("%identifier", identifierRepresentation) + "/");
+		}
+	}
+	private static final class PacketTopics {
+		private final String topic;
+		private final String dateMillisTopic;
+		private final String jsonTopic;
+		private final Map<String, String> fieldTopicMap = new HashMap<>();
+
+		private PacketTopics(String topic) {
+			this.topic = topic;
+			dateMillisTopic = topic + "dateMillis";
+			jsonTopic = topic + "json";
+		}
+
+		private String getFieldTopic(String key) {
+			return fieldTopicMap.computeIfAbsent(key, k -> topic + "packet/" + k);
+		}
+	}
 }
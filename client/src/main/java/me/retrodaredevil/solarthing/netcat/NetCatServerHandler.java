@@ -1,45 +1,123 @@
 package me.retrodaredevil.solarthing.netcat;
 
+import me.retrodaredevil.solarthing.annotations.NotNull;
 import me.retrodaredevil.solarthing.annotations.Nullable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-public class NetCatServerHandler {
-	private static final Logger LOGGER = LoggerFactory.getLogger(NetCatServerHandler.class);
-	private final ServerSocket serverSocket;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A line based server where each connection is given to {@link #poll()} as soon as it is accepted.
+ * <p>
+ * This uses a {@link NioNetCatServer}, so no thread is ever blocked by a slow client. Clients that do not read their responses are disconnected.
+ */
+public class NetCatServerHandler implements AutoCloseable {
+	private static final int CLIENT_BUFFER_SIZE = 64 * 1024;
+	/** The maximum length of a line received from a client. Clients that send longer lines are disconnected */
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	private final NioNetCatServer server;
 	private final Queue<SimpleConnection> connectionQueue = new ConcurrentLinkedDeque<>();
+	private final Map<NioNetCatServer.Client, LineConnection> connectionMap = new ConcurrentHashMap<>();
 
 	public NetCatServerHandler(String bindAddress, int port) throws IOException {
-		serverSocket = new ServerSocket();
-		serverSocket.bind(new InetSocketAddress(bindAddress, port));
+		server = new NioNetCatServer(new InetSocketAddress(bindAddress, port), CLIENT_BUFFER_SIZE, NioNetCatServer.SlowClientPolicy.DISCONNECT, new NioNetCatServer.Listener() {
+			@Override
+			public void onConnect(NioNetCatServer.Client client) {
+				LineConnection connection = new LineConnection(client);
+				connectionMap.put(client, connection);
+				connectionQueue.add(connection);
+			}
 
-		Executors.newSingleThreadExecutor().execute(this::startLoop);
-	}
-	private void startLoop() {
-		while (!Thread.currentThread().isInterrupted()) {
-			try {
-				Socket socket = serverSocket.accept();
-				connectionQueue.add(new SocketSimpleConnection(socket));
-				LOGGER.info("Accepted connection");
-			} catch (IOException e) {
-				LOGGER.error("Couldn't accept a connection", e);
+			@Override
+			public void onData(NioNetCatServer.Client client, ByteBuffer data) {
+				LineConnection connection = connectionMap.get(client);
+				if (connection != null) {
+					connection.receive(data);
+				}
 			}
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException ex) {
-				Thread.currentThread().interrupt();
+
+			@Override
+			public void onDisconnect(NioNetCatServer.Client client) {
+				connectionMap.remove(client);
 			}
-		}
+		});
 	}
+
+	public InetSocketAddress getLocalAddress() {
+		return server.getLocalAddress();
+	}
+
+	/**
+	 * @return A connection that was accepted since the last call, or null if there are none
+	 */
 	public @Nullable SimpleConnection poll() {
 		return connectionQueue.poll();
 	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+	private static final class LineConnection implements SimpleConnection {
+		private final NioNetCatServer.Client client;
+		private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+		/** The start of a line that has not been fully received yet. Only used on the selector thread */
+		private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+		private LineConnection(NioNetCatServer.Client client) {
+			this.client = client;
+		}
+
+		private void receive(ByteBuffer data) {
+			while (data.hasRemaining()) {
+				byte b = data.get();
+				if (b == '\n') {
+					String line = partialLine.toString(StandardCharsets.UTF_8);
+					partialLine.reset();
+					lines.add(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line);
+				} else if (partialLine.size() >= MAX_LINE_LENGTH) {
+					client.close();
+					return;
+				} else {
+					partialLine.write(b);
+				}
+			}
+		}
+
+		@Override
+		public @Nullable String pollLine() throws EOFException {
+			String line = lines.poll();
+			if (line == null && client.isClosed()) {
+				throw new EOFException("Connection is closed!");
+			}
+			return line;
+		}
+
+		@Override
+		public void send(@NotNull String line) throws EOFException {
+			requireNonNull(line);
+			byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+			if (!client.send(bytes, 0, bytes.length)) {
+				throw new EOFException("Connection is closed!");
+			}
+		}
+
+		@Override
+		public void close() {
+			client.close();
+		}
+	}
 }
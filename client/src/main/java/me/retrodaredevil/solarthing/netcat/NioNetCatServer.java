@@ -0,0 +1,330 @@
+package me.retrodaredevil.solarthing.netcat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A TCP server that handles every client on a single thread using a {@link Selector}. Connections are accepted as soon as they are made.
+ * <p>
+ * Data sent to a client (including data sent with {@link #broadcast(byte[], int, int)}) is put in a bounded buffer for that client and written
+ * when the client is ready for it, so sending never blocks. If a client's buffer is full, the {@link SlowClientPolicy} decides what happens.
+ * <p>
+ * Data received from clients is given to a {@link Listener} on the selector thread.
+ * <p>
+ * This is thread safe.
+ */
+public class NioNetCatServer implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NioNetCatServer.class);
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final int clientBufferSize;
+	private final SlowClientPolicy slowClientPolicy;
+	private final Listener listener;
+	private final Thread thread;
+
+	private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Binds to {@code address} and starts the selector thread
+	 * @param address The address to bind to. Use port 0 to bind to any free port.
+	 * @param clientBufferSize The maximum number of bytes waiting to be written to a single client
+	 * @param slowClientPolicy What to do when data is sent to a client whose buffer is full
+	 * @param listener Called on the selector thread when clients connect, send data, and disconnect
+	 */
+	public NioNetCatServer(SocketAddress address, int clientBufferSize, SlowClientPolicy slowClientPolicy, Listener listener) throws IOException {
+		if (clientBufferSize <= 0) {
+			throw new IllegalArgumentException("clientBufferSize must be positive! clientBufferSize: " + clientBufferSize);
+		}
+		this.clientBufferSize = clientBufferSize;
+		this.slowClientPolicy = requireNonNull(slowClientPolicy);
+		this.listener = requireNonNull(listener);
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.bind(address);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		thread = new Thread(this::run, "netcat-server-" + getLocalAddress().getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public InetSocketAddress getLocalAddress() {
+		return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+	}
+
+	/**
+	 * @return An unmodifiable view of the clients that are currently connected
+	 */
+	public Set<Client> getClients() {
+		return Collections.unmodifiableSet(clients);
+	}
+
+	/**
+	 * Sends data to every connected client. This never blocks.
+	 */
+	public void broadcast(byte[] data, int offset, int length) {
+		for (Client client : clients) {
+			client.send(data, offset, length);
+		}
+	}
+
+	private void run() {
+		ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		try {
+			while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+				selector.select();
+				Set<SelectionKey> selectedKeys = selector.selectedKeys();
+				for (SelectionKey key : selectedKeys) {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Client client = (Client) key.attachment();
+					try {
+						if (key.isReadable()) {
+							read(client, readBuffer);
+						}
+						if (key.isValid() && key.isWritable()) {
+							client.write();
+						}
+					} catch (IOException e) {
+						LOGGER.debug("Error with client " + client.remoteAddress + ". Disconnecting", e);
+						client.close();
+					} catch (CancelledKeyException ignored) { // the client was closed on another thread
+					} catch (RuntimeException e) {
+						LOGGER.error("Got exception while handling data from client " + client.remoteAddress + ". Disconnecting", e);
+						client.close();
+					}
+				}
+				selectedKeys.clear();
+			}
+		} catch (ClosedSelectorException ignored) {
+		} catch (IOException e) {
+			LOGGER.error("Error while selecting. Stopping server", e);
+		} finally {
+			closeAll();
+		}
+	}
+
+	/**
+	 * Accepts every pending connection. A failure to accept or set up a connection only affects that connection, so the server keeps running.
+	 */
+	private void accept() {
+		while (true) {
+			final SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
+				LOGGER.error("Error accepting connection", e);
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+			final Client client;
+			try {
+				channel.configureBlocking(false);
+				client = new Client(channel, channel.getRemoteAddress(), clientBufferSize);
+				client.key = channel.register(selector, SelectionKey.OP_READ, client);
+			} catch (IOException e) {
+				LOGGER.error("Error setting up accepted connection. Closing it", e);
+				try {
+					channel.close();
+				} catch (IOException closeException) {
+					LOGGER.debug("Error closing accepted connection", closeException);
+				}
+				continue;
+			}
+			clients.add(client);
+			LOGGER.info("Accepted connection from " + client.remoteAddress);
+			try {
+				listener.onConnect(client);
+			} catch (RuntimeException e) {
+				LOGGER.error("Got exception while connecting client " + client.remoteAddress + ". Disconnecting", e);
+				client.close();
+			}
+		}
+	}
+
+	private void read(Client client, ByteBuffer readBuffer) throws IOException {
+		readBuffer.clear();
+		int length = client.channel.read(readBuffer);
+		if (length < 0) {
+			client.close();
+			return;
+		}
+		if (length > 0) {
+			readBuffer.flip();
+			listener.onData(client, readBuffer.asReadOnlyBuffer());
+		}
+	}
+
+	private void closeAll() {
+		for (Client client : clients) {
+			client.close();
+		}
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			LOGGER.debug("Error closing server channel", e);
+		}
+	}
+
+	/**
+	 * Stops accepting connections and disconnects every client
+	 */
+	@Override
+	public void close() throws IOException {
+		thread.interrupt();
+		selector.close(); // wakes up the selector thread, which then closes all the clients
+		serverChannel.close();
+	}
+
+	public enum SlowClientPolicy {
+		/** When a client's buffer is full, data that does not fit is dropped. The client stays connected, but some of its data will be missing */
+		DROP,
+		/** When a client's buffer is full, the client is disconnected */
+		DISCONNECT,
+	}
+
+	/**
+	 * {@link #onConnect(Client)} and {@link #onData(Client, ByteBuffer)} are called on the selector thread, so they should return quickly.
+	 * If either of them throws a {@link RuntimeException}, only that client is disconnected.
+	 */
+	public interface Listener {
+		default void onConnect(Client client) {}
+		/**
+		 * @param data The data received from {@code client}. This is only valid until this method returns.
+		 */
+		void onData(Client client, ByteBuffer data);
+		/**
+		 * Called once when {@code client} is disconnected. This may be called on any thread.
+		 */
+		default void onDisconnect(Client client) {}
+	}
+
+	public final class Client {
+		private final SocketChannel channel;
+		private final SocketAddress remoteAddress;
+		/** Data waiting to be written. Always in write mode. Guarded by this */
+		private final ByteBuffer outBuffer;
+		private SelectionKey key;
+		/** Guarded by this */
+		private boolean closed = false;
+		/** Guarded by this */
+		private long droppedByteCount = 0;
+
+		private Client(SocketChannel channel, SocketAddress remoteAddress, int bufferSize) {
+			this.channel = channel;
+			this.remoteAddress = remoteAddress;
+			outBuffer = ByteBuffer.allocate(bufferSize);
+		}
+
+		public SocketAddress getRemoteAddress() {
+			return remoteAddress;
+		}
+
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+
+		/**
+		 * @return The number of bytes that were not sent to this client because its buffer was full
+		 */
+		public synchronized long getDroppedByteCount() {
+			return droppedByteCount;
+		}
+
+		/**
+		 * Queues data to be sent to this client. This never blocks.
+		 * @return true if the data was queued, false if it was dropped or if this client is disconnected
+		 */
+		public boolean send(byte[] data, int offset, int length) {
+			boolean disconnect = false;
+			synchronized (this) {
+				if (closed) {
+					return false;
+				}
+				if (outBuffer.remaining() < length) {
+					if (slowClientPolicy == SlowClientPolicy.DISCONNECT) {
+						disconnect = true;
+					} else {
+						droppedByteCount += length;
+						return false;
+					}
+				} else {
+					try {
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					} catch (CancelledKeyException e) { // the server is closing
+						return false;
+					}
+					outBuffer.put(data, offset, length);
+				}
+			}
+			if (disconnect) {
+				LOGGER.info("Client " + remoteAddress + " is not reading data fast enough. Disconnecting");
+				close();
+				return false;
+			}
+			selector.wakeup();
+			return true;
+		}
+
+		private synchronized void write() throws IOException {
+			outBuffer.flip();
+			try {
+				channel.write(outBuffer);
+			} finally {
+				outBuffer.compact();
+			}
+			if (outBuffer.position() == 0) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		public void close() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+			}
+			clients.remove(this);
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.debug("Error closing client " + remoteAddress, e);
+			}
+			LOGGER.info("Disconnected " + remoteAddress);
+			listener.onDisconnect(this);
+		}
+	}
+}
@@ -11,6 +11,7 @@ import me.retrodaredevil.couchdb.CouchDbUtil;
 import me.retrodaredevil.solarthing.FragmentedPacketGroupProvider;
 import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.actions.environment.*;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.annotations.UtilityClass;
 import me.retrodaredevil.solarthing.config.ConfigUtil;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
@@ -26,11 +27,11 @@ import me.retrodaredevil.solarthing.database.cache.SimplePacketCache;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbSolarThingDatabase;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.IncrementalPacketGroupMerger;
 import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
 import me.retrodaredevil.solarthing.type.alter.StoredAlterPacket;
 import me.retrodaredevil.solarthing.type.closed.authorization.AuthorizationPacket;
 import me.retrodaredevil.solarthing.util.sync.BasicResourceManager;
-import me.retrodaredevil.solarthing.util.sync.ReadWriteResourceManager;
 import me.retrodaredevil.solarthing.util.sync.ResourceManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +56,13 @@ public final class AutomationMain {
 	}
 
 	private static void queryAndFeed(MillisDatabase millisDatabase, ResourceManager<SimpleDatabaseCache> databaseCacheManager, boolean useEndDate) {
+		queryAndFeed(millisDatabase, databaseCacheManager, useEndDate, null);
+	}
+
+	/**
+	 * @param packetGroupMerger If not null, this is fed the same data as the database cache, and has its old data purged at the same time as the database cache
+	 */
+	private static void queryAndFeed(MillisDatabase millisDatabase, ResourceManager<SimpleDatabaseCache> databaseCacheManager, boolean useEndDate, @Nullable IncrementalPacketGroupMerger packetGroupMerger) {
 		final MillisQuery query = databaseCacheManager.access(databaseCache -> {
 			if (useEndDate) {
 				return databaseCache.getRecommendedQuery();
@@ -74,6 +82,11 @@ public final class AutomationMain {
 
 		databaseCacheManager.update(databaseCache -> {
 			databaseCache.feed(rawPacketGroups, query.getStartKey(), query.getEndKey());
+			if (packetGroupMerger != null) {
+				packetGroupMerger.feed(rawPacketGroups, query.getStartKey());
+				StoredPacketGroup firstPacketGroup = databaseCache.createAllCachedPacketsStream(false).findFirst().orElse(null);
+				packetGroupMerger.purgeBefore(firstPacketGroup == null ? Long.MAX_VALUE : firstPacketGroup.getDateMillis());
+			}
 		});
 		if (rawPacketGroups.isEmpty()) {
 			// This message is commonly printed for solarthing_open database, which is fine.
@@ -101,11 +114,13 @@ public final class AutomationMain {
 		Clock clock = Clock.systemUTC();
 
 		SimpleDatabaseCache statusDatabaseCache = SimpleDatabaseCache.createDefault(clock);
-		ResourceManager<SimpleDatabaseCache> statusDatabaseCacheManager = new BasicResourceManager<>(statusDatabaseCache); // not thread safe
+		// Keeps merged packets from previous iterations, so each iteration only has to merge packets near the newly queried data
+		IncrementalPacketGroupMerger statusPacketGroupMerger = PacketUtil.createIncrementalPacketGroupMerger(options.getDefaultInstanceOptions());
+		ResourceManager<SimpleDatabaseCache> statusDatabaseCacheManager = new BasicResourceManager<>(statusDatabaseCache); // SimpleDatabaseCache can be read while it is being fed, so no locking is needed
 		SimpleDatabaseCache eventDatabaseCache = SimpleDatabaseCache.createDefault(clock);
-		ResourceManager<SimpleDatabaseCache> eventDatabaseCacheManager = new ReadWriteResourceManager<>(eventDatabaseCache);
+		ResourceManager<SimpleDatabaseCache> eventDatabaseCacheManager = new BasicResourceManager<>(eventDatabaseCache); // may be read by other threads such as the chat bot, which is OK
 		SimpleDatabaseCache openDatabaseCache = new SimpleDatabaseCache(Duration.ofMinutes(60), Duration.ofMinutes(40), Duration.ofMinutes(20), Duration.ofMinutes(15), clock);
-		ResourceManager<SimpleDatabaseCache> openDatabaseCacheManager = new BasicResourceManager<>(openDatabaseCache); // not thread safe
+		ResourceManager<SimpleDatabaseCache> openDatabaseCacheManager = new BasicResourceManager<>(openDatabaseCache);
 
 		SimplePacketCache<AuthorizationPacket> authorizationPacketCache = new SimplePacketCache<>(Duration.ofSeconds(20), DatabaseDocumentKeyMap.createPacketSourceFromDatabase(database), false);
 		String sourceId = options.getSourceId();
@@ -131,7 +146,7 @@ public final class AutomationMain {
 		ActionMultiplexer multiplexer = new Actions.ActionMultiplexerBuilder().build();
 		List<ActionNodeEntry> actionNodeEntries = new ArrayList<>(originalActionNodeEntries); // entries may be removed from this list
 		while (!Thread.currentThread().isInterrupted()) {
-			queryAndFeed(database.getStatusDatabase(), statusDatabaseCacheManager, true);
+			queryAndFeed(database.getStatusDatabase(), statusDatabaseCacheManager, true, statusPacketGroupMerger);
 			queryAndFeed(database.getEventDatabase(), eventDatabaseCacheManager, true);
 			queryAndFeed(database.getOpenDatabase(), openDatabaseCacheManager, false);
 			{
@@ -147,7 +162,7 @@ public final class AutomationMain {
 			}
 			authorizationPacketCache.updateIfNeeded(); // we have auto update turned off, so we have to call this
 
-			List<FragmentedPacketGroup> statusPacketGroups = PacketUtil.getPacketGroups(options.getSourceId(), options.getDefaultInstanceOptions(), statusDatabaseCache.getAllCachedPackets());
+			List<FragmentedPacketGroup> statusPacketGroups = PacketUtil.getPacketGroups(options.getSourceId(), options.getDefaultInstanceOptions(), statusPacketGroupMerger.getPacketGroupsMap());
 			if (statusPacketGroups != null) {
 				FragmentedPacketGroup statusPacketGroup = statusPacketGroups.get(statusPacketGroups.size() - 1);
 				latestPacketGroupReference.set(statusPacketGroup);
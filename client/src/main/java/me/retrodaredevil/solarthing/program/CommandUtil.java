@@ -10,13 +10,18 @@ import me.retrodaredevil.solarthing.config.databases.DatabaseConfig;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
 import me.retrodaredevil.solarthing.config.options.PacketHandlingOption;
 import me.retrodaredevil.solarthing.database.DatabaseDocumentKeyMap;
+import me.retrodaredevil.solarthing.database.MillisChangesFollower;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbChangesFeed;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbSolarThingDatabase;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
 import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
 import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
 import me.retrodaredevil.solarthing.packets.handling.*;
+import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
+import me.retrodaredevil.solarthing.packets.security.SecurityPacket;
+import me.retrodaredevil.solarthing.util.sync.BoundedSerialExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,20 +53,35 @@ public class CommandUtil {
 				// If frequencySettings is null, then we must have explicitly disallowed command download from this database config
 				if (frequencySettings != null) {
 					LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Commands will be downloaded from database: " + settings);
+					SecurityPacketReceiver securityPacketReceiver = new SecurityPacketReceiver(
+							DatabaseDocumentKeyMap.createFromDatabase(database),
+							packetGroupReceiver,
+							new SecurityPacketReceiver.InstanceTargetPredicate(options.getSourceId(), options.getFragmentId()),
+							Collections.singleton(CommandOpenPacket.class),
+							System.currentTimeMillis(),
+							options.getFragmentId(),
+							options.getSourceId(),
+							database.getEventDatabase()
+					);
+					// Commands are pushed to us as soon as they are uploaded. We still query the open database when we are not following the changes feed.
+					MillisChangesFollower changesFollower = new MillisChangesFollower(CouchDbChangesFeed.create(
+							settings.getCouchProperties(), settings.getOkHttpProperties(), SolarThingConstants.OPEN_DATABASE,
+							SecurityPacket.class, InstancePacket.class
+					));
+					changesFollower.addSubscriber(securityPacketReceiver::receivePacketGroups);
+					Thread changesThread = new Thread(changesFollower, "command-changes-follower");
+					changesThread.setDaemon(true);
+					changesThread.start();
 					PacketHandler packetHandler = new PacketHandler() {
-						private final SecurityPacketReceiver securityPacketReceiver = new SecurityPacketReceiver(
-								DatabaseDocumentKeyMap.createFromDatabase(database),
-								packetGroupReceiver,
-								new SecurityPacketReceiver.InstanceTargetPredicate(options.getSourceId(), options.getFragmentId()),
-								Collections.singleton(CommandOpenPacket.class),
-								System.currentTimeMillis(),
-								options.getFragmentId(),
-								options.getSourceId(),
-								database.getEventDatabase()
-						);
+						/** true once we have queried the open database after we started following, so that nothing uploaded before we started following is missed */
+						private boolean queriedWhileFollowing = false;
 
 						@Override
 						public void handle(PacketCollection packetCollection) throws PacketHandleException {
+							boolean following = changesFollower.isFollowing();
+							if (following && queriedWhileFollowing) {
+								return;
+							}
 							final List<StoredPacketGroup> packetGroups;
 							try {
 								packetGroups = database.getOpenDatabase().query(new MillisQueryBuilder().startKey(System.currentTimeMillis() - 5 * 60 * 1000).build());
@@ -69,11 +89,13 @@ public class CommandUtil {
 								throw new PacketHandleException(e);
 							}
 							securityPacketReceiver.receivePacketGroups(packetGroups);
+							queriedWhileFollowing = following;
 						}
 					};
-					commandRequesterHandlerList.add(new ThrottleFactorPacketHandler(new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(
+					// Each query gets all the recent commands, so only the latest query needs to run if we fall behind
+					commandRequesterHandlerList.add(new ThrottleFactorPacketHandler(new AsyncPacketHandlerWrapper("command-requester", new PrintPacketHandleExceptionWrapper(
 							packetHandler
-					)), frequencySettings));
+					), BoundedSerialExecutor.OverflowPolicy.COALESCE_LATEST), frequencySettings));
 				}
 			}
 		}
@@ -0,0 +1,207 @@
+package me.retrodaredevil.solarthing.program;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.commands.event.SecurityRejectPacket;
+import me.retrodaredevil.solarthing.packets.security.LargeIntegrityPacket;
+import me.retrodaredevil.solarthing.packets.security.crypto.Decrypt;
+import me.retrodaredevil.solarthing.packets.security.crypto.DecryptException;
+import me.retrodaredevil.solarthing.packets.security.crypto.HashUtil;
+import me.retrodaredevil.solarthing.packets.security.crypto.InvalidKeyException;
+import me.retrodaredevil.solarthing.packets.security.crypto.KeyUtil;
+
+import javax.crypto.Cipher;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decrypts the hash of {@link LargeIntegrityPacket}s and compares it with the hash of their payloads.
+ * <p>
+ * Verification runs on a bounded pool that is shared by every instance. Each thread has its own {@link Cipher}, so many packets can be decrypted at once.
+ * If the pool's queue is full, the thread that asked for verification does the verification itself.
+ * <p>
+ * This is thread safe.
+ */
+public class LargeIntegrityVerifier {
+	private static final int THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final int QUEUE_CAPACITY = 256;
+
+	private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+	private static final ExecutorService SHARED_EXECUTOR;
+	static {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				THREAD_COUNT, THREAD_COUNT,
+				60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+				runnable -> {
+					Thread thread = new Thread(runnable, "integrity-verifier-" + THREAD_NUMBER.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy()
+		);
+		executor.allowCoreThreadTimeOut(true);
+		SHARED_EXECUTOR = executor;
+	}
+	/** A {@link Cipher} cannot be used by multiple threads at once, so each thread gets its own */
+	private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(KeyUtil::createCipher);
+
+	private final AtomicLong verifiedCount = new AtomicLong();
+	private final AtomicLong totalVerifyNanos = new AtomicLong();
+	private final LongAccumulator maxVerifyNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Verifies {@code packet} on the shared pool.
+	 * @param publicKey The public key of the sender of {@code packet}
+	 * @param packet The packet to verify
+	 * @return A future that completes with the result. The future completes exceptionally with an {@link IllegalStateException} if {@code publicKey} cannot be used to decrypt.
+	 */
+	public CompletableFuture<Result> verifyAsync(PublicKey publicKey, LargeIntegrityPacket packet) {
+		requireNonNull(publicKey);
+		requireNonNull(packet);
+		return CompletableFuture.supplyAsync(() -> verify(publicKey, packet), SHARED_EXECUTOR);
+	}
+
+	private Result verify(PublicKey publicKey, LargeIntegrityPacket packet) {
+		long startNanos = System.nanoTime();
+		try {
+			return verifyNow(publicKey, packet);
+		} finally {
+			long nanos = System.nanoTime() - startNanos;
+			verifiedCount.incrementAndGet();
+			totalVerifyNanos.addAndGet(nanos);
+			maxVerifyNanos.accumulate(nanos);
+		}
+	}
+
+	private static Result verifyNow(PublicKey publicKey, LargeIntegrityPacket packet) {
+		final String data;
+		try {
+			data = Decrypt.decrypt(CIPHER.get(), publicKey, packet.getEncryptedHash());
+		} catch (DecryptException e) {
+			return Result.decryptFailure(new Failure(SecurityRejectPacket.Reason.DECRYPT_ERROR, "Decrypt error", "Someone tried to impersonate " + packet.getSender() + "! Or that person has a new public key.", e));
+		} catch (InvalidKeyException e) {
+			throw new IllegalStateException("If there is a saved key, it should be valid! sender: " + packet.getSender(), e);
+		}
+		final String[] split = data.split(",", 2);
+		if (split.length != 2) {
+			return Result.decryptFailure(new Failure(SecurityRejectPacket.Reason.INVALID_DATA, "split.length != 2", "split.length: " + split.length + " split: " + Arrays.asList(split), null));
+		}
+		final long dateMillis;
+		try {
+			dateMillis = Long.parseLong(split[0], 16);
+		} catch (NumberFormatException e) {
+			return Result.decryptFailure(new Failure(SecurityRejectPacket.Reason.INVALID_DATA, "Error parsing hex date millis", "Error parsing hex date millis", e));
+		}
+		final byte[] decodedHash;
+		try {
+			decodedHash = Base64Variants.getDefaultVariant().decode(split[1]);
+		} catch (IllegalArgumentException e) {
+			return Result.hashFailure(dateMillis, new Failure(SecurityRejectPacket.Reason.INVALID_DATA, "Not base64 data!", "Not base64 data!", e));
+		}
+		if (!Arrays.equals(decodedHash, HashUtil.hash(packet.getPayload()))) {
+			return Result.hashFailure(dateMillis, new Failure(SecurityRejectPacket.Reason.DIFFERENT_PAYLOAD, "Unsuccessfully compared hashes", "Unsuccessfully compared hashes! The data may have been tampered with!", null));
+		}
+		return Result.success(dateMillis);
+	}
+
+	public Statistics getStatistics() {
+		long verifiedCount = this.verifiedCount.get();
+		long totalVerifyNanos = this.totalVerifyNanos.get();
+		return new Statistics(verifiedCount, verifiedCount == 0 ? 0 : totalVerifyNanos / verifiedCount, maxVerifyNanos.get());
+	}
+
+	/**
+	 * The reason a packet could not be verified
+	 */
+	public static final class Failure {
+		private final SecurityRejectPacket.Reason reason;
+		private final String moreInfo;
+		private final String logMessage;
+		private final @Nullable Exception exception;
+
+		private Failure(SecurityRejectPacket.Reason reason, String moreInfo, String logMessage, @Nullable Exception exception) {
+			this.reason = reason;
+			this.moreInfo = moreInfo;
+			this.logMessage = logMessage;
+			this.exception = exception;
+		}
+
+		public SecurityRejectPacket.Reason getReason() { return reason; }
+		/** @return The info that should be uploaded with a {@link SecurityRejectPacket} */
+		public String getMoreInfo() { return moreInfo; }
+		public String getLogMessage() { return logMessage; }
+		public @Nullable Exception getException() { return exception; }
+	}
+
+	/**
+	 * The result of verifying a packet. A packet is verified in two stages.
+	 * First, the encrypted hash is decrypted, which gives the date millis that the sender signed.
+	 * Second, the decrypted hash is compared with the hash of the payload.
+	 */
+	public static final class Result {
+		private final @Nullable Failure decryptFailure;
+		private final long dateMillis;
+		private final @Nullable Failure hashFailure;
+
+		private Result(@Nullable Failure decryptFailure, long dateMillis, @Nullable Failure hashFailure) {
+			this.decryptFailure = decryptFailure;
+			this.dateMillis = dateMillis;
+			this.hashFailure = hashFailure;
+		}
+		private static Result decryptFailure(Failure failure) {
+			return new Result(failure, 0, null);
+		}
+		private static Result hashFailure(long dateMillis, Failure failure) {
+			return new Result(null, dateMillis, failure);
+		}
+		private static Result success(long dateMillis) {
+			return new Result(null, dateMillis, null);
+		}
+
+		/** @return The failure that stopped the date millis from being decrypted, or null if {@link #getDateMillis()} is valid */
+		public @Nullable Failure getDecryptFailure() { return decryptFailure; }
+		/** @return The date millis that the sender signed. Only valid if {@link #getDecryptFailure()} is null */
+		public long getDateMillis() { return dateMillis; }
+		/** @return The failure that stopped the hash of the payload from being verified, or null if the payload is verified */
+		public @Nullable Failure getHashFailure() { return hashFailure; }
+
+		public boolean isVerified() {
+			return decryptFailure == null && hashFailure == null;
+		}
+	}
+
+	public static final class Statistics {
+		private final long verifiedCount;
+		private final long averageVerifyNanos;
+		private final long maxVerifyNanos;
+
+		private Statistics(long verifiedCount, long averageVerifyNanos, long maxVerifyNanos) {
+			this.verifiedCount = verifiedCount;
+			this.averageVerifyNanos = averageVerifyNanos;
+			this.maxVerifyNanos = maxVerifyNanos;
+		}
+
+		/** @return The number of packets that have been decrypted and hashed */
+		public long getVerifiedCount() { return verifiedCount; }
+		public long getAverageVerifyNanos() { return averageVerifyNanos; }
+		public long getMaxVerifyNanos() { return maxVerifyNanos; }
+
+		@Override
+		public String toString() {
+			return "verified: " + verifiedCount +
+					" average latency: " + TimeUnit.NANOSECONDS.toMicros(averageVerifyNanos) + "us" +
+					" max latency: " + TimeUnit.NANOSECONDS.toMicros(maxVerifyNanos) + "us";
+		}
+	}
+}
@@ -20,9 +20,11 @@ import me.retrodaredevil.solarthing.actions.environment.ExecutionReasonEnvironme
 import me.retrodaredevil.solarthing.actions.environment.LatestPacketGroupEnvironment;
 import me.retrodaredevil.solarthing.actions.environment.SourceIdEnvironment;
 import me.retrodaredevil.solarthing.actions.environment.TimeZoneEnvironment;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.annotations.UtilityClass;
 import me.retrodaredevil.solarthing.config.ConfigUtil;
 import me.retrodaredevil.solarthing.config.databases.DatabaseConfig;
+import me.retrodaredevil.solarthing.config.databases.PacketSpoolSettings;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
 import me.retrodaredevil.solarthing.config.databases.implementations.InfluxDb2DatabaseSettings;
 import me.retrodaredevil.solarthing.config.databases.implementations.InfluxDbDatabaseSettings;
@@ -47,13 +49,19 @@ import me.retrodaredevil.solarthing.packets.handling.*;
 import me.retrodaredevil.solarthing.packets.handling.implementations.FileWritePacketHandler;
 import me.retrodaredevil.solarthing.packets.handling.implementations.JacksonStringPacketHandler;
 import me.retrodaredevil.solarthing.packets.handling.implementations.PostPacketHandler;
+import me.retrodaredevil.solarthing.packets.handling.spool.PacketCollectionSpool;
+import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
 import me.retrodaredevil.solarthing.program.receiver.ActionNodeDataReceiver;
 import me.retrodaredevil.solarthing.program.receiver.RequestHeartbeatReceiver;
 import me.retrodaredevil.solarthing.reason.ExecutionReason;
 import me.retrodaredevil.solarthing.reason.OpenSourceExecutionReason;
 import me.retrodaredevil.solarthing.reason.PacketCollectionExecutionReason;
+import me.retrodaredevil.solarthing.solar.event.SolarEventPacket;
+import me.retrodaredevil.solarthing.solar.outback.command.packets.MateCommandFeedbackPacket;
+import me.retrodaredevil.solarthing.type.event.feedback.FeedbackPacket;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
 import me.retrodaredevil.solarthing.util.frequency.FrequentHandler;
+import me.retrodaredevil.solarthing.util.sync.BoundedSerialExecutor;
 import okhttp3.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,15 +83,21 @@ public class PacketHandlerInit {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PacketHandlerInit.class);
 	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
+	private static final ObjectMapper EVENT_SPOOL_MAPPER = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+
+	static {
+		EVENT_SPOOL_MAPPER.getSubtypeResolver().registerSubtypes(SolarEventPacket.class, MateCommandFeedbackPacket.class, FeedbackPacket.class, InstancePacket.class);
+	}
 
 	/**
 	 * @param configs The fully resolved list of {@link DatabaseConfig}s.
 	 */
-	public static PacketHandlerBundle getPacketHandlerBundle(List<DatabaseConfig> configs, String uniqueStatusName, String uniqueEventName, String sourceId, int fragmentId){
+	public static PacketHandlerBundle getPacketHandlerBundle(List<DatabaseConfig> configs, String uniqueStatusName, String uniqueEventName, String sourceId, int fragmentId) throws IOException {
 		List<PacketHandler> statusPacketHandlers = new ArrayList<>();
 		List<PacketHandler> eventPacketHandlers = new ArrayList<>();
 		for(DatabaseConfig config : configs) {
 			FrequencySettings statusFrequencySettings = config.requireDatabaseUsageSettings().getPacketUploadFrequencySettings();
+			PacketSpoolSettings eventSpoolSettings = config.requireDatabaseUsageSettings().getEventSpoolSettings();
 
 			if (statusFrequencySettings != null) {
 				LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Packets will be uploaded to database: " + config.requireDatabaseSettings().toString());
@@ -91,17 +105,17 @@ public class PacketHandlerInit {
 					CouchDbDatabaseSettings settings = (CouchDbDatabaseSettings) config.requireDatabaseSettings();
 					CouchDbInstance instance = CouchDbUtil.createInstance(settings.getCouchProperties(), settings.getOkHttpProperties());
 					statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-							new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(new CouchDbPacketSaver(instance.getDatabase(uniqueStatusName), false))),
+							new AsyncPacketHandlerWrapper("couchdb-status", new PrintPacketHandleExceptionWrapper(new CouchDbPacketSaver(instance.getDatabase(uniqueStatusName), false)), BoundedSerialExecutor.OverflowPolicy.DROP_OLDEST),
 							statusFrequencySettings
 					));
-					eventPacketHandlers.add(new AsyncRetryingPacketHandler(new CouchDbPacketSaver(instance.getDatabase(uniqueEventName), true)));
+					eventPacketHandlers.add(createRetryingPacketHandler(new CouchDbPacketSaver(instance.getDatabase(uniqueEventName), true), eventSpoolSettings));
 				} else if (InfluxDbDatabaseSettings.TYPE.equals(config.getType())) {
 					LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "You are using InfluxDB 1.X! It is recommended that you switch to 2.0, but is not required.");
 					InfluxDbDatabaseSettings settings = (InfluxDbDatabaseSettings) config.requireDatabaseSettings();
 					String databaseName = settings.getDatabaseName();
 					String measurementName = settings.getMeasurementName();
 					statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-							new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(new InfluxDbPacketSaver(
+							new AsyncPacketHandlerWrapper("influxdb-status", new PrintPacketHandleExceptionWrapper(new InfluxDbPacketSaver(
 									settings.getInfluxProperties(),
 									settings.getOkHttpProperties(),
 									new ConstantNameGetter(databaseName != null ? databaseName : uniqueStatusName),
@@ -112,10 +126,10 @@ public class PacketHandlerInit {
 											: DocumentedMeasurementPacketPointCreator.INSTANCE
 									),
 									new FrequentRetentionPolicyGetter(new FrequentHandler<>(settings.getFrequentStatusRetentionPolicyList()))
-							))),
+							)), BoundedSerialExecutor.OverflowPolicy.DROP_OLDEST),
 							statusFrequencySettings
 					));
-					eventPacketHandlers.add(new AsyncRetryingPacketHandler(new InfluxDbPacketSaver(
+					eventPacketHandlers.add(createRetryingPacketHandler(new InfluxDbPacketSaver(
 							settings.getInfluxProperties(),
 							settings.getOkHttpProperties(),
 							new ConstantNameGetter(databaseName != null ? databaseName : uniqueEventName),
@@ -126,24 +140,26 @@ public class PacketHandlerInit {
 									: DocumentedMeasurementPacketPointCreator.INSTANCE
 							),
 							new ConstantRetentionPolicyGetter(settings.getEventRetentionPolicy())
-					)));
+					), eventSpoolSettings));
 				} else if (InfluxDb2DatabaseSettings.TYPE.equals(config.getType())) {
 					InfluxDb2DatabaseSettings settings = (InfluxDb2DatabaseSettings) config.requireDatabaseSettings();
 					statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-							new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(new InfluxDb2PacketSaver(
+							new AsyncPacketHandlerWrapper("influxdb2-status", new PrintPacketHandleExceptionWrapper(new InfluxDb2PacketSaver(
 									settings.getInfluxDbProperties(),
 									settings.getOkHttpProperties(),
 									new ConstantNameGetter(uniqueStatusName),
-									DocumentedMeasurementPacketPoint2Creator.INSTANCE
-							))),
+									DocumentedMeasurementPacketPoint2Creator.INSTANCE,
+									settings.getBatchMaxPoints(),
+									settings.getBatchMaxAge()
+							)), BoundedSerialExecutor.OverflowPolicy.DROP_OLDEST),
 							statusFrequencySettings
 					));
-					eventPacketHandlers.add(new AsyncRetryingPacketHandler(new InfluxDb2PacketSaver(
+					eventPacketHandlers.add(createRetryingPacketHandler(new InfluxDb2PacketSaver(
 							settings.getInfluxDbProperties(),
 							settings.getOkHttpProperties(),
 							new ConstantNameGetter(uniqueEventName),
 							DocumentedMeasurementPacketPoint2Creator.INSTANCE
-					)));
+					), eventSpoolSettings));
 				} else if (LatestFileDatabaseSettings.TYPE.equals(config.getType())) {
 					LatestFileDatabaseSettings settings = (LatestFileDatabaseSettings) config.requireDatabaseSettings();
 					LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Adding latest file 'database'. This currently only saves 'status' packets");
@@ -155,7 +171,8 @@ public class PacketHandlerInit {
 					PostDatabaseSettings settings = (PostDatabaseSettings) config.requireDatabaseSettings();
 
 					statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-							new AsyncPacketHandlerWrapper(new PostPacketHandler(settings.getUrl(), new JacksonStringPacketHandler(MAPPER), MediaType.get("application/json"))),
+							// The receiving end of a POST only cares about the latest data
+							new AsyncPacketHandlerWrapper("post-status", new PostPacketHandler(settings.getUrl(), new JacksonStringPacketHandler(MAPPER), MediaType.get("application/json")), BoundedSerialExecutor.OverflowPolicy.COALESCE_LATEST),
 							statusFrequencySettings
 					));
 				} else if (MqttDatabaseSettings.TYPE.equals(config.getType())) {
@@ -167,7 +184,7 @@ public class PacketHandlerInit {
 					}
 
 					statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-							new AsyncPacketHandlerWrapper(new MqttPacketSaver(settings.getBroker(), client, settings.getUsername(), settings.getPassword(), settings.getTopicFormat(), settings.isRetain(), sourceId, fragmentId)),
+							new AsyncPacketHandlerWrapper("mqtt-status", new MqttPacketSaver(settings.getBroker(), client, settings.getUsername(), settings.getPassword(), settings.getTopicFormat(), settings.isRetain(), settings.isPersistent(), settings.getMaxInflight(), sourceId, fragmentId), BoundedSerialExecutor.OverflowPolicy.COALESCE_LATEST),
 							statusFrequencySettings
 					));
 				} else {
@@ -177,6 +194,20 @@ public class PacketHandlerInit {
 		}
 		return new PacketHandlerBundle(statusPacketHandlers, eventPacketHandlers);
 	}
+	private static PacketHandler createRetryingPacketHandler(PacketHandler packetHandler, @Nullable PacketSpoolSettings spoolSettings) throws IOException {
+		if (spoolSettings == null) {
+			return new AsyncRetryingPacketHandler(packetHandler);
+		}
+		PacketCollectionSpool spool = PacketCollectionSpool.open(
+				spoolSettings.getDirectory(),
+				EVENT_SPOOL_MAPPER,
+				ex -> LOGGER.warn("Could not parse a spooled event packet", ex),
+				spoolSettings.getMaxSizeBytes(),
+				spoolSettings.getRetention().toMillis()
+		);
+		LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Events that fail to upload will be spooled to " + spoolSettings.getDirectory());
+		return new AsyncRetryingPacketHandler(packetHandler, spool);
+	}
 
 	public static <T extends PacketHandlingOption & CommandOption & ActionsOption> Result initHandlers(T options, Supplier<? extends EnvironmentUpdater> environmentUpdaterSupplier, Collection<? extends PacketHandler> additionalPacketHandlers) throws IOException {
 		List<DatabaseConfig> databaseConfigs = ConfigUtil.resolveConfigs(options.getDatabaseConfigSettings());
@@ -5,6 +5,7 @@ import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.annotations.UtilityClass;
 import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.IncrementalPacketGroupMerger;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
 
@@ -23,6 +24,20 @@ public class PacketUtil {
 				packetGroups, defaultInstanceOptions,
 				SolarThingConstants.SHORT_MAX_TIME_DISTANCE.toMillis(), SolarThingConstants.SHORT_MASTER_ID_IGNORE_DISTANCE.toMillis()
 		);
+		return getPacketGroups(sourceId, defaultInstanceOptions, packetGroupsMap);
+	}
+
+	/**
+	 * @return A merger that merges packets the same way {@link #getPacketGroups(String, DefaultInstanceOptions, List)} does
+	 */
+	public static IncrementalPacketGroupMerger createIncrementalPacketGroupMerger(DefaultInstanceOptions defaultInstanceOptions) {
+		return new IncrementalPacketGroupMerger(
+				defaultInstanceOptions,
+				SolarThingConstants.SHORT_MAX_TIME_DISTANCE.toMillis(), SolarThingConstants.SHORT_MASTER_ID_IGNORE_DISTANCE.toMillis()
+		);
+	}
+
+	public static @Nullable List<FragmentedPacketGroup> getPacketGroups(String sourceId, DefaultInstanceOptions defaultInstanceOptions, Map<String, List<FragmentedPacketGroup>> packetGroupsMap){
 		if(sourceId == null){ // no preference on the source
 			if(packetGroupsMap.containsKey(defaultInstanceOptions.getDefaultSourceId())){
 				return packetGroupsMap.get(defaultInstanceOptions.getDefaultSourceId());
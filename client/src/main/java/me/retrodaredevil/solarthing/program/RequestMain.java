@@ -6,12 +6,17 @@ import me.retrodaredevil.solarthing.actions.command.EnvironmentUpdaterMultiplexe
 import me.retrodaredevil.solarthing.analytics.AnalyticsManager;
 import me.retrodaredevil.solarthing.analytics.RoverAnalyticsHandler;
 import me.retrodaredevil.solarthing.commands.packets.status.AvailableCommandsListUpdater;
+import me.retrodaredevil.solarthing.config.ConfigUtil;
+import me.retrodaredevil.solarthing.config.io.IOConfig;
+import me.retrodaredevil.solarthing.config.io.SerialIOConfig;
 import me.retrodaredevil.solarthing.config.options.ProgramType;
 import me.retrodaredevil.solarthing.config.options.RequestProgramOptions;
+import me.retrodaredevil.solarthing.config.request.DataRequester;
 import me.retrodaredevil.solarthing.config.request.DataRequesterResult;
 import me.retrodaredevil.solarthing.config.request.RequestObject;
 import me.retrodaredevil.solarthing.misc.common.DataIdentifiablePacketListChecker;
 import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.handling.ConcurrentPacketListReceiver;
 import me.retrodaredevil.solarthing.packets.handling.PacketListReceiver;
 import me.retrodaredevil.solarthing.packets.handling.PacketListReceiverMultiplexer;
 import me.retrodaredevil.solarthing.program.receiver.RoverEventUpdaterListReceiver;
@@ -21,10 +26,14 @@ import me.retrodaredevil.solarthing.util.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class RequestMain {
@@ -54,7 +63,14 @@ public class RequestMain {
 		List<PacketListReceiver> packetListReceiverList = new ArrayList<>();
 		List<EnvironmentUpdater> environmentUpdaters = new ArrayList<>();
 
-		dataRequesterResults.stream().map(DataRequesterResult::getStatusPacketListReceiver).forEachOrdered(packetListReceiverList::add);
+		List<PacketListReceiver> statusPacketListReceivers = dataRequesterResults.stream().map(DataRequesterResult::getStatusPacketListReceiver).collect(Collectors.toList());
+		if (options.isParallel() && statusPacketListReceivers.size() > 1) {
+			Collection<List<PacketListReceiver>> groups = groupByIO(options.getDataRequesterList(), statusPacketListReceivers);
+			LOGGER.info("Will run " + statusPacketListReceivers.size() + " data requesters in " + groups.size() + " parallel groups with a deadline of " + options.getRequestDeadline());
+			packetListReceiverList.add(new ConcurrentPacketListReceiver(groups, options.getRequestDeadline()));
+		} else {
+			packetListReceiverList.addAll(statusPacketListReceivers);
+		}
 		dataRequesterResults.stream().map(DataRequesterResult::getEnvironmentUpdater).forEachOrdered(environmentUpdaters::add);
 
 		packetListReceiverList.add(new RoverEventUpdaterListReceiver(bundle.getEventHandler().getPacketListReceiverAccepter())); // will add events for each rover packet if there are any to add
@@ -95,5 +111,24 @@ public class RequestMain {
 		return SolarThingConstants.EXIT_CODE_INTERRUPTED;
 	}
 
-
+	/**
+	 * Groups the status {@link PacketListReceiver} of each data requester so that data requesters that use the same IO, and so the same bus, are in the same group.
+	 * Data requesters that use the same serial port are grouped together even if they use different IO bundle files.
+	 * @return The groups, in the order of the first data requester in each group
+	 */
+	private static Collection<List<PacketListReceiver>> groupByIO(List<DataRequester> dataRequesters, List<PacketListReceiver> statusPacketListReceivers) {
+		Map<Object, List<PacketListReceiver>> groupMap = new LinkedHashMap<>();
+		for (int i = 0; i < dataRequesters.size(); i++) {
+			Path ioBundleFile = dataRequesters.get(i).getIOBundleFile();
+			final Object key;
+			if (ioBundleFile == null) {
+				key = new Object(); // does not share anything, so it is in a group by itself
+			} else {
+				IOConfig ioConfig = ConfigUtil.parseIOConfig(ioBundleFile, null);
+				key = ioConfig instanceof SerialIOConfig ? "serial:" + ((SerialIOConfig) ioConfig).getPort() : ioBundleFile.toAbsolutePath().normalize();
+			}
+			groupMap.computeIfAbsent(key, k -> new ArrayList<>()).add(statusPacketListReceivers.get(i));
+		}
+		return groupMap.values();
+	}
 }
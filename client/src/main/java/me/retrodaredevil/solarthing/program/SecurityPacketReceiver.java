@@ -1,12 +1,12 @@
 package me.retrodaredevil.solarthing.program;
 
-import com.fasterxml.jackson.core.Base64Variants;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import me.retrodaredevil.solarthing.PacketGroupReceiver;
 import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.commands.event.ImmutableSecurityAcceptPacket;
 import me.retrodaredevil.solarthing.commands.event.ImmutableSecurityRejectPacket;
 import me.retrodaredevil.solarthing.commands.event.SecurityAcceptPacket;
@@ -36,12 +36,12 @@ import me.retrodaredevil.solarthing.util.JacksonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
-import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -58,7 +58,7 @@ public class SecurityPacketReceiver {
 
 	private final SimplePacketGroupParser integrityParser;
 
-	private final Cipher cipher;
+	private final LargeIntegrityVerifier verifier = new LargeIntegrityVerifier();
 	private final long listenStartTime;
 	private final int fragmentId;
 	private final String sourceId;
@@ -93,12 +93,13 @@ public class SecurityPacketReceiver {
 		// Use a DO_NOTHING error handler, because many instances of SecurityPacketReceiver will only have one or a few packetClasses.
 		//   So it's actually very likely that parsing a packet will fail often
 		integrityParser = new SimplePacketGroupParser(integrityMapper, PacketParsingErrorHandler.DO_NOTHING);
+	}
 
-		try {
-			cipher = Cipher.getInstance(KeyUtil.CIPHER_TRANSFORMATION);
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-			throw new RuntimeException(e);
-		}
+	/**
+	 * @return The number of packets that have been verified and verification latencies
+	 */
+	public LargeIntegrityVerifier.Statistics getVerificationStatistics() {
+		return verifier.getStatistics();
 	}
 
 	private static String storedIdentifierToDocumentId(StoredIdentifier storedIdentifier) {
@@ -149,13 +150,22 @@ public class SecurityPacketReceiver {
 		});
 	}
 
-	public void receivePacketGroups(List<StoredPacketGroup> packetGroups) {
+	/**
+	 * Processes packet groups that may contain commands for us. Packet groups that have already been processed are ignored.
+	 * <p>
+	 * This is synchronized because packet groups may be pushed from a changes feed while the open database is also being queried.
+	 * <p>
+	 * The expensive part of processing, decrypting and hashing, is done for all the given packet groups at once.
+	 * Everything else is done one packet group at a time, in order.
+	 */
+	public synchronized void receivePacketGroups(List<StoredPacketGroup> packetGroups) {
 		LOGGER.debug("received packets! size: " + packetGroups.size());
 		long minTime = System.currentTimeMillis() - 5 * 60 * 1000; // last 5 minutes allowed
 		processed.headSet(new DateMillisStoredIdentifier(minTime), false).clear(); // Remove data that we don't need to look at anymore
 		// We don't have a max time. If someone uploads a packet with a future date millis, then it will get handled immediately, then never again.
 		//   The only downside to this is that if the program restarts, there's the possibility of that command being processed again because it might be picked up by a query.
 		//   We won't worry about that, because we trust authenticated clients to not do that.
+		List<PendingVerification> pendingVerifications = new ArrayList<>();
 		for(StoredPacketGroup packetGroup : packetGroups){
 			if(packetGroup.getDateMillis() < minTime){
 				LOGGER.debug("Ignoring old packet: " + packetGroup.getStoredIdentifier());
@@ -172,17 +182,43 @@ public class SecurityPacketReceiver {
 			TargetPacketGroup targetPacketGroup = PacketGroups.parseToTargetPacketGroup(packetGroup);
 			if (targetPredicate.targets(targetPacketGroup, false)) {
 				processed.add(packetGroup.getStoredIdentifier());
-				receivePacketGroup(packetGroup, targetPacketGroup);
+				PendingVerification pendingVerification = startVerification(packetGroup, targetPacketGroup);
+				if (pendingVerification != null) {
+					pendingVerifications.add(pendingVerification);
+				}
+			}
+		}
+		if (pendingVerifications.isEmpty()) {
+			return;
+		}
+		for (PendingVerification pendingVerification : pendingVerifications) {
+			final LargeIntegrityVerifier.Result result;
+			try {
+				result = pendingVerification.future.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw e;
 			}
+			finishVerification(pendingVerification, result);
 		}
+		LOGGER.debug("Verified " + pendingVerifications.size() + " packet groups. " + verifier.getStatistics());
 	}
-	private void receivePacketGroup(StoredPacketGroup storedPacketGroup, TargetPacketGroup packetGroup) {
+
+	/**
+	 * Rejects the packet group if it is not a valid {@link LargeIntegrityPacket} or if the sender is not authorized.
+	 * Otherwise, starts verifying it.
+	 * @return The pending verification or null if the packet group will not be verified
+	 */
+	private @Nullable PendingVerification startVerification(StoredPacketGroup storedPacketGroup, TargetPacketGroup packetGroup) {
 		LOGGER.debug("Receiving packet group: " + storedPacketGroup.getStoredIdentifier());
 		long packetGroupDateMillis = packetGroup.getDateMillis();
 		List<? extends Packet> packetGroupPackets = packetGroup.getPackets();
 		if (packetGroupPackets.stream().noneMatch(packet -> packet instanceof SecurityPacket && !(packet instanceof AuthNewSenderPacket))) {
 			LOGGER.debug("This packet group has no useful SecurityPackets. Ignoring. identifier: " + storedPacketGroup.getStoredIdentifier());
-			return;
+			return null;
 		}
 		if (packetGroupPackets.size() != 1) {
 			/*
@@ -196,7 +232,7 @@ public class SecurityPacketReceiver {
 
 			LOGGER.warn("This packetGroup targeting us had a packetGroup.size != 1! stored identifier: " + storedPacketGroup.getStoredIdentifier());
 			reject(storedPacketGroup, SecurityRejectPacket.Reason.INVALID_DATA, "You cannot have more than one packet (besides source and target)");
-			return;
+			return null;
 		}
 		Packet packet = packetGroupPackets.stream().findFirst().orElseThrow(() -> new AssertionError("size should be 1! This should not fail"));
 		if (!(packet instanceof LargeIntegrityPacket)) {
@@ -210,7 +246,7 @@ public class SecurityPacketReceiver {
 				LOGGER.warn("Unknown packet: " + packet);
 				reject(storedPacketGroup, SecurityRejectPacket.Reason.UNKNOWN_ERROR, "Got unknown packet");
 			}
-			return;
+			return null;
 		}
 		LargeIntegrityPacket largeIntegrityPacket = (LargeIntegrityPacket) packet;
 		String sender = largeIntegrityPacket.getSender();
@@ -218,66 +254,45 @@ public class SecurityPacketReceiver {
 		if(invalidSenderReason != null){
 			LOGGER.warn(SolarThingConstants.SUMMARY_MARKER, invalidSenderReason);
 			reject(storedPacketGroup, SecurityRejectPacket.Reason.INVALID_DATA, invalidSenderReason);
-			return;
+			return null;
 		}
-		String encodedHash = decryptData(storedPacketGroup, sender, largeIntegrityPacket.getEncryptedHash(), packetGroupDateMillis);
-		if (encodedHash == null) {
-			// If encodedHash is null, then decryptData should have already called reject()
+		PublicKey publicKey = publicKeyLookUp.getKey(sender);
+		if (publicKey == null) {
+			LOGGER.info(SolarThingConstants.SUMMARY_MARKER, sender + " is not authorized!");
+			reject(storedPacketGroup, SecurityRejectPacket.Reason.UNAUTHORIZED, "Sender: " + sender + " is not authorized");
+			return null;
+		}
+		return new PendingVerification(storedPacketGroup, largeIntegrityPacket, packetGroupDateMillis, verifier.verifyAsync(publicKey, largeIntegrityPacket));
+	}
+
+	private void finishVerification(PendingVerification pendingVerification, LargeIntegrityVerifier.Result result) {
+		StoredPacketGroup storedPacketGroup = pendingVerification.storedPacketGroup;
+		String sender = pendingVerification.packet.getSender();
+		LargeIntegrityVerifier.Failure decryptFailure = result.getDecryptFailure();
+		if (decryptFailure != null) {
+			LOGGER.warn(SolarThingConstants.SUMMARY_MARKER, decryptFailure.getLogMessage(), decryptFailure.getException());
+			reject(storedPacketGroup, decryptFailure.getReason(), decryptFailure.getMoreInfo());
 			return;
 		}
-		byte[] decodedHash;
-		try {
-			decodedHash = Base64Variants.getDefaultVariant().decode(encodedHash);
-		} catch (IllegalArgumentException e) {
-			LOGGER.error("Not base64 data!", e);
-			reject(storedPacketGroup, SecurityRejectPacket.Reason.INVALID_DATA, "Not base64 data!");
+		if (!checkDateMillis(storedPacketGroup, sender, result.getDateMillis(), pendingVerification.expectedDateMillis)) {
+			// checkDateMillis should have already called reject()
 			return;
 		}
-		String payload = largeIntegrityPacket.getPayload();
-		byte[] payloadHash = HashUtil.hash(payload);
-		if (!Arrays.equals(decodedHash, payloadHash)) {
-			LOGGER.warn("Unsuccessfully compared hashes! The data may have been tampered with!");
-			reject(storedPacketGroup, SecurityRejectPacket.Reason.DIFFERENT_PAYLOAD, "Unsuccessfully compared hashes");
+		LargeIntegrityVerifier.Failure hashFailure = result.getHashFailure();
+		if (hashFailure != null) {
+			LOGGER.warn(hashFailure.getLogMessage(), hashFailure.getException());
+			reject(storedPacketGroup, hashFailure.getReason(), hashFailure.getMoreInfo());
 			return;
 		}
 		LOGGER.debug("Successfully compared hashes!");
-		handleMessage(storedPacketGroup, payload, sender);
+		handleMessage(storedPacketGroup, pendingVerification.packet.getPayload(), sender);
 	}
 
-	private String decryptData(StoredPacketGroup storedPacketGroup, String sender, String base64EncodedData, long expectedDateMillis) {
-		final String data;
-		try {
-			data = Decrypt.decrypt(cipher, publicKeyLookUp, sender, base64EncodedData);
-		} catch (DecryptException e) {
-			LOGGER.warn(SolarThingConstants.SUMMARY_MARKER, "Someone tried to impersonate " + sender + "! Or that person has a new public key.", e);
-			reject(storedPacketGroup, SecurityRejectPacket.Reason.DECRYPT_ERROR, "Decrypt error");
-			return null;
-		} catch (InvalidKeyException e) {
-			throw new RuntimeException("If there is a saved key, it should be valid! sender: " + sender, e);
-		} catch (NotAuthorizedException e) {
-			LOGGER.info(SolarThingConstants.SUMMARY_MARKER, sender + " is not authorized!", e);
-			reject(storedPacketGroup, SecurityRejectPacket.Reason.UNAUTHORIZED, "Sender: " + sender + " is not authorized");
-			return null;
-		}
-		final String[] split = data.split(",", 2);
-		LOGGER.debug("decrypted data: " + data);
-		if(split.length != 2){
-			// INVALID_DATA
-			LOGGER.warn("split.length: " + split.length + " split: " + Arrays.asList(split));
-			reject(storedPacketGroup, SecurityRejectPacket.Reason.INVALID_DATA, "split.length != 2");
-			return null;
-		}
-		String hexMillis = split[0];
-		String message = split[1];
-		final long dateMillis;
-		try {
-			dateMillis = Long.parseLong(hexMillis, 16);
-		} catch (NumberFormatException e){
-			// INVALID_DATA
-			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Error parsing hex date millis", e);
-			reject(storedPacketGroup, SecurityRejectPacket.Reason.INVALID_DATA, "Error parsing hex date millis");
-			return null;
-		}
+	/**
+	 * Makes sure that the date millis signed by the sender is the same as the date millis of the packet group, and that it is newer than the last command from the sender.
+	 * @return true if the date millis is valid, false if the packet group was rejected
+	 */
+	private boolean checkDateMillis(StoredPacketGroup storedPacketGroup, String sender, long dateMillis, long expectedDateMillis) {
 		if (dateMillis != expectedDateMillis) {
 			// Although we trust clients that are authenticated, we want to make sure that the
 			//   dateMillis they said, is actually what is encrypted for integrity.
@@ -286,7 +301,7 @@ public class SecurityPacketReceiver {
 			//   but that is not the case now.
 			LOGGER.warn(SolarThingConstants.SUMMARY_MARKER, "Encrypted dateMillis is not the same as the expected dateMillis. dateMillis (decrypted): " + dateMillis + ", expected dateMillis: " + expectedDateMillis);
 			reject(storedPacketGroup, SecurityRejectPacket.Reason.DIFFERENT_PAYLOAD, "Different dateMillis values");
-			return null;
+			return false;
 		}
 		Long lastCommand = senderLastCommandMap.get(sender);
 		long currentTime = System.currentTimeMillis();
@@ -294,16 +309,14 @@ public class SecurityPacketReceiver {
 			LOGGER.warn(SolarThingConstants.SUMMARY_MARKER, "Message from " + sender + " is from the future??? dateMillis: " + dateMillis + " currentTime: " + currentTime);
 			senderLastCommandMap.put(sender, dateMillis); // put this here anyway so it can't be used later
 			reject(storedPacketGroup, SecurityRejectPacket.Reason.CLOCK_VARIANCE, "This request is from too far in the future");
-			return null;
+			return false;
 		} else if(lastCommand != null && dateMillis <= lastCommand) { // if this command is old or if someone is trying to send the exact same command twice
 			LOGGER.debug("Message from " + sender + " was parsed, but was older than the last command they sent! dateMillis: " + dateMillis + " lastCommand: " + lastCommand);
 			reject(storedPacketGroup, SecurityRejectPacket.Reason.CLOCK_VARIANCE, "This request is older than last sent command");
-			return null;
-		} else {
-			senderLastCommandMap.put(sender, dateMillis);
-			return message;
+			return false;
 		}
-		// CLOCK_VARIANCE
+		senderLastCommandMap.put(sender, dateMillis);
+		return true;
 	}
 	private void handleMessage(StoredPacketGroup storedPacketGroup, String message, String sender) {
 		final JsonNode node;
@@ -349,6 +362,20 @@ public class SecurityPacketReceiver {
 		accept(storedPacketGroup);
 	}
 
+	private static final class PendingVerification {
+		private final StoredPacketGroup storedPacketGroup;
+		private final LargeIntegrityPacket packet;
+		private final long expectedDateMillis;
+		private final CompletableFuture<LargeIntegrityVerifier.Result> future;
+
+		private PendingVerification(StoredPacketGroup storedPacketGroup, LargeIntegrityPacket packet, long expectedDateMillis, CompletableFuture<LargeIntegrityVerifier.Result> future) {
+			this.storedPacketGroup = storedPacketGroup;
+			this.packet = packet;
+			this.expectedDateMillis = expectedDateMillis;
+			this.future = future;
+		}
+	}
+
 	public interface TargetPredicate {
 		boolean targets(TargetPacketGroup packetGroup, boolean isFromPayloadWithIntegrity);
 	}
@@ -38,6 +38,7 @@ import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Objects.requireNonNull;
 
@@ -54,13 +55,15 @@ public final class SolarMain {
 	 */
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SolarMain.class);
+	/** The maximum amount of time to wait for data before telling the {@link RawPacketReceiver} that there is no new data */
+	private static final long READER_NO_DATA_TIMEOUT_MILLIS = 20;
 
 	public static int initReader(InputStream in, Runnable reloadIO, TextPacketCreator packetCreator, RawPacketReceiver rawPacketReceiver) {
-		SolarReader solarReader = new SolarReader(in, packetCreator, rawPacketReceiver);
-		try {
+		try (SolarReader solarReader = new SolarReader(in, packetCreator, rawPacketReceiver)) {
 			while (!Thread.currentThread().isInterrupted()) {
 				try {
-					solarReader.update();
+					// blocks until data is received, so we don't have to sleep in between
+					solarReader.updateBlocking(READER_NO_DATA_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 				} catch (EOFException e) {
 					return 0;
 				} catch (IOException e) {
@@ -70,7 +73,6 @@ public final class SolarMain {
 					LOGGER.debug("Reloaded IO bundle");
 					Thread.sleep(1000);
 				}
-				Thread.sleep(5);
 			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
@@ -1,6 +1,7 @@
 package me.retrodaredevil.solarthing.program;
 
 import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.io.BackgroundInputStreamReader;
 import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.creation.PacketCreationException;
 import me.retrodaredevil.solarthing.packets.creation.TextPacketCreator;
@@ -14,17 +15,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Objects.requireNonNull;
 
-public class SolarReader {
+public class SolarReader implements AutoCloseable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SolarReader.class);
+	private static final int BUFFER_SIZE = 1024;
 
 	private final InputStream in;
 	private final TextPacketCreator creator;
 	private final RawPacketReceiver rawPacketReceiver;
 
-	private final byte[] buffer = new byte[1024];
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** The reader used by {@link #updateBlocking(long, TimeUnit)} or null if one has not been started since the last error */
+	private BackgroundInputStreamReader backgroundReader = null;
 
 	/**
 	 * @param in The InputStream to read directly from
@@ -59,27 +65,71 @@ public class SolarReader {
 			len = in.read(buffer); // read as much as possible
 			if(len == -1) throw new AssertionError("Because we call in.available(), len should never be -1. Did we change the code?");
 		}
-		// Use LATIN charset because we don't expect the MSB to be used. We only expect ASCII characters
-		String s = new String(buffer, 0, len, StandardCharsets.ISO_8859_1);
+		handleData(len);
+		return true;
+	}
+	private void handleData(int len) {
 		final Collection<? extends Packet> newPackets;
 		try {
-			newPackets = creator.add(s.toCharArray());
+			newPackets = creator.add(buffer, 0, len);
 		} catch (PacketCreationException e) {
-			String debugString = OutbackUtil.escapeOutputtedMateData(s);
+			// Use LATIN charset because we don't expect the MSB to be used. We only expect ASCII characters
+			String debugString = OutbackUtil.escapeOutputtedMateData(new String(buffer, 0, len, StandardCharsets.ISO_8859_1));
 			LOGGER.info("Got a garbled packet");
 			LOGGER.debug(SolarThingConstants.NO_CONSOLE, "Garbled packet is: '" + debugString + "'", e);
 			rawPacketReceiver.updateGarbledData();
-			return true;
+			return;
 		}
 
 		rawPacketReceiver.update(newPackets);
-		return true;
 	}
 
 	/**
-	 * Should be called continuously
+	 * Should be called continuously. This does not block, so the caller should sleep between calls.
 	 */
 	public void update() throws IOException {
 		readData();
 	}
+
+	/**
+	 * Blocks until data is received or until {@code timeout} has passed without any data. Data is read on a separate thread, so
+	 * no CPU is used while waiting.
+	 * <p>
+	 * If an {@link IOException} is thrown, the next call to this method starts reading again, which allows the IO to be reloaded in between.
+	 * @param timeout The maximum amount of time to wait for data. {@link RawPacketReceiver#updateNoNewData()} is called each time this passes without data.
+	 * @param unit The unit of {@code timeout}
+	 * @throws EOFException If the end of the stream has been reached
+	 * @throws IOException If there was an error reading from the stream
+	 * @throws InterruptedException If the current thread was interrupted while waiting
+	 */
+	public void updateBlocking(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		BackgroundInputStreamReader backgroundReader = this.backgroundReader;
+		if (backgroundReader == null) {
+			backgroundReader = new BackgroundInputStreamReader(in, BUFFER_SIZE, "solar-reader");
+			backgroundReader.start();
+			this.backgroundReader = backgroundReader;
+		}
+		final int len;
+		try {
+			len = backgroundReader.read(buffer, timeout, unit);
+		} catch (IOException e) {
+			// the background reader has stopped, so we start a new one next time
+			this.backgroundReader = null;
+			throw e;
+		}
+		if (len == 0) {
+			rawPacketReceiver.updateNoNewData();
+		} else {
+			handleData(len);
+		}
+	}
+
+	@Override
+	public void close() {
+		BackgroundInputStreamReader backgroundReader = this.backgroundReader;
+		if (backgroundReader != null) {
+			backgroundReader.close();
+			this.backgroundReader = null;
+		}
+	}
 }
@@ -9,54 +9,112 @@ import me.retrodaredevil.io.modbus.handling.ReadInputRegisters;
 import me.retrodaredevil.io.modbus.parsing.DefaultMessageParser;
 import me.retrodaredevil.io.modbus.parsing.MessageParseException;
 import me.retrodaredevil.io.modbus.parsing.MessageParser;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.BiFunction;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * A {@link ModbusSlave} which can be told periodically to cache certain values from a given {@link ModbusSlave}.
  * <p>
  * The advantage to this is that bulk requests can be performed and cached, then smaller requests can use that cache
  * to avoid many unnecessary and inefficient small requests.
+ * <p>
+ * Values are stored in one {@code int[]} per cached block, and a bitmap keeps track of which registers are valid.
+ * Calling {@link #clearCache()} starts a new generation, which invalidates every register. Each block remembers the generation and time it was cached in,
+ * so blocks from an older generation can be told apart from fresh ones using {@link #getCachedBlocks(ModbusReadPlan.RegisterType)}.
+ * <p>
+ * Each read request is counted as either a cache hit or a cache miss. The starting register of each cache miss is remembered
+ * so that registers missing from a {@link ModbusReadPlan} can be found.
  */
 public class ModbusCacheSlave implements ModbusSlave {
 	private static final MessageParser PARSER = new DefaultMessageParser();
 	private static final Logger LOGGER = LoggerFactory.getLogger(ModbusCacheSlave.class);
 
 	private final ModbusSlave modbusSlave;
-	private final Map<Integer, Integer> holdingRegisterCache = new HashMap<>();
-	private final Map<Integer, Integer> inputRegisterCache = new HashMap<>();
+	private final RegisterCache holdingRegisterCache = new RegisterCache(ModbusReadPlan.RegisterType.HOLDING);
+	private final RegisterCache inputRegisterCache = new RegisterCache(ModbusReadPlan.RegisterType.INPUT);
+	private long generation = 0;
+	private long cacheHitCount = 0;
+	private long cacheMissCount = 0;
 
 	public ModbusCacheSlave(ModbusSlave modbusSlave) {
 		this.modbusSlave = modbusSlave;
 	}
 
-	private void cache(int startRegister, int numberOfRegisters, Map<Integer, Integer> map, BiFunction<Integer, Integer, MessageHandler<int[]>> messageHandlerCreator) {
-		int[] registers = modbusSlave.sendRequestMessage(messageHandlerCreator.apply(startRegister, numberOfRegisters));
-		for (int i = 0; i < registers.length; i++) {
-			int register = startRegister + i;
-			int value = registers[i];
-			map.put(register, value);
-		}
-	}
-
 	public void cacheHolding(int startRegister, int numberOfRegisters) {
-		cache(startRegister, numberOfRegisters, holdingRegisterCache, ReadHoldingRegisters::new);
+		int[] registers = modbusSlave.sendRequestMessage(new ReadHoldingRegisters(startRegister, numberOfRegisters));
+		holdingRegisterCache.put(startRegister, registers, generation, System.currentTimeMillis());
 	}
 	public void cacheHoldingRangeInclusive(int startRegister, int endRegister) {
 		cacheHolding(startRegister, endRegister - startRegister + 1);
 	}
 
 	public void cacheInput(int startRegister, int numberOfRegisters) {
-		cache(startRegister, numberOfRegisters, inputRegisterCache, ReadInputRegisters::new);
+		int[] registers = modbusSlave.sendRequestMessage(new ReadInputRegisters(startRegister, numberOfRegisters));
+		inputRegisterCache.put(startRegister, registers, generation, System.currentTimeMillis());
 	}
 	public void cacheInputRangeInclusive(int startRegister, int endRegister) {
 		cacheInput(startRegister, endRegister - startRegister + 1);
 	}
 
+	/**
+	 * Starts a new generation and invalidates every cached register, so that values from a previous bulk request are never used
+	 */
+	public void clearCache() {
+		generation++;
+		holdingRegisterCache.valid.clear();
+		inputRegisterCache.valid.clear();
+	}
+
+	/**
+	 * @return The current generation. This is incremented each time {@link #clearCache()} is called.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return The blocks that have been cached, sorted by their starting register. A block is only valid if its generation is equal to {@link #getGeneration()}
+	 */
+	public List<CachedBlock> getCachedBlocks(ModbusReadPlan.RegisterType registerType) {
+		return Collections.unmodifiableList(getRegisterCache(registerType).blocks);
+	}
+
+	/** @return The number of read requests that were answered using cached values */
+	public long getCacheHitCount() {
+		return cacheHitCount;
+	}
+
+	/** @return The number of read requests that had to be sent to the device because not every register was cached */
+	public long getCacheMissCount() {
+		return cacheMissCount;
+	}
+
+	/** @return The starting register of each holding register read request that was a cache miss */
+	public Set<Integer> getMissedHoldingRegisters() {
+		return Collections.unmodifiableSet(holdingRegisterCache.missedRegisters);
+	}
+
+	/** @return The starting register of each input register read request that was a cache miss */
+	public Set<Integer> getMissedInputRegisters() {
+		return Collections.unmodifiableSet(inputRegisterCache.missedRegisters);
+	}
+
+	private RegisterCache getRegisterCache(ModbusReadPlan.RegisterType registerType) {
+		switch (registerType) {
+			case HOLDING: return holdingRegisterCache;
+			case INPUT: return inputRegisterCache;
+		}
+		throw new AssertionError("Unknown register type: " + registerType);
+	}
+
 	@Override
 	public ModbusMessage sendRequestMessage(ModbusMessage message) {
 		final MessageHandler<?> messageHandler;
@@ -75,19 +133,130 @@ public class ModbusCacheSlave implements ModbusSlave {
 //		LOGGER.debug("Couldn't handle message using messageHandler=" + messageHandler);
 		return modbusSlave.sendRequestMessage(message);
 	}
-	private ModbusMessage readFrom(ModbusMessage message, BaseReadRegisters read, Map<Integer, Integer> map) {
-		int[] values = new int[read.getNumberOfRegisters()];
-		for (int i = 0; i < values.length; i++) {
-			int register = read.getStartingDataAddress() + i;
-			Integer value = map.get(register);
-			if (value == null) {
-				if (i != 0) {
-					LOGGER.debug("Register: " + register + " didn't have a cached value, however some values for this request were cached. i: " + i);
-				}
-				return modbusSlave.sendRequestMessage(message);
+	private ModbusMessage readFrom(ModbusMessage message, BaseReadRegisters read, RegisterCache registerCache) {
+		int startRegister = read.getStartingDataAddress();
+		int numberOfRegisters = read.getNumberOfRegisters();
+		int firstInvalid = registerCache.valid.nextClearBit(startRegister);
+		if (firstInvalid < startRegister + numberOfRegisters) {
+			if (firstInvalid != startRegister) {
+				LOGGER.debug("Register: " + firstInvalid + " didn't have a cached value, however some values for this request were cached. i: " + (firstInvalid - startRegister));
 			}
-			values[i] = value;
+			cacheMissCount++;
+			registerCache.missedRegisters.add(startRegister);
+			return modbusSlave.sendRequestMessage(message);
 		}
+		int[] values = new int[numberOfRegisters];
+		registerCache.copyTo(startRegister, values);
+		cacheHitCount++;
 		return read.createResponse(values);
 	}
+
+	/**
+	 * A block of registers that has been cached
+	 */
+	public static final class CachedBlock {
+		private final ModbusReadPlan.RegisterType registerType;
+		private final int startRegister;
+		private final int[] values;
+		private long generation;
+		private long cacheTimeMillis;
+
+		private CachedBlock(ModbusReadPlan.RegisterType registerType, int startRegister, int[] values, long generation, long cacheTimeMillis) {
+			this.registerType = registerType;
+			this.startRegister = startRegister;
+			this.values = values;
+			this.generation = generation;
+			this.cacheTimeMillis = cacheTimeMillis;
+		}
+
+		public ModbusReadPlan.RegisterType getRegisterType() { return registerType; }
+		public int getStartRegister() { return startRegister; }
+		public int getNumberOfRegisters() { return values.length; }
+		/** @return The generation this block was cached in */
+		public long getGeneration() { return generation; }
+		/** @return The time in epoch millis that this block was cached at */
+		public long getCacheTimeMillis() { return cacheTimeMillis; }
+
+		private int getEndRegisterExclusive() { return startRegister + values.length; }
+
+		@Override
+		public String toString() {
+			return String.format("%s(0x%04X-0x%04X generation=%d cacheTimeMillis=%d)", registerType, startRegister, getEndRegisterExclusive() - 1, generation, cacheTimeMillis);
+		}
+	}
+
+	private static final class RegisterCache {
+		private final ModbusReadPlan.RegisterType registerType;
+		/** A bitmap of registers that have been cached in the current generation */
+		private final BitSet valid = new BitSet();
+		/** Blocks that do not overlap with each other, sorted by their starting register */
+		private final List<CachedBlock> blocks = new ArrayList<>();
+		private final Set<Integer> missedRegisters = new TreeSet<>();
+
+		private RegisterCache(ModbusReadPlan.RegisterType registerType) {
+			this.registerType = registerType;
+		}
+
+		/**
+		 * @return The index of the last block whose starting register is less than or equal to {@code register}, or -1 if there is no such block
+		 */
+		private int floorIndex(int register) {
+			int low = 0;
+			int high = blocks.size() - 1;
+			int result = -1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				if (blocks.get(middle).startRegister <= register) {
+					result = middle;
+					low = middle + 1;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return result;
+		}
+
+		private void put(int startRegister, int[] values, long generation, long cacheTimeMillis) {
+			if (values.length == 0) {
+				return;
+			}
+			int endRegister = startRegister + values.length; // exclusive
+			int index = floorIndex(startRegister);
+			if (index >= 0) {
+				CachedBlock block = blocks.get(index);
+				if (block.startRegister == startRegister && block.values.length == values.length) { // usually the same blocks are cached each time
+					System.arraycopy(values, 0, block.values, 0, values.length);
+					block.generation = generation;
+					block.cacheTimeMillis = cacheTimeMillis;
+					valid.set(startRegister, endRegister);
+					return;
+				}
+				if (block.getEndRegisterExclusive() <= startRegister) {
+					index++; // this block does not overlap, so keep it
+				}
+			} else {
+				index = 0;
+			}
+			while (index < blocks.size() && blocks.get(index).startRegister < endRegister) { // remove every block that overlaps with the new one
+				CachedBlock removed = blocks.remove(index);
+				valid.clear(removed.startRegister, removed.getEndRegisterExclusive());
+			}
+			blocks.add(index, new CachedBlock(registerType, startRegister, values, generation, cacheTimeMillis));
+			valid.set(startRegister, endRegister);
+		}
+
+		/**
+		 * Copies cached values into {@code values}. Every register being copied must be valid.
+		 */
+		private void copyTo(int startRegister, int[] values) {
+			int i = 0;
+			while (i < values.length) { // a single read may span multiple adjacent blocks
+				int register = startRegister + i;
+				CachedBlock block = blocks.get(floorIndex(register));
+				int length = Math.min(values.length - i, block.getEndRegisterExclusive() - register);
+				System.arraycopy(block.values, register - block.startRegister, values, i, length);
+				i += length;
+			}
+		}
+	}
 }
@@ -0,0 +1,210 @@
+package me.retrodaredevil.solarthing.program.modbus;
+
+import me.retrodaredevil.io.modbus.handling.BaseReadRegisters;
+import me.retrodaredevil.io.modbus.handling.MessageHandler;
+import me.retrodaredevil.io.modbus.handling.ReadHoldingRegisters;
+import me.retrodaredevil.io.modbus.handling.ReadInputRegisters;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A list of blocks of registers that should be read in bulk to fill a {@link ModbusCacheSlave}.
+ * <p>
+ * Plans are usually created from the {@link ReadHoldingRegisters} and {@link ReadInputRegisters} constants of a read table
+ * using {@link Builder#includeConstants(Class)}, so there are no register ranges that have to be kept in sync by hand.
+ * Registers are merged into as few blocks as possible. Blocks never contain more than {@link Builder#maxBlockSize(int)} registers,
+ * and two blocks are only joined if the gap between them is at most {@link Builder#maxGap(int)} registers. Excluded registers are never read as part of a block.
+ */
+public final class ModbusReadPlan {
+	/** The maximum number of registers that can be read in a single request according to the Modbus specification */
+	public static final int MODBUS_MAX_REGISTERS_PER_READ = 125;
+
+	private final List<Block> blocks;
+
+	private ModbusReadPlan(List<Block> blocks) {
+		this.blocks = Collections.unmodifiableList(blocks);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	@Override
+	public String toString() {
+		return "ModbusReadPlan(" + blocks + ")";
+	}
+
+	public enum RegisterType {
+		HOLDING,
+		INPUT,
+	}
+
+	public static final class Block {
+		private final RegisterType registerType;
+		private final int startRegister;
+		private final int numberOfRegisters;
+
+		public Block(RegisterType registerType, int startRegister, int numberOfRegisters) {
+			requireNonNull(this.registerType = registerType);
+			this.startRegister = startRegister;
+			this.numberOfRegisters = numberOfRegisters;
+			if (numberOfRegisters < 1) {
+				throw new IllegalArgumentException("numberOfRegisters must be >= 1! numberOfRegisters=" + numberOfRegisters);
+			}
+		}
+
+		public RegisterType getRegisterType() { return registerType; }
+		public int getStartRegister() { return startRegister; }
+		public int getNumberOfRegisters() { return numberOfRegisters; }
+		public int getEndRegisterInclusive() { return startRegister + numberOfRegisters - 1; }
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Block block = (Block) o;
+			return startRegister == block.startRegister && numberOfRegisters == block.numberOfRegisters && registerType == block.registerType;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(registerType, startRegister, numberOfRegisters);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s(0x%04X-0x%04X)", registerType, startRegister, getEndRegisterInclusive());
+		}
+	}
+
+	public static final class Builder {
+		private final BitSet holdingRegisters = new BitSet();
+		private final BitSet inputRegisters = new BitSet();
+		private final BitSet excludedHoldingRegisters = new BitSet();
+		private final BitSet excludedInputRegisters = new BitSet();
+		private int maxGap = 0;
+		private int maxBlockSize = MODBUS_MAX_REGISTERS_PER_READ;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param maxGap The maximum number of unused registers that may be read so that two blocks can be joined into one. By default this is 0,
+		 *               as some devices respond with an error when reading registers that do not exist.
+		 */
+		public Builder maxGap(int maxGap) {
+			if (maxGap < 0) {
+				throw new IllegalArgumentException("maxGap cannot be negative! maxGap=" + maxGap);
+			}
+			this.maxGap = maxGap;
+			return this;
+		}
+
+		public Builder maxBlockSize(int maxBlockSize) {
+			if (maxBlockSize < 1 || maxBlockSize > MODBUS_MAX_REGISTERS_PER_READ) {
+				throw new IllegalArgumentException("maxBlockSize must be in range [1, " + MODBUS_MAX_REGISTERS_PER_READ + "]! maxBlockSize=" + maxBlockSize);
+			}
+			this.maxBlockSize = maxBlockSize;
+			return this;
+		}
+
+		/**
+		 * Includes the registers of the given message handler. Message handlers that do not read holding or input registers are ignored.
+		 */
+		public Builder include(MessageHandler<?> messageHandler) {
+			if (messageHandler instanceof ReadHoldingRegisters) {
+				includeHolding(((BaseReadRegisters) messageHandler).getStartingDataAddress(), ((BaseReadRegisters) messageHandler).getNumberOfRegisters());
+			} else if (messageHandler instanceof ReadInputRegisters) {
+				includeInput(((BaseReadRegisters) messageHandler).getStartingDataAddress(), ((BaseReadRegisters) messageHandler).getNumberOfRegisters());
+			}
+			return this;
+		}
+
+		/**
+		 * Includes the registers of each static {@link ReadHoldingRegisters} and {@link ReadInputRegisters} constant declared in {@code readTableClass}
+		 */
+		public Builder includeConstants(Class<?> readTableClass) {
+			for (Field field : readTableClass.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers) || !MessageHandler.class.isAssignableFrom(field.getType())) {
+					continue;
+				}
+				final Object value;
+				try {
+					field.setAccessible(true);
+					value = field.get(null);
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					throw new IllegalArgumentException("Could not get the value of " + field + "!", e);
+				}
+				include((MessageHandler<?>) value);
+			}
+			return this;
+		}
+
+		public Builder includeHolding(int startRegister, int numberOfRegisters) {
+			holdingRegisters.set(startRegister, startRegister + numberOfRegisters);
+			return this;
+		}
+		public Builder includeInput(int startRegister, int numberOfRegisters) {
+			inputRegisters.set(startRegister, startRegister + numberOfRegisters);
+			return this;
+		}
+
+		/**
+		 * Makes sure that the given holding registers are never read as part of a block. If one of these registers is used, it is read individually when it is needed.
+		 */
+		public Builder excludeHoldingRangeInclusive(int startRegister, int endRegister) {
+			excludedHoldingRegisters.set(startRegister, endRegister + 1);
+			return this;
+		}
+		/**
+		 * Makes sure that the given input registers are never read as part of a block. If one of these registers is used, it is read individually when it is needed.
+		 */
+		public Builder excludeInputRangeInclusive(int startRegister, int endRegister) {
+			excludedInputRegisters.set(startRegister, endRegister + 1);
+			return this;
+		}
+
+		public ModbusReadPlan build() {
+			List<Block> blocks = new ArrayList<>();
+			addBlocks(blocks, RegisterType.HOLDING, holdingRegisters, excludedHoldingRegisters);
+			addBlocks(blocks, RegisterType.INPUT, inputRegisters, excludedInputRegisters);
+			return new ModbusReadPlan(blocks);
+		}
+
+		private void addBlocks(List<Block> blocks, RegisterType registerType, BitSet included, BitSet excluded) {
+			BitSet registers = (BitSet) included.clone();
+			registers.andNot(excluded);
+
+			int start = registers.nextSetBit(0);
+			while (start >= 0) {
+				int end = start; // inclusive
+				while (true) {
+					int next = registers.nextSetBit(end + 1);
+					if (next < 0 || next - end - 1 > maxGap || next - start + 1 > maxBlockSize) {
+						break;
+					}
+					int nextExcluded = excluded.nextSetBit(end + 1);
+					if (nextExcluded >= 0 && nextExcluded < next) { // we cannot read excluded registers to fill the gap
+						break;
+					}
+					end = next;
+				}
+				blocks.add(new Block(registerType, start, end - start + 1));
+				start = registers.nextSetBit(end + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package me.retrodaredevil.solarthing.program.modbus;
+
+import me.retrodaredevil.io.modbus.handling.ErrorCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Fills a {@link ModbusCacheSlave} by reading each block of a {@link ModbusReadPlan}. This should be run before every poll of a device.
+ * <p>
+ * The plan adapts to the device it is used with. If the device responds with {@link #EXCEPTION_ILLEGAL_DATA_VALUE}, it is assumed that too many registers
+ * were requested at once, so the number of registers read in a single request is halved for this and all later reloads.
+ * If the device responds with any other exception code, the block is split in half until the registers that cannot be read in bulk are found.
+ * Those registers are removed from the plan, so they are only read individually when they are needed.
+ */
+public class ModbusReadPlanCacheReloader implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ModbusReadPlanCacheReloader.class);
+	/**
+	 * The Modbus exception code returned when the number of registers requested is too large.
+	 * This is the same as {@link me.retrodaredevil.solarthing.solar.renogy.rover.modbus.RoverModbusSlaveRead#READ_EXCEPTION_TOO_MANY_REGISTERS_TO_READ}
+	 */
+	public static final int EXCEPTION_ILLEGAL_DATA_VALUE = 3;
+
+	private final ModbusCacheSlave modbusCacheSlave;
+	private List<ModbusReadPlan.Block> blocks;
+	private int maxRegistersPerRequest = ModbusReadPlan.MODBUS_MAX_REGISTERS_PER_READ;
+
+	private long lastCacheHitCount = 0;
+	private long lastCacheMissCount = 0;
+
+	public ModbusReadPlanCacheReloader(ModbusCacheSlave modbusCacheSlave, ModbusReadPlan readPlan) {
+		requireNonNull(this.modbusCacheSlave = modbusCacheSlave);
+		this.blocks = readPlan.getBlocks();
+	}
+
+	@Override
+	public void run() {
+		logStatistics();
+		modbusCacheSlave.clearCache();
+		List<ModbusReadPlan.Block> newBlocks = new ArrayList<>();
+		for (ModbusReadPlan.Block block : blocks) {
+			cacheBlock(block, newBlocks);
+		}
+		blocks = newBlocks; // only update the blocks if nothing was thrown
+	}
+
+	private void logStatistics() {
+		long cacheHitCount = modbusCacheSlave.getCacheHitCount();
+		long cacheMissCount = modbusCacheSlave.getCacheMissCount();
+		long hits = cacheHitCount - lastCacheHitCount;
+		long misses = cacheMissCount - lastCacheMissCount;
+		lastCacheHitCount = cacheHitCount;
+		lastCacheMissCount = cacheMissCount;
+		if (hits != 0 || misses != 0) {
+			LOGGER.debug("Last poll had " + hits + " cache hits and " + misses + " cache misses. Missed holding registers: " + toHexString(modbusCacheSlave.getMissedHoldingRegisters())
+					+ " missed input registers: " + toHexString(modbusCacheSlave.getMissedInputRegisters()));
+		}
+	}
+	private static String toHexString(Iterable<Integer> registers) {
+		StringBuilder builder = new StringBuilder("[");
+		boolean first = true;
+		for (int register : registers) {
+			if (first) {
+				first = false;
+			} else {
+				builder.append(", ");
+			}
+			builder.append(String.format("0x%04X", register));
+		}
+		return builder.append(']').toString();
+	}
+
+	/**
+	 * Caches the registers of {@code block}
+	 * @param block The block to cache
+	 * @param newBlocks The list to add the blocks that were successfully read to
+	 */
+	private void cacheBlock(ModbusReadPlan.Block block, List<ModbusReadPlan.Block> newBlocks) {
+		int register = block.getStartRegister();
+		while (register <= block.getEndRegisterInclusive()) {
+			int numberOfRegisters = Math.min(block.getEndRegisterInclusive() - register + 1, maxRegistersPerRequest);
+			ModbusReadPlan.Block part = new ModbusReadPlan.Block(block.getRegisterType(), register, numberOfRegisters);
+			try {
+				cache(part);
+				newBlocks.add(part);
+			} catch (ErrorCodeException ex) {
+				if (numberOfRegisters == 1) {
+					LOGGER.info("Got exception code " + ex.getExceptionCode() + " while reading " + part + " in bulk. It will no longer be read in bulk.");
+				} else if (ex.getExceptionCode() == EXCEPTION_ILLEGAL_DATA_VALUE) {
+					maxRegistersPerRequest = numberOfRegisters / 2;
+					LOGGER.info("Device said that " + numberOfRegisters + " registers was too many to read at once. Will now read at most " + maxRegistersPerRequest + " registers at once.");
+					continue;
+				} else {
+					LOGGER.debug("Got exception code " + ex.getExceptionCode() + " while reading " + part + " in bulk. Splitting it in half.");
+					int firstHalf = numberOfRegisters / 2;
+					cacheBlock(new ModbusReadPlan.Block(block.getRegisterType(), register, firstHalf), newBlocks);
+					cacheBlock(new ModbusReadPlan.Block(block.getRegisterType(), register + firstHalf, numberOfRegisters - firstHalf), newBlocks);
+				}
+			}
+			register += numberOfRegisters;
+		}
+	}
+	private void cache(ModbusReadPlan.Block block) {
+		switch (block.getRegisterType()) {
+			case HOLDING:
+				modbusCacheSlave.cacheHolding(block.getStartRegister(), block.getNumberOfRegisters());
+				break;
+			case INPUT:
+				modbusCacheSlave.cacheInput(block.getStartRegister(), block.getNumberOfRegisters());
+				break;
+			default:
+				throw new AssertionError("Unknown register type: " + block.getRegisterType());
+		}
+	}
+
+	/**
+	 * @return The blocks that will be read during the next reload. These may be smaller than the blocks of the original plan if the device could not read them.
+	 */
+	public List<ModbusReadPlan.Block> getBlocks() {
+		return blocks;
+	}
+}
@@ -0,0 +1,57 @@
+package me.retrodaredevil.solarthing.program.pvoutput;
+
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationConfig;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationPair;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationUtil;
+import me.retrodaredevil.solarthing.solar.common.DailyAdvancedChargeController;
+import me.retrodaredevil.solarthing.solar.common.DailyChargeController;
+import me.retrodaredevil.solarthing.solar.outback.fx.extra.DailyFXPacket;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Contains the {@link AccumulationPair}s for a single day that are needed to upload energy values to PVOutput
+ */
+public final class PVOutputAccumulation {
+	private final Map<IdentifierFragment, List<AccumulationPair<DailyChargeController>>> dailyMap;
+	private final Map<IdentifierFragment, List<AccumulationPair<DailyAdvancedChargeController>>> advancedMap;
+	private final Map<IdentifierFragment, List<AccumulationPair<DailyFXPacket>>> dailyFXMap;
+
+	public PVOutputAccumulation(
+			Map<IdentifierFragment, List<AccumulationPair<DailyChargeController>>> dailyMap,
+			Map<IdentifierFragment, List<AccumulationPair<DailyAdvancedChargeController>>> advancedMap,
+			Map<IdentifierFragment, List<AccumulationPair<DailyFXPacket>>> dailyFXMap
+	) {
+		this.dailyMap = requireNonNull(dailyMap);
+		this.advancedMap = requireNonNull(advancedMap);
+		this.dailyFXMap = requireNonNull(dailyFXMap);
+	}
+
+	/**
+	 * @param packetGroups Every packet group from a single day
+	 * @param accumulationConfig The accumulation config for that day
+	 * @return The accumulation calculated from all of {@code packetGroups}
+	 */
+	public static PVOutputAccumulation calculate(List<? extends FragmentedPacketGroup> packetGroups, AccumulationConfig accumulationConfig) {
+		return new PVOutputAccumulation(
+				AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyChargeController.class, packetGroups), accumulationConfig),
+				AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyAdvancedChargeController.class, packetGroups), accumulationConfig),
+				AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyFXPacket.class, packetGroups), accumulationConfig)
+		);
+	}
+
+	public Map<IdentifierFragment, List<AccumulationPair<DailyChargeController>>> getDailyMap() {
+		return dailyMap;
+	}
+	public Map<IdentifierFragment, List<AccumulationPair<DailyAdvancedChargeController>>> getAdvancedMap() {
+		return advancedMap;
+	}
+	public Map<IdentifierFragment, List<AccumulationPair<DailyFXPacket>>> getDailyFXMap() {
+		return dailyFXMap;
+	}
+}
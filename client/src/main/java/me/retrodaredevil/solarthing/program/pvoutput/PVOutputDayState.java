@@ -0,0 +1,146 @@
+package me.retrodaredevil.solarthing.program.pvoutput;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
+import me.retrodaredevil.solarthing.database.cache.SimpleDatabaseCache;
+import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.IncrementalPacketGroupMerger;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.program.PacketUtil;
+import me.retrodaredevil.solarthing.pvoutput.SimpleDate;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationConfig;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationPairTracker;
+import me.retrodaredevil.solarthing.solar.common.DailyAdvancedChargeController;
+import me.retrodaredevil.solarthing.solar.common.DailyChargeController;
+import me.retrodaredevil.solarthing.solar.outback.fx.extra.DailyFXPacket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps the packets and accumulation of a single day in memory so that each update of the live PVOutput upload only has to query
+ * and process packets that are new since the last update.
+ * <p>
+ * The first query of the day starts at the start of the day. After that, each query starts a little bit before the end of the last one
+ * so that packets that were uploaded late are still picked up.
+ * <p>
+ * Note: Not thread safe
+ */
+final class PVOutputDayState {
+	/** The amount of time before the end of the last query that the next query starts. Packets can be uploaded late, so this should not be 0 */
+	private static final long QUERY_OVERLAP_MILLIS = SimpleDatabaseCache.DEFAULT_VOLATILE_WINDOW_DURATION.toMillis();
+
+	private final SimpleDate date;
+	private final long dayStartTimeMillis;
+	private final String sourceId;
+	private final DefaultInstanceOptions defaultInstanceOptions;
+
+	private final IncrementalPacketGroupMerger merger;
+	/** The packet groups that the trackers currently represent. */
+	private final List<FragmentedPacketGroup> packetGroups = new ArrayList<>();
+	private final AccumulationPairTracker<DailyChargeController> dailyTracker = new AccumulationPairTracker<>(DailyChargeController.class);
+	private final AccumulationPairTracker<DailyAdvancedChargeController> advancedTracker = new AccumulationPairTracker<>(DailyAdvancedChargeController.class);
+	private final AccumulationPairTracker<DailyFXPacket> dailyFXTracker = new AccumulationPairTracker<>(DailyFXPacket.class);
+
+	private Long lastQueryEndDateMillis = null;
+
+	PVOutputDayState(SimpleDate date, long dayStartTimeMillis, @Nullable String sourceId, DefaultInstanceOptions defaultInstanceOptions) {
+		this.date = requireNonNull(date);
+		this.dayStartTimeMillis = dayStartTimeMillis;
+		this.sourceId = sourceId;
+		this.defaultInstanceOptions = requireNonNull(defaultInstanceOptions);
+		merger = PacketUtil.createIncrementalPacketGroupMerger(defaultInstanceOptions);
+	}
+
+	public SimpleDate getDate() {
+		return date;
+	}
+
+	public long getDayStartTimeMillis() {
+		return dayStartTimeMillis;
+	}
+
+	/**
+	 * @param now The current time
+	 * @return The query that should be used to get the packets that are needed for {@link #feed(List, MillisQuery)}
+	 */
+	public MillisQuery createQuery(long now) {
+		Long lastQueryEndDateMillis = this.lastQueryEndDateMillis;
+		long startDateMillis = lastQueryEndDateMillis == null ? dayStartTimeMillis : Math.max(dayStartTimeMillis, lastQueryEndDateMillis - QUERY_OVERLAP_MILLIS);
+		return new MillisQueryBuilder()
+				.startKey(startDateMillis)
+				.endKey(now)
+				.build();
+	}
+
+	/**
+	 * @param rawPacketGroups The result of {@code query}
+	 * @param query A query created by {@link #createQuery(long)}
+	 * @return Every merged packet group from the start of the day to the end of the query, or null if there are no packet groups for the source.
+	 * 			The returned list should not be used after this is fed again.
+	 */
+	public @Nullable List<FragmentedPacketGroup> feed(List<? extends PacketGroup> rawPacketGroups, MillisQuery query) {
+		long changedDateMillis = merger.feed(rawPacketGroups, requireNonNull(query.getStartKey()));
+		lastQueryEndDateMillis = query.getEndKey();
+
+		List<FragmentedPacketGroup> newPacketGroups = PacketUtil.getPacketGroups(sourceId, defaultInstanceOptions, merger.getPacketGroupsMap());
+		if (newPacketGroups == null) {
+			clearTrackers();
+			return null;
+		}
+		// Merged packet groups before changedDateMillis are the same instances as last time, unless a different source was picked
+		int unchangedCount = firstIndexOnOrAfter(packetGroups, changedDateMillis);
+		if (unchangedCount > newPacketGroups.size() || (unchangedCount > 0 && newPacketGroups.get(unchangedCount - 1) != packetGroups.get(unchangedCount - 1))) {
+			clearTrackers();
+			unchangedCount = 0;
+		}
+		List<FragmentedPacketGroup> addedPacketGroups = newPacketGroups.subList(unchangedCount, newPacketGroups.size());
+		packetGroups.subList(unchangedCount, packetGroups.size()).clear();
+		packetGroups.addAll(addedPacketGroups);
+		dailyTracker.truncate(unchangedCount);
+		advancedTracker.truncate(unchangedCount);
+		dailyFXTracker.truncate(unchangedCount);
+		dailyTracker.addAll(addedPacketGroups);
+		advancedTracker.addAll(addedPacketGroups);
+		dailyFXTracker.addAll(addedPacketGroups);
+		return Collections.unmodifiableList(packetGroups);
+	}
+
+	private void clearTrackers() {
+		packetGroups.clear();
+		dailyTracker.clear();
+		advancedTracker.clear();
+		dailyFXTracker.clear();
+	}
+
+	/**
+	 * @return The accumulation of every packet group returned by the last call to {@link #feed(List, MillisQuery)}
+	 */
+	public PVOutputAccumulation getAccumulation() {
+		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(dayStartTimeMillis);
+		return new PVOutputAccumulation(
+				dailyTracker.getAccumulationPairs(accumulationConfig),
+				advancedTracker.getAccumulationPairs(accumulationConfig),
+				dailyFXTracker.getAccumulationPairs(accumulationConfig)
+		);
+	}
+
+	private static int firstIndexOnOrAfter(List<? extends PacketGroup> packetGroups, long dateMillis) {
+		int low = 0;
+		int high = packetGroups.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (packetGroups.get(mid).getDateMillis() < dateMillis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
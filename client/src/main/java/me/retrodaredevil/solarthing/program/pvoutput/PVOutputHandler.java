@@ -30,6 +30,7 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -63,6 +64,13 @@ public class PVOutputHandler {
 	}
 
 	public AddStatusParameters getStatus(long dayStartTimeMillis, List<FragmentedPacketGroup> packetGroupList) {
+		return getStatus(dayStartTimeMillis, packetGroupList, PVOutputAccumulation.calculate(packetGroupList, AccumulationConfig.createDefault(dayStartTimeMillis)));
+	}
+
+	/**
+	 * @param accumulation The accumulation calculated from {@code packetGroupList}
+	 */
+	public AddStatusParameters getStatus(long dayStartTimeMillis, List<FragmentedPacketGroup> packetGroupList, PVOutputAccumulation accumulation) {
 		/*
 		TODO think about if we really want to use the grouped FragmentedPacketGroup list.
 		Alright. Lemme explain. This comment/to-do could really go in a bunch of places in SolarThing code, but I'm putting it here.
@@ -77,11 +85,7 @@ public class PVOutputHandler {
 		LOGGER.debug("Continuing with the latest packet group. Day start: " + dayStartTimeMillis);
 		AddStatusParametersBuilder addStatusParametersBuilder = createStatusBuilder(zoneId, latestPacketGroup.getDateMillis());
 		setStatusPowerValues(addStatusParametersBuilder, latestPacketGroup);
-		setStatusEnergyValues(
-				addStatusParametersBuilder,
-				packetGroupList,
-				AccumulationConfig.createDefault(dayStartTimeMillis)
-		);
+		setStatusEnergyValues(addStatusParametersBuilder, accumulation);
 		DataProvider.Result resultVoltage = voltageProvider.getResult(latestPacketGroup);
 		if (resultVoltage != null) {
 			addStatusParametersBuilder.setVoltage(resultVoltage.getValue());
@@ -103,9 +107,11 @@ public class PVOutputHandler {
 	}
 	private static boolean isGoodReading(TemperatureCelsiusProvider temperatureCelsiusProvider, float temperatureCelsius, List<FragmentedPacketGroup> packetGroupList, long startDateMillis) {
 		SortedSet<Float> uniqueReadings = new TreeSet<>();
-		for (FragmentedPacketGroup packetGroup : packetGroupList) {
+		// packetGroupList may contain an entire day of packets, so start from the end and stop once we reach older packets
+		for (ListIterator<FragmentedPacketGroup> iterator = packetGroupList.listIterator(packetGroupList.size()); iterator.hasPrevious(); ) {
+			FragmentedPacketGroup packetGroup = iterator.previous();
 			if (packetGroup.getDateMillis() < startDateMillis) {
-				continue;
+				break;
 			}
 			DataProvider.Result resultTemperatureCelsius = temperatureCelsiusProvider.getResult(packetGroup);
 			if (resultTemperatureCelsius != null) {
@@ -139,10 +145,10 @@ public class PVOutputHandler {
 		return builder.setPowerGeneration(data.getGeneratingWatts())
 				.setPowerConsumption(data.getConsumingWatts());
 	}
-	private static AddStatusParametersBuilder setStatusEnergyValues(AddStatusParametersBuilder builder, List<FragmentedPacketGroup> packetGroups, AccumulationConfig accumulationConfig) {
-		Map<IdentifierFragment, List<AccumulationPair<DailyChargeController>>> dailyMap = AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyChargeController.class, packetGroups), accumulationConfig);
-		Map<IdentifierFragment, List<AccumulationPair<DailyAdvancedChargeController>>> advancedMap = AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyAdvancedChargeController.class, packetGroups), accumulationConfig);
-		Map<IdentifierFragment, List<AccumulationPair<DailyFXPacket>>> dailyFXMap = AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyFXPacket.class, packetGroups), accumulationConfig);
+	private static AddStatusParametersBuilder setStatusEnergyValues(AddStatusParametersBuilder builder, PVOutputAccumulation accumulation) {
+		Map<IdentifierFragment, List<AccumulationPair<DailyChargeController>>> dailyMap = accumulation.getDailyMap();
+		Map<IdentifierFragment, List<AccumulationPair<DailyAdvancedChargeController>>> advancedMap = accumulation.getAdvancedMap();
+		Map<IdentifierFragment, List<AccumulationPair<DailyFXPacket>>> dailyFXMap = accumulation.getDailyFXMap();
 
 		if (!dailyMap.isEmpty()) { // energy produced
 			float generationKWH = AccumulationCalc.getSumTotal(dailyMap.values(), FloatAccumulationValue.convert(DailyChargeController::getDailyKWH), FloatAccumulationValueFactory.getInstance()).getValue();
@@ -159,7 +165,12 @@ public class PVOutputHandler {
 		return builder;
 	}
 	public static AddOutputParametersBuilder setImportedExported(AddOutputParametersBuilder builder, List<FragmentedPacketGroup> packetGroups, AccumulationConfig accumulationConfig, boolean includeImport, boolean includeExport) {
-		Map<IdentifierFragment, List<AccumulationPair<DailyFXPacket>>> dailyFXMap = AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyFXPacket.class, packetGroups), accumulationConfig);
+		return setImportedExported(builder, AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(DailyFXPacket.class, packetGroups), accumulationConfig), includeImport, includeExport);
+	}
+	public static AddOutputParametersBuilder setImportedExported(AddOutputParametersBuilder builder, PVOutputAccumulation accumulation, boolean includeImport, boolean includeExport) {
+		return setImportedExported(builder, accumulation.getDailyFXMap(), includeImport, includeExport);
+	}
+	private static AddOutputParametersBuilder setImportedExported(AddOutputParametersBuilder builder, Map<IdentifierFragment, List<AccumulationPair<DailyFXPacket>>> dailyFXMap, boolean includeImport, boolean includeExport) {
 		if (!dailyFXMap.isEmpty()) {
 			if (includeImport) {
 				float importKWH = AccumulationCalc.getSumTotal(dailyFXMap.values(), FloatAccumulationValue.convert(FXDailyData::getBuyKWH), FloatAccumulationValueFactory.getInstance()).getValue();
@@ -9,12 +9,14 @@ import me.retrodaredevil.solarthing.config.databases.DatabaseType;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
 import me.retrodaredevil.solarthing.config.options.PVOutputUploadProgramOptions;
 import me.retrodaredevil.solarthing.config.options.ProgramType;
+import me.retrodaredevil.solarthing.database.MillisQuery;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbSolarThingDatabase;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
 import me.retrodaredevil.solarthing.program.CommandOptions;
 import me.retrodaredevil.solarthing.config.ConfigUtil;
 import me.retrodaredevil.solarthing.config.databases.DatabaseConfig;
@@ -49,15 +51,26 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.format.TextStyle;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Objects.requireNonNull;
 
 public class PVOutputUploadMain {
 	private PVOutputUploadMain(){ throw new UnsupportedOperationException(); }
 	private static final Logger LOGGER = LoggerFactory.getLogger(PVOutputUploadMain.class);
 	private static final ObjectMapper MAPPER = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+	/** The number of days that are queried at the same time when doing a range upload */
+	private static final int RANGE_PREFETCH_DAYS = 4;
 
 	// TODO Make this an action for the automation program
 
@@ -128,52 +141,64 @@ public class PVOutputUploadMain {
 			PVOutputHandler handler, PVOutputService service, ZoneId zoneId
 	) {
 		List<AddOutputParameters> addOutputParameters = new ArrayList<>();
-		for(LocalDate date = fromDate; !date.isAfter(toDate); date = date.plusDays(1)) { // toDate is inclusive
-			System.out.println("Doing " + date);
-			Instant dayStart = date.atStartOfDay(zoneId).toInstant();
-			Instant dayEnd = date.plusDays(1).atStartOfDay(zoneId).toInstant();
+		// Query several days ahead of the day we are processing so that we don't have to wait for each query one at a time
+		ExecutorService queryExecutor = Executors.newFixedThreadPool(RANGE_PREFETCH_DAYS);
+		Deque<Future<List<StoredPacketGroup>>> queryFutures = new ArrayDeque<>();
+		LocalDate nextQueryDate = fromDate;
+		try {
+			for (LocalDate date = fromDate; !date.isAfter(toDate); date = date.plusDays(1)) { // toDate is inclusive
+				while (queryFutures.size() < RANGE_PREFETCH_DAYS && !nextQueryDate.isAfter(toDate)) {
+					queryFutures.addLast(queryExecutor.submit(createDayQuery(database, nextQueryDate, zoneId)));
+					nextQueryDate = nextQueryDate.plusDays(1);
+				}
+				Future<List<StoredPacketGroup>> queryFuture = requireNonNull(queryFutures.pollFirst());
+				System.out.println("Doing " + date);
+				Instant dayStart = date.atStartOfDay(zoneId).toInstant();
 
-			List<? extends PacketGroup> rawPacketGroups = null;
-			try {
-				rawPacketGroups = database.getStatusDatabase().query(new MillisQueryBuilder()
-						.startKey(dayStart.toEpochMilli())
-						.endKey(dayEnd.toEpochMilli())
-						.inclusiveEnd(false)
-						.build()
-				);
-				System.out.println("Got " + rawPacketGroups.size() + " packets for date: " + date);
-			} catch (SolarThingDatabaseException e) {
-				e.printStackTrace();
-				System.err.println("Couldn't query packets. Skipping " + date);
-			}
-			if (rawPacketGroups != null) {
-				List<FragmentedPacketGroup> packetGroups = PacketUtil.getPacketGroups(options.getSourceId(), options.getDefaultInstanceOptions(), rawPacketGroups);
+				List<? extends PacketGroup> rawPacketGroups = null;
+				try {
+					rawPacketGroups = queryFuture.get();
+					System.out.println("Got " + rawPacketGroups.size() + " packets for date: " + date);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					System.err.println("Interrupted");
+					return SolarThingConstants.EXIT_CODE_INTERRUPTED;
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					System.err.println("Couldn't query packets. Skipping " + date);
+				}
+				if (rawPacketGroups != null) {
+					List<FragmentedPacketGroup> packetGroups = PacketUtil.getPacketGroups(options.getSourceId(), options.getDefaultInstanceOptions(), rawPacketGroups);
 
-				if (packetGroups != null) {
-					if (!handler.checkPackets(dayStart.toEpochMilli(), packetGroups)) {
-						System.err.println("Unsuccessfully checked packets for " + date);
-						try {
-							System.out.println(MAPPER.writeValueAsString(packetGroups.get(packetGroups.size() - 1)));
-						} catch (JsonProcessingException e) {
-							e.printStackTrace();
+					if (packetGroups != null) {
+						if (!handler.checkPackets(dayStart.toEpochMilli(), packetGroups)) {
+							System.err.println("Unsuccessfully checked packets for " + date);
+							try {
+								System.out.println(MAPPER.writeValueAsString(packetGroups.get(packetGroups.size() - 1)));
+							} catch (JsonProcessingException e) {
+								e.printStackTrace();
+							}
+						} else {
+							PVOutputAccumulation accumulation = PVOutputAccumulation.calculate(packetGroups, AccumulationConfig.createDefault(dayStart.toEpochMilli()));
+							AddStatusParameters statusParameters = handler.getStatus(dayStart.toEpochMilli(), packetGroups, accumulation);
+							AddOutputParametersBuilder outputParametersBuilder = new AddOutputParametersBuilder(statusParameters.getDate())
+									.setGenerated(statusParameters.getEnergyGeneration())
+									.setConsumption(statusParameters.getEnergyConsumption());
+							PVOutputHandler.setImportedExported(outputParametersBuilder, accumulation, options.isIncludeImport(), options.isIncludeExport());
+							AddOutputParameters outputParameters = outputParametersBuilder.build();
+							addOutputParameters.add(outputParameters);
+							System.out.println("Added parameters for " + date + " to queue.");
+							System.out.println("Generated: " + statusParameters.getEnergyGeneration());
+							System.out.println(Arrays.toString(outputParameters.toCsvArray()));
+							System.out.println(CsvUtil.toCsvString(outputParameters.toCsvArray()));
 						}
 					} else {
-						AddStatusParameters statusParameters = handler.getStatus(dayStart.toEpochMilli(), packetGroups);
-						AddOutputParametersBuilder outputParametersBuilder = new AddOutputParametersBuilder(statusParameters.getDate())
-								.setGenerated(statusParameters.getEnergyGeneration())
-								.setConsumption(statusParameters.getEnergyConsumption());
-						PVOutputHandler.setImportedExported(outputParametersBuilder, packetGroups, AccumulationConfig.createDefault(dayStart.toEpochMilli()), options.isIncludeImport(), options.isIncludeExport());
-						AddOutputParameters outputParameters = outputParametersBuilder.build();
-						addOutputParameters.add(outputParameters);
-						System.out.println("Added parameters for " + date + " to queue.");
-						System.out.println("Generated: " + statusParameters.getEnergyGeneration());
-						System.out.println(Arrays.toString(outputParameters.toCsvArray()));
-						System.out.println(CsvUtil.toCsvString(outputParameters.toCsvArray()));
+						System.err.println("Didn't find any packets with source: " + options.getSourceId() + " for date: " + date);
 					}
-				} else {
-					System.err.println("Didn't find any packets with source: " + options.getSourceId() + " for date: " + date);
 				}
 			}
+		} finally {
+			queryExecutor.shutdownNow();
 		}
 		System.out.println("Going to upload in batches of 30...");
 		for (int i = 0; i < addOutputParameters.size(); i += 30) {
@@ -236,6 +261,15 @@ public class PVOutputUploadMain {
 		return 0;
 	}
 
+	private static Callable<List<StoredPacketGroup>> createDayQuery(SolarThingDatabase database, LocalDate date, ZoneId zoneId) {
+		MillisQuery query = new MillisQueryBuilder()
+				.startKey(date.atStartOfDay(zoneId).toInstant().toEpochMilli())
+				.endKey(date.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli())
+				.inclusiveEnd(false)
+				.build();
+		return () -> database.getStatusDatabase().query(query);
+	}
+
 	private static int startRealTimeProgram(
 			PVOutputUploadProgramOptions options, SolarThingDatabase database,
 			PVOutputHandler handler, PVOutputService service, ZoneId zoneId
@@ -279,24 +313,25 @@ public class PVOutputUploadMain {
 				}
 			}
 		}
+		PVOutputDayState dayState = null;
 		while(!Thread.currentThread().isInterrupted()){
 			LOGGER.debug("Going to do stuff now.");
 			long now = System.currentTimeMillis();
 			SimpleDate today = SimpleDate.fromDateMillis(now, zoneId);
-			long dayStartTimeMillis = today.getDayStartDateMillis(zoneId);
+			if (dayState == null || !dayState.getDate().equals(today)) {
+				dayState = new PVOutputDayState(today, today.getDayStartDateMillis(zoneId), options.getSourceId(), options.getDefaultInstanceOptions());
+			}
+			long dayStartTimeMillis = dayState.getDayStartTimeMillis();
+			MillisQuery query = dayState.createQuery(now);
 			List<? extends PacketGroup> rawPacketGroups = null;
 			try {
-				rawPacketGroups = database.getStatusDatabase().query(new MillisQueryBuilder()
-						.startKey(dayStartTimeMillis)
-						.endKey(now)
-						.build()
-				);
-				LOGGER.debug("Got packets");
+				rawPacketGroups = database.getStatusDatabase().query(query);
+				LOGGER.debug("Got " + rawPacketGroups.size() + " packets from " + query.getStartKey() + " to " + query.getEndKey());
 			} catch (SolarThingDatabaseException e) {
 				LOGGER.error("Couldn't get status packets", e);
 			}
 			if(rawPacketGroups != null){
-				List<FragmentedPacketGroup> packetGroups = PacketUtil.getPacketGroups(options.getSourceId(), options.getDefaultInstanceOptions(), rawPacketGroups);
+				List<FragmentedPacketGroup> packetGroups = dayState.feed(rawPacketGroups, query);
 				if (packetGroups != null) {
 					FragmentedPacketGroup latestPacketGroup = packetGroups.get(packetGroups.size() - 1);
 					if (latestPacketGroup.getDateMillis() < now - 5 * 60 * 1000) {
@@ -309,17 +344,18 @@ public class PVOutputUploadMain {
 					} else if (!handler.checkPackets(dayStartTimeMillis, packetGroups)){
 						LOGGER.warn("Checking packets unsuccessful.");
 					} else {
-						AddStatusParameters parameters = handler.getStatus(dayStartTimeMillis, packetGroups);
+						PVOutputAccumulation accumulation = dayState.getAccumulation();
+						AddStatusParameters parameters = handler.getStatus(dayStartTimeMillis, packetGroups, accumulation);
 						if (uploadStatus(service, parameters) && (options.isIncludeImport() || options.isIncludeExport())) {
 							// only upload output if status is successful
 							AddOutputParametersBuilder outputParametersBuilder = new AddOutputParametersBuilder(parameters.getDate());
-							PVOutputHandler.setImportedExported(outputParametersBuilder, packetGroups, AccumulationConfig.createDefault(dayStartTimeMillis), options.isIncludeImport(), options.isIncludeExport());
+							PVOutputHandler.setImportedExported(outputParametersBuilder, accumulation, options.isIncludeImport(), options.isIncludeExport());
 							AddOutputParameters outputParameters = outputParametersBuilder.build();
 							uploadOutput(service, outputParameters);
 						}
 					}
 				} else {
-					LOGGER.warn("Got " + rawPacketGroups.size() + " packets but, there must not have been any packets with the source: " + options.getSourceId());
+					LOGGER.warn("Got " + rawPacketGroups.size() + " packets but, there must not have been any packets today with the source: " + options.getSourceId());
 				}
 			}
 			LOGGER.debug("Going to sleep now");
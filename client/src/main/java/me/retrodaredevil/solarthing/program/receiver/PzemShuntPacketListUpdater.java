@@ -16,17 +16,20 @@ public class PzemShuntPacketListUpdater implements PacketListReceiver {
 	private final int dataId;
 	private final int modbusAddress;
 	private final PzemShuntReadTable read;
+	private final Runnable reloadCache;
 
-	public PzemShuntPacketListUpdater(int dataId, int modbusAddress, PzemShuntReadTable read) {
+	public PzemShuntPacketListUpdater(int dataId, int modbusAddress, PzemShuntReadTable read, Runnable reloadCache) {
 		this.dataId = dataId;
 		this.modbusAddress = modbusAddress;
 		this.read = read;
+		this.reloadCache = reloadCache;
 	}
 
 	@Override
 	public void receive(List<Packet> packets) {
 		final PzemShuntStatusPacket packet;
 		try {
+			reloadCache.run();
 			packet = ImmutablePzemShuntStatusPacket.createFromReadTable(dataId, modbusAddress, read);
 		} catch (ModbusRuntimeException ex) {
 			LOGGER.error("Modbus exception", ex);
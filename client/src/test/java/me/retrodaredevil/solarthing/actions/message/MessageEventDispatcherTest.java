@@ -0,0 +1,159 @@
+package me.retrodaredevil.solarthing.actions.message;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.message.MessageSender;
+import me.retrodaredevil.solarthing.message.event.MessageEvent;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MessageEventDispatcherTest {
+	private interface ChargerPacket extends Packet {}
+	private static final class InverterPacket implements Packet {}
+	private static final class FirstChargerPacket implements ChargerPacket {}
+	private static final class SecondChargerPacket implements ChargerPacket {}
+	private static final class BatteryPacket implements Packet {}
+	private static final class FeedbackPacket implements Packet {}
+	private static final class HeartbeatPacket implements Packet {}
+
+	private static final List<Class<? extends Packet>> STATUS_TYPES = List.of(InverterPacket.class, ChargerPacket.class, BatteryPacket.class);
+	private static final List<Class<? extends Packet>> EVENT_TYPES = List.of(FeedbackPacket.class, HeartbeatPacket.class);
+	static final MessageSender NO_OP_SENDER = message -> {};
+
+	/**
+	 * Like the events in this repository, this looks through the packets itself and does nothing if it does not find a packet it wants
+	 */
+	static final class CountingEvent implements MessageEvent {
+		private final @Nullable Set<Class<? extends Packet>> statusPacketTypes;
+		private final Set<Class<? extends Packet>> eventPacketTypes;
+		private final List<Integer> calls;
+		private final int number;
+
+		private CountingEvent(@Nullable Set<Class<? extends Packet>> statusPacketTypes, Set<Class<? extends Packet>> eventPacketTypes, List<Integer> calls, int number) {
+			this.statusPacketTypes = statusPacketTypes;
+			this.eventPacketTypes = eventPacketTypes;
+			this.calls = calls;
+			this.number = number;
+		}
+
+		private static boolean containsAny(List<? extends Packet> packets, Set<Class<? extends Packet>> packetTypes) {
+			for (Packet packet : packets) {
+				for (Class<? extends Packet> packetType : packetTypes) {
+					if (packetType.isInstance(packet)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void run(MessageSender sender, FragmentedPacketGroup previous, FragmentedPacketGroup current) {
+			if (statusPacketTypes == null || containsAny(current.getPackets(), statusPacketTypes)) {
+				calls.add(number);
+			}
+		}
+
+		@Override
+		public void runForEvent(MessageSender sender, InstancePacketGroup packetGroup) {
+			if (containsAny(packetGroup.getPackets(), eventPacketTypes)) {
+				calls.add(-number);
+			}
+		}
+
+		@Override
+		public @Nullable Set<Class<? extends Packet>> getStatusPacketTypes() {
+			return statusPacketTypes;
+		}
+
+		@Override
+		public Set<Class<? extends Packet>> getEventPacketTypes() {
+			return eventPacketTypes;
+		}
+	}
+
+	private static Packet createPacket(Class<? extends Packet> packetType, Random random) {
+		if (packetType == InverterPacket.class) return new InverterPacket();
+		if (packetType == ChargerPacket.class) return random.nextBoolean() ? new FirstChargerPacket() : new SecondChargerPacket();
+		if (packetType == BatteryPacket.class) return new BatteryPacket();
+		if (packetType == FeedbackPacket.class) return new FeedbackPacket();
+		if (packetType == HeartbeatPacket.class) return new HeartbeatPacket();
+		throw new AssertionError();
+	}
+
+	static List<CountingEvent> createEvents(int eventCount, List<Integer> calls) {
+		List<CountingEvent> events = new ArrayList<>();
+		for (int i = 0; i < eventCount; i++) {
+			int number = i + 1;
+			switch (i % 5) {
+				case 0: // a status event that does not declare what it needs, like NoHeartbeatEvent
+					events.add(new CountingEvent(null, Set.of(HeartbeatPacket.class), calls, number));
+					break;
+				case 1: // an event packet consumer, like ExecutionFeedbackEvent
+					events.add(new CountingEvent(Collections.emptySet(), Set.of(FeedbackPacket.class), calls, number));
+					break;
+				default:
+					events.add(new CountingEvent(Set.of(STATUS_TYPES.get(i % STATUS_TYPES.size())), Collections.emptySet(), calls, number));
+					break;
+			}
+		}
+		return events;
+	}
+
+	static FragmentedPacketGroup createStatusPacketGroup(Random random, long dateMillis) {
+		List<Packet> packets = new ArrayList<>();
+		for (Class<? extends Packet> packetType : STATUS_TYPES) {
+			if (random.nextInt(3) != 0) {
+				for (int i = random.nextInt(4); i >= 0; i--) {
+					packets.add(createPacket(packetType, random));
+				}
+			}
+		}
+		return PacketGroups.createFragmentedPacketGroup(List.of(PacketGroups.createInstancePacketGroup(packets, dateMillis, "default", 1)), dateMillis);
+	}
+	static InstancePacketGroup createEventPacketGroup(Random random, long dateMillis) {
+		List<Packet> packets = new ArrayList<>();
+		if (random.nextInt(4) != 0) {
+			packets.add(createPacket(EVENT_TYPES.get(random.nextInt(EVENT_TYPES.size())), random));
+		}
+		return PacketGroups.createInstancePacketGroup(packets, dateMillis, "default", 1);
+	}
+
+	@Test
+	void testSameCallsAsCallingEveryEvent() {
+		Random random = new Random(42);
+		List<Integer> expectedCalls = new ArrayList<>();
+		List<Integer> actualCalls = new ArrayList<>();
+		List<CountingEvent> expectedEvents = createEvents(40, expectedCalls);
+		MessageEventDispatcher dispatcher = new MessageEventDispatcher();
+		for (CountingEvent event : createEvents(40, actualCalls)) {
+			dispatcher.add(event, NO_OP_SENDER);
+		}
+		FragmentedPacketGroup previous = createStatusPacketGroup(random, 0);
+		for (int i = 1; i <= 200; i++) {
+			FragmentedPacketGroup current = createStatusPacketGroup(random, i * 1000L);
+			InstancePacketGroup eventPacketGroup = createEventPacketGroup(random, i * 1000L);
+
+			for (CountingEvent event : expectedEvents) {
+				event.run(NO_OP_SENDER, previous, current);
+			}
+			for (CountingEvent event : expectedEvents) {
+				event.runForEvent(NO_OP_SENDER, eventPacketGroup);
+			}
+			dispatcher.dispatchStatus(previous, current);
+			dispatcher.dispatchEvent(eventPacketGroup);
+			previous = current;
+		}
+		assertEquals(expectedCalls, actualCalls);
+	}
+}
@@ -0,0 +1,105 @@
+package me.retrodaredevil.solarthing.couchdb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.couchdbjava.CouchDbDatabase;
+import me.retrodaredevil.couchdbjava.response.BulkDocumentResponse;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.handling.PacketHandleException;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CouchDbPacketSaverTest {
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static PacketCollection create(int number) {
+		return PacketCollections.create(Instant.ofEpochMilli(1_000_000L + number), Collections.singletonList(InstanceSourcePackets.create("default")), "id-" + number);
+	}
+	private static BulkDocumentResponse ok(String id) {
+		return parseResponse("{\"ok\": true, \"id\": \"" + id + "\", \"rev\": \"1-abc\"}");
+	}
+	private static BulkDocumentResponse error(String id, String error) {
+		return parseResponse("{\"id\": \"" + id + "\", \"error\": \"" + error + "\", \"reason\": \"test\"}");
+	}
+	private static BulkDocumentResponse parseResponse(String json) {
+		try {
+			return MAPPER.readValue(json, BulkDocumentResponse.class);
+		} catch (JsonProcessingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * @return A database whose only supported operation is {@code postDocumentsBulk}, which returns {@code responses}
+	 */
+	private static CouchDbDatabase createDatabase(List<BulkDocumentResponse> responses) {
+		return (CouchDbDatabase) Proxy.newProxyInstance(CouchDbPacketSaverTest.class.getClassLoader(), new Class<?>[] { CouchDbDatabase.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "postDocumentsBulk":
+					return responses;
+				case "toString":
+					return "FakeCouchDbDatabase";
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	@Test
+	void testConflictsCountAsUploaded() throws PacketHandleException {
+		List<PacketCollection> packetCollections = List.of(create(0), create(1), create(2), create(3));
+		CouchDbPacketSaver packetSaver = new CouchDbPacketSaver(createDatabase(List.of(
+				ok("id-0"),
+				error("id-1", "conflict"), // uploaded by an earlier attempt
+				error("id-2", "forbidden"),
+				ok("id-3")
+		)), true);
+
+		List<PacketCollection> failed = packetSaver.handleAll(packetCollections);
+		assertEquals(1, failed.size());
+		assertSame(packetCollections.get(2), failed.get(0)); // the same instance is returned so it can be matched with the spool
+	}
+
+	@Test
+	void testFailedAreReturnedInOrder() throws PacketHandleException {
+		List<PacketCollection> packetCollections = List.of(create(0), create(1), create(2), create(3));
+		CouchDbPacketSaver packetSaver = new CouchDbPacketSaver(createDatabase(List.of(
+				ok("id-0"),
+				error("id-1", "unknown_error"),
+				error("id-2", "conflict"),
+				error("id-3", "forbidden")
+		)), true);
+
+		List<PacketCollection> failed = packetSaver.handleAll(packetCollections);
+		assertEquals(2, failed.size());
+		assertSame(packetCollections.get(1), failed.get(0));
+		assertSame(packetCollections.get(3), failed.get(1));
+	}
+
+	@Test
+	void testNothingUploadedThrows() {
+		List<PacketCollection> packetCollections = List.of(create(0), create(1));
+		CouchDbPacketSaver allFailed = new CouchDbPacketSaver(createDatabase(List.of(error("id-0", "forbidden"), error("id-1", "forbidden"))), true);
+		assertThrows(PacketHandleException.class, () -> allFailed.handleAll(packetCollections));
+
+		CouchDbPacketSaver missingResponses = new CouchDbPacketSaver(createDatabase(List.of(ok("id-0"))), true);
+		assertThrows(PacketHandleException.class, () -> missingResponses.handleAll(packetCollections));
+	}
+
+	@Test
+	void testAllConflictsIsSuccess() throws PacketHandleException {
+		List<PacketCollection> packetCollections = List.of(create(0), create(1));
+		CouchDbPacketSaver packetSaver = new CouchDbPacketSaver(createDatabase(List.of(error("id-0", "conflict"), error("id-1", "conflict"))), true);
+		assertEquals(Collections.emptyList(), packetSaver.handleAll(packetCollections));
+	}
+}
@@ -0,0 +1,105 @@
+package me.retrodaredevil.solarthing.influxdb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.solar.SolarStatusPacket;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class PacketPointSchemaTest {
+	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
+	private static final Path PACKETS_DIRECTORY = Path.of("../testing/packets"); // Working directory for tests and benchmarks are the /client folder
+
+	static List<Packet> readPackets() throws IOException {
+		List<Packet> r = new ArrayList<>();
+		for (String directoryName : new String[] { "fx", "mx", "rover", "tracer" }) {
+			List<Path> files;
+			try (Stream<Path> stream = Files.list(PACKETS_DIRECTORY.resolve(directoryName))) {
+				files = stream.sorted().collect(Collectors.toList());
+			}
+			for (Path file : files) {
+				r.add(MAPPER.readValue(file.toFile(), SolarStatusPacket.class));
+			}
+		}
+		return r;
+	}
+
+	/** The way points were created before {@link PacketPointSchema} existed */
+	static Map<String, String> describeUsingTree(Packet packet) {
+		Map<String, String> r = new LinkedHashMap<>();
+		Collection<String> tagKeys = PointUtil.getTagKeys(packet.getClass());
+		ObjectNode json = MAPPER.valueToTree(packet);
+		for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(json)) {
+			String key = entry.getKey();
+			ValueNode prim = entry.getValue();
+			if (tagKeys.contains(key)) {
+				r.put("tag:" + key, prim.asText());
+			}
+			if (prim.isNumber()) {
+				r.put(key, "number:" + prim.asDouble());
+			} else if (prim.isTextual() || prim.isBinary()) {
+				r.put(key, "string:" + prim.asText());
+			} else if (prim.isBoolean()) {
+				r.put(key, "boolean:" + prim.asBoolean());
+			} else throw new AssertionError("Unexpected primitive: " + prim);
+		}
+		return r;
+	}
+	static Map<String, String> describeUsingSchema(Packet packet) {
+		Map<String, String> r = new LinkedHashMap<>();
+		PacketPointSchema.forClass(packet.getClass()).visit(MAPPER, packet, new PacketPointSchema.FieldVisitor() {
+			@Override
+			public void tag(String key, String value) {
+				r.put("tag:" + key, value);
+			}
+
+			@Override
+			public void numberField(String key, Number value) {
+				r.put(key, "number:" + value.doubleValue());
+			}
+
+			@Override
+			public void stringField(String key, String value) {
+				r.put(key, "string:" + value);
+			}
+
+			@Override
+			public void booleanField(String key, boolean value) {
+				r.put(key, "boolean:" + value);
+			}
+		});
+		return r;
+	}
+
+	@Test
+	void testSameAsTree() throws IOException {
+		List<Packet> packets = readPackets();
+		assertFalse(packets.isEmpty());
+		for (Packet packet : packets) {
+			Map<String, String> expected = describeUsingTree(packet);
+			assertFalse(expected.isEmpty());
+			assertEquals(expected, describeUsingSchema(packet), "packet: " + packet);
+		}
+	}
+
+	@Test
+	void testSchemaIsCached() {
+		assertEquals(PacketPointSchema.forClass(String.class), PacketPointSchema.forClass(String.class));
+	}
+}
@@ -0,0 +1,75 @@
+package me.retrodaredevil.solarthing.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BackgroundInputStreamReaderTest {
+
+	@Test
+	void testReadsEverythingThenEnd() throws IOException, InterruptedException {
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		// a small ring buffer makes sure that the reading thread has to wait for space and wrap around
+		try (BackgroundInputStreamReader reader = new BackgroundInputStreamReader(new ByteArrayInputStream(data), 7, "test-reader")) {
+			reader.start();
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[5];
+			assertThrows(EOFException.class, () -> {
+				while (true) {
+					int len = reader.read(buffer, 1, TimeUnit.SECONDS);
+					result.write(buffer, 0, len);
+				}
+			});
+			assertArrayEquals(data, result.toByteArray());
+		}
+	}
+
+	@Test
+	void testTimeoutAndException() throws IOException, InterruptedException {
+		PipedOutputStream output = new PipedOutputStream();
+		PipedInputStream pipe = new PipedInputStream(output);
+		InputStream in = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				return pipe.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int r = pipe.read(b, off, len);
+				if (r == -1) {
+					throw new IOException("Disconnected");
+				}
+				return r;
+			}
+		};
+		try (BackgroundInputStreamReader reader = new BackgroundInputStreamReader(in, 64, "test-reader")) {
+			reader.start();
+			byte[] buffer = new byte[64];
+			assertEquals(0, reader.read(buffer, 10, TimeUnit.MILLISECONDS));
+
+			output.write("hello".getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+			assertEquals(5, reader.read(buffer, 5, TimeUnit.SECONDS));
+			assertEquals("hello", new String(buffer, 0, 5, StandardCharsets.US_ASCII));
+
+			output.close();
+			assertThrows(IOException.class, () -> reader.read(buffer, 5, TimeUnit.SECONDS));
+		}
+	}
+}
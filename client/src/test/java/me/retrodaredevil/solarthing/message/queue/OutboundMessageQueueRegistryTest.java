@@ -0,0 +1,56 @@
+package me.retrodaredevil.solarthing.message.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OutboundMessageQueueRegistryTest {
+	private static final MessageDelivery SUCCESS_DELIVERY = message -> DeliveryResult.success();
+
+	private static MessageQueueSettings createSettings(Path file) {
+		return new MessageQueueSettings(file, Duration.ofMinutes(1), null, null, null, null);
+	}
+
+	@Test
+	void testSameKeySharesQueue(@TempDir Path directory) {
+		OutboundMessageQueueRegistry registry = new OutboundMessageQueueRegistry();
+		AtomicInteger createCount = new AtomicInteger();
+		MessageQueueSettings settings = createSettings(directory.resolve("queue.json"));
+		OutboundMessageQueue first = registry.getQueue("channel", "test", settings, () -> {
+			createCount.incrementAndGet();
+			return SUCCESS_DELIVERY;
+		});
+		OutboundMessageQueue second = registry.getQueue("channel", "test", createSettings(directory.resolve("queue.json")), () -> {
+			createCount.incrementAndGet();
+			return SUCCESS_DELIVERY;
+		});
+		OutboundMessageQueue withoutSettings = registry.getQueue("channel", "test", null, () -> SUCCESS_DELIVERY);
+		assertSame(first, second);
+		assertSame(first, withoutSettings);
+		assertEquals(1, createCount.get());
+
+		first.sendMessage("Low battery");
+		assertEquals(1, second.getStatistics().getUndeliveredCount());
+		first.close();
+	}
+
+	@Test
+	void testDifferentKeysCannotShareFile(@TempDir Path directory) {
+		OutboundMessageQueueRegistry registry = new OutboundMessageQueueRegistry();
+		OutboundMessageQueue queue = registry.getQueue("channel", "test", createSettings(directory.resolve("queue.json")), () -> SUCCESS_DELIVERY);
+		assertThrows(IllegalArgumentException.class, () -> registry.getQueue("other-channel", "test", createSettings(directory.resolve("./queue.json")), () -> SUCCESS_DELIVERY));
+
+		OutboundMessageQueue otherQueue = registry.getQueue("other-channel", "test", createSettings(directory.resolve("other-queue.json")), () -> SUCCESS_DELIVERY);
+		assertNotSame(queue, otherQueue);
+		queue.close();
+		otherQueue.close();
+	}
+}
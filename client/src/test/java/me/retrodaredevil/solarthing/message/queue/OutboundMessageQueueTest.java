@@ -0,0 +1,147 @@
+package me.retrodaredevil.solarthing.message.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests {@link OutboundMessageQueue} with a {@link MessageDelivery} that gives scripted results.
+ * The way Slack's responses are turned into {@link DeliveryResult}s is tested in SlackMessageSenderTest.
+ */
+class OutboundMessageQueueTest {
+
+	/**
+	 * Each delivery gets the next queued result, or {@link DeliveryResult#success()} once there are none left.
+	 */
+	private static final class FakeDelivery implements MessageDelivery {
+		private final List<DeliveryResult> results = Collections.synchronizedList(new ArrayList<>());
+		private final List<String> deliveredMessages = Collections.synchronizedList(new ArrayList<>());
+		private final List<Long> deliveryNanos = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public DeliveryResult deliver(String message) {
+			deliveryNanos.add(System.nanoTime());
+			DeliveryResult result = results.isEmpty() ? DeliveryResult.success() : results.remove(0);
+			if (result.getType() == DeliveryResult.Type.SUCCESS) {
+				deliveredMessages.add(message);
+			}
+			return result;
+		}
+	}
+
+	private static void waitUntil(BooleanSupplier condition, String description) throws InterruptedException {
+		long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > endNanos) {
+				fail("Timed out waiting until " + description);
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static MessageQueueSettings createSettings(Path file, Duration coalesceWindow) {
+		return new MessageQueueSettings(file, coalesceWindow, Duration.ofMinutes(1), Duration.ZERO, null, null);
+	}
+
+	@Test
+	void testCoalescesMessagesAndWaitsForRetryAfter() throws InterruptedException {
+		FakeDelivery delivery = new FakeDelivery();
+		delivery.results.add(DeliveryResult.rateLimited(Duration.ofSeconds(2))); // longer than the back off after a failure
+		try (OutboundMessageQueue queue = new OutboundMessageQueue("test", delivery, createSettings(null, Duration.ofMillis(200)))) {
+			for (int i = 0; i < 5; i++) {
+				queue.sendMessage("message " + i);
+			}
+			waitUntil(() -> queue.getStatistics().getDeliveredCount() == 5, "every message is delivered");
+			assertEquals(List.of("message 0\nmessage 1\nmessage 2\nmessage 3\nmessage 4"), delivery.deliveredMessages);
+			long waitedNanos = delivery.deliveryNanos.get(1) - delivery.deliveryNanos.get(0);
+			// the wait is scheduled with millisecond precision, so it may be a tiny bit short
+			assertTrue(waitedNanos >= TimeUnit.MILLISECONDS.toNanos(1990), "Only waited " + waitedNanos + "ns after being rate limited");
+			assertEquals(1, queue.getStatistics().getDeliveryCount());
+		}
+	}
+
+	@Test
+	void testDeduplicatesRepeatedMessages() throws InterruptedException {
+		FakeDelivery delivery = new FakeDelivery();
+		try (OutboundMessageQueue queue = new OutboundMessageQueue("test", delivery, createSettings(null, Duration.ofMillis(200)))) {
+			queue.sendMessage("Low battery");
+			queue.sendMessage("AC mode changed");
+			queue.sendMessage("Low battery");
+			queue.sendMessage("Low battery");
+			waitUntil(() -> queue.getStatistics().getDeliveryCount() == 1, "the first delivery is made");
+			assertEquals(List.of("Low battery (repeated 3 times)\nAC mode changed"), delivery.deliveredMessages);
+
+			queue.sendMessage("Low battery"); // recently delivered, so it is not delivered again
+			queue.sendMessage("Generator on");
+			waitUntil(() -> queue.getStatistics().getDeliveryCount() == 2, "the second delivery is made");
+			assertEquals(List.of("Low battery (repeated 3 times)\nAC mode changed", "Generator on"), delivery.deliveredMessages);
+			assertEquals(3, queue.getStatistics().getDuplicateCount());
+		}
+	}
+
+	@Test
+	void testRetriesAfterFailure() throws InterruptedException {
+		FakeDelivery delivery = new FakeDelivery();
+		delivery.results.add(DeliveryResult.failed("Got status code 500", null));
+		try (OutboundMessageQueue queue = new OutboundMessageQueue("test", delivery, createSettings(null, Duration.ZERO))) {
+			queue.sendMessage("Generator off");
+			waitUntil(() -> queue.getStatistics().getDeliveredCount() == 1, "the message is delivered");
+			assertEquals(List.of("Generator off"), delivery.deliveredMessages);
+			assertEquals(2, delivery.deliveryNanos.size());
+		}
+	}
+
+	@Test
+	void testRejectedMessagesAreNotRetried() throws InterruptedException {
+		FakeDelivery delivery = new FakeDelivery();
+		delivery.results.add(DeliveryResult.rejected("channel_not_found"));
+		try (OutboundMessageQueue queue = new OutboundMessageQueue("test", delivery, createSettings(null, Duration.ZERO))) {
+			queue.sendMessage("Generator off");
+			waitUntil(() -> queue.getStatistics().getDroppedCount() == 1, "the message is dropped");
+			assertEquals(0, queue.getStatistics().getUndeliveredCount());
+
+			queue.sendMessage("Generator on");
+			waitUntil(() -> queue.getStatistics().getDeliveredCount() == 1, "the next message is delivered");
+			assertEquals(List.of("Generator on"), delivery.deliveredMessages);
+		}
+	}
+
+	@Test
+	void testUndeliveredMessagesSurviveRestart(@TempDir Path directory) throws InterruptedException {
+		Path file = directory.resolve("queue.json");
+		FakeDelivery delivery = new FakeDelivery();
+		// keep failing, so nothing is delivered before the restart
+		delivery.results.add(DeliveryResult.failed("Got status code 503", null));
+		delivery.results.add(DeliveryResult.failed("Got status code 503", null));
+		delivery.results.add(DeliveryResult.failed("Got status code 503", null));
+		try (OutboundMessageQueue queue = new OutboundMessageQueue("test", delivery, createSettings(file, Duration.ZERO))) {
+			queue.sendMessage("Low battery");
+			queue.sendMessage("Low battery");
+			waitUntil(() -> delivery.deliveryNanos.size() >= 1, "a delivery is attempted");
+			assertEquals(1, queue.getStatistics().getUndeliveredCount());
+			assertEquals(1, queue.getStatistics().getDuplicateCount());
+		}
+		assertTrue(delivery.deliveredMessages.isEmpty());
+		delivery.results.clear();
+
+		try (OutboundMessageQueue queue = new OutboundMessageQueue("test", delivery, createSettings(file, Duration.ZERO))) {
+			waitUntil(() -> queue.getStatistics().getUndeliveredCount() == 0, "the saved message is delivered");
+			assertEquals(List.of("Low battery (repeated 2 times)"), delivery.deliveredMessages);
+		}
+		// nothing is left to deliver after another restart
+		try (OutboundMessageQueue queue = new OutboundMessageQueue("test", delivery, createSettings(file, Duration.ZERO))) {
+			assertEquals(0, queue.getStatistics().getUndeliveredCount());
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package me.retrodaredevil.solarthing.netcat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class NioNetCatServerTest {
+	private static final NioNetCatServer.Listener IGNORE_DATA = (client, data) -> {};
+
+	private static void waitForClientCount(NioNetCatServer server, int clientCount) throws InterruptedException {
+		long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (server.getClients().size() != clientCount) {
+			if (System.nanoTime() > endNanos) {
+				fail("Expected " + clientCount + " clients, but there are " + server.getClients().size());
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	void testBroadcastToManyClients() throws Exception {
+		final int clientCount = 50;
+		final int messageCount = 200;
+		byte[] message = new byte[100];
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) i;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+		try (NioNetCatServer server = new NioNetCatServer(new InetSocketAddress("127.0.0.1", 0), 1024 * 1024, NioNetCatServer.SlowClientPolicy.DISCONNECT, IGNORE_DATA)) {
+			List<Socket> sockets = new ArrayList<>();
+			List<Future<byte[]>> futures = new ArrayList<>();
+			for (int i = 0; i < clientCount; i++) {
+				Socket socket = new Socket("127.0.0.1", server.getLocalAddress().getPort());
+				sockets.add(socket);
+				futures.add(executor.submit(() -> socket.getInputStream().readNBytes(message.length * messageCount)));
+			}
+			waitForClientCount(server, clientCount);
+
+			for (int i = 0; i < messageCount; i++) {
+				server.broadcast(message, 0, message.length);
+			}
+			for (Future<byte[]> future : futures) {
+				byte[] received = future.get(10, TimeUnit.SECONDS);
+				assertEquals(message.length * messageCount, received.length);
+				for (int i = 0; i < messageCount; i++) {
+					assertArrayEquals(message, Arrays.copyOfRange(received, i * message.length, (i + 1) * message.length));
+				}
+			}
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+			waitForClientCount(server, 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testSlowClientDoesNotBlockOthers() throws Exception {
+		byte[] message = new byte[1024];
+		try (NioNetCatServer server = new NioNetCatServer(new InetSocketAddress("127.0.0.1", 0), 4 * 1024, NioNetCatServer.SlowClientPolicy.DISCONNECT, IGNORE_DATA);
+			 Socket slowSocket = new Socket("127.0.0.1", server.getLocalAddress().getPort());
+			 Socket fastSocket = new Socket("127.0.0.1", server.getLocalAddress().getPort())) {
+			waitForClientCount(server, 2);
+			InputStream fastInput = fastSocket.getInputStream();
+
+			// slowSocket never reads, so the OS buffers and then its buffer in the server fill up
+			long startNanos = System.nanoTime();
+			long sentByteCount = 0;
+			while (server.getClients().size() == 2) {
+				server.broadcast(message, 0, message.length);
+				sentByteCount += message.length;
+				assertEquals(message.length, fastInput.readNBytes(message.length).length);
+				if (System.nanoTime() - startNanos > TimeUnit.SECONDS.toNanos(10)) {
+					fail("The slow client was never disconnected. Sent " + sentByteCount + " bytes");
+				}
+			}
+			// the fast client is still connected and still receiving data
+			server.broadcast(message, 0, message.length);
+			assertEquals(message.length, fastInput.readNBytes(message.length).length);
+			assertEquals(1, server.getClients().size());
+		}
+	}
+
+	@Test
+	void testDropPolicy() throws Exception {
+		byte[] message = new byte[1024];
+		try (NioNetCatServer server = new NioNetCatServer(new InetSocketAddress("127.0.0.1", 0), 4 * 1024, NioNetCatServer.SlowClientPolicy.DROP, IGNORE_DATA);
+			 Socket slowSocket = new Socket("127.0.0.1", server.getLocalAddress().getPort())) {
+			waitForClientCount(server, 1);
+			NioNetCatServer.Client client = server.getClients().iterator().next();
+			long startNanos = System.nanoTime();
+			while (client.getDroppedByteCount() == 0) {
+				server.broadcast(message, 0, message.length);
+				if (System.nanoTime() - startNanos > TimeUnit.SECONDS.toNanos(10)) {
+					fail("No data was ever dropped");
+				}
+			}
+			assertFalse(client.isClosed());
+			assertEquals(1, server.getClients().size());
+		}
+	}
+
+	@Test
+	void testEchoWithData() throws Exception {
+		try (NioNetCatServer server = new NioNetCatServer(new InetSocketAddress("127.0.0.1", 0), 1024, NioNetCatServer.SlowClientPolicy.DISCONNECT, (client, data) -> {
+				byte[] bytes = new byte[data.remaining()];
+				data.get(bytes);
+				client.send(bytes, 0, bytes.length);
+			});
+			 Socket socket = new Socket("127.0.0.1", server.getLocalAddress().getPort())) {
+			socket.getOutputStream().write("hello".getBytes(StandardCharsets.UTF_8));
+			assertEquals("hello", new String(socket.getInputStream().readNBytes(5), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void testListenerExceptionOnlyDisconnectsClient() throws Exception {
+		try (NioNetCatServer server = new NioNetCatServer(new InetSocketAddress("127.0.0.1", 0), 1024, NioNetCatServer.SlowClientPolicy.DISCONNECT, (client, data) -> {
+				byte[] bytes = new byte[data.remaining()];
+				data.get(bytes);
+				if (new String(bytes, StandardCharsets.UTF_8).equals("bad")) {
+					throw new IllegalStateException("Bad data");
+				}
+				client.send(bytes, 0, bytes.length);
+			});
+			 Socket badSocket = new Socket("127.0.0.1", server.getLocalAddress().getPort());
+			 Socket goodSocket = new Socket("127.0.0.1", server.getLocalAddress().getPort())) {
+			waitForClientCount(server, 2);
+			badSocket.getOutputStream().write("bad".getBytes(StandardCharsets.UTF_8));
+			assertEquals(-1, badSocket.getInputStream().read());
+			waitForClientCount(server, 1);
+
+			goodSocket.getOutputStream().write("good".getBytes(StandardCharsets.UTF_8));
+			assertEquals("good", new String(goodSocket.getInputStream().readNBytes(4), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void testConnectExceptionOnlyDisconnectsClient() throws Exception {
+		AtomicInteger connectCount = new AtomicInteger();
+		try (NioNetCatServer server = new NioNetCatServer(new InetSocketAddress("127.0.0.1", 0), 1024, NioNetCatServer.SlowClientPolicy.DISCONNECT, new NioNetCatServer.Listener() {
+				@Override
+				public void onConnect(NioNetCatServer.Client client) {
+					if (connectCount.getAndIncrement() == 0) {
+						throw new IllegalStateException("First connection");
+					}
+				}
+
+				@Override
+				public void onData(NioNetCatServer.Client client, ByteBuffer data) {
+					byte[] bytes = new byte[data.remaining()];
+					data.get(bytes);
+					client.send(bytes, 0, bytes.length);
+				}
+			});
+			 Socket firstSocket = new Socket("127.0.0.1", server.getLocalAddress().getPort())) {
+			assertEquals(-1, firstSocket.getInputStream().read());
+			try (Socket secondSocket = new Socket("127.0.0.1", server.getLocalAddress().getPort())) {
+				waitForClientCount(server, 1);
+				secondSocket.getOutputStream().write("hello".getBytes(StandardCharsets.UTF_8));
+				assertEquals("hello", new String(secondSocket.getInputStream().readNBytes(5), StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	@Test
+	void testNetCatServerHandler() throws Exception {
+		try (NetCatServerHandler handler = new NetCatServerHandler("127.0.0.1", 0);
+			 Socket socket = new Socket("127.0.0.1", handler.getLocalAddress().getPort())) {
+			ConnectionHandler connectionHandler = new ConnectionHandler(handler);
+			OutputStream output = socket.getOutputStream();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			output.write("first\r\nsec".getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			Thread.sleep(50);
+			output.write("ond\n".getBytes(StandardCharsets.UTF_8));
+			output.flush();
+
+			List<String> received = new ArrayList<>();
+			long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (received.size() < 2 && System.nanoTime() < endNanos) {
+				connectionHandler.handleRequests(line -> {
+					received.add(line);
+					return line.toUpperCase();
+				});
+				Thread.sleep(5);
+			}
+			assertEquals(List.of("first", "second"), received);
+			assertEquals("FIRST", reader.readLine());
+			assertEquals("SECOND", reader.readLine());
+		}
+	}
+
+	@Test
+	void testNetCatServerHandlerClosedConnection() throws Exception {
+		try (NetCatServerHandler handler = new NetCatServerHandler("127.0.0.1", 0)) {
+			Socket socket = new Socket("127.0.0.1", handler.getLocalAddress().getPort());
+			SimpleConnection connection = null;
+			long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (connection == null && System.nanoTime() < endNanos) {
+				connection = handler.poll();
+				Thread.sleep(5);
+			}
+			assertNotNull(connection);
+			socket.close();
+			while (true) {
+				try {
+					connection.pollLine();
+				} catch (EOFException e) {
+					break;
+				}
+				if (System.nanoTime() > endNanos) {
+					fail("Connection was never closed");
+				}
+				Thread.sleep(5);
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package me.retrodaredevil.solarthing.program;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.commands.packets.open.CommandOpenPacket;
+import me.retrodaredevil.solarthing.commands.packets.open.ImmutableRequestCommandPacket;
+import me.retrodaredevil.solarthing.database.DatabaseSource;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbStoredIdentifier;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import me.retrodaredevil.solarthing.packets.instance.InstanceTargetPackets;
+import me.retrodaredevil.solarthing.packets.security.ImmutableLargeIntegrityPacket;
+import me.retrodaredevil.solarthing.packets.security.LargeIntegrityPacket;
+import me.retrodaredevil.solarthing.packets.security.crypto.Encrypt;
+import me.retrodaredevil.solarthing.packets.security.crypto.HashUtil;
+import me.retrodaredevil.solarthing.packets.security.crypto.KeyUtil;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SecurityPacketReceiverTest {
+	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
+	private static final String SOURCE_ID = "default";
+	private static final int FRAGMENT_ID = 1;
+
+	private static final class FakeEventDatabase implements MillisDatabase {
+		private final AtomicInteger uploadCount = new AtomicInteger();
+
+		@Override
+		public List<StoredPacketGroup> query(MillisQuery query) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) {
+			uploadCount.incrementAndGet();
+			return null;
+		}
+
+		@Override
+		public VersionedPacket<StoredPacketGroup> getPacketCollection(String documentId) {
+			throw new UnsupportedOperationException();
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public UpdateToken getCurrentUpdateToken(String documentId) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public DatabaseSource getDatabaseSource() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static LargeIntegrityPacket createIntegrityPacket(Cipher cipher, KeyPair keyPair, String sender, long dateMillis) throws Exception {
+		PacketCollection packetCollection = PacketCollections.create(
+				Instant.ofEpochMilli(dateMillis),
+				Arrays.asList(new ImmutableRequestCommandPacket("GEN OFF"), InstanceSourcePackets.create(SOURCE_ID), InstanceTargetPackets.create(Collections.singleton(FRAGMENT_ID))),
+				"unused document ID that does not get serialized"
+		);
+		String payload;
+		try {
+			payload = MAPPER.writeValueAsString(packetCollection);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+		String encrypted = Encrypt.encrypt(cipher, keyPair.getPrivate(), Long.toHexString(dateMillis) + "," + HashUtil.encodedHash(payload));
+		return new ImmutableLargeIntegrityPacket(sender, encrypted, payload);
+	}
+	private static StoredPacketGroup createStoredPacketGroup(LargeIntegrityPacket packet, long dateMillis, String documentId) {
+		return PacketGroups.createStoredPacketGroup(
+				Arrays.asList(packet, InstanceSourcePackets.create(SOURCE_ID), InstanceTargetPackets.create(Collections.singleton(FRAGMENT_ID))),
+				dateMillis,
+				new CouchDbStoredIdentifier(dateMillis, documentId, "1-0")
+		);
+	}
+
+	@Test
+	void testVerifiesManySignedPackets() throws Exception {
+		Cipher cipher = KeyUtil.createCipher();
+		Map<String, KeyPair> keyPairs = new HashMap<>();
+		for (int i = 0; i < 3; i++) {
+			keyPairs.put("sender" + i, KeyUtil.generateKeyPair());
+		}
+		long now = System.currentTimeMillis();
+		List<StoredPacketGroup> packetGroups = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			String sender = "sender" + (i % keyPairs.size());
+			long dateMillis = now - 60_000 + i;
+			packetGroups.add(createStoredPacketGroup(createIntegrityPacket(cipher, keyPairs.get(sender), sender, dateMillis), dateMillis, "command-" + i));
+		}
+		List<String> receivedSenders = Collections.synchronizedList(new ArrayList<>());
+		FakeEventDatabase eventDatabase = new FakeEventDatabase();
+		SecurityPacketReceiver receiver = new SecurityPacketReceiver(
+				sender -> {
+					KeyPair keyPair = keyPairs.get(sender);
+					return keyPair == null ? null : keyPair.getPublic();
+				},
+				(sender, packetGroup) -> receivedSenders.add(sender),
+				new SecurityPacketReceiver.InstanceTargetPredicate(SOURCE_ID, FRAGMENT_ID),
+				Collections.singleton(CommandOpenPacket.class),
+				now - 120_000,
+				FRAGMENT_ID, SOURCE_ID,
+				eventDatabase
+		);
+		receiver.receivePacketGroups(packetGroups);
+
+		assertEquals(packetGroups.size(), receivedSenders.size());
+		for (int i = 0; i < receivedSenders.size(); i++) {
+			assertEquals("sender" + (i % keyPairs.size()), receivedSenders.get(i)); // order is kept
+		}
+		assertEquals(packetGroups.size(), receiver.getVerificationStatistics().getVerifiedCount());
+	}
+
+	@Test
+	void testVerifiedAndTamperedResults() throws Exception {
+		Cipher cipher = KeyUtil.createCipher();
+		KeyPair keyPair = KeyUtil.generateKeyPair();
+		long dateMillis = System.currentTimeMillis();
+		LargeIntegrityPacket packet = createIntegrityPacket(cipher, keyPair, "sender", dateMillis);
+		LargeIntegrityVerifier verifier = new LargeIntegrityVerifier();
+
+		LargeIntegrityVerifier.Result result = verifier.verifyAsync(keyPair.getPublic(), packet).join();
+		assertTrue(result.isVerified());
+		assertEquals(dateMillis, result.getDateMillis());
+		assertEquals(1, verifier.getStatistics().getVerifiedCount());
+
+		PublicKey otherKey = KeyUtil.generateKeyPair().getPublic();
+		LargeIntegrityVerifier.Result otherKeyResult = verifier.verifyAsync(otherKey, packet).join();
+		assertFalse(otherKeyResult.isVerified());
+		assertEquals(2, verifier.getStatistics().getVerifiedCount());
+
+		LargeIntegrityPacket tampered = new ImmutableLargeIntegrityPacket("sender", packet.getEncryptedHash(), packet.getPayload().replace("GEN OFF", "GEN ON"));
+		LargeIntegrityVerifier.Result tamperedResult = verifier.verifyAsync(keyPair.getPublic(), tampered).join();
+		assertNull(tamperedResult.getDecryptFailure());
+		assertFalse(tamperedResult.isVerified());
+	}
+}
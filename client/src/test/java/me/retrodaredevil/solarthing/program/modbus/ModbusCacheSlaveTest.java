@@ -0,0 +1,173 @@
+package me.retrodaredevil.solarthing.program.modbus;
+
+import me.retrodaredevil.io.modbus.ModbusMessage;
+import me.retrodaredevil.io.modbus.ModbusMessages;
+import me.retrodaredevil.io.modbus.ModbusSlave;
+import me.retrodaredevil.io.modbus.handling.BaseReadRegisters;
+import me.retrodaredevil.io.modbus.handling.ErrorCodeException;
+import me.retrodaredevil.io.modbus.handling.ReadHoldingRegisters;
+import me.retrodaredevil.io.modbus.handling.ReadInputRegisters;
+import me.retrodaredevil.io.modbus.parsing.DefaultMessageParser;
+import me.retrodaredevil.io.modbus.parsing.MessageParseException;
+import me.retrodaredevil.io.modbus.parsing.MessageParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModbusCacheSlaveTest {
+
+	/**
+	 * A fake device where the value of each holding register is its address, and the value of each input register is its address plus one
+	 */
+	private static final class FakeDevice implements ModbusSlave {
+		private static final MessageParser PARSER = new DefaultMessageParser();
+		private final int maxRegistersPerRequest;
+		private final Set<Integer> unsupportedRegisters;
+		/** Registers that can only be read by themselves */
+		private final Set<Integer> unsupportedInBulkRegisters;
+		private int requestCount = 0;
+
+		private FakeDevice(int maxRegistersPerRequest, Set<Integer> unsupportedRegisters, Set<Integer> unsupportedInBulkRegisters) {
+			this.maxRegistersPerRequest = maxRegistersPerRequest;
+			this.unsupportedRegisters = unsupportedRegisters;
+			this.unsupportedInBulkRegisters = unsupportedInBulkRegisters;
+		}
+		private FakeDevice(int maxRegistersPerRequest, Set<Integer> unsupportedRegisters) {
+			this(maxRegistersPerRequest, unsupportedRegisters, Collections.emptySet());
+		}
+		private FakeDevice() {
+			this(ModbusReadPlan.MODBUS_MAX_REGISTERS_PER_READ, Collections.emptySet());
+		}
+
+		@Override
+		public ModbusMessage sendRequestMessage(ModbusMessage message) {
+			requestCount++;
+			final BaseReadRegisters read;
+			try {
+				read = (BaseReadRegisters) PARSER.parseRequestMessage(message);
+			} catch (MessageParseException e) {
+				throw new AssertionError(e);
+			}
+			ModbusMessage errorMessage = ModbusMessages.createMessage(message.getFunctionCode() | 0x80, new int[0]);
+			if (read.getNumberOfRegisters() > maxRegistersPerRequest) {
+				throw new ErrorCodeException(errorMessage, message.getFunctionCode(), 3);
+			}
+			int[] values = new int[read.getNumberOfRegisters()];
+			for (int i = 0; i < values.length; i++) {
+				int register = read.getStartingDataAddress() + i;
+				if (unsupportedRegisters.contains(register) || (values.length > 1 && unsupportedInBulkRegisters.contains(register))) {
+					throw new ErrorCodeException(errorMessage, message.getFunctionCode(), 2);
+				}
+				values[i] = read instanceof ReadInputRegisters ? register + 1 : register;
+			}
+			return read.createResponse(values);
+		}
+	}
+
+	@Test
+	void testCachedReadsDoNotUseDevice() {
+		FakeDevice device = new FakeDevice();
+		ModbusCacheSlave cacheSlave = new ModbusCacheSlave(device);
+		cacheSlave.cacheHoldingRangeInclusive(10, 19);
+		cacheSlave.cacheHoldingRangeInclusive(20, 29);
+		cacheSlave.cacheInputRangeInclusive(10, 19);
+		assertEquals(3, device.requestCount);
+
+		assertArrayEquals(new int[] { 12, 13 }, cacheSlave.sendRequestMessage(new ReadHoldingRegisters(12, 2)));
+		assertArrayEquals(new int[] { 18, 19, 20, 21 }, cacheSlave.sendRequestMessage(new ReadHoldingRegisters(18, 4))); // spans two blocks
+		assertArrayEquals(new int[] { 11 }, cacheSlave.sendRequestMessage(new ReadInputRegisters(10, 1)));
+		assertEquals(3, device.requestCount);
+		assertEquals(3, cacheSlave.getCacheHitCount());
+		assertEquals(0, cacheSlave.getCacheMissCount());
+
+		assertArrayEquals(new int[] { 29, 30 }, cacheSlave.sendRequestMessage(new ReadHoldingRegisters(29, 2))); // 30 is not cached
+		assertEquals(4, device.requestCount);
+		assertEquals(1, cacheSlave.getCacheMissCount());
+		assertEquals(Collections.singleton(29), cacheSlave.getMissedHoldingRegisters());
+	}
+
+	@Test
+	void testGenerations() {
+		FakeDevice device = new FakeDevice();
+		ModbusCacheSlave cacheSlave = new ModbusCacheSlave(device);
+		cacheSlave.cacheHoldingRangeInclusive(10, 19);
+		List<ModbusCacheSlave.CachedBlock> blocks = cacheSlave.getCachedBlocks(ModbusReadPlan.RegisterType.HOLDING);
+		assertEquals(1, blocks.size());
+		assertEquals(cacheSlave.getGeneration(), blocks.get(0).getGeneration());
+
+		cacheSlave.clearCache();
+		assertEquals(blocks.get(0).getGeneration() + 1, cacheSlave.getGeneration()); // the block is now stale
+		cacheSlave.sendRequestMessage(new ReadHoldingRegisters(10, 1));
+		assertEquals(2, device.requestCount);
+		assertEquals(1, cacheSlave.getCacheMissCount());
+
+		cacheSlave.cacheHoldingRangeInclusive(10, 19);
+		assertEquals(cacheSlave.getGeneration(), blocks.get(0).getGeneration());
+		cacheSlave.sendRequestMessage(new ReadHoldingRegisters(10, 1));
+		assertEquals(3, device.requestCount);
+		assertEquals(1, cacheSlave.getCacheHitCount());
+	}
+
+	@Test
+	void testOverlappingBlockReplacesOldBlock() {
+		FakeDevice device = new FakeDevice();
+		ModbusCacheSlave cacheSlave = new ModbusCacheSlave(device);
+		cacheSlave.cacheHoldingRangeInclusive(10, 19);
+		cacheSlave.cacheHoldingRangeInclusive(15, 24);
+		assertEquals(1, cacheSlave.getCachedBlocks(ModbusReadPlan.RegisterType.HOLDING).size());
+		assertArrayEquals(new int[] { 15, 16 }, cacheSlave.sendRequestMessage(new ReadHoldingRegisters(15, 2)));
+		assertEquals(2, device.requestCount);
+		cacheSlave.sendRequestMessage(new ReadHoldingRegisters(10, 1)); // no longer cached
+		assertEquals(3, device.requestCount);
+	}
+
+	@Test
+	void testReloaderAdaptsToDevice() {
+		FakeDevice device = new FakeDevice(4, new HashSet<>(Arrays.asList(13)));
+		ModbusCacheSlave cacheSlave = new ModbusCacheSlave(device);
+		ModbusReadPlanCacheReloader reloader = new ModbusReadPlanCacheReloader(cacheSlave, ModbusReadPlan.builder().includeHolding(10, 8).build());
+		reloader.run();
+		assertEquals(Arrays.asList(
+				new ModbusReadPlan.Block(ModbusReadPlan.RegisterType.HOLDING, 10, 2),
+				new ModbusReadPlan.Block(ModbusReadPlan.RegisterType.HOLDING, 12, 1),
+				new ModbusReadPlan.Block(ModbusReadPlan.RegisterType.HOLDING, 14, 4)
+		), reloader.getBlocks());
+
+		device.requestCount = 0;
+		reloader.run();
+		assertEquals(3, device.requestCount);
+		assertArrayEquals(new int[] { 14, 15, 16, 17 }, cacheSlave.sendRequestMessage(new ReadHoldingRegisters(14, 4)));
+		assertEquals(3, device.requestCount);
+	}
+
+	@Test
+	void testRegistersThatFailInBulkAreReadIndividually() {
+		FakeDevice device = new FakeDevice(ModbusReadPlan.MODBUS_MAX_REGISTERS_PER_READ, Collections.emptySet(), Collections.singleton(13));
+		ModbusCacheSlave cacheSlave = new ModbusCacheSlave(device);
+		ModbusReadPlanCacheReloader reloader = new ModbusReadPlanCacheReloader(cacheSlave, ModbusReadPlan.builder().includeHolding(10, 8).build());
+		reloader.run();
+		// the bulk read failed, so the block was split until 13 was read by itself
+		assertEquals(Arrays.asList(
+				new ModbusReadPlan.Block(ModbusReadPlan.RegisterType.HOLDING, 10, 2),
+				new ModbusReadPlan.Block(ModbusReadPlan.RegisterType.HOLDING, 12, 1),
+				new ModbusReadPlan.Block(ModbusReadPlan.RegisterType.HOLDING, 13, 1),
+				new ModbusReadPlan.Block(ModbusReadPlan.RegisterType.HOLDING, 14, 4)
+		), reloader.getBlocks());
+		assertArrayEquals(new int[] { 10, 11, 12, 13, 14, 15, 16, 17 }, cacheSlave.sendRequestMessage(new ReadHoldingRegisters(10, 8)));
+		assertEquals(0, cacheSlave.getCacheMissCount());
+
+		device.requestCount = 0;
+		reloader.run(); // later reloads do not try the failing bulk read again
+		assertEquals(4, device.requestCount);
+		assertArrayEquals(new int[] { 12, 13, 14 }, cacheSlave.sendRequestMessage(new ReadHoldingRegisters(12, 3)));
+		assertEquals(4, device.requestCount);
+		assertEquals(0, cacheSlave.getCacheMissCount());
+	}
+}
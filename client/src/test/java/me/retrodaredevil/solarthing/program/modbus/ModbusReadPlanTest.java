@@ -0,0 +1,95 @@
+package me.retrodaredevil.solarthing.program.modbus;
+
+import me.retrodaredevil.io.modbus.handling.ReadHoldingRegisters;
+import me.retrodaredevil.io.modbus.handling.ReadInputRegisters;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlan.Block;
+import me.retrodaredevil.solarthing.program.modbus.ModbusReadPlan.RegisterType;
+import me.retrodaredevil.solarthing.solar.tracer.modbus.TracerModbusSlaveRead;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ModbusReadPlanTest {
+	private static Block holding(int startRegister, int endRegister) {
+		return new Block(RegisterType.HOLDING, startRegister, endRegister - startRegister + 1);
+	}
+	private static Block input(int startRegister, int endRegister) {
+		return new Block(RegisterType.INPUT, startRegister, endRegister - startRegister + 1);
+	}
+
+	@Test
+	void testMerge() {
+		ModbusReadPlan plan = ModbusReadPlan.builder()
+				.include(new ReadHoldingRegisters(0x10, 2))
+				.include(new ReadHoldingRegisters(0x12, 1))
+				.include(new ReadHoldingRegisters(0x11, 1)) // overlaps
+				.include(new ReadHoldingRegisters(0x15, 1))
+				.include(new ReadInputRegisters(0x12, 1))
+				.build();
+		assertEquals(Arrays.asList(holding(0x10, 0x12), holding(0x15, 0x15), input(0x12, 0x12)), plan.getBlocks());
+	}
+
+	@Test
+	void testGapFill() {
+		ModbusReadPlan.Builder builder = ModbusReadPlan.builder()
+				.includeHolding(0x10, 1)
+				.includeHolding(0x13, 1)
+				.includeHolding(0x20, 1);
+		assertEquals(Arrays.asList(holding(0x10, 0x10), holding(0x13, 0x13), holding(0x20, 0x20)), builder.maxGap(1).build().getBlocks());
+		assertEquals(Arrays.asList(holding(0x10, 0x13), holding(0x20, 0x20)), builder.maxGap(2).build().getBlocks());
+
+		builder.excludeHoldingRangeInclusive(0x11, 0x11);
+		assertEquals(Arrays.asList(holding(0x10, 0x10), holding(0x13, 0x13), holding(0x20, 0x20)), builder.build().getBlocks());
+	}
+
+	@Test
+	void testExclude() {
+		ModbusReadPlan plan = ModbusReadPlan.builder()
+				.includeHolding(0x0100, 0x23)
+				.excludeHoldingRangeInclusive(0x010A, 0x010A)
+				.build();
+		assertEquals(Arrays.asList(holding(0x0100, 0x0109), holding(0x010B, 0x0122)), plan.getBlocks());
+	}
+
+	@Test
+	void testMaxBlockSize() {
+		ModbusReadPlan plan = ModbusReadPlan.builder()
+				.maxBlockSize(4)
+				.includeInput(0, 10)
+				.build();
+		assertEquals(Arrays.asList(input(0, 3), input(4, 7), input(8, 9)), plan.getBlocks());
+		assertThrows(IllegalArgumentException.class, () -> ModbusReadPlan.builder().maxBlockSize(ModbusReadPlan.MODBUS_MAX_REGISTERS_PER_READ + 1));
+		assertEquals(Collections.emptyList(), ModbusReadPlan.builder().build().getBlocks());
+	}
+
+	@Test
+	void testTracerConstants() {
+		ModbusReadPlan plan = ModbusReadPlan.builder()
+				.includeConstants(TracerModbusSlaveRead.class)
+				.build();
+		// These are the same as the ranges that used to be hand coded, but 0x9067 was missing from those
+		assertEquals(Arrays.asList(
+				holding(0x9000, 0x900E),
+				holding(0x9013, 0x9021),
+				holding(0x903D, 0x903F),
+				holding(0x9042, 0x904D),
+				holding(0x9065, 0x9065),
+				holding(0x9067, 0x9067),
+				holding(0x9069, 0x906E),
+				holding(0x9070, 0x9070),
+				input(0x3000, 0x3008),
+				input(0x300E, 0x300E),
+				input(0x3100, 0x3107),
+				input(0x310C, 0x3112),
+				input(0x311A, 0x311B),
+				input(0x311D, 0x311D),
+				input(0x3200, 0x3201),
+				input(0x3300, 0x3315),
+				input(0x331B, 0x331E)
+		), plan.getBlocks());
+	}
+}
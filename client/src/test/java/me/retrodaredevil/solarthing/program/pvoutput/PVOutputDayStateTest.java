@@ -0,0 +1,194 @@
+package me.retrodaredevil.solarthing.program.pvoutput;
+
+import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.identification.Identifier;
+import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+import me.retrodaredevil.solarthing.packets.identification.IdentityInfo;
+import me.retrodaredevil.solarthing.program.PacketUtil;
+import me.retrodaredevil.solarthing.pvoutput.SimpleDate;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationConfig;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationPair;
+import me.retrodaredevil.solarthing.solar.common.DailyChargeController;
+import me.retrodaredevil.solarthing.solar.common.DailyData;
+import me.retrodaredevil.solarthing.solar.renogy.rover.RoverIdentifier;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PVOutputDayStateTest {
+	private static final SimpleDate DATE = new SimpleDate(2023, 6, 21);
+	private static final long DAY_START = DATE.getDayStartDateMillis(ZoneOffset.UTC);
+	private static final DefaultInstanceOptions OPTIONS = DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS;
+
+	private static final class ChargeControllerPacket implements Packet, DailyChargeController {
+		private final Identifier identifier;
+		private final int counter;
+
+		private ChargeControllerPacket(int number, int counter) {
+			this.identifier = RoverIdentifier.getFromNumber(number);
+			this.counter = counter;
+		}
+
+		@Override
+		public float getDailyKWH() {
+			return counter * 0.01f;
+		}
+
+		@Override
+		public int getDailyAH() {
+			return counter;
+		}
+
+		@Override
+		public boolean isNewDay(DailyData previousDailyData) {
+			return counter < ((ChargeControllerPacket) previousDailyData).counter;
+		}
+
+		@Override
+		public @NotNull Identifier getIdentifier() {
+			return identifier;
+		}
+
+		@Override
+		public @NotNull IdentityInfo getIdentityInfo() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * A packet group and the time it becomes visible in the database
+	 */
+	private static final class StoredPacketGroup {
+		private final InstancePacketGroup packetGroup;
+		private final long insertDateMillis;
+
+		private StoredPacketGroup(InstancePacketGroup packetGroup, long insertDateMillis) {
+			this.packetGroup = packetGroup;
+			this.insertDateMillis = insertDateMillis;
+		}
+	}
+
+	private static StoredPacketGroup create(long dateMillis, String sourceId, int fragmentId, int counter, long uploadDelayMillis) {
+		InstancePacketGroup packetGroup = PacketGroups.createInstancePacketGroup(Collections.singletonList(new ChargeControllerPacket(fragmentId, counter)), dateMillis, sourceId, fragmentId);
+		return new StoredPacketGroup(packetGroup, dateMillis + uploadDelayMillis);
+	}
+
+	/**
+	 * Creates 3 hours of packets. Source "other" has a packet every minute the whole time. The default source starts 50 minutes in,
+	 * but its first 10 minutes of packets are uploaded late, so the selected source switches after packets from both sources have been merged.
+	 * Fragment 2 of the default source is uploaded a few minutes late, and one of its packets is uploaded so late that it is right at the start of the next query.
+	 */
+	private static List<StoredPacketGroup> createDatabase() {
+		List<StoredPacketGroup> r = new ArrayList<>();
+		long end = Duration.ofHours(3).toMillis();
+		for (long offset = 0; offset < end; offset += 10_000) {
+			long dateMillis = DAY_START + offset;
+			int counter = (int) (offset / 10_000);
+			if (offset % 60_000 == 0) {
+				r.add(create(dateMillis, "other", 1, counter, 0));
+			}
+			if (offset >= Duration.ofMinutes(50).toMillis()) {
+				long uploadDelayMillis = Math.max(0, Duration.ofMinutes(60).toMillis() - offset);
+				r.add(create(dateMillis + 1_000, OPTIONS.getDefaultSourceId(), 1, counter, uploadDelayMillis));
+			}
+			if (offset >= Duration.ofHours(1).toMillis() && offset % 30_000 == 0) {
+				// the counter of fragment 2 resets after 2 hours, so there is more than one accumulation pair
+				int fragment2Counter = offset < Duration.ofHours(2).toMillis() ? counter : counter - 720;
+				// the packet at 150 minutes is only visible to the query that starts 2 seconds before it
+				long uploadDelayMillis = offset == Duration.ofMinutes(150).toMillis() ? 928_000 : Duration.ofMinutes(3).toMillis();
+				r.add(create(dateMillis + 2_000, OPTIONS.getDefaultSourceId(), 2, fragment2Counter, uploadDelayMillis));
+			}
+		}
+		r.sort(Comparator.comparingLong(stored -> stored.packetGroup.getDateMillis()));
+		return r;
+	}
+
+	private static List<InstancePacketGroup> query(List<StoredPacketGroup> database, long now, long startDateMillis, long endDateMillis) {
+		return database.stream()
+				.filter(stored -> stored.insertDateMillis <= now)
+				.map(stored -> stored.packetGroup)
+				.filter(packetGroup -> startDateMillis <= packetGroup.getDateMillis() && packetGroup.getDateMillis() <= endDateMillis)
+				.collect(Collectors.toList());
+	}
+
+	private static void assertSameAccumulation(PVOutputAccumulation expected, PVOutputAccumulation actual) {
+		assertSamePairs(expected.getDailyMap(), actual.getDailyMap());
+		assertSamePairs(expected.getAdvancedMap(), actual.getAdvancedMap());
+		assertSamePairs(expected.getDailyFXMap(), actual.getDailyFXMap());
+	}
+	private static <T extends DailyData> void assertSamePairs(Map<IdentifierFragment, List<AccumulationPair<T>>> expected, Map<IdentifierFragment, List<AccumulationPair<T>>> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<IdentifierFragment, List<AccumulationPair<T>>> entry : expected.entrySet()) {
+			List<AccumulationPair<T>> expectedPairs = entry.getValue();
+			List<AccumulationPair<T>> actualPairs = actual.get(entry.getKey());
+			assertEquals(expectedPairs.size(), actualPairs.size());
+			for (int i = 0; i < expectedPairs.size(); i++) {
+				assertSame(expectedPairs.get(i).getStartPacket().getPacket(), actualPairs.get(i).getStartPacket().getPacket());
+				assertEquals(expectedPairs.get(i).getStartPacket().getDateMillis(), actualPairs.get(i).getStartPacket().getDateMillis());
+				assertSame(expectedPairs.get(i).getLatestPacket().getPacket(), actualPairs.get(i).getLatestPacket().getPacket());
+				assertEquals(expectedPairs.get(i).getLatestPacket().getDateMillis(), actualPairs.get(i).getLatestPacket().getDateMillis());
+				assertEquals(expectedPairs.get(i).getStartPacketType(), actualPairs.get(i).getStartPacketType());
+			}
+		}
+	}
+	private static List<String> describe(List<FragmentedPacketGroup> packetGroups) {
+		return packetGroups.stream()
+				.map(packetGroup -> packetGroup.getDateMillis() + ": " + packetGroup.getPackets().stream()
+						.map(packet -> packetGroup.getFragmentId(packet) + "@" + packetGroup.getDateMillis(packet))
+						.collect(Collectors.joining(", ")))
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	void testOverlappingQueriesMatchFullDay() {
+		List<StoredPacketGroup> database = createDatabase();
+		PVOutputDayState dayState = new PVOutputDayState(DATE, DAY_START, null, OPTIONS);
+		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(DAY_START);
+		long end = DAY_START + Duration.ofHours(3).toMillis() + Duration.ofMinutes(15).toMillis();
+
+		for (long now = DAY_START + 30_000; now < end; now += 30_000) {
+			MillisQuery query = dayState.createQuery(now);
+			List<FragmentedPacketGroup> packetGroups = dayState.feed(query(database, now, query.getStartKey(), query.getEndKey()), query);
+
+			List<FragmentedPacketGroup> expected = PacketUtil.getPacketGroups(null, OPTIONS, query(database, now, DAY_START, now));
+			assertNotNull(expected);
+			assertNotNull(packetGroups);
+			assertEquals(describe(expected), describe(packetGroups));
+			assertSameAccumulation(PVOutputAccumulation.calculate(expected, accumulationConfig), dayState.getAccumulation());
+		}
+	}
+
+	@Test
+	void testNoPacketsForSource() {
+		List<StoredPacketGroup> database = createDatabase();
+		PVOutputDayState dayState = new PVOutputDayState(DATE, DAY_START, OPTIONS.getDefaultSourceId(), OPTIONS);
+		long now = DAY_START + Duration.ofMinutes(30).toMillis(); // the default source has no packets yet
+		MillisQuery query = dayState.createQuery(now);
+		assertNull(dayState.feed(query(database, now, query.getStartKey(), query.getEndKey()), query));
+		assertEquals(0, dayState.getAccumulation().getDailyMap().size());
+
+		now = DAY_START + Duration.ofMinutes(90).toMillis();
+		query = dayState.createQuery(now);
+		List<FragmentedPacketGroup> packetGroups = dayState.feed(query(database, now, query.getStartKey(), query.getEndKey()), query);
+		assertNotNull(packetGroups);
+		assertEquals(describe(PacketUtil.getPacketGroups(OPTIONS.getDefaultSourceId(), OPTIONS, query(database, now, DAY_START, now))), describe(packetGroups));
+	}
+}
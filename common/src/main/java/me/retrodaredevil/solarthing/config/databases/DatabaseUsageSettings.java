@@ -13,21 +13,25 @@ public class DatabaseUsageSettings {
 	public static final DatabaseUsageSettings DEFAULT = new DatabaseUsageSettings(
 			false,
 			FrequencySettings.NORMAL_SETTINGS,
-			FrequencySettings.NORMAL_SETTINGS
+			FrequencySettings.NORMAL_SETTINGS,
+			null
 	);
 
 	private final boolean inherit;
 	private final FrequencySettings packetUploadFrequencySettings;
 	private final FrequencySettings commandDownloadFrequencySettings;
+	private final PacketSpoolSettings eventSpoolSettings;
 
 	@JsonCreator
 	public DatabaseUsageSettings(
 			@JsonProperty("inherit") Boolean inherit,
 			@JsonProperty("packet_upload") FrequencySettings packetUploadFrequencySettings,
-			@JsonProperty("command_download") FrequencySettings commandDownloadFrequencySettings) {
+			@JsonProperty("command_download") FrequencySettings commandDownloadFrequencySettings,
+			@JsonProperty("event_spool") PacketSpoolSettings eventSpoolSettings) {
 		this.inherit = inherit == null || inherit; // defaults to true
 		this.packetUploadFrequencySettings = packetUploadFrequencySettings;
 		this.commandDownloadFrequencySettings = commandDownloadFrequencySettings;
+		this.eventSpoolSettings = eventSpoolSettings;
 	}
 
 	public DatabaseUsageSettings inheritFrom(DatabaseUsageSettings baseDatabaseUsageSettings) {
@@ -40,7 +44,8 @@ public class DatabaseUsageSettings {
 		return new DatabaseUsageSettings(
 				true,
 				packetUploadFrequencySettings == null ? baseDatabaseUsageSettings.packetUploadFrequencySettings : packetUploadFrequencySettings,
-				commandDownloadFrequencySettings == null ? baseDatabaseUsageSettings.commandDownloadFrequencySettings : commandDownloadFrequencySettings
+				commandDownloadFrequencySettings == null ? baseDatabaseUsageSettings.commandDownloadFrequencySettings : commandDownloadFrequencySettings,
+				eventSpoolSettings == null ? baseDatabaseUsageSettings.eventSpoolSettings : eventSpoolSettings
 		);
 	}
 
@@ -51,4 +56,11 @@ public class DatabaseUsageSettings {
 	public @Nullable FrequencySettings getCommandDownloadFrequencySettings() {
 		return commandDownloadFrequencySettings;
 	}
+
+	/**
+	 * @return The settings for the spool that events that fail to upload are written to, or null if they should only be retried from memory
+	 */
+	public @Nullable PacketSpoolSettings getEventSpoolSettings() {
+		return eventSpoolSettings;
+	}
 }
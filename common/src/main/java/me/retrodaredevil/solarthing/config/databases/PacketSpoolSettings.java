@@ -0,0 +1,50 @@
+package me.retrodaredevil.solarthing.config.databases;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings for a spool that packets are written to when they cannot be uploaded, so they can be retried later, even after a restart.
+ */
+public final class PacketSpoolSettings {
+	private static final long DEFAULT_MAX_SIZE_MB = 64;
+	private static final Duration DEFAULT_RETENTION = Duration.ofDays(7);
+
+	private final Path directory;
+	private final long maxSizeBytes;
+	private final Duration retention;
+
+	@JsonCreator
+	public PacketSpoolSettings(
+			@JsonProperty(value = "directory", required = true) Path directory,
+			@JsonProperty("max_size_mb") @Nullable Long maxSizeMegabytes,
+			@JsonProperty("retention") @Nullable Duration retention) {
+		this.directory = requireNonNull(directory);
+		this.maxSizeBytes = (maxSizeMegabytes == null ? DEFAULT_MAX_SIZE_MB : maxSizeMegabytes) * 1024 * 1024;
+		this.retention = retention == null ? DEFAULT_RETENTION : retention;
+		if (maxSizeBytes <= 0) {
+			throw new IllegalArgumentException("max_size_mb must be > 0!");
+		}
+		if (this.retention.isNegative() || this.retention.isZero()) {
+			throw new IllegalArgumentException("retention must be positive!");
+		}
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	public Duration getRetention() {
+		return retention;
+	}
+}
@@ -0,0 +1,58 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link CouchDbStoredPacketGroupParser} with the old path of parsing each document into a tree, then converting each packet.
+ * Each invocation parses 2000 packet collection documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CouchDbStoredPacketGroupParserBenchmark {
+	private final List<String> documents = new ArrayList<>();
+	private final CouchDbStoredPacketGroupParser streamingParser = new CouchDbStoredPacketGroupParser(CouchDbStoredPacketGroupParserTest.MAPPER, PacketParsingErrorHandler.DO_NOTHING);
+	private final SimplePacketGroupParser treeParser = new SimplePacketGroupParser(CouchDbStoredPacketGroupParserTest.MAPPER, PacketParsingErrorHandler.DO_NOTHING);
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < 2000; i++) {
+			documents.add(CouchDbStoredPacketGroupParserTest.createDocument(1000L * i, 4, false));
+		}
+	}
+
+	@Benchmark
+	public void streaming(Blackhole blackhole) throws IOException, PacketParseException {
+		for (String json : documents) {
+			blackhole.consume(CouchDbStoredPacketGroupParserTest.parseStreaming(streamingParser, json));
+		}
+	}
+
+	@Benchmark
+	public void tree(Blackhole blackhole) throws IOException, PacketParseException {
+		for (String json : documents) {
+			blackhole.consume(CouchDbStoredPacketGroupParserTest.parseTree(treeParser, json));
+		}
+	}
+}
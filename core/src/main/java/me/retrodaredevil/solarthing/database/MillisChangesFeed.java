@@ -0,0 +1,25 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Follows the packet groups that are added to or updated in a {@link MillisDatabase}, so that the database does not have to be queried over and over again.
+ * <p>
+ * Implementations keep track of where they are in the feed. If a call to {@link #poll(Duration)} fails, the next successful call
+ * returns everything that was missed.
+ */
+public interface MillisChangesFeed {
+	/**
+	 * Waits up to {@code timeout} for packet groups that were added or updated since the last successful call.
+	 * <p>
+	 * The first call only finds where the feed currently is, and returns immediately with an empty list. Packet groups that existed before that are never returned.
+	 * @param timeout The maximum amount of time to wait for changes
+	 * @return The packet groups that were added or updated, in the order they were changed. Deleted documents are not included. This may be empty.
+	 * @throws SolarThingDatabaseException Thrown if the changes could not be retrieved
+	 */
+	List<StoredPacketGroup> poll(Duration timeout) throws SolarThingDatabaseException;
+}
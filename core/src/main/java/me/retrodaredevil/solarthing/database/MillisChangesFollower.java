@@ -0,0 +1,99 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Continuously polls a {@link MillisChangesFeed} and pushes the changed packet groups to its subscribers.
+ * <p>
+ * This is meant to be run on its own thread. Subscribers are called from that thread.
+ */
+public class MillisChangesFollower implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MillisChangesFollower.class);
+	public static final Duration DEFAULT_POLL_TIMEOUT = Duration.ofSeconds(50);
+	private static final Duration MIN_RETRY_DELAY = Duration.ofSeconds(1);
+	private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
+
+	private final MillisChangesFeed changesFeed;
+	private final Duration pollTimeout;
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+	private volatile boolean following = false;
+
+	public MillisChangesFollower(MillisChangesFeed changesFeed, Duration pollTimeout) {
+		this.changesFeed = requireNonNull(changesFeed);
+		this.pollTimeout = requireNonNull(pollTimeout);
+	}
+	public MillisChangesFollower(MillisChangesFeed changesFeed) {
+		this(changesFeed, DEFAULT_POLL_TIMEOUT);
+	}
+
+	public void addSubscriber(Subscriber subscriber) {
+		subscribers.add(requireNonNull(subscriber));
+	}
+
+	/**
+	 * @return true if the last poll of the feed was successful. When false, subscribers may not be receiving changes and should query the database themselves.
+	 */
+	public boolean isFollowing() {
+		return following;
+	}
+
+	/**
+	 * Polls the feed once and pushes any changes to subscribers
+	 * @throws SolarThingDatabaseException Thrown if the feed could not be polled
+	 */
+	public void pollOnce() throws SolarThingDatabaseException {
+		final List<StoredPacketGroup> packetGroups;
+		try {
+			packetGroups = changesFeed.poll(pollTimeout);
+		} catch (SolarThingDatabaseException e) {
+			following = false;
+			throw e;
+		}
+		following = true;
+		if (!packetGroups.isEmpty()) {
+			LOGGER.debug("Got " + packetGroups.size() + " changed packet groups");
+			for (Subscriber subscriber : subscribers) {
+				subscriber.receivePacketGroups(packetGroups);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		long retryDelayMillis = MIN_RETRY_DELAY.toMillis();
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				pollOnce();
+				retryDelayMillis = MIN_RETRY_DELAY.toMillis();
+			} catch (SolarThingDatabaseException e) {
+				LOGGER.error("Could not poll changes. Trying again in " + retryDelayMillis + "ms", e);
+				try {
+					Thread.sleep(retryDelayMillis);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY.toMillis());
+			}
+		}
+		following = false;
+	}
+
+	@FunctionalInterface
+	public interface Subscriber {
+		/**
+		 * @param packetGroups The packet groups that were added or updated. This list should not be modified.
+		 */
+		void receivePacketGroups(List<StoredPacketGroup> packetGroups);
+	}
+}
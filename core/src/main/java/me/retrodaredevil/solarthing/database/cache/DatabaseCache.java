@@ -12,14 +12,10 @@ import java.util.stream.Stream;
  * <p>
  * Note: Some of these methods return {@link Stream}s. This helps avoid additional overhead of creating a new list, but the returned stream should be used immediately,
  * or not at all. The returned {@link Stream} is usually backed by internal data depending on the implementation, meaning that the result of consuming the stream
- * may be different depending on when it is consumed. This is most important when using this in a multi-threaded environment. It is likely that the
- * implementation of this is not thread safe, and attempting to consume a returned stream while another thread is possibily mutating this implementation is
- * a big no-no. Just something to be aware of.
+ * may be different depending on when it is consumed.
  * <p>
- * It's also worth noting that even though some methods return lists, that does not mean the implementation is thread safe, especially because it's likely
- * that the implementation of the methods returning a list aren't synchronized (The default implementation of them aren't).
- * <p>
- * TDLR; The implementation probably isn't thread safe.
+ * Whether an implementation is thread safe depends on the implementation. {@link SimpleDatabaseCache} can be read by many threads while it is being updated,
+ * but other implementations may not allow that, so when in doubt, access a {@link DatabaseCache} through a {@link me.retrodaredevil.solarthing.util.sync.ResourceManager}.
  */
 public interface DatabaseCache {
 	Stream<StoredPacketGroup> createCachedPacketsInRangeStream(TimeRange timeRange, boolean descending);
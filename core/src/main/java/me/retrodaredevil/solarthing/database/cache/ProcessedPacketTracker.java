@@ -1,34 +1,64 @@
 package me.retrodaredevil.solarthing.database.cache;
 
-import me.retrodaredevil.solarthing.packets.collection.DateMillisStoredIdentifier;
 import me.retrodaredevil.solarthing.packets.collection.StoredIdentifier;
 import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
 import me.retrodaredevil.solarthing.util.TimeRange;
 import me.retrodaredevil.solarthing.util.sync.ResourceManager;
 
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
-import java.util.NavigableSet;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+/**
+ * Keeps track of which packets from a {@link DatabaseCache} have already been processed, so that each packet is only processed once.
+ * <p>
+ * A packet is identified by its document ID if it has one, so a document that is updated is not processed again.
+ * Otherwise, it is identified by its {@link StoredIdentifier}.
+ */
 public class ProcessedPacketTracker {
 	private static final long BUFFER_MILLIS = Duration.ofMinutes(5).toMillis();
 
-	private final NavigableSet<StoredIdentifier> processed = new TreeSet<>();
+	private final Set<Object> processed = new HashSet<>();
+	/** The keys in {@link #processed} in the order they were processed, used to forget old keys */
+	private final Deque<ProcessedKey> processedOrder = new ArrayDeque<>();
 
 	public List<StoredPacketGroup> getUnprocessedPackets(ResourceManager<? extends DatabaseCache> databaseCacheManager, long afterDateMillis) {
 		// Use buffer millis here because of the possibility of the clock jumping back and then an already processed packet being returned
 		//   With a perfect clock (and with almost all clocks), this will never happen
-		processed.headSet(new DateMillisStoredIdentifier(afterDateMillis - BUFFER_MILLIS), false).clear();
-
-		List<StoredPacketGroup> r =
-				databaseCacheManager.access(databaseCache -> {
-							return databaseCache.createCachedPacketsInRangeStream(TimeRange.createAfter(afterDateMillis), false)
-									.filter(storedPacketGroup -> !processed.contains(storedPacketGroup.getStoredIdentifier()))
-									.collect(Collectors.toList());
-						});
-		r.stream().map(StoredPacketGroup::getStoredIdentifier).forEachOrdered(processed::add);
+		long forgetBeforeDateMillis = afterDateMillis - BUFFER_MILLIS;
+		while (!processedOrder.isEmpty() && processedOrder.peekFirst().dateMillis < forgetBeforeDateMillis) {
+			processed.remove(processedOrder.removeFirst().key);
+		}
+
+		List<StoredPacketGroup> r = new ArrayList<>();
+		databaseCacheManager.access(databaseCache -> {
+			databaseCache.createCachedPacketsInRangeStream(TimeRange.createAfter(afterDateMillis), false).forEachOrdered(storedPacketGroup -> {
+				StoredIdentifier storedIdentifier = storedPacketGroup.getStoredIdentifier();
+				Object key = getKey(storedIdentifier);
+				if (processed.add(key)) {
+					processedOrder.addLast(new ProcessedKey(key, storedIdentifier.getDateMillis()));
+					r.add(storedPacketGroup);
+				}
+			});
+		});
 		return r;
 	}
+	private static Object getKey(StoredIdentifier storedIdentifier) {
+		String documentId = storedIdentifier.getDocumentId();
+		return documentId == null ? storedIdentifier : documentId;
+	}
+
+	private static final class ProcessedKey {
+		private final Object key;
+		private final long dateMillis;
+
+		private ProcessedKey(Object key, long dateMillis) {
+			this.key = key;
+			this.dateMillis = dateMillis;
+		}
+	}
 }
@@ -1,25 +1,26 @@
 package me.retrodaredevil.solarthing.database.cache;
 
 import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.MillisChangesFeed;
 import me.retrodaredevil.solarthing.database.MillisQuery;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
 import me.retrodaredevil.solarthing.util.TimeRange;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
-import java.util.NavigableSet;
-import java.util.NoSuchElementException;
-import java.util.TreeSet;
 import java.util.stream.Stream;
 
 /**
- * Note: Not thread safe
+ * A {@link DatabaseCache} that is fed the results of queries, usually made using {@link #getRecommendedQuery()}.
+ * <p>
+ * Reading cached packets is thread safe and does not block, even while {@link #feed(List, long, Long)} is being called.
+ * Only a single thread should call {@link #feed(List, long, Long)} at a time.
  */
 public class SimpleDatabaseCache implements DatabaseCache {
 
@@ -30,7 +31,7 @@ public class SimpleDatabaseCache implements DatabaseCache {
 	public static final Duration DEFAULT_MINIMUM_DURATION = Duration.ofHours(25);
 	public static final Duration DEFAULT_VOLATILE_WINDOW_DURATION = Duration.ofMinutes(15);
 
-	private final TreeSet<Node> packetGroups = new TreeSet<>();
+	private final StoredPacketGroupIndex packetGroups = new StoredPacketGroupIndex();
 
 	private final Duration keepMaxDuration;
 	private final Duration keepDuration;
@@ -38,7 +39,7 @@ public class SimpleDatabaseCache implements DatabaseCache {
 	private final Duration volatileWindowDuration;
 	private final Clock clock;
 
-	private Data data = null;
+	private volatile Data data = null;
 
 	public SimpleDatabaseCache(Duration keepMaxDuration, Duration keepDuration, Duration minimumDuration, Duration volatileWindowDuration, Clock clock) {
 		this.keepMaxDuration = keepMaxDuration;
@@ -56,18 +57,7 @@ public class SimpleDatabaseCache implements DatabaseCache {
 
 	@Override
 	public Stream<StoredPacketGroup> createCachedPacketsInRangeStream(TimeRange timeRange, boolean descending) {
-		NavigableSet<Node> set = packetGroups;
-		if (timeRange.getStartTimeMillis() != null) {
-			set = set.tailSet(new Node(timeRange.getStartTimeMillis()), true);
-		}
-		if (timeRange.getEndTimeMillis() != null) {
-			set = set.headSet(new Node(timeRange.getEndTimeMillis()), true);
-		}
-		if (descending) {
-			set = set.descendingSet();
-		}
-		return set.stream()
-				.map(node -> node.packetGroup);
+		return packetGroups.createStream(timeRange, descending);
 	}
 	public MillisQuery getRecommendedQuery() {
 		return createRecommendedQueryBuilder().build();
@@ -104,26 +94,29 @@ public class SimpleDatabaseCache implements DatabaseCache {
 		if (queryEndDateMillis != null && queryStartDateMillis > queryEndDateMillis) {
 			throw new IllegalArgumentException("start must be <= end! queryStartDateMillis: " + queryStartDateMillis + " queryEndDateMillis: " + queryEndDateMillis);
 		}
-		if (queryEndDateMillis != null && !packetGroups.isEmpty() && packetGroups.last().dateMillis > queryEndDateMillis) {
+		StoredPacketGroup lastPacketGroup = packetGroups.getLast();
+		if (queryEndDateMillis != null && lastPacketGroup != null && lastPacketGroup.getDateMillis() > queryEndDateMillis) {
 			throw new IllegalArgumentException("The query end date must never decrease! We have a packet group with a date millis after the passed queryEndDateMillis=" + queryEndDateMillis);
 		}
 		Instant now = clock.instant();
-		packetGroups.tailSet(new Node(queryStartDateMillis), true).clear();
-		queriedPacketGroups.stream().map(Node::new).forEachOrdered(packetGroups::add);
+		// Unchanged packet groups are left in place, so readers never see them disappear
+		packetGroups.replaceAfter(queryStartDateMillis, queriedPacketGroups);
 
 		long lowestPossibleVolatileAfterDateMillis = now.minus(volatileWindowDuration).toEpochMilli();
 		if (queryEndDateMillis != null && queryEndDateMillis < lowestPossibleVolatileAfterDateMillis) {
 			lowestPossibleVolatileAfterDateMillis = queryEndDateMillis;
 		}
+		Data data = this.data;
 		if (data == null) {
-			data = new Data();
-			data.firstQueryStartDateMillis = queryStartDateMillis;
-			data.volatileAfterDateMillis = lowestPossibleVolatileAfterDateMillis;
+			this.data = new Data(queryStartDateMillis, lowestPossibleVolatileAfterDateMillis);
 		} else {
 			if (queryStartDateMillis <= data.volatileAfterDateMillis) {
-				data.volatileAfterDateMillis = Math.max(
-						data.volatileAfterDateMillis, // this currently should never be chosen, but put it here in case we change something in the future
-						lowestPossibleVolatileAfterDateMillis
+				this.data = new Data(
+						data.firstQueryStartDateMillis,
+						Math.max(
+								data.volatileAfterDateMillis, // this currently should never be chosen, but put it here in case we change something in the future
+								lowestPossibleVolatileAfterDateMillis
+						)
 				);
 			} else {
 				LOGGER.warn("The start date for the queried packets is AFTER the volatileAfterDateMillis timestamp. queryStartDateMillis: " + queryStartDateMillis + " volatileAfterDateMillis: " + data.volatileAfterDateMillis);
@@ -134,44 +127,42 @@ public class SimpleDatabaseCache implements DatabaseCache {
 		checkThenMaybePurge(now);
 	}
 
+	/**
+	 * Puts packet groups that were added or updated after they may have been queried, such as packet groups from a {@link MillisChangesFeed}.
+	 * Each packet group replaces any other revision of the same document. Unlike {@link #feed(List, long, Long)}, nothing is removed.
+	 * <p>
+	 * This should not be called at the same time as {@link #feed(List, long, Long)}.
+	 * @param changedPacketGroups The changed packet groups. None of these should be newer than the end of the next query that is fed.
+	 */
+	public void feedChanged(Collection<? extends StoredPacketGroup> changedPacketGroups) {
+		for (StoredPacketGroup packetGroup : changedPacketGroups) {
+			packetGroups.put(packetGroup);
+		}
+	}
+
 	private void checkThenMaybePurge(Instant now) {
-		final Node firstNode;
-		try {
-			firstNode = packetGroups.first();
-		} catch (NoSuchElementException ignored){
+		StoredPacketGroup firstPacketGroup = packetGroups.getFirst();
+		if (firstPacketGroup == null) {
 			return;
 		}
 		Instant purgeIfOnOrBeforeInstant = now.minus(keepMaxDuration);
-		if (firstNode.dateMillis <= purgeIfOnOrBeforeInstant.toEpochMilli()) {
+		if (firstPacketGroup.getDateMillis() <= purgeIfOnOrBeforeInstant.toEpochMilli()) {
 			purgeOnOrBefore(now.minus(keepDuration)); // if we're going to purge, purge a bunch at once. keepDuration is less than keepMaxDuration
 		}
 	}
 	private void purgeOnOrBefore(Instant instant) {
-		packetGroups.headSet(new Node(instant.toEpochMilli()), true).clear();
+		packetGroups.removeOnOrBefore(instant.toEpochMilli());
 	}
 
+	/** Immutable so that it can be safely read while {@link #feed(List, long, Long)} is being called */
 	private static final class Data {
-		private long firstQueryStartDateMillis;
+		private final long firstQueryStartDateMillis;
 		/** The date in millis where any packet after that is still considered volatile. This value only increases*/
-		private long volatileAfterDateMillis;
-	}
-	private static final class Node implements Comparable<Node> {
-		private final long dateMillis;
-		private final StoredPacketGroup packetGroup;
-
-		private Node(long dateMillis) {
-			this.dateMillis = dateMillis;
-			packetGroup = null;
-		}
-
-		private Node(StoredPacketGroup packetGroup) {
-			dateMillis = packetGroup.getDateMillis();
-			this.packetGroup = packetGroup;
-		}
+		private final long volatileAfterDateMillis;
 
-		@Override
-		public int compareTo(@NotNull SimpleDatabaseCache.Node node) {
-			return Long.compare(dateMillis, node.dateMillis);
+		private Data(long firstQueryStartDateMillis, long volatileAfterDateMillis) {
+			this.firstQueryStartDateMillis = firstQueryStartDateMillis;
+			this.volatileAfterDateMillis = volatileAfterDateMillis;
 		}
 	}
 }
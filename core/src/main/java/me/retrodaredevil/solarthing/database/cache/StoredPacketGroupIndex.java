@@ -0,0 +1,164 @@
+package me.retrodaredevil.solarthing.database.cache;
+
+import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.util.TimeRange;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * An index of {@link StoredPacketGroup}s ordered by their date millis, then by their document ID.
+ * Packet groups from different documents with the same date millis are all kept.
+ * <p>
+ * When a packet group is put into this index, it replaces any other revision of the same document, even if that revision had a different date millis.
+ * <p>
+ * Reading is thread safe and never blocks, even while this is being updated. A reader may see some changes of an update that is still happening.
+ * Updates should only be done by one thread at a time.
+ */
+public class StoredPacketGroupIndex {
+	private final NavigableMap<Key, StoredPacketGroup> packetGroups = new ConcurrentSkipListMap<>();
+	/** Maps document IDs to the key that a document is currently stored with */
+	private final Map<String, Key> documentKeys = new ConcurrentHashMap<>();
+
+	private static Key createKey(StoredPacketGroup packetGroup) {
+		String documentId = packetGroup.getStoredIdentifier().getDocumentId();
+		return new Key(packetGroup.getDateMillis(), Key.ORDER_DOCUMENT, documentId == null ? "" : documentId);
+	}
+
+	/**
+	 * Puts a packet group into this index, replacing any other revision of the same document
+	 */
+	public void put(StoredPacketGroup packetGroup) {
+		Key key = createKey(packetGroup);
+		// Put the new packet group before removing the old one so that readers never miss the document
+		packetGroups.put(key, packetGroup);
+		String documentId = packetGroup.getStoredIdentifier().getDocumentId();
+		if (documentId != null) {
+			Key oldKey = documentKeys.put(documentId, key);
+			if (oldKey != null && !oldKey.equals(key)) {
+				packetGroups.remove(oldKey);
+			}
+		}
+	}
+
+	/**
+	 * Puts all the given packet groups into this index, then removes any packet groups on or after {@code startDateMillis} that were not given.
+	 * <p>
+	 * This is useful for replacing the result of a query with the result of a newer query. Packet groups that did not change are left alone.
+	 * @param startDateMillis The start of the range that {@code newPacketGroups} represents
+	 * @param newPacketGroups Every packet group on or after {@code startDateMillis}
+	 */
+	public void replaceAfter(long startDateMillis, Collection<? extends StoredPacketGroup> newPacketGroups) {
+		Set<Key> newKeys = new HashSet<>();
+		for (StoredPacketGroup packetGroup : newPacketGroups) {
+			put(packetGroup);
+			newKeys.add(createKey(packetGroup));
+		}
+		for (Iterator<Key> iterator = packetGroups.tailMap(Key.lowest(startDateMillis), true).keySet().iterator(); iterator.hasNext(); ) {
+			Key key = iterator.next();
+			if (!newKeys.contains(key)) {
+				iterator.remove();
+				documentKeys.remove(key.documentId, key);
+			}
+		}
+	}
+
+	/**
+	 * Removes every packet group with a date millis on or before {@code dateMillis}
+	 */
+	public void removeOnOrBefore(long dateMillis) {
+		NavigableMap<Key, StoredPacketGroup> head = packetGroups.headMap(Key.highest(dateMillis), true);
+		for (Key key : head.keySet()) {
+			documentKeys.remove(key.documentId, key);
+		}
+		head.clear();
+	}
+
+	public Stream<StoredPacketGroup> createStream(TimeRange timeRange, boolean descending) {
+		NavigableMap<Key, StoredPacketGroup> map = packetGroups;
+		Long startTimeMillis = timeRange.getStartTimeMillis();
+		Long endTimeMillis = timeRange.getEndTimeMillis();
+		if (startTimeMillis != null) {
+			map = map.tailMap(Key.lowest(startTimeMillis), true);
+		}
+		if (endTimeMillis != null) {
+			map = map.headMap(Key.highest(endTimeMillis), true);
+		}
+		if (descending) {
+			map = map.descendingMap();
+		}
+		return map.values().stream();
+	}
+
+	public @Nullable StoredPacketGroup getFirst() {
+		Map.Entry<Key, StoredPacketGroup> entry = packetGroups.firstEntry();
+		return entry == null ? null : entry.getValue();
+	}
+	public @Nullable StoredPacketGroup getLast() {
+		Map.Entry<Key, StoredPacketGroup> entry = packetGroups.lastEntry();
+		return entry == null ? null : entry.getValue();
+	}
+
+	public int size() {
+		return packetGroups.size();
+	}
+
+	private static final class Key implements Comparable<Key> {
+		/** Used for keys that come before every document with the same date millis */
+		private static final int ORDER_LOWEST = -1;
+		private static final int ORDER_DOCUMENT = 0;
+		/** Used for keys that come after every document with the same date millis */
+		private static final int ORDER_HIGHEST = 1;
+
+		private final long dateMillis;
+		private final int order;
+		private final String documentId;
+
+		private Key(long dateMillis, int order, String documentId) {
+			this.dateMillis = dateMillis;
+			this.order = order;
+			this.documentId = documentId;
+		}
+		private static Key lowest(long dateMillis) {
+			return new Key(dateMillis, ORDER_LOWEST, "");
+		}
+		private static Key highest(long dateMillis) {
+			return new Key(dateMillis, ORDER_HIGHEST, "");
+		}
+
+		@Override
+		public int compareTo(@NotNull Key key) {
+			int dateCompare = Long.compare(dateMillis, key.dateMillis);
+			if (dateCompare != 0) {
+				return dateCompare;
+			}
+			int orderCompare = Integer.compare(order, key.order);
+			if (orderCompare != 0) {
+				return orderCompare;
+			}
+			return documentId.compareTo(key.documentId);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return dateMillis == key.dateMillis && order == key.order && documentId.equals(key.documentId);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * Long.hashCode(dateMillis) + order) + documentId.hashCode();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.couchdb.CouchProperties;
+import me.retrodaredevil.couchdbjava.CouchDbAuth;
+import me.retrodaredevil.okhttp3.OkHttpProperties;
+import me.retrodaredevil.okhttp3.OkHttpUtil;
+import me.retrodaredevil.solarthing.database.MillisChangesFeed;
+import me.retrodaredevil.solarthing.database.exception.NotFoundSolarThingDatabaseException;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.database.exception.UnauthorizedSolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link MillisChangesFeed} that uses CouchDB's {@code _changes} endpoint with {@code feed=longpoll}.
+ * <p>
+ * The {@code packets/millisNull} view is used as a filter, so only packet collections are returned.
+ * <p>
+ * Not thread safe. Only a single thread should call {@link #poll(Duration)}.
+ */
+public class CouchDbChangesFeed implements MillisChangesFeed {
+	/** The amount of time to wait for CouchDB to respond after the longpoll timeout before giving up */
+	private static final Duration READ_TIMEOUT_BUFFER = Duration.ofSeconds(15);
+
+	private final OkHttpClient client;
+	private final HttpUrl changesUrl;
+	private final CouchDbAuth auth;
+	private final ObjectMapper mapper;
+	private final CouchDbChangesParser changesParser;
+
+	private String lastSequence = null;
+
+	public CouchDbChangesFeed(OkHttpClient client, CouchProperties couchProperties, String databaseName, ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		this.client = requireNonNull(client);
+		changesUrl = couchProperties.getHttpUrl().newBuilder()
+				.addPathSegment(databaseName)
+				.addPathSegment("_changes")
+				.build();
+		// The _changes feed is requested directly rather than through couchdb-java, so we always use basic auth here
+		auth = couchProperties.getAuth();
+		this.mapper = mapper;
+		changesParser = new CouchDbChangesParser(mapper, errorHandler);
+	}
+
+	/**
+	 * @param packetTypes The types of packets that are expected in the database. Packets of other types are skipped.
+	 */
+	public static CouchDbChangesFeed create(CouchProperties couchProperties, OkHttpProperties okHttpProperties, String databaseName, Class<?>... packetTypes) {
+		ObjectMapper mapper = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+		mapper.getSubtypeResolver().registerSubtypes(packetTypes);
+		return new CouchDbChangesFeed(OkHttpUtil.createBuilder(okHttpProperties).build(), couchProperties, databaseName, mapper, PacketParsingErrorHandler.DO_NOTHING);
+	}
+
+	@Override
+	public List<StoredPacketGroup> poll(Duration timeout) throws SolarThingDatabaseException {
+		HttpUrl.Builder urlBuilder = changesUrl.newBuilder();
+		if (lastSequence == null) {
+			// We don't care about anything that happened before now, so don't wait and don't include documents
+			urlBuilder.addQueryParameter("feed", "normal")
+					.addQueryParameter("since", "now");
+		} else {
+			urlBuilder.addQueryParameter("feed", "longpoll")
+					.addQueryParameter("since", lastSequence)
+					.addQueryParameter("timeout", Long.toString(timeout.toMillis()))
+					.addQueryParameter("include_docs", "true")
+					.addQueryParameter("filter", "_view")
+					.addQueryParameter("view", "packets/millisNull");
+		}
+		Request.Builder requestBuilder = new Request.Builder().url(urlBuilder.build());
+		if (auth.usesAuth()) {
+			requestBuilder.header("Authorization", Credentials.basic(auth.getUsername(), auth.getPassword()));
+		}
+		OkHttpClient pollClient = client.newBuilder()
+				.readTimeout(timeout.plus(READ_TIMEOUT_BUFFER))
+				.build();
+		final CouchDbChangesParser.ChangesResponse changesResponse;
+		try (Response response = pollClient.newCall(requestBuilder.build()).execute()) {
+			if (response.code() == 401 || response.code() == 403) {
+				throw new UnauthorizedSolarThingDatabaseException("Not authorized to get changes from " + changesUrl + " code: " + response.code());
+			}
+			if (response.code() == 404) {
+				throw new NotFoundSolarThingDatabaseException("Database not found: " + changesUrl);
+			}
+			ResponseBody body = response.body();
+			if (!response.isSuccessful() || body == null) {
+				throw new SolarThingDatabaseException("Unsuccessful response from " + changesUrl + " code: " + response.code());
+			}
+			try (JsonParser jsonParser = mapper.getFactory().createParser(body.byteStream())) {
+				changesResponse = changesParser.parse(jsonParser);
+			}
+		} catch (IOException e) {
+			throw new SolarThingDatabaseException("Could not get changes from " + changesUrl, e);
+		} catch (PacketParseException e) {
+			throw new SolarThingDatabaseException("Could not parse changes from " + changesUrl, e);
+		}
+		boolean isFirstPoll = lastSequence == null;
+		lastSequence = changesResponse.getLastSequence();
+		if (isFirstPoll) {
+			return Collections.emptyList();
+		}
+		return changesResponse.getPacketGroups();
+	}
+
+	@Override
+	public String toString() {
+		return "CouchDbChangesFeed(changesUrl=" + changesUrl + ")";
+	}
+}
@@ -0,0 +1,128 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parses the response of CouchDB's {@code _changes} endpoint when {@code include_docs=true} is used.
+ * <p>
+ * Each document is parsed with {@link CouchDbStoredPacketGroupParser}. Deleted documents are skipped, and so are documents
+ * that are not packet collections, so that a single bad document can never stop a feed from moving forward.
+ */
+public class CouchDbChangesParser {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CouchDbChangesParser.class);
+
+	private final ObjectMapper mapper;
+	private final CouchDbStoredPacketGroupParser parser;
+
+	public CouchDbChangesParser(ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		this.mapper = mapper;
+		this.parser = new CouchDbStoredPacketGroupParser(mapper, errorHandler);
+	}
+
+	public ChangesResponse parse(JsonParser jsonParser) throws IOException, PacketParseException {
+		if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+			throw new PacketParseException("Expected the start of an object! token=" + jsonParser.currentToken());
+		}
+		List<StoredPacketGroup> packetGroups = new ArrayList<>();
+		String lastSequence = null;
+		while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = jsonParser.getCurrentName();
+			JsonToken valueToken = jsonParser.nextToken();
+			if ("results".equals(fieldName)) {
+				if (valueToken != JsonToken.START_ARRAY) {
+					throw new PacketParseException("'results' is not an array! token=" + valueToken);
+				}
+				while (jsonParser.nextToken() == JsonToken.START_OBJECT) {
+					StoredPacketGroup packetGroup = parseResult(jsonParser);
+					if (packetGroup != null) {
+						packetGroups.add(packetGroup);
+					}
+				}
+			} else if ("last_seq".equals(fieldName)) {
+				// CouchDB 2+ uses strings for sequences, and CouchDB 1 and PouchDB use numbers. We just need to pass it back as is.
+				lastSequence = jsonParser.getText();
+			} else {
+				jsonParser.skipChildren();
+			}
+		}
+		if (lastSequence == null) {
+			throw new PacketParseException("'last_seq' does not exist!");
+		}
+		return new ChangesResponse(packetGroups, lastSequence);
+	}
+
+	/** @return The packet group of this result or null if the document was deleted or is not a packet collection */
+	private StoredPacketGroup parseResult(JsonParser jsonParser) throws IOException {
+		String documentId = null;
+		boolean deleted = false;
+		TokenBuffer document = null;
+		while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = jsonParser.getCurrentName();
+			JsonToken valueToken = jsonParser.nextToken();
+			switch (fieldName) {
+				case "id":
+					documentId = jsonParser.getValueAsString();
+					break;
+				case "deleted":
+					deleted = valueToken == JsonToken.VALUE_TRUE;
+					break;
+				case "doc":
+					if (valueToken == JsonToken.START_OBJECT) {
+						// Buffer the document so that a document that cannot be parsed does not leave jsonParser in the middle of it
+						document = new TokenBuffer(jsonParser);
+						document.copyCurrentStructure(jsonParser);
+					} else {
+						jsonParser.skipChildren();
+					}
+					break;
+				default:
+					jsonParser.skipChildren();
+					break;
+			}
+		}
+		if (deleted || document == null) {
+			return null;
+		}
+		try (JsonParser documentParser = document.asParser(mapper)) {
+			return parser.parse(documentParser).getPacket();
+		} catch (PacketParseException e) {
+			LOGGER.warn("Could not parse changed document with id=" + documentId + ". Skipping it.", e);
+			return null;
+		}
+	}
+
+	public static final class ChangesResponse {
+		private final List<StoredPacketGroup> packetGroups;
+		private final String lastSequence;
+
+		public ChangesResponse(List<StoredPacketGroup> packetGroups, String lastSequence) {
+			this.packetGroups = Collections.unmodifiableList(packetGroups);
+			this.lastSequence = requireNonNull(lastSequence);
+		}
+
+		/** @return The packet groups that were added or updated, in the order they were changed */
+		public List<StoredPacketGroup> getPacketGroups() {
+			return packetGroups;
+		}
+
+		/** @return The sequence to pass as {@code since} to get changes after this response */
+		public String getLastSequence() {
+			return lastSequence;
+		}
+	}
+}
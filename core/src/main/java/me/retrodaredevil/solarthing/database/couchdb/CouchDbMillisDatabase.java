@@ -1,14 +1,12 @@
 package me.retrodaredevil.solarthing.database.couchdb;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import me.retrodaredevil.couchdbjava.CouchDbDatabase;
 import me.retrodaredevil.couchdbjava.exception.CouchDbException;
 import me.retrodaredevil.couchdbjava.json.JsonData;
 import me.retrodaredevil.couchdbjava.json.StringJsonData;
-import me.retrodaredevil.couchdbjava.json.jackson.CouchDbJacksonUtil;
 import me.retrodaredevil.couchdbjava.response.DocumentData;
 import me.retrodaredevil.couchdbjava.response.DocumentResponse;
 import me.retrodaredevil.couchdbjava.response.ViewResponse;
@@ -20,13 +18,11 @@ import me.retrodaredevil.solarthing.database.UpdateToken;
 import me.retrodaredevil.solarthing.database.VersionedPacket;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
 import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
-import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
-import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
 import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
 import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
-import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,37 +30,25 @@ public class CouchDbMillisDatabase implements MillisDatabase {
 
 	private final CouchDbDatabase database;
 	private final ObjectMapper mapper;
-	private final SimplePacketGroupParser parser;
+	private final CouchDbStoredPacketGroupParser parser;
 	private final CouchDbDatabaseSource databaseSource;
 
 	public CouchDbMillisDatabase(CouchDbDatabase database, ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
 		this.database = database;
 		this.mapper = mapper;
-		this.parser = new SimplePacketGroupParser(mapper, errorHandler);
+		this.parser = new CouchDbStoredPacketGroupParser(mapper, errorHandler);
 		databaseSource = new CouchDbDatabaseSource(database);
 	}
 
 	private VersionedPacket<StoredPacketGroup> jsonDataToStoredPacketGroup(JsonData jsonData) throws SolarThingDatabaseException {
-		final JsonNode jsonNode;
-		try {
-			jsonNode = CouchDbJacksonUtil.getNodeFrom(jsonData);
-		} catch (JsonProcessingException e) {
+		// We stream the document rather than using CouchDbJacksonUtil.getNodeFrom(), so no intermediate JsonNode tree is created for each document
+		try (JsonParser jsonParser = mapper.getFactory().createParser(jsonData.getJson())) {
+			return parser.parse(jsonParser);
+		} catch (IOException e) {
 			throw new SolarThingDatabaseException("We couldn't parse some of the data into JSON. This should never happen", e);
-		}
-		if (!jsonNode.isObject()) {
-			throw new SolarThingDatabaseException("Something must be wrong with the packet millis view because we got this jsonNode: " + jsonNode);
-		}
-		ObjectNode objectNode = (ObjectNode) jsonNode;
-		final PacketGroup packetGroup;
-		try {
-			packetGroup = parser.parse(objectNode);
 		} catch (PacketParseException e) {
 			throw new SolarThingDatabaseException(e);
 		}
-		String documentId = objectNode.get("_id").asText();
-		String documentRevision = objectNode.get("_rev").asText();
-		StoredPacketGroup storedPacketGroup = PacketGroups.createStoredPacketGroup(packetGroup, new CouchDbStoredIdentifier(packetGroup.getDateMillis(), documentId, documentRevision));
-		return new VersionedPacket<>(storedPacketGroup, new RevisionUpdateToken(documentRevision));
 	}
 
 	@Override
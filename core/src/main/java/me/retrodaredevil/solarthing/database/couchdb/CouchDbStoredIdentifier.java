@@ -32,6 +32,11 @@ public final class CouchDbStoredIdentifier extends StoredIdentifier {
 		return id;
 	}
 
+	@Override
+	public String getDocumentId() {
+		return id;
+	}
+
 	@JsonProperty("revision")
 	public String getRevision() {
 		return revision;
@@ -0,0 +1,114 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.packets.DocumentedPacket;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a CouchDB document containing a packet collection directly from a {@link JsonParser}.
+ * <p>
+ * Unlike {@link SimplePacketGroupParser}, this never creates a {@link com.fasterxml.jackson.databind.JsonNode} tree for the document.
+ * The {@code _id}, {@code _rev} and {@code dateMillis} fields are read in the same pass as each packet.
+ * Each packet is buffered into a {@link TokenBuffer} before it is deserialized, so that a packet that cannot be deserialized
+ * can be passed to the {@link PacketParsingErrorHandler} and skipped, just like {@link SimplePacketGroupParser} does.
+ */
+public class CouchDbStoredPacketGroupParser {
+	private final ObjectMapper mapper;
+	private final PacketParsingErrorHandler errorHandler;
+
+	public CouchDbStoredPacketGroupParser(ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		this.mapper = mapper;
+		this.errorHandler = errorHandler;
+	}
+
+	/**
+	 * @param parser The parser. Its current token should either be the start of the document, or it should not have been advanced yet.
+	 *               When this returns, the current token of the parser will be the end of the document.
+	 * @return The parsed document
+	 * @throws IOException Thrown if the underlying JSON is malformed
+	 * @throws PacketParseException Thrown if the document is not a valid packet collection, or if {@link PacketParsingErrorHandler} decides to throw
+	 */
+	public VersionedPacket<StoredPacketGroup> parse(JsonParser parser) throws IOException, PacketParseException {
+		JsonToken startToken = parser.currentToken();
+		if (startToken == null) {
+			startToken = parser.nextToken();
+		}
+		if (startToken != JsonToken.START_OBJECT) {
+			throw new PacketParseException("Expected the start of an object! token=" + startToken);
+		}
+		String documentId = null;
+		String documentRevision = null;
+		Long dateMillis = null;
+		List<Packet> packetList = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken valueToken = parser.nextToken();
+			switch (fieldName) {
+				case "_id":
+					documentId = parser.getValueAsString();
+					break;
+				case "_rev":
+					documentRevision = parser.getValueAsString();
+					break;
+				case "dateMillis":
+					if (!valueToken.isNumeric()) {
+						throw new PacketParseException("'dateMillis' is not a number! token=" + valueToken);
+					}
+					dateMillis = parser.getValueAsLong();
+					break;
+				case "packets":
+					if (valueToken != JsonToken.START_ARRAY) {
+						throw new PacketParseException("'packets' is not an array! token=" + valueToken);
+					}
+					packetList = parsePackets(parser);
+					break;
+				default:
+					parser.skipChildren();
+					break;
+			}
+		}
+		if (documentId == null || documentRevision == null) {
+			throw new PacketParseException("'_id' or '_rev' does not exist! documentId=" + documentId + " documentRevision=" + documentRevision);
+		}
+		if (dateMillis == null) {
+			throw new PacketParseException("'dateMillis' does not exist for document with id=" + documentId);
+		}
+		if (packetList == null) {
+			throw new PacketParseException("'packets' does not exist for document with id=" + documentId);
+		}
+		StoredPacketGroup storedPacketGroup = PacketGroups.createStoredPacketGroup(packetList, dateMillis, new CouchDbStoredIdentifier(dateMillis, documentId, documentRevision));
+		return new VersionedPacket<>(storedPacketGroup, new RevisionUpdateToken(documentRevision));
+	}
+
+	private List<Packet> parsePackets(JsonParser parser) throws IOException, PacketParseException {
+		List<Packet> packetList = new ArrayList<>();
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			TokenBuffer buffer = new TokenBuffer(parser);
+			buffer.copyCurrentStructure(parser);
+			DocumentedPacket packet = null;
+			try (JsonParser packetParser = buffer.asParser(mapper)) {
+				packet = mapper.readValue(packetParser, DocumentedPacket.class);
+			} catch (JsonProcessingException ex) {
+				errorHandler.handleError(ex);
+			}
+			if (packet != null) {
+				packetList.add(packet);
+			}
+		}
+		return packetList;
+	}
+}
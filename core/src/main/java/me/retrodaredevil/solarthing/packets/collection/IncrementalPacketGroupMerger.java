@@ -0,0 +1,234 @@
+package me.retrodaredevil.solarthing.packets.collection;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the result of {@link PacketGroups#sortPackets(Collection, DefaultInstanceOptions, long, Long, Comparator)} alive between updates,
+ * so that only the tail of each source's timeline has to be merged again when new packets arrive.
+ * <p>
+ * This is meant to be fed the same data that a {@link me.retrodaredevil.solarthing.database.cache.SimpleDatabaseCache} is fed.
+ * Each call to {@link #feed(Collection, long)} replaces every packet on or after the query start, just like the cache does.
+ * A merged {@link FragmentedPacketGroup} only depends on packets that are "close" to it, so merged packets older than the query start
+ * (minus a margin derived from {@code maxTimeDistance} and {@code masterIdIgnoreDistance}) never have to be recalculated.
+ * <p>
+ * If {@code masterIdIgnoreDistance} is null, a master fragment is never switched out, so every merged packet may depend on every other packet.
+ * In that case the entire timeline is merged again on each feed.
+ * <p>
+ * Note: Not thread safe
+ */
+public class IncrementalPacketGroupMerger {
+	private static final Comparator<PacketGroup> DATE_MILLIS_COMPARATOR = Comparator.comparingLong(PacketGroup::getDateMillis);
+
+	private final DefaultInstanceOptions defaultInstanceOptions;
+	private final long maxTimeDistance;
+	private final @Nullable Long masterIdIgnoreDistance;
+	private final Comparator<Integer> fragmentIdComparator;
+
+	private final Map<String, SourceTimeline> timelineMap = new LinkedHashMap<>();
+
+	public IncrementalPacketGroupMerger(DefaultInstanceOptions defaultInstanceOptions, long maxTimeDistance, @Nullable Long masterIdIgnoreDistance, Comparator<Integer> fragmentIdComparator) {
+		this.defaultInstanceOptions = defaultInstanceOptions;
+		this.maxTimeDistance = maxTimeDistance;
+		this.masterIdIgnoreDistance = masterIdIgnoreDistance;
+		this.fragmentIdComparator = fragmentIdComparator;
+	}
+	public IncrementalPacketGroupMerger(DefaultInstanceOptions defaultInstanceOptions, long maxTimeDistance, @Nullable Long masterIdIgnoreDistance) {
+		this(defaultInstanceOptions, maxTimeDistance, masterIdIgnoreDistance, FragmentUtil.DEFAULT_FRAGMENT_ID_COMPARATOR);
+	}
+
+	/**
+	 * Replaces all packets on or after {@code queryStartDateMillis} with {@code queriedPacketGroups}, then re-merges the affected tail of each timeline.
+	 * @param queriedPacketGroups The packet groups that were queried. These should be ordered oldest to newest
+	 * @param queryStartDateMillis The start of the query that returned {@code queriedPacketGroups}
+	 * @return The dateMillis on or after which merged packet groups may have changed. Merged packet groups before this are the same as they were before this call.
+	 */
+	public long feed(Collection<? extends PacketGroup> queriedPacketGroups, long queryStartDateMillis) {
+		for (SourceTimeline timeline : timelineMap.values()) {
+			timeline.removeOnOrAfter(queryStartDateMillis);
+		}
+		Map<String, List<InstancePacketGroup>> parsedMap = PacketGroups.parsePackets(queriedPacketGroups, defaultInstanceOptions);
+		for (Map.Entry<String, List<InstancePacketGroup>> entry : parsedMap.entrySet()) {
+			timelineMap.computeIfAbsent(entry.getKey(), k -> new SourceTimeline()).append(entry.getValue());
+		}
+		long changedDateMillis = Long.MAX_VALUE;
+		for (SourceTimeline timeline : timelineMap.values()) {
+			changedDateMillis = Math.min(changedDateMillis, timeline.mergeOnOrAfter(queryStartDateMillis));
+		}
+		timelineMap.values().removeIf(SourceTimeline::isEmpty);
+		return Math.min(changedDateMillis, queryStartDateMillis);
+	}
+
+	/**
+	 * Removes all packets (both raw and merged) whose dateMillis is before {@code dateMillis}. This should be called when the backing cache purges old data.
+	 * <p>
+	 * The start of each merged timeline is then rebuilt from the remaining raw packets, so the result is the same as merging the remaining packets from scratch.
+	 * @param dateMillis The dateMillis to purge packets before
+	 */
+	public void purgeBefore(long dateMillis) {
+		for (SourceTimeline timeline : timelineMap.values()) {
+			timeline.purgeBefore(dateMillis);
+		}
+		timelineMap.values().removeIf(SourceTimeline::isEmpty);
+	}
+
+	/**
+	 * @return An unmodifiable map where each key is a source ID and each value is the merged timeline for that source, ordered oldest to newest.
+	 * 			The returned lists are views of internal data, and should not be used after this is fed again.
+	 */
+	public Map<String, List<FragmentedPacketGroup>> getPacketGroupsMap() {
+		Map<String, List<FragmentedPacketGroup>> r = new HashMap<>();
+		for (Map.Entry<String, SourceTimeline> entry : timelineMap.entrySet()) {
+			List<FragmentedPacketGroup> packetGroups = entry.getValue().packetGroups;
+			if (!packetGroups.isEmpty()) {
+				r.put(entry.getKey(), Collections.unmodifiableList(packetGroups));
+			}
+		}
+		return Collections.unmodifiableMap(r);
+	}
+
+	/**
+	 * @return The amount of time in milliseconds that a change to a raw packet can affect the merged timeline in either direction
+	 */
+	private long getMargin(int fragmentCount) {
+		// Every fragment level of recursion in PacketGroups.addToPacketGroups() may shift its boundaries by masterIdIgnoreDistance in either direction,
+		//   and each merged packet may reach maxTimeDistance away to grab packets from other fragments
+		return maxTimeDistance + 2 * requireIgnoreDistance() * Math.max(1, fragmentCount);
+	}
+	private long requireIgnoreDistance() {
+		Long masterIdIgnoreDistance = this.masterIdIgnoreDistance;
+		if (masterIdIgnoreDistance == null) {
+			throw new IllegalStateException("masterIdIgnoreDistance is null!");
+		}
+		return masterIdIgnoreDistance;
+	}
+
+	/**
+	 * @return The index of the first element in {@code packetGroups} whose dateMillis is on or after {@code dateMillis}, or the size of the list if there is none
+	 */
+	private static int firstIndexOnOrAfter(List<? extends PacketGroup> packetGroups, long dateMillis) {
+		int low = 0;
+		int high = packetGroups.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (packetGroups.get(mid).getDateMillis() < dateMillis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private final class SourceTimeline {
+		/** The raw packets of every fragment for this source, ordered oldest to newest */
+		private final List<InstancePacketGroup> instancePacketGroups = new ArrayList<>();
+		/** The merged packets for this source, ordered oldest to newest */
+		private final List<FragmentedPacketGroup> packetGroups = new ArrayList<>();
+		private final Set<Integer> fragmentIds = new HashSet<>();
+
+		private boolean isEmpty() {
+			return instancePacketGroups.isEmpty() && packetGroups.isEmpty();
+		}
+
+		private void removeOnOrAfter(long dateMillis) {
+			instancePacketGroups.subList(firstIndexOnOrAfter(instancePacketGroups, dateMillis), instancePacketGroups.size()).clear();
+		}
+		private void purgeBefore(long dateMillis) {
+			int purgeCount = firstIndexOnOrAfter(instancePacketGroups, dateMillis);
+			if (purgeCount == 0) {
+				return;
+			}
+			instancePacketGroups.subList(0, purgeCount).clear();
+			if (instancePacketGroups.isEmpty()) {
+				packetGroups.clear();
+				fragmentIds.clear();
+				return;
+			}
+			mergeBefore(dateMillis);
+		}
+
+		private void append(List<InstancePacketGroup> newInstancePacketGroups) {
+			if (newInstancePacketGroups.isEmpty()) {
+				return;
+			}
+			newInstancePacketGroups.sort(DATE_MILLIS_COMPARATOR); // usually already sorted
+			boolean ordered = instancePacketGroups.isEmpty()
+					|| instancePacketGroups.get(instancePacketGroups.size() - 1).getDateMillis() <= newInstancePacketGroups.get(0).getDateMillis();
+			instancePacketGroups.addAll(newInstancePacketGroups);
+			if (!ordered) {
+				instancePacketGroups.sort(DATE_MILLIS_COMPARATOR);
+			}
+			for (InstancePacketGroup instancePacketGroup : newInstancePacketGroups) {
+				fragmentIds.add(instancePacketGroup.getFragmentId());
+			}
+		}
+
+		/**
+		 * Re-merges every part of this timeline that may have been affected by the removal of raw packets before {@code changedDateMillis}.
+		 * Merged packets near the start of the timeline may have used fragments from packets that no longer exist, so they are rebuilt from the remaining packets.
+		 */
+		private void mergeBefore(long changedDateMillis) {
+			if (masterIdIgnoreDistance == null) {
+				packetGroups.clear();
+				packetGroups.addAll(PacketGroups.mergePackets(instancePacketGroups, maxTimeDistance, null, fragmentIdComparator));
+				return;
+			}
+			long margin = getMargin(fragmentIds.size());
+			long recalculateBeforeDateMillis = changedDateMillis + margin;
+			// Merged packets that are within margin of the end of our input may differ from what a full merge would produce, so give ourselves extra input
+			int inputEndIndex = firstIndexOnOrAfter(instancePacketGroups, recalculateBeforeDateMillis + margin);
+			packetGroups.subList(0, firstIndexOnOrAfter(packetGroups, recalculateBeforeDateMillis)).clear();
+			if (inputEndIndex == 0) { // none of the remaining packets are close enough to have been affected
+				return;
+			}
+			List<FragmentedPacketGroup> merged = PacketGroups.mergePackets(
+					instancePacketGroups.subList(0, inputEndIndex),
+					maxTimeDistance, masterIdIgnoreDistance, fragmentIdComparator
+			);
+			packetGroups.addAll(0, merged.subList(0, firstIndexOnOrAfter(merged, recalculateBeforeDateMillis)));
+		}
+
+		/**
+		 * Re-merges every part of this timeline that may have been affected by a change to raw packets on or after {@code changedDateMillis}
+		 * @return The dateMillis that merged packets were recalculated from
+		 */
+		private long mergeOnOrAfter(long changedDateMillis) {
+			final long recalculateFromDateMillis;
+			final int inputStartIndex;
+			if (masterIdIgnoreDistance == null) {
+				recalculateFromDateMillis = Long.MIN_VALUE;
+				inputStartIndex = 0;
+			} else {
+				long margin = getMargin(fragmentIds.size());
+				recalculateFromDateMillis = changedDateMillis - margin;
+				// Merged packets that are within margin of the start of our input may differ from what a full merge would produce, so give ourselves extra input
+				inputStartIndex = firstIndexOnOrAfter(instancePacketGroups, recalculateFromDateMillis - margin);
+			}
+			packetGroups.subList(firstIndexOnOrAfter(packetGroups, recalculateFromDateMillis), packetGroups.size()).clear();
+			if (inputStartIndex >= instancePacketGroups.size()) {
+				return recalculateFromDateMillis;
+			}
+			List<FragmentedPacketGroup> merged = PacketGroups.mergePackets(
+					instancePacketGroups.subList(inputStartIndex, instancePacketGroups.size()),
+					maxTimeDistance, masterIdIgnoreDistance, fragmentIdComparator
+			);
+			for (FragmentedPacketGroup packetGroup : merged) {
+				if (packetGroup.getDateMillis() >= recalculateFromDateMillis) {
+					packetGroups.add(packetGroup);
+				}
+			}
+			return recalculateFromDateMillis;
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package me.retrodaredevil.solarthing.packets.collection;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbStoredIdentifier;
 import org.jetbrains.annotations.NotNull;
 
@@ -37,6 +39,14 @@ public abstract class StoredIdentifier implements Comparable<StoredIdentifier> {
 		return dateMillis;
 	}
 
+	/**
+	 * @return The ID of the document this refers to, which stays the same when the document is updated, or null if this identifier does not refer to a particular document
+	 */
+	@JsonIgnore
+	public @Nullable String getDocumentId() {
+		return null;
+	}
+
 	@Override
 	public abstract boolean equals(Object o);
 	@Override
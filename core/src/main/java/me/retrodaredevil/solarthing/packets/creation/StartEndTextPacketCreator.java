@@ -1,11 +1,18 @@
 package me.retrodaredevil.solarthing.packets.creation;
 
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.packets.Packet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
+/**
+ * A {@link TextPacketCreator} for packets that begin with a start character and end with an end character.
+ * <p>
+ * Characters are fed one at a time into a fixed size buffer, so adding data does not allocate anything unless a packet is completed.
+ * Any characters received before a start character are ignored, and a start character always begins a new packet.
+ */
 public abstract class StartEndTextPacketCreator implements TextPacketCreator {
 	private static final Logger LOGGER = LoggerFactory.getLogger(StartEndTextPacketCreator.class);
 	private final char start, end;
@@ -30,59 +37,79 @@ public abstract class StartEndTextPacketCreator implements TextPacketCreator {
 
 	@Override
 	public Collection<Packet> add(char[] chars) throws PacketCreationException{
-		if(chars.length == 0){
-			return Collections.emptySet();
+		List<Packet> r = null;
+		for(char c : chars){
+			r = add(c, r);
 		}
-		char first = chars[0];
-		if(amount == 0 && first != start){
-			return Collections.emptySet(); // gotta wait for the start char
+		if(r == null){
+			return Collections.emptySet();
 		}
+		return r;
+	}
+
+	@Override
+	public Collection<Packet> add(byte[] bytes, int offset, int length) throws PacketCreationException {
 		List<Packet> r = null;
-		for(char c : chars){
-			if(amount >= bytes.length) {
+		for (int i = offset; i < offset + length; i++) {
+			r = add((char) (bytes[i] & 0xFF), r);
+		}
+		if(r == null){
+			return Collections.emptySet();
+		}
+		return r;
+	}
+
+	/**
+	 * @param c The character to add
+	 * @param r The list of packets created so far or null
+	 * @return {@code r}, or a new list if {@code r} was null and a packet was created
+	 */
+	private @Nullable List<Packet> add(char c, @Nullable List<Packet> r) throws PacketCreationException {
+		if(c == start){
+			amount = 0;
+			bytes[0] = start;
+			amount++;
+			return r;
+		}
+		if(amount == 0){
+			return r; // gotta wait for the start char
+		}
+		if(amount >= bytes.length) {
+			try {
+				throw new PacketTooBigException("The packet will be longer than the maximum size!");
+			} finally {
+				reset();
+			}
+		}
+		bytes[amount] = c;
+		amount++;
+		if(c == end){
+			if(amount < assertSizeAtLeast){
 				try {
-					throw new PacketTooBigException("The packet will be longer than the maximum size!");
+					throw new PacketTooSmallException("amount is less than the minimum required size! amount: " + amount + " assertSizeAtLeast: " + assertSizeAtLeast);
 				} finally {
 					reset();
 				}
 			}
-			bytes[amount] = c;
-			amount++;
-			if(c == end){
-				if(amount < assertSizeAtLeast){
-					try {
-						throw new PacketTooSmallException("amount is less than the minimum required size! amount: " + amount + " assertSizeAtLeast: " + assertSizeAtLeast);
-					} finally {
-						reset();
-					}
-				}
-				try{
-					final Collection<Packet> packetsToAdd = create(new String(bytes, 0, amount).toCharArray()); // resets bytes array and amount
+			try{
+				// When the buffer is full (which is always the case for fixed size packets) we don't need to copy it
+				final Collection<Packet> packetsToAdd = create(amount == bytes.length ? bytes : Arrays.copyOf(bytes, amount));
 
-					if(r == null){
-						r = new ArrayList<>();
-					}
-					r.addAll(packetsToAdd);
-				} catch(PacketCreationException ex){
-					LOGGER.error("Got an exception that we were able to handle. Ignoring it...", ex);
-				} finally {
-					reset();
+				if(r == null){
+					r = new ArrayList<>();
 				}
-
-			} else if(c == start){
+				r.addAll(packetsToAdd);
+			} catch(PacketCreationException ex){
+				LOGGER.error("Got an exception that we were able to handle. Ignoring it...", ex);
+			} finally {
 				reset();
-				bytes[0] = start;
-				amount++;
 			}
 		}
-		if(r == null){
-			return Collections.emptySet();
-		}
 		return r;
 	}
 
 	/**
-	 * @param bytes The bytes to create the packet(s) with
+	 * @param bytes The bytes to create the packet(s) with. This array may be reused after this method returns, so it must not be kept.
 	 * @return A Collection usually with a size of 1 representing the packets to add.
 	 * @throws PacketCreationException Should be thrown if something unexpected happens where the program should not crash
 	 */
@@ -90,7 +117,5 @@ public abstract class StartEndTextPacketCreator implements TextPacketCreator {
 
 	private void reset(){
 		amount = 0;
-		// reset bytes array
-		Arrays.fill(bytes, (char) 0);
 	}
 }
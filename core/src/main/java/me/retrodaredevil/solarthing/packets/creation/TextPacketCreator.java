@@ -17,4 +17,22 @@ public interface TextPacketCreator {
 	 */
 	Collection<? extends Packet> add(char[] bytes) throws PacketCreationException;
 
+	/**
+	 * Adds ASCII bytes directly from a stream. Each byte is treated as a single ISO-8859-1 character.
+	 * <p>
+	 * The default implementation copies the bytes to a char array and calls {@link #add(char[])}.
+	 * Implementations should override this if they can avoid that copy.
+	 * @param bytes The array containing the bytes to read from
+	 * @param offset The index of the first byte to read
+	 * @param length The number of bytes to read
+	 * @return An empty collection, or if it can be read, a collection of {@link Packet}s
+	 */
+	default Collection<? extends Packet> add(byte[] bytes, int offset, int length) throws PacketCreationException {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (bytes[offset + i] & 0xFF);
+		}
+		return add(chars);
+	}
+
 }
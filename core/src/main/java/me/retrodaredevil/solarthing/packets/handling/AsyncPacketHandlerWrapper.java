@@ -1,32 +1,81 @@
 package me.retrodaredevil.solarthing.packets.handling;
 
 import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.util.sync.BoundedSerialExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Handles packet collections on a separate thread. Packet collections for a single {@link AsyncPacketHandlerWrapper} are handled one at a time, in order.
+ * <p>
+ * Packet collections waiting to be handled are kept in a bounded queue, so a slow {@link PacketHandler} cannot use an unbounded amount of memory.
+ * The {@link BoundedSerialExecutor.OverflowPolicy} decides what happens when that queue is full.
+ * <p>
+ * By default, all instances share a single thread pool whose threads are only kept alive while there is work to do.
+ */
 public class AsyncPacketHandlerWrapper implements PacketHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncPacketHandlerWrapper.class);
+	public static final int DEFAULT_CAPACITY = 60;
+
+	private static final AtomicInteger SHARED_THREAD_NUMBER = new AtomicInteger(1);
+	private static final Executor SHARED_EXECUTOR = new ThreadPoolExecutor(
+			0, Integer.MAX_VALUE,
+			60, TimeUnit.SECONDS,
+			new SynchronousQueue<>(),
+			runnable -> new Thread(runnable, "packet-handler-" + SHARED_THREAD_NUMBER.getAndIncrement())
+	);
 
 	private final PacketHandler packetHandler;
 
-	private final ExecutorService executorService;
+	private final BoundedSerialExecutor executor;
 
+	/**
+	 * @param name The name used for logging
+	 * @param packetHandler The packet handler to call on a separate thread
+	 * @param overflowPolicy What to do when a packet collection is given while {@code capacity} packet collections are already waiting
+	 * @param capacity The maximum number of packet collections waiting to be handled
+	 */
+	public AsyncPacketHandlerWrapper(String name, PacketHandler packetHandler, BoundedSerialExecutor.OverflowPolicy overflowPolicy, int capacity) {
+		this.packetHandler = requireNonNull(packetHandler);
+
+		executor = new BoundedSerialExecutor(name, SHARED_EXECUTOR, overflowPolicy, capacity);
+	}
+	public AsyncPacketHandlerWrapper(String name, PacketHandler packetHandler, BoundedSerialExecutor.OverflowPolicy overflowPolicy) {
+		this(name, packetHandler, overflowPolicy, DEFAULT_CAPACITY);
+	}
 	public AsyncPacketHandlerWrapper(PacketHandler packetHandler) {
-		this.packetHandler = packetHandler;
+		this(packetHandler.getClass().getSimpleName(), packetHandler, BoundedSerialExecutor.OverflowPolicy.DROP_OLDEST);
+	}
+
+	/**
+	 * @return The executor that is shared between all {@link AsyncPacketHandlerWrapper}s. Other asynchronous packet handlers may also use this.
+	 */
+	public static Executor getSharedExecutor() {
+		return SHARED_EXECUTOR;
+	}
 
-		executorService = Executors.newSingleThreadExecutor();
+	/**
+	 * @return The current queue depth, drop count and latencies of this packet handler
+	 */
+	public BoundedSerialExecutor.Statistics getStatistics() {
+		return executor.getStatistics();
 	}
 
 	@Override
 	public void handle(PacketCollection packetCollection) throws PacketHandleException {
-		executorService.execute(() -> {
+		executor.execute(() -> {
 			try {
 				packetHandler.handle(packetCollection);
 			} catch (PacketHandleException e) {
-				LOGGER.error("Got PacketHandleException while executing in separate thread.", e);
+				LOGGER.error("Got PacketHandleException while executing in separate thread. " + executor.getName() + " " + executor.getStatistics(), e);
 			}
 		});
 	}
@@ -1,16 +1,22 @@
 package me.retrodaredevil.solarthing.packets.handling;
 
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.handling.spool.PacketCollectionSpool;
+import me.retrodaredevil.solarthing.packets.handling.spool.SpooledPacketCollection;
 import me.retrodaredevil.solarthing.util.PacketGroupNode;
+import me.retrodaredevil.solarthing.util.sync.BoundedSerialExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.NavigableSet;
+import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -19,73 +25,246 @@ import java.util.concurrent.TimeUnit;
  * NOTE: Once this class has been instantiated, there is no way to stop the thread that has been created.
  * <p>
  * This class functions by retrying any packet upload where calling {@link PacketHandler#handle(PacketCollection)} results in a {@link PacketHandleException}.
+ * <p>
+ * If a {@link PacketCollectionSpool} is given, packet collections that fail to upload are written to it, so they are retried even after a restart.
+ * Otherwise, they are kept in memory and discarded after 10 minutes.
+ * <p>
+ * If the {@link PacketHandler} is a {@link BulkPacketHandler}, packet collections that are retried are uploaded in large batches,
+ * so catching up after an outage only takes a few requests.
  */
 public class AsyncRetryingPacketHandler implements PacketHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRetryingPacketHandler.class);
+	private static final int SPOOL_BATCH_SIZE = 50;
+	/** The number of packet collections to read from the spool at once when they can be uploaded with a single request */
+	private static final int BULK_SPOOL_BATCH_SIZE = 500;
+	/** The maximum number of packet collections waiting to be uploaded before {@link #handle(PacketCollection)} blocks */
+	private static final int MAIN_QUEUE_CAPACITY = 256;
 
 	private final PacketHandler packetHandler;
+	private final @Nullable PacketCollectionSpool spool;
 
-	private final ExecutorService mainExecutorService = Executors.newSingleThreadExecutor();
+	private final BoundedSerialExecutor mainExecutor;
 	private final ScheduledExecutorService reuploadExecutorService = Executors.newSingleThreadScheduledExecutor();
 
 	private final NavigableSet<PacketGroupNode<PacketCollection>> packetCollections = new TreeSet<>();
 
 	/**
 	 * @param packetHandler The {@link PacketHandler} to use. Note: This should be thread safe, as {@link PacketHandler#handle(PacketCollection)} may be called in parallel
+	 * @param spool The spool to store packet collections that need to be retried in, or null to store them in memory
 	 */
-	public AsyncRetryingPacketHandler(PacketHandler packetHandler) {
+	public AsyncRetryingPacketHandler(PacketHandler packetHandler, @Nullable PacketCollectionSpool spool) {
 		this.packetHandler = packetHandler;
+		this.spool = spool;
+		// Events should never be dropped, so we block rather than drop when uploads can't keep up
+		mainExecutor = new BoundedSerialExecutor("retrying " + packetHandler.getClass().getSimpleName(), AsyncPacketHandlerWrapper.getSharedExecutor(), BoundedSerialExecutor.OverflowPolicy.BLOCK, MAIN_QUEUE_CAPACITY);
 
 		reuploadExecutorService.scheduleWithFixedDelay(
-				() -> {
-					// We don't have to worry about synchronizing at all because our executorService executes on a single thread
-					final List<PacketGroupNode<PacketCollection>> toReupload;
-					long removeBefore = System.currentTimeMillis() - 10 * 60 * 1000; // remove if before 10 minutes ago
-					synchronized (packetCollections) {
-						NavigableSet<PacketGroupNode<PacketCollection>> toRemove = packetCollections.headSet(new PacketGroupNode<>(removeBefore), true);
-						if (!toRemove.isEmpty()) {
-							LOGGER.info("Discarding " + toRemove.size() + " old packets. Will not try to reupload those using " + packetHandler);
-							toRemove.clear();
-						}
+				this::reupload,
+				10,
+				10,
+				TimeUnit.SECONDS
+		);
+	}
+	/**
+	 * @param packetHandler The {@link PacketHandler} to use. Note: This should be thread safe, as {@link PacketHandler#handle(PacketCollection)} may be called in parallel
+	 */
+	public AsyncRetryingPacketHandler(PacketHandler packetHandler) {
+		this(packetHandler, null);
+	}
+
+	/**
+	 * Tries to reupload every packet collection that is waiting to be retried. This is called periodically on a single thread.
+	 */
+	void reupload() {
+		PacketCollectionSpool spool = this.spool;
+		if (spool != null) {
+			reuploadFromSpool(spool);
+		}
+		reuploadFromMemory(); // even with a spool, packets are kept in memory if they could not be written to it
+	}
+
+	private void reuploadFromMemory() {
+		// We don't have to worry about synchronizing at all because our executorService executes on a single thread
+		final List<PacketGroupNode<PacketCollection>> toReupload;
+		long removeBefore = System.currentTimeMillis() - 10 * 60 * 1000; // remove if before 10 minutes ago
+		synchronized (packetCollections) {
+			NavigableSet<PacketGroupNode<PacketCollection>> toRemove = packetCollections.headSet(new PacketGroupNode<>(removeBefore), true);
+			if (!toRemove.isEmpty()) {
+				LOGGER.info("Discarding " + toRemove.size() + " old packets. Will not try to reupload those using " + packetHandler);
+				toRemove.clear();
+			}
 
-						if (!packetCollections.isEmpty()) {
-							toReupload = new ArrayList<>(packetCollections);
-						} else {
-							toReupload = Collections.emptyList();
+			if (!packetCollections.isEmpty()) {
+				toReupload = new ArrayList<>(packetCollections);
+			} else {
+				toReupload = Collections.emptyList();
+			}
+		}
+		if (!toReupload.isEmpty()) {
+			LOGGER.debug("Going to try to reupload " + toReupload.size() + " packets using " + packetHandler);
+			List<PacketGroupNode<PacketCollection>> successfullyUploaded = new ArrayList<>();
+			try {
+				if (packetHandler instanceof BulkPacketHandler) {
+					List<PacketCollection> packetCollections = new ArrayList<>();
+					for (PacketGroupNode<PacketCollection> node : toReupload) {
+						packetCollections.add(node.getPacketGroup());
+					}
+					Set<PacketCollection> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+					failed.addAll(((BulkPacketHandler) packetHandler).handleAll(packetCollections));
+					for (PacketGroupNode<PacketCollection> node : toReupload) {
+						if (!failed.contains(node.getPacketGroup())) {
+							successfullyUploaded.add(node);
 						}
 					}
-					if (!toReupload.isEmpty()) {
-						LOGGER.debug("Going to try to reupload " + toReupload.size() + " packets using " + packetHandler);
-						List<PacketGroupNode<PacketCollection>> successfullyUploaded = new ArrayList<>();
-						try {
-							for (PacketGroupNode<PacketCollection> node : toReupload) {
-								PacketCollection packetCollection = node.getPacketGroup();
-								packetHandler.handle(packetCollection);
-								successfullyUploaded.add(node);
-							}
-							LOGGER.debug("Successfully reuploaded all " + toReupload.size() + " packets.");
-						} catch (PacketHandleException ex) {
-							LOGGER.error("Reuploaded " + successfullyUploaded.size() + " / " + toReupload.size() + " packets before getting exception", ex);
+					if (!failed.isEmpty()) {
+						LOGGER.error("Reuploaded " + successfullyUploaded.size() + " / " + toReupload.size() + " packets. The rest will be retried.");
+					}
+				} else {
+					for (PacketGroupNode<PacketCollection> node : toReupload) {
+						PacketCollection packetCollection = node.getPacketGroup();
+						packetHandler.handle(packetCollection);
+						successfullyUploaded.add(node);
+					}
+				}
+				if (successfullyUploaded.size() == toReupload.size()) {
+					LOGGER.debug("Successfully reuploaded all " + toReupload.size() + " packets.");
+				}
+			} catch (PacketHandleException ex) {
+				LOGGER.error("Reuploaded " + successfullyUploaded.size() + " / " + toReupload.size() + " packets before getting exception", ex);
+			}
+			synchronized (packetCollections) {
+				successfullyUploaded.forEach(packetCollections::remove);
+			}
+		}
+	}
+
+	private void reuploadFromSpool(PacketCollectionSpool spool) {
+		int reuploadedCount = 0;
+		boolean bulk = packetHandler instanceof BulkPacketHandler;
+		try {
+			while (true) {
+				List<SpooledPacketCollection> batch = spool.read(bulk ? BULK_SPOOL_BATCH_SIZE : SPOOL_BATCH_SIZE);
+				if (batch.isEmpty()) {
+					break;
+				}
+				LOGGER.debug("Going to try to reupload a batch of " + batch.size() + " packets from " + spool + " using " + packetHandler);
+				SpooledPacketCollection lastUploaded = null;
+				try {
+					if (bulk) {
+						int uploadedCount = handleAllInOrder((BulkPacketHandler) packetHandler, batch);
+						if (uploadedCount > 0) {
+							lastUploaded = batch.get(uploadedCount - 1);
 						}
-						synchronized (packetCollections) {
-							successfullyUploaded.forEach(packetCollections::remove);
+						reuploadedCount += uploadedCount;
+						if (uploadedCount < batch.size()) {
+							throw new PacketHandleException("Could not reupload " + (batch.size() - uploadedCount) + " / " + batch.size() + " packets in the batch");
+						}
+					} else {
+						for (SpooledPacketCollection spooledPacketCollection : batch) {
+							packetHandler.handle(spooledPacketCollection.getPacketCollection());
+							lastUploaded = spooledPacketCollection;
+							reuploadedCount++;
 						}
 					}
-				},
-				10,
-				10,
-				TimeUnit.SECONDS
-		);
+				} finally {
+					if (lastUploaded != null) {
+						spool.acknowledge(lastUploaded);
+					}
+				}
+			}
+			if (reuploadedCount > 0) {
+				LOGGER.info("Successfully reuploaded " + reuploadedCount + " packets from " + spool + " using " + packetHandler);
+			}
+		} catch (PacketHandleException ex) {
+			LOGGER.error("Reuploaded " + reuploadedCount + " packets from " + spool + " before getting exception. backlog count: " + spool.getBacklogCount() + " backlog bytes: " + spool.getBacklogBytes() + " backlog age: " + getBacklogAgeMillis() + "ms", ex);
+		} catch (IOException ex) {
+			LOGGER.error("Error while reading from " + spool, ex);
+		}
+	}
+
+	/**
+	 * Since the spool can only acknowledge everything up to a given packet collection, packet collections after the first one that failed
+	 * are retried even if they were uploaded. This is fine because retried uploads ignore conflicts.
+	 * @return The number of packet collections at the start of {@code batch} that were uploaded
+	 */
+	private static int handleAllInOrder(BulkPacketHandler bulkPacketHandler, List<SpooledPacketCollection> batch) throws PacketHandleException {
+		List<PacketCollection> packetCollections = new ArrayList<>(batch.size());
+		for (SpooledPacketCollection spooledPacketCollection : batch) {
+			packetCollections.add(spooledPacketCollection.getPacketCollection());
+		}
+		List<PacketCollection> failed = bulkPacketHandler.handleAll(packetCollections);
+		if (failed.isEmpty()) {
+			return packetCollections.size();
+		}
+		PacketCollection firstFailed = failed.get(0);
+		for (int i = 0; i < packetCollections.size(); i++) {
+			if (packetCollections.get(i) == firstFailed) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("The failed packet collections were not part of the batch! bulkPacketHandler: " + bulkPacketHandler);
+	}
+
+	/**
+	 * @return The number of packet collections waiting to be retried
+	 */
+	public int getBacklogCount() {
+		int count = 0;
+		PacketCollectionSpool spool = this.spool;
+		if (spool != null) {
+			count += spool.getBacklogCount();
+		}
+		synchronized (packetCollections) {
+			return count + packetCollections.size();
+		}
+	}
+
+	/**
+	 * @return The age in milliseconds of the oldest packet collection waiting to be retried, or null if nothing is waiting to be retried
+	 */
+	public @Nullable Long getBacklogAgeMillis() {
+		Long oldestDateMillis = null;
+		PacketCollectionSpool spool = this.spool;
+		if (spool != null) {
+			try {
+				oldestDateMillis = spool.getOldestDateMillis();
+			} catch (IOException ex) {
+				LOGGER.error("Could not get the oldest packet from " + spool, ex);
+			}
+		}
+		synchronized (packetCollections) {
+			if (!packetCollections.isEmpty()) {
+				long dateMillis = packetCollections.first().getDateMillis();
+				oldestDateMillis = oldestDateMillis == null ? dateMillis : Math.min(oldestDateMillis, dateMillis);
+			}
+		}
+		return oldestDateMillis == null ? null : System.currentTimeMillis() - oldestDateMillis;
+	}
+
+	/**
+	 * @return The queue depth, latencies and drop count of packet collections waiting to be uploaded for the first time
+	 */
+	public BoundedSerialExecutor.Statistics getQueueStatistics() {
+		return mainExecutor.getStatistics();
 	}
 
 	@Override
 	public void handle(PacketCollection packetCollection) {
-		mainExecutorService.execute(() -> {
+		mainExecutor.execute(() -> {
 			try {
 				packetHandler.handle(packetCollection);
 			} catch (PacketHandleException e) {
 				LOGGER.error("Error while uploading packet collection. ID: " + packetCollection.getDbId() + " dateMillis: " + packetCollection.getDateMillis() + ". Will retry using " + packetHandler);
-				synchronized (packetCollection) {
+				PacketCollectionSpool spool = this.spool;
+				if (spool != null) {
+					try {
+						spool.append(packetCollection);
+						return;
+					} catch (IOException ex) {
+						LOGGER.error("Could not write packet collection to " + spool + ". Will keep it in memory instead.", ex);
+					}
+				}
+				synchronized (packetCollections) {
 					packetCollections.add(new PacketGroupNode<>(packetCollection));
 				}
 			}
@@ -0,0 +1,18 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+
+import java.util.List;
+
+/**
+ * A {@link PacketHandler} that can handle many {@link PacketCollection}s at once, usually with a single request.
+ */
+public interface BulkPacketHandler extends PacketHandler {
+	/**
+	 * Handles all the given packet collections. Some packet collections may be handled even if others are not.
+	 * @param packetCollections The packet collections to handle
+	 * @return The packet collections that could not be handled, in the same order they were given. Empty if all were handled.
+	 * @throws PacketHandleException If none of the packet collections could be handled, for instance because the database could not be reached
+	 */
+	List<PacketCollection> handleAll(List<PacketCollection> packetCollections) throws PacketHandleException;
+}
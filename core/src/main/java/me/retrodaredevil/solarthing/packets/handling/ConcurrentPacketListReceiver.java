@@ -0,0 +1,154 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Similar to {@link PacketListReceiverMultiplexer}, but {@link PacketListReceiver}s are split into groups, and each group is run on its own thread, so the groups are all run at the same time.
+ * <p>
+ * The {@link PacketListReceiver}s in a group are run one after another. Receivers that share a resource, such as a serial port, must be in the same group.
+ * Each group should be independent from the others. For instance, each group could be reading from a different serial port.
+ * A single group is never run on more than one thread at once. Each group is given its own timeout, starting from when it was run.
+ * If one does not finish within its timeout, its packets are skipped, and it is not run again until it finishes. Packets from a run that finished late are discarded.
+ * <p>
+ * The packets from each group are added in the order of the groups, and the packets from a group are added in the order of its {@link PacketListReceiver}s.
+ * If a group throws an exception, the results of the others are still waited for, then the exception is rethrown.
+ */
+public class ConcurrentPacketListReceiver implements PacketListReceiver {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentPacketListReceiver.class);
+
+	private final List<Entry> entries;
+	private final long timeoutNanos;
+
+	/**
+	 * @param packetListReceiverGroups The groups of {@link PacketListReceiver}s, each of which will be given their own thread
+	 * @param timeout The amount of time to wait for each group to finish
+	 */
+	public ConcurrentPacketListReceiver(Collection<? extends Collection<? extends PacketListReceiver>> packetListReceiverGroups, Duration timeout) {
+		List<Entry> entries = new ArrayList<>();
+		int i = 0;
+		for (Collection<? extends PacketListReceiver> packetListReceiverGroup : packetListReceiverGroups) {
+			if (packetListReceiverGroup.isEmpty()) {
+				throw new IllegalArgumentException("A group cannot be empty!");
+			}
+			PacketListReceiver packetListReceiver = packetListReceiverGroup.size() == 1
+					? packetListReceiverGroup.iterator().next()
+					: new PacketListReceiverMultiplexer(packetListReceiverGroup);
+			entries.add(new Entry(packetListReceiver, i));
+			i++;
+		}
+		this.entries = Collections.unmodifiableList(entries);
+		this.timeoutNanos = timeout.toNanos();
+	}
+
+	@Override
+	public void receive(List<Packet> packets) {
+		List<Entry> submitted = new ArrayList<>();
+		for (Entry entry : entries) {
+			if (entry.submit()) {
+				submitted.add(entry);
+			}
+		}
+		List<Packet> received = new ArrayList<>();
+		Throwable failure = null;
+		int collectedCount = 0;
+		try {
+			for (Entry entry : submitted) {
+				long remainingNanos = timeoutNanos - (System.nanoTime() - entry.submitNanos);
+				try {
+					received.addAll(entry.future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS));
+					entry.future = null;
+				} catch (TimeoutException e) {
+					LOGGER.warn(entry.packetListReceiver + " did not finish within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms. Its packets will not be included.");
+					// entry.future stays the same, so this is not run again until it finishes
+				} catch (ExecutionException e) {
+					entry.future = null;
+					if (failure == null) {
+						failure = e.getCause();
+					} else {
+						failure.addSuppressed(e.getCause());
+					}
+				}
+				collectedCount++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// If we were interrupted, we will not wait for the rest, so stop them so they can be run again next time
+			for (Entry entry : submitted.subList(collectedCount, submitted.size())) {
+				entry.future.cancel(true);
+				entry.future = null;
+			}
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+		if (collectedCount == submitted.size()) {
+			packets.addAll(received);
+		}
+	}
+
+	private static final class Entry {
+		private final PacketListReceiver packetListReceiver;
+		private final ExecutorService executorService;
+		/** The result of the last submission if it has not been collected yet, or null */
+		private Future<List<Packet>> future = null;
+		/** The value of {@link System#nanoTime()} when {@link #future} was submitted */
+		private long submitNanos;
+
+		private Entry(PacketListReceiver packetListReceiver, int number) {
+			this.packetListReceiver = packetListReceiver;
+			executorService = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "packet-list-receiver-" + number);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		/**
+		 * @return true if the {@link PacketListReceiver} was submitted, false if it is still running from a previous call
+		 */
+		private boolean submit() {
+			Future<List<Packet>> lateFuture = future;
+			if (lateFuture != null) {
+				if (!lateFuture.isDone()) {
+					LOGGER.debug(packetListReceiver + " is still running from a previous call. Not running it again.");
+					return false;
+				}
+				try { // the packets are out of date, so they are discarded
+					lateFuture.get();
+				} catch (InterruptedException e) {
+					throw new AssertionError("The future is done, so we should not be interrupted", e);
+				} catch (ExecutionException e) {
+					LOGGER.error(packetListReceiver + " threw an exception after its deadline", e.getCause());
+				}
+			}
+			submitNanos = System.nanoTime();
+			future = executorService.submit(() -> {
+				List<Packet> packets = new ArrayList<>();
+				packetListReceiver.receive(packets);
+				return packets;
+			});
+			return true;
+		}
+	}
+}
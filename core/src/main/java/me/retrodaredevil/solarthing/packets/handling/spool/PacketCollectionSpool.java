@@ -0,0 +1,555 @@
+package me.retrodaredevil.solarthing.packets.handling.spool;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A durable queue of {@link PacketCollection}s that is stored in a directory, so that packets that could not be uploaded survive a restart.
+ * <p>
+ * Each packet collection is appended to a segment file as a single line of JSON. Once a segment reaches its maximum size, a new segment is started.
+ * A cursor file keeps track of the position of the oldest packet collection that has not been acknowledged yet, and a segment is deleted
+ * once everything inside of it has been acknowledged.
+ * <p>
+ * If the program stops while a line is being written, that partially written line is removed the next time the spool is opened.
+ * If the spool grows larger than its size budget, the oldest segments are discarded. Packet collections older than the retention period are
+ * discarded instead of being returned by {@link #read(int)}.
+ * <p>
+ * Note: This is thread safe. Only one instance may use a directory at a time.
+ */
+public class PacketCollectionSpool implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PacketCollectionSpool.class);
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".jsonl";
+	private static final String CURSOR_FILE_NAME = "cursor";
+	private static final String LOCK_FILE_NAME = "lock";
+	private static final long MAX_SEGMENT_BYTES = 1024 * 1024;
+
+	private final Path directory;
+	private final ObjectMapper mapper;
+	private final SimplePacketGroupParser parser;
+	private final long maxTotalBytes;
+	private final long maxSegmentBytes;
+	private final long retentionMillis;
+
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+
+	/** Every segment that has not been deleted yet, keyed by its sequence number */
+	private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+	private long lastSequence;
+	/** The sequence of the segment the cursor is in. Every segment with a lower sequence has been fully acknowledged. */
+	private long cursorSequence;
+	/** The byte position of the oldest unacknowledged line in the cursor's segment */
+	private long cursorOffset;
+	/** The number of lines before {@link #cursorOffset} in the cursor's segment */
+	private int cursorRecordIndex;
+
+	private boolean isOldestDateMillisKnown = false;
+	private @Nullable Long oldestDateMillis = null;
+
+	private PacketCollectionSpool(Path directory, ObjectMapper mapper, PacketParsingErrorHandler errorHandler, long maxTotalBytes, long retentionMillis, FileChannel lockChannel, FileLock lock) {
+		this.directory = directory;
+		this.mapper = mapper;
+		this.parser = new SimplePacketGroupParser(mapper, errorHandler);
+		this.maxTotalBytes = maxTotalBytes;
+		this.maxSegmentBytes = Math.max(1, Math.min(MAX_SEGMENT_BYTES, maxTotalBytes / 8));
+		this.retentionMillis = retentionMillis;
+		this.lockChannel = lockChannel;
+		this.lock = lock;
+	}
+
+	/**
+	 * Opens a spool, creating {@code directory} if it does not exist. Any packet collections left from a previous run are kept.
+	 * @param directory The directory to store the spool in. This should not be shared with anything else.
+	 * @param mapper The object mapper used to serialize and deserialize packet collections. Every subtype that may be spooled should be registered on this.
+	 * @param errorHandler The error handler used when a spooled packet cannot be deserialized
+	 * @param maxTotalBytes The maximum number of bytes the spool may take up before the oldest segments are discarded
+	 * @param retentionMillis The amount of time in milliseconds a packet collection is kept
+	 * @return The opened spool
+	 * @throws IOException If the spool could not be opened, or if it is already in use
+	 */
+	public static PacketCollectionSpool open(Path directory, ObjectMapper mapper, PacketParsingErrorHandler errorHandler, long maxTotalBytes, long retentionMillis) throws IOException {
+		requireNonNull(directory);
+		requireNonNull(mapper);
+		requireNonNull(errorHandler);
+		if (maxTotalBytes <= 0) {
+			throw new IllegalArgumentException("maxTotalBytes must be > 0! maxTotalBytes=" + maxTotalBytes);
+		}
+		if (retentionMillis <= 0) {
+			throw new IllegalArgumentException("retentionMillis must be > 0! retentionMillis=" + retentionMillis);
+		}
+		Files.createDirectories(directory);
+		FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		final FileLock lock;
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException ex) {
+			lockChannel.close();
+			throw new IOException("The spool at " + directory + " is already in use by this program!", ex);
+		} catch (IOException ex) {
+			lockChannel.close();
+			throw ex;
+		}
+		if (lock == null) {
+			lockChannel.close();
+			throw new IOException("The spool at " + directory + " is already in use!");
+		}
+		PacketCollectionSpool spool = new PacketCollectionSpool(directory, mapper, errorHandler, maxTotalBytes, retentionMillis, lockChannel, lock);
+		try {
+			spool.load();
+		} catch (IOException | RuntimeException ex) {
+			spool.close();
+			throw ex;
+		}
+		return spool;
+	}
+
+	private Path getSegmentPath(long sequence) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+	}
+	private static @Nullable Long parseSegmentSequence(Path path) {
+		String fileName = path.getFileName().toString();
+		if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+			return null;
+		}
+		try {
+			return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	private void load() throws IOException {
+		Path cursorPath = directory.resolve(CURSOR_FILE_NAME);
+		long savedCursorSequence = 0;
+		long savedCursorOffset = 0;
+		if (Files.exists(cursorPath)) {
+			String[] split = new String(Files.readAllBytes(cursorPath), StandardCharsets.UTF_8).trim().split(" ");
+			try {
+				savedCursorSequence = Long.parseLong(split[0]);
+				savedCursorOffset = Long.parseLong(split[1]);
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+				LOGGER.error("The cursor of the spool at " + directory + " is corrupt. Starting from the oldest segment.", ex);
+			}
+		}
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for (Path path : directoryStream) {
+				Long sequence = parseSegmentSequence(path);
+				if (sequence != null) {
+					segments.put(sequence, scanSegment(path, sequence));
+				}
+			}
+		}
+		lastSequence = Math.max(savedCursorSequence, segments.isEmpty() ? 0 : segments.lastKey());
+		cursorSequence = savedCursorSequence;
+		Segment cursorSegment = segments.get(cursorSequence);
+		cursorRecordIndex = cursorSegment == null ? 0 : cursorSegment.countRecordsBefore(savedCursorOffset);
+		cursorOffset = cursorSegment == null ? 0 : cursorSegment.getLineStart(cursorRecordIndex); // in case the saved offset is not at the start of a line
+		normalizeCursor();
+		enforceSizeBudget();
+		if (getBacklogCount() > 0) {
+			LOGGER.info("Opened spool at " + directory + " with " + getBacklogCount() + " packet collections (" + getBacklogBytes() + " bytes) left from a previous run");
+		}
+	}
+
+	/**
+	 * Reads a segment to count its lines. If the last line is incomplete, it is removed.
+	 */
+	private Segment scanSegment(Path path, long sequence) throws IOException {
+		List<Long> lineEnds = new ArrayList<>();
+		long position = 0;
+		try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(path))) {
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = inputStream.read(buffer)) != -1) {
+				for (int i = 0; i < length; i++) {
+					if (buffer[i] == '\n') {
+						lineEnds.add(position + i + 1);
+					}
+				}
+				position += length;
+			}
+		}
+		long size = lineEnds.isEmpty() ? 0 : lineEnds.get(lineEnds.size() - 1);
+		if (size != position) {
+			LOGGER.warn("Removing " + (position - size) + " bytes of an incomplete packet collection from " + path);
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(size);
+			}
+		}
+		return new Segment(sequence, lineEnds);
+	}
+
+	/**
+	 * Deletes segments that have been fully acknowledged and moves the cursor to the oldest unacknowledged line
+	 */
+	private void normalizeCursor() throws IOException {
+		while (true) {
+			Map.Entry<Long, Segment> firstEntry = segments.firstEntry();
+			if (firstEntry == null) {
+				cursorOffset = 0;
+				cursorRecordIndex = 0;
+				return;
+			}
+			long sequence = firstEntry.getKey();
+			if (sequence > cursorSequence) {
+				cursorSequence = sequence;
+				cursorOffset = 0;
+				cursorRecordIndex = 0;
+			}
+			if (sequence < cursorSequence || cursorOffset >= firstEntry.getValue().getSize()) {
+				deleteSegment(sequence);
+			} else {
+				return;
+			}
+		}
+	}
+	private void deleteSegment(long sequence) throws IOException {
+		segments.remove(sequence);
+		Files.deleteIfExists(getSegmentPath(sequence));
+		isOldestDateMillisKnown = false;
+	}
+	private void saveCursor() throws IOException {
+		Path cursorPath = directory.resolve(CURSOR_FILE_NAME);
+		Path temporaryPath = directory.resolve(CURSOR_FILE_NAME + ".tmp");
+		Files.write(temporaryPath, (cursorSequence + " " + cursorOffset).getBytes(StandardCharsets.UTF_8));
+		Files.move(temporaryPath, cursorPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void enforceSizeBudget() throws IOException {
+		long totalBytes = getTotalBytes();
+		while (totalBytes > maxTotalBytes && segments.size() > 1) {
+			Segment oldest = segments.firstEntry().getValue();
+			int discardedCount = oldest.getRecordCount() - (oldest.sequence == cursorSequence ? cursorRecordIndex : 0);
+			LOGGER.warn("The spool at " + directory + " is larger than " + maxTotalBytes + " bytes. Discarding " + discardedCount + " of the oldest packet collections.");
+			totalBytes -= oldest.getSize();
+			deleteSegment(oldest.sequence);
+			normalizeCursor();
+			saveCursor();
+		}
+	}
+	private long getTotalBytes() {
+		long totalBytes = 0;
+		for (Segment segment : segments.values()) {
+			totalBytes += segment.getSize();
+		}
+		return totalBytes;
+	}
+
+	/**
+	 * Durably appends {@code packetCollection} to the spool. When this returns, {@code packetCollection} has been written to disk.
+	 * @param packetCollection The packet collection to append
+	 * @throws IOException If {@code packetCollection} could not be written
+	 */
+	public synchronized void append(PacketCollection packetCollection) throws IOException {
+		ObjectNode node = mapper.valueToTree(packetCollection);
+		node.put("_id", packetCollection.getDbId()); // the ID is not serialized as a part of the packet collection itself
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		mapper.writeValue(outputStream, node);
+		outputStream.write('\n');
+		byte[] line = outputStream.toByteArray();
+
+		Map.Entry<Long, Segment> lastEntry = segments.lastEntry();
+		final Segment segment;
+		if (lastEntry == null || (lastEntry.getValue().getSize() > 0 && lastEntry.getValue().getSize() + line.length > maxSegmentBytes)) {
+			lastSequence++;
+			segment = new Segment(lastSequence, new ArrayList<>());
+			segments.put(lastSequence, segment);
+		} else {
+			segment = lastEntry.getValue();
+		}
+		boolean wasEmpty = getBacklogCount() == 0;
+		try (FileChannel channel = FileChannel.open(getSegmentPath(segment.sequence), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			channel.truncate(segment.getSize()); // in case a previous append failed part way through
+			ByteBuffer buffer = ByteBuffer.wrap(line);
+			long position = segment.getSize();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			channel.force(false);
+		}
+		segment.lineEnds.add(segment.getSize() + line.length);
+		if (wasEmpty) {
+			normalizeCursor();
+			isOldestDateMillisKnown = true;
+			oldestDateMillis = packetCollection.getDateMillis();
+		}
+		enforceSizeBudget();
+	}
+
+	/**
+	 * Reads up to {@code maxCount} of the oldest packet collections that have not been acknowledged yet. This does not remove them from the spool.
+	 * <p>
+	 * Packet collections that are older than the retention period or that cannot be parsed are discarded and are not returned.
+	 * @param maxCount The maximum number of packet collections to return
+	 * @return A list of the oldest unacknowledged packet collections, ordered oldest to newest. Empty if there is nothing left in the spool.
+	 * @throws IOException If there was an error reading the spool
+	 */
+	public synchronized List<SpooledPacketCollection> read(int maxCount) throws IOException {
+		if (maxCount <= 0) {
+			throw new IllegalArgumentException("maxCount must be > 0! maxCount=" + maxCount);
+		}
+		long discardBefore = System.currentTimeMillis() - retentionMillis;
+		List<SpooledPacketCollection> r = new ArrayList<>();
+		int discardedCount = 0;
+		for (Segment segment : new ArrayList<>(segments.tailMap(cursorSequence, true).values())) {
+			if (r.size() >= maxCount) {
+				break;
+			}
+			int recordIndex = segment.sequence == cursorSequence ? cursorRecordIndex : 0;
+			long offset = segment.sequence == cursorSequence ? cursorOffset : 0;
+			try (FileChannel channel = FileChannel.open(getSegmentPath(segment.sequence), StandardOpenOption.READ)) {
+				channel.position(offset);
+				InputStream inputStream = new BufferedInputStream(Channels.newInputStream(channel));
+				while (recordIndex < segment.getRecordCount() && r.size() < maxCount) {
+					long lineEnd = segment.lineEnds.get(recordIndex);
+					byte[] line = readLine(inputStream, (int) (lineEnd - offset), segment);
+					recordIndex++;
+					offset = lineEnd;
+					PacketCollection packetCollection = parseLine(line);
+					if (packetCollection == null || packetCollection.getDateMillis() < discardBefore) {
+						discardedCount++;
+						if (r.isEmpty()) { // nothing before this needs to be acknowledged, so we can move the cursor past this right now
+							cursorSequence = segment.sequence;
+							cursorOffset = lineEnd;
+							cursorRecordIndex = recordIndex;
+						}
+					} else {
+						r.add(new SpooledPacketCollection(packetCollection, segment.sequence, lineEnd, recordIndex));
+					}
+				}
+			}
+		}
+		if (discardedCount > 0) {
+			LOGGER.info("Discarded " + discardedCount + " packet collections from the spool at " + directory + " that were either too old or could not be parsed.");
+			normalizeCursor();
+			saveCursor();
+			isOldestDateMillisKnown = false;
+		}
+		if (!r.isEmpty()) {
+			isOldestDateMillisKnown = true;
+			oldestDateMillis = r.get(0).getPacketCollection().getDateMillis();
+		}
+		return r;
+	}
+
+	private byte[] readLine(InputStream inputStream, int lineLength, Segment segment) throws IOException {
+		byte[] line = new byte[lineLength];
+		int read = 0;
+		while (read < line.length) {
+			int length = inputStream.read(line, read, line.length - read);
+			if (length == -1) {
+				throw new IOException("Unexpected end of segment " + segment.sequence + " in spool at " + directory);
+			}
+			read += length;
+		}
+		return line;
+	}
+
+	/**
+	 * Reads only the top level dateMillis field of a spooled packet collection, without parsing its packets
+	 * @return The dateMillis of the packet collection, or null if it could not be found
+	 */
+	private @Nullable Long parseDateMillis(byte[] line) {
+		try (JsonParser parser = mapper.getFactory().createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ("dateMillis".equals(fieldName)) {
+					return value == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null;
+				}
+				parser.skipChildren();
+			}
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private @Nullable PacketCollection parseLine(byte[] line) {
+		try {
+			JsonNode node = mapper.readTree(line);
+			if (!node.isObject()) {
+				throw new PacketParseException("A spooled packet collection is not an object! node=" + node);
+			}
+			JsonNode idNode = node.get("_id");
+			if (idNode == null || !idNode.isTextual()) {
+				throw new PacketParseException("A spooled packet collection does not have a valid '_id'! node=" + node);
+			}
+			PacketGroup packetGroup = parser.parse((ObjectNode) node);
+			return PacketCollections.create(Instant.ofEpochMilli(packetGroup.getDateMillis()), packetGroup.getPackets(), idNode.asText());
+		} catch (IOException | PacketParseException ex) {
+			LOGGER.error("Could not parse a packet collection from the spool at " + directory, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Acknowledges {@code spooledPacketCollection} and everything before it, so that they are never returned from {@link #read(int)} again.
+	 * @param spooledPacketCollection A value returned from {@link #read(int)}
+	 * @throws IOException If the cursor could not be saved
+	 */
+	public synchronized void acknowledge(SpooledPacketCollection spooledPacketCollection) throws IOException {
+		if (spooledPacketCollection.getSegmentSequence() < cursorSequence
+				|| (spooledPacketCollection.getSegmentSequence() == cursorSequence && spooledPacketCollection.getEndOffset() <= cursorOffset)) {
+			return; // already acknowledged, or the segment was discarded
+		}
+		cursorSequence = spooledPacketCollection.getSegmentSequence();
+		cursorOffset = spooledPacketCollection.getEndOffset();
+		cursorRecordIndex = spooledPacketCollection.getRecordIndex();
+		isOldestDateMillisKnown = false;
+		normalizeCursor();
+		saveCursor();
+	}
+
+	/**
+	 * @return The number of packet collections that have not been acknowledged yet
+	 */
+	public synchronized int getBacklogCount() {
+		int count = 0;
+		for (Segment segment : segments.tailMap(cursorSequence, true).values()) {
+			count += segment.getRecordCount();
+		}
+		if (segments.containsKey(cursorSequence)) {
+			count -= cursorRecordIndex;
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of bytes taken up by packet collections that have not been acknowledged yet
+	 */
+	public synchronized long getBacklogBytes() {
+		long bytes = 0;
+		for (Segment segment : segments.tailMap(cursorSequence, true).values()) {
+			bytes += segment.getSize();
+		}
+		if (segments.containsKey(cursorSequence)) {
+			bytes -= cursorOffset;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The dateMillis of the oldest packet collection that has not been acknowledged yet, or null if the backlog is empty
+	 * @throws IOException If the spool had to be read to find the oldest packet collection, and it could not be read
+	 */
+	public synchronized @Nullable Long getOldestDateMillis() throws IOException {
+		if (!isOldestDateMillisKnown) {
+			oldestDateMillis = findOldestDateMillis();
+			isOldestDateMillisKnown = true;
+		}
+		return oldestDateMillis;
+	}
+
+	/**
+	 * Reads the dateMillis of each unacknowledged line until one is found that {@link #read(int)} would return.
+	 * Unlike {@link #read(int)}, this does not move the cursor past lines that would be discarded.
+	 */
+	private @Nullable Long findOldestDateMillis() throws IOException {
+		long discardBefore = System.currentTimeMillis() - retentionMillis;
+		for (Segment segment : segments.tailMap(cursorSequence, true).values()) {
+			int recordIndex = segment.sequence == cursorSequence ? cursorRecordIndex : 0;
+			long offset = segment.sequence == cursorSequence ? cursorOffset : 0;
+			if (recordIndex >= segment.getRecordCount()) {
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(getSegmentPath(segment.sequence), StandardOpenOption.READ)) {
+				channel.position(offset);
+				InputStream inputStream = new BufferedInputStream(Channels.newInputStream(channel));
+				for (; recordIndex < segment.getRecordCount(); recordIndex++) {
+					long lineEnd = segment.lineEnds.get(recordIndex);
+					Long dateMillis = parseDateMillis(readLine(inputStream, (int) (lineEnd - offset), segment));
+					offset = lineEnd;
+					if (dateMillis != null && dateMillis >= discardBefore) {
+						return dateMillis;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			lock.release();
+		} finally {
+			lockChannel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PacketCollectionSpool(" + directory + ")";
+	}
+
+	private static final class Segment {
+		private final long sequence;
+		/** The byte position after each line's newline */
+		private final List<Long> lineEnds;
+
+		private Segment(long sequence, List<Long> lineEnds) {
+			this.sequence = sequence;
+			this.lineEnds = lineEnds;
+		}
+		long getSize() {
+			return lineEnds.isEmpty() ? 0 : lineEnds.get(lineEnds.size() - 1);
+		}
+		int getRecordCount() {
+			return lineEnds.size();
+		}
+		/**
+		 * @return The number of lines that end on or before {@code offset}
+		 */
+		int countRecordsBefore(long offset) {
+			int index = Collections.binarySearch(lineEnds, offset);
+			return index >= 0 ? index + 1 : -(index + 1);
+		}
+		long getLineStart(int recordIndex) {
+			return recordIndex == 0 ? 0 : lineEnds.get(recordIndex - 1);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package me.retrodaredevil.solarthing.packets.handling.spool;
+
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link PacketCollection} that was read from a {@link PacketCollectionSpool}, along with its position in the spool
+ */
+public final class SpooledPacketCollection {
+	private final PacketCollection packetCollection;
+	private final long segmentSequence;
+	private final long endOffset;
+	private final int recordIndex;
+
+	SpooledPacketCollection(PacketCollection packetCollection, long segmentSequence, long endOffset, int recordIndex) {
+		this.packetCollection = requireNonNull(packetCollection);
+		this.segmentSequence = segmentSequence;
+		this.endOffset = endOffset;
+		this.recordIndex = recordIndex;
+	}
+
+	public PacketCollection getPacketCollection() {
+		return packetCollection;
+	}
+
+	long getSegmentSequence() {
+		return segmentSequence;
+	}
+
+	/** @return The byte position in the segment right after this packet collection */
+	long getEndOffset() {
+		return endOffset;
+	}
+
+	/** @return The number of lines in the segment up to and including this packet collection */
+	int getRecordIndex() {
+		return recordIndex;
+	}
+}
@@ -11,20 +11,21 @@ import java.security.NoSuchAlgorithmException;
 public final class HashUtil {
 	private HashUtil() { throw new UnsupportedOperationException(); }
 
-	private static final MessageDigest MESSAGE_DIGEST;
-
-	static {
+	/** Each thread has its own {@link MessageDigest} so that many threads can hash at the same time */
+	private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = ThreadLocal.withInitial(() -> {
 		try {
-			MESSAGE_DIGEST = MessageDigest.getInstance("SHA-256");
+			return MessageDigest.getInstance("SHA-256");
 		} catch (NoSuchAlgorithmException e) {
 			throw new RuntimeException(e);
 		}
+	});
+	static {
+		MESSAGE_DIGEST.get(); // make sure SHA-256 is available as soon as this class is used
 	}
 	public static byte[] hash(String string) {
-		synchronized (MESSAGE_DIGEST) {
-			MESSAGE_DIGEST.update(string.getBytes(StandardCharsets.UTF_8));
-			return MESSAGE_DIGEST.digest();
-		}
+		MessageDigest messageDigest = MESSAGE_DIGEST.get();
+		messageDigest.update(string.getBytes(StandardCharsets.UTF_8));
+		return messageDigest.digest();
 	}
 	public static String encodedHash(String string) {
 		return Base64Variants.getDefaultVariant().encode(hash(string));
@@ -0,0 +1,138 @@
+package me.retrodaredevil.solarthing.solar.accumulation;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+import me.retrodaredevil.solarthing.solar.common.DailyData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps the result of {@link AccumulationUtil#getAccumulationPairs(Map, AccumulationConfig)} up to date for a list of packet groups that only changes at its end.
+ * <p>
+ * Packet groups are added with {@link #addAll(List)} and the end of the list can be forgotten with {@link #truncate(int)}.
+ * Only the packet groups that are added are looked at, so keeping this up to date costs time proportional to the number of new packet groups,
+ * rather than the number of packet groups in the whole list.
+ * <p>
+ * Note: Not thread safe
+ */
+public class AccumulationPairTracker<T extends DailyData> {
+	private final Class<T> clazz;
+	private final Map<IdentifierFragment, Timeline<T>> timelineMap = new HashMap<>();
+	private int packetGroupCount = 0;
+
+	public AccumulationPairTracker(Class<T> clazz) {
+		this.clazz = requireNonNull(clazz);
+	}
+
+	/**
+	 * @return The number of packet groups that have been added and not truncated
+	 */
+	public int getPacketGroupCount() {
+		return packetGroupCount;
+	}
+
+	/**
+	 * Forgets every packet group whose index is greater than or equal to {@code packetGroupCount}
+	 * @param packetGroupCount The number of packet groups to keep
+	 */
+	public void truncate(int packetGroupCount) {
+		if (packetGroupCount < 0) {
+			throw new IllegalArgumentException("packetGroupCount cannot be negative! packetGroupCount: " + packetGroupCount);
+		}
+		if (packetGroupCount >= this.packetGroupCount) {
+			return;
+		}
+		for (Timeline<T> timeline : timelineMap.values()) {
+			timeline.truncate(packetGroupCount);
+		}
+		timelineMap.values().removeIf(Timeline::isEmpty);
+		this.packetGroupCount = packetGroupCount;
+	}
+
+	/**
+	 * Forgets every packet group
+	 */
+	public void clear() {
+		timelineMap.clear();
+		packetGroupCount = 0;
+	}
+
+	/**
+	 * @param packetGroups The packet groups to add to the end. These should be newer than every packet group that has already been added.
+	 */
+	@SuppressWarnings("unchecked")
+	public void addAll(List<? extends FragmentedPacketGroup> packetGroups) {
+		for (FragmentedPacketGroup packetGroup : packetGroups) {
+			int packetGroupIndex = packetGroupCount++;
+			for (Packet packet : packetGroup.getPackets()) {
+				if (clazz.isInstance(packet)) {
+					T t = (T) packet;
+					IdentifierFragment identifierFragment = IdentifierFragment.create(packetGroup.getFragmentId(packet), t.getIdentifier());
+					timelineMap.computeIfAbsent(identifierFragment, k -> new Timeline<>())
+							.add(new TimestampedPacket<>(t, packetGroup.getDateMillisOrKnown(packet)), packetGroupIndex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The same thing {@link AccumulationUtil#getAccumulationPairs(Map, AccumulationConfig)} would return for every packet group that has been added
+	 */
+	public Map<IdentifierFragment, List<AccumulationPair<T>>> getAccumulationPairs(AccumulationConfig accumulationConfig) {
+		Map<IdentifierFragment, List<AccumulationPair<T>>> r = new HashMap<>(timelineMap.size());
+		for (Map.Entry<IdentifierFragment, Timeline<T>> entry : timelineMap.entrySet()) {
+			r.put(entry.getKey(), entry.getValue().getAccumulationPairs(accumulationConfig));
+		}
+		return r;
+	}
+
+	private static final class Timeline<T extends DailyData> {
+		private final List<TimestampedPacket<T>> packets = new ArrayList<>();
+		/** The index of the packet group that each packet in {@link #packets} came from. This never decreases. */
+		private final List<Integer> packetGroupIndices = new ArrayList<>();
+		/** The indices in {@link #packets} where a packet is from a new day compared to the packet before it */
+		private final List<Integer> newDayIndices = new ArrayList<>();
+
+		private boolean isEmpty() {
+			return packets.isEmpty();
+		}
+
+		private void add(TimestampedPacket<T> packet, int packetGroupIndex) {
+			if (!packets.isEmpty() && packet.getPacket().isNewDay(packets.get(packets.size() - 1).getPacket())) {
+				newDayIndices.add(packets.size());
+			}
+			packets.add(packet);
+			packetGroupIndices.add(packetGroupIndex);
+		}
+
+		private void truncate(int packetGroupCount) {
+			int size = packets.size();
+			while (size > 0 && packetGroupIndices.get(size - 1) >= packetGroupCount) {
+				size--;
+			}
+			packets.subList(size, packets.size()).clear();
+			packetGroupIndices.subList(size, packetGroupIndices.size()).clear();
+			while (!newDayIndices.isEmpty() && newDayIndices.get(newDayIndices.size() - 1) >= size) {
+				newDayIndices.remove(newDayIndices.size() - 1);
+			}
+		}
+
+		private List<AccumulationPair<T>> getAccumulationPairs(AccumulationConfig accumulationConfig) {
+			List<AccumulationPair<T>> r = new ArrayList<>(newDayIndices.size() + 1);
+			int startIndex = 0;
+			for (int newDayIndex : newDayIndices) {
+				r.add(AccumulationUtil.createAccumulationPair(r.isEmpty(), packets.get(startIndex), packets.get(newDayIndex - 1), accumulationConfig));
+				startIndex = newDayIndex;
+			}
+			r.add(AccumulationUtil.createAccumulationPair(r.isEmpty(), packets.get(startIndex), packets.get(packets.size() - 1), accumulationConfig));
+			return r;
+		}
+	}
+}
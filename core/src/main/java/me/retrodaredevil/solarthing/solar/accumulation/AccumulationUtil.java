@@ -24,7 +24,7 @@ public final class AccumulationUtil {
 	 *                Helps determine if the first packet needs to be interpreted as data from today or from yesterday.
 	 */
 	@Contract(pure = true)
-	private static <T extends DailyData> AccumulationPair<T> createAccumulationPair(boolean isFirst, TimestampedPacket<T> firstPacket, TimestampedPacket<T> endPacket, AccumulationConfig accumulationConfig) {
+	static <T extends DailyData> AccumulationPair<T> createAccumulationPair(boolean isFirst, TimestampedPacket<T> firstPacket, TimestampedPacket<T> endPacket, AccumulationConfig accumulationConfig) {
 		final AccumulationPair.StartPacketType startPacketType;
 		if (isFirst) {
 			if (firstPacket.getDateMillis() < accumulationConfig.getCutOffIfStartBeforeDateMillis() || endPacket.getDateMillis() < accumulationConfig.getCutOffIfEndBeforeDateMillis()) {
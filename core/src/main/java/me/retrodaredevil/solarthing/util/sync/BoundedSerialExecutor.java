@@ -0,0 +1,233 @@
+package me.retrodaredevil.solarthing.util.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An {@link Executor} that runs tasks one at a time, in order, using another (usually shared) {@link Executor}.
+ * Tasks waiting to be run are kept in a bounded queue, and the {@link OverflowPolicy} decides what happens when that queue is full.
+ * <p>
+ * At most one task from this is given to the underlying {@link Executor} at once, so the underlying {@link Executor} should be able to run
+ * at least one task for each {@link BoundedSerialExecutor} that uses it at the same time. A cached thread pool works well.
+ * <p>
+ * This is thread safe.
+ */
+public class BoundedSerialExecutor implements Executor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BoundedSerialExecutor.class);
+	private static final long DROP_LOG_PERIOD_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	private final String name;
+	private final Executor executor;
+	private final OverflowPolicy overflowPolicy;
+	private final int capacity;
+
+	private final Object lock = new Object();
+	// all of these fields are guarded by lock
+	private final Deque<QueuedTask> queue = new ArrayDeque<>();
+	private boolean running = false;
+	private long droppedCount = 0;
+	private long completedCount = 0;
+	private long totalLatencyNanos = 0;
+	private long maxLatencyNanos = 0;
+	private Long lastDropLogNanos = null;
+
+	/**
+	 * @param name The name of this executor, used for logging
+	 * @param executor The executor to run tasks on
+	 * @param overflowPolicy What to do when a task is added while the queue is full
+	 * @param capacity The maximum number of tasks waiting to be run, not including the task that is currently running. Ignored for {@link OverflowPolicy#COALESCE_LATEST}
+	 */
+	public BoundedSerialExecutor(String name, Executor executor, OverflowPolicy overflowPolicy, int capacity) {
+		this.name = requireNonNull(name);
+		this.executor = requireNonNull(executor);
+		this.overflowPolicy = requireNonNull(overflowPolicy);
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive! capacity: " + capacity);
+		}
+		this.capacity = overflowPolicy == OverflowPolicy.COALESCE_LATEST ? 1 : capacity;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @throws RejectedExecutionException If the policy is {@link OverflowPolicy#BLOCK} and the current thread is interrupted while waiting for space
+	 */
+	@Override
+	public void execute(Runnable task) {
+		requireNonNull(task);
+		boolean start = false;
+		int dropped = 0;
+		synchronized (lock) {
+			while (queue.size() >= capacity) {
+				if (overflowPolicy == OverflowPolicy.BLOCK) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for space in " + name, e);
+					}
+				} else {
+					queue.removeFirst();
+					dropped++;
+				}
+			}
+			queue.addLast(new QueuedTask(task, System.nanoTime()));
+			if (!running) {
+				running = true;
+				start = true;
+			}
+			if (dropped > 0) {
+				droppedCount += dropped;
+				long nowNanos = System.nanoTime();
+				if (overflowPolicy == OverflowPolicy.DROP_OLDEST && (lastDropLogNanos == null || nowNanos - lastDropLogNanos >= DROP_LOG_PERIOD_NANOS)) {
+					lastDropLogNanos = nowNanos;
+					LOGGER.warn(name + " can't keep up, so the oldest tasks are being dropped. " + getStatisticsLocked());
+				}
+			}
+		}
+		if (start) {
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				synchronized (lock) {
+					running = false;
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			final QueuedTask queuedTask;
+			synchronized (lock) {
+				queuedTask = queue.pollFirst();
+				if (queuedTask == null) {
+					running = false;
+					return;
+				}
+				lock.notifyAll(); // there's space in the queue now
+			}
+			try {
+				queuedTask.task.run();
+			} catch (RuntimeException e) {
+				LOGGER.error("Got exception while running task in " + name, e);
+			} catch (Error e) {
+				// The error is passed on to the underlying executor, so another drain has to take care of the rest of the queue
+				recordCompleted(queuedTask);
+				restartDrain();
+				throw e;
+			}
+			recordCompleted(queuedTask);
+		}
+	}
+
+	private void recordCompleted(QueuedTask queuedTask) {
+		long latencyNanos = System.nanoTime() - queuedTask.queuedNanos;
+		synchronized (lock) {
+			completedCount++;
+			totalLatencyNanos += latencyNanos;
+			maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+		}
+	}
+
+	/**
+	 * Called by a drain that is about to stop early. Gives the rest of the queue to a new drain, or marks this as not running if there is nothing left to run.
+	 */
+	private void restartDrain() {
+		synchronized (lock) {
+			if (queue.isEmpty()) {
+				running = false;
+				return;
+			}
+		}
+		try {
+			executor.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			synchronized (lock) {
+				running = false;
+			}
+			LOGGER.error("Could not continue running tasks in " + name + ". The next call to execute() will try again", e);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Statistics getStatistics() {
+		synchronized (lock) {
+			return getStatisticsLocked();
+		}
+	}
+	private Statistics getStatisticsLocked() {
+		return new Statistics(queue.size(), droppedCount, completedCount, completedCount == 0 ? 0 : totalLatencyNanos / completedCount, maxLatencyNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedSerialExecutor(name=" + name + ", overflowPolicy=" + overflowPolicy + ", capacity=" + capacity + ")";
+	}
+
+	public enum OverflowPolicy {
+		/** When the queue is full, the oldest task that has not started yet is dropped to make room for the new one */
+		DROP_OLDEST,
+		/** Only the newest task that has not started yet is kept. Useful when only the latest data matters */
+		COALESCE_LATEST,
+		/** When the queue is full, the thread adding a task waits until there is room. Useful when tasks must not be lost */
+		BLOCK,
+	}
+
+	/**
+	 * A snapshot of the statistics of a {@link BoundedSerialExecutor}. Latencies are measured from when a task is queued to when it finishes running.
+	 */
+	public static final class Statistics {
+		private final int queueSize;
+		private final long droppedCount;
+		private final long completedCount;
+		private final long averageLatencyNanos;
+		private final long maxLatencyNanos;
+
+		private Statistics(int queueSize, long droppedCount, long completedCount, long averageLatencyNanos, long maxLatencyNanos) {
+			this.queueSize = queueSize;
+			this.droppedCount = droppedCount;
+			this.completedCount = completedCount;
+			this.averageLatencyNanos = averageLatencyNanos;
+			this.maxLatencyNanos = maxLatencyNanos;
+		}
+
+		/** @return The number of tasks waiting to be run, not including the task that is currently running */
+		public int getQueueSize() { return queueSize; }
+		/** @return The number of tasks that were dropped or replaced before they ran */
+		public long getDroppedCount() { return droppedCount; }
+		public long getCompletedCount() { return completedCount; }
+		public long getAverageLatencyNanos() { return averageLatencyNanos; }
+		public long getMaxLatencyNanos() { return maxLatencyNanos; }
+
+		@Override
+		public String toString() {
+			return "queue size: " + queueSize +
+					" dropped: " + droppedCount +
+					" completed: " + completedCount +
+					" average latency: " + TimeUnit.NANOSECONDS.toMillis(averageLatencyNanos) + "ms" +
+					" max latency: " + TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos) + "ms";
+		}
+	}
+
+	private static final class QueuedTask {
+		private final Runnable task;
+		private final long queuedNanos;
+
+		private QueuedTask(Runnable task, long queuedNanos) {
+			this.task = task;
+			this.queuedNanos = queuedNanos;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package me.retrodaredevil.solarthing.database.cache;
+
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbStoredIdentifier;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.util.sync.BasicResourceManager;
+import me.retrodaredevil.solarthing.util.sync.ResourceManager;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessedPacketTrackerTest {
+
+	private static StoredPacketGroup create(long dateMillis, String documentId) {
+		return PacketGroups.createStoredPacketGroup(Collections.emptyList(), dateMillis, new CouchDbStoredIdentifier(dateMillis, documentId, "1-0"));
+	}
+
+	@Test
+	void testEachPacketIsOnlyReturnedOnce() {
+		Instant instant = Instant.now();
+		SimpleDatabaseCache cache = SimpleDatabaseCache.createDefault(Clock.fixed(instant, ZoneOffset.UTC));
+		ResourceManager<SimpleDatabaseCache> cacheManager = new BasicResourceManager<>(cache);
+		long dateMillis = instant.toEpochMilli() - 10_000;
+		MillisQuery query = cache.getRecommendedQuery();
+		// two different documents that were uploaded at the same time
+		cache.feed(Arrays.asList(create(dateMillis, "event-1"), create(dateMillis, "event-2")), query.getStartKey(), query.getEndKey());
+
+		ProcessedPacketTracker tracker = new ProcessedPacketTracker();
+		List<StoredPacketGroup> unprocessed = tracker.getUnprocessedPackets(cacheManager, dateMillis - 60_000);
+		assertEquals(2, unprocessed.size());
+		assertTrue(tracker.getUnprocessedPackets(cacheManager, dateMillis - 60_000).isEmpty());
+
+		cache.feed(Collections.singletonList(create(dateMillis + 1000, "event-3")), query.getStartKey(), query.getEndKey());
+		unprocessed = tracker.getUnprocessedPackets(cacheManager, dateMillis - 60_000);
+		assertEquals(1, unprocessed.size());
+		assertEquals("event-3", unprocessed.get(0).getStoredIdentifier().getDocumentId());
+	}
+}
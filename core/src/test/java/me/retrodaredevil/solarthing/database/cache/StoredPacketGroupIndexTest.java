@@ -0,0 +1,75 @@
+package me.retrodaredevil.solarthing.database.cache;
+
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbStoredIdentifier;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.util.TimeRange;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StoredPacketGroupIndexTest {
+
+	private static StoredPacketGroup create(long dateMillis, String documentId, String revision) {
+		return PacketGroups.createStoredPacketGroup(Collections.emptyList(), dateMillis, new CouchDbStoredIdentifier(dateMillis, documentId, revision));
+	}
+	private static List<String> documentIds(StoredPacketGroupIndex index, TimeRange timeRange, boolean descending) {
+		return index.createStream(timeRange, descending)
+				.map(packetGroup -> packetGroup.getStoredIdentifier().getDocumentId())
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	void testSameDateMillisIsKept() {
+		StoredPacketGroupIndex index = new StoredPacketGroupIndex();
+		index.put(create(1000, "fragment-2", "1-a"));
+		index.put(create(1000, "fragment-1", "1-a"));
+		index.put(create(999, "fragment-3", "1-a"));
+		index.put(create(1001, "fragment-0", "1-a"));
+		assertEquals(4, index.size());
+		assertEquals(Arrays.asList("fragment-1", "fragment-2"), documentIds(index, TimeRange.create(1000, 1000), false));
+		assertEquals(Arrays.asList("fragment-0", "fragment-2", "fragment-1", "fragment-3"), documentIds(index, TimeRange.ALWAYS, true));
+
+		index.removeOnOrBefore(1000);
+		assertEquals(Collections.singletonList("fragment-0"), documentIds(index, TimeRange.ALWAYS, false));
+	}
+
+	@Test
+	void testNewRevisionReplacesOldRevision() {
+		StoredPacketGroupIndex index = new StoredPacketGroupIndex();
+		index.put(create(1000, "a", "1-a"));
+		index.put(create(1000, "b", "1-b"));
+		index.put(create(1000, "a", "2-a"));
+		assertEquals(2, index.size());
+		index.put(create(1500, "a", "3-a")); // the document was updated with a new date millis
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList("b", "a"), documentIds(index, TimeRange.ALWAYS, false));
+		assertEquals(new CouchDbStoredIdentifier(1500, "a", "3-a"), index.getLast().getStoredIdentifier());
+
+		index.removeOnOrBefore(1500);
+		index.put(create(2000, "a", "4-a")); // the removed revision must not be remembered
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	void testReplaceAfter() {
+		StoredPacketGroupIndex index = new StoredPacketGroupIndex();
+		index.put(create(1000, "old", "1-old"));
+		index.put(create(2000, "kept", "1-kept"));
+		index.put(create(2000, "deleted", "1-deleted"));
+		index.put(create(3000, "updated", "1-updated"));
+
+		index.replaceAfter(1500, Arrays.asList(
+				create(2000, "kept", "1-kept"),
+				create(3000, "updated", "2-updated"),
+				create(4000, "new", "1-new")
+		));
+		assertEquals(Arrays.asList("old", "kept", "updated", "new"), documentIds(index, TimeRange.ALWAYS, false));
+		assertEquals(new CouchDbStoredIdentifier(3000, "updated", "2-updated"), index.createStream(TimeRange.create(3000, 3000), false).findFirst().orElseThrow(AssertionError::new).getStoredIdentifier());
+	}
+}
@@ -0,0 +1,65 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CouchDbChangesParserTest {
+	private static final ObjectMapper MAPPER = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+
+	static {
+		MAPPER.getSubtypeResolver().registerSubtypes(InstancePacket.class);
+	}
+
+	private static CouchDbChangesParser.ChangesResponse parse(String json) throws IOException, PacketParseException {
+		CouchDbChangesParser parser = new CouchDbChangesParser(MAPPER, PacketParsingErrorHandler.DO_NOTHING);
+		try (JsonParser jsonParser = MAPPER.getFactory().createParser(json)) {
+			return parser.parse(jsonParser);
+		}
+	}
+
+	private static String document(String id, long dateMillis) {
+		return "{\"_id\": \"" + id + "\", \"_rev\": \"1-" + id + "\", \"dateMillis\": " + dateMillis + ", \"packets\": [{\"packetType\": \"SOURCE\", \"sourceId\": \"default\"}]}";
+	}
+
+	@Test
+	void testParse() throws IOException, PacketParseException {
+		String json = "{\"results\": [" +
+				"{\"seq\": \"1-a\", \"id\": \"first\", \"changes\": [{\"rev\": \"1-first\"}], \"doc\": " + document("first", 1000) + "}," +
+				"{\"seq\": \"2-a\", \"id\": \"deleted\", \"changes\": [{\"rev\": \"2-deleted\"}], \"deleted\": true, \"doc\": {\"_id\": \"deleted\", \"_rev\": \"2-deleted\", \"_deleted\": true}}," +
+				"{\"seq\": \"3-a\", \"id\": \"not_a_packet_collection\", \"changes\": [{\"rev\": \"1-b\"}], \"doc\": {\"_id\": \"not_a_packet_collection\", \"_rev\": \"1-b\", \"packets\": {\"nested\": [1, 2]}}}," +
+				"{\"seq\": \"4-a\", \"id\": \"second\", \"changes\": [{\"rev\": \"1-second\"}], \"doc\": " + document("second", 2000) + "}" +
+				"], \"last_seq\": \"4-a\", \"pending\": 0}";
+		CouchDbChangesParser.ChangesResponse response = parse(json);
+		assertEquals("4-a", response.getLastSequence());
+		List<StoredPacketGroup> packetGroups = response.getPacketGroups();
+		assertEquals(2, packetGroups.size());
+		assertEquals(new CouchDbStoredIdentifier(1000, "first", "1-first"), packetGroups.get(0).getStoredIdentifier());
+		assertEquals(new CouchDbStoredIdentifier(2000, "second", "1-second"), packetGroups.get(1).getStoredIdentifier());
+		assertEquals(1, packetGroups.get(1).getPackets().size());
+	}
+
+	@Test
+	void testNumericSequence() throws IOException, PacketParseException {
+		CouchDbChangesParser.ChangesResponse response = parse("{\"last_seq\": 52, \"results\": []}");
+		assertEquals("52", response.getLastSequence());
+		assertEquals(0, response.getPacketGroups().size());
+	}
+
+	@Test
+	void testMissingLastSequence() {
+		assertThrows(PacketParseException.class, () -> parse("{\"results\": []}"));
+		assertThrows(PacketParseException.class, () -> parse("[]"));
+	}
+}
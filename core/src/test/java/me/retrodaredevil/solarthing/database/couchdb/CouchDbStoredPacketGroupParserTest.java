@@ -0,0 +1,110 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.misc.device.CelsiusCpuTemperaturePacket;
+import me.retrodaredevil.solarthing.misc.device.CpuTemperaturePacket;
+import me.retrodaredevil.solarthing.misc.device.DevicePacket;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+import me.retrodaredevil.solarthing.packets.instance.InstanceFragmentIndicatorPackets;
+import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CouchDbStoredPacketGroupParserTest {
+	static final ObjectMapper MAPPER = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+
+	static {
+		MAPPER.getSubtypeResolver().registerSubtypes(DevicePacket.class, InstancePacket.class);
+	}
+
+	static String createDocument(long dateMillis, int coreCount, boolean includeBadPacket) {
+		ObjectNode document = MAPPER.createObjectNode();
+		document.put("_id", "packet_collection-" + dateMillis);
+		document.put("dateMillis", dateMillis);
+		ArrayNode packets = document.putArray("packets");
+		packets.add(MAPPER.valueToTree(InstanceSourcePackets.create("default")));
+		packets.add(MAPPER.valueToTree(InstanceFragmentIndicatorPackets.create(1)));
+		List<CelsiusCpuTemperaturePacket.Core> cores = new ArrayList<>();
+		for (int i = 0; i < coreCount; i++) {
+			cores.add(new CelsiusCpuTemperaturePacket.CelsiusCore(i, 40.0f + i));
+		}
+		packets.add(MAPPER.valueToTree(new CelsiusCpuTemperaturePacket(CpuTemperaturePacket.VERSION_WITH_CORES, 45.5f, cores)));
+		if (includeBadPacket) {
+			packets.addObject().put("packetType", "THIS_PACKET_TYPE_DOES_NOT_EXIST");
+		}
+		document.put("sourceId", "default"); // fields that the parser does not care about should be skipped
+		document.put("_rev", "1-" + dateMillis); // _rev comes after the packets here to make sure field order does not matter
+		return document.toString();
+	}
+
+	static VersionedPacket<StoredPacketGroup> parseStreaming(CouchDbStoredPacketGroupParser parser, String json) throws IOException, PacketParseException {
+		try (JsonParser jsonParser = MAPPER.getFactory().createParser(json)) {
+			return parser.parse(jsonParser);
+		}
+	}
+	static PacketGroup parseTree(SimplePacketGroupParser parser, String json) throws IOException, PacketParseException {
+		JsonNode node = MAPPER.readTree(json);
+		return parser.parse((ObjectNode) node);
+	}
+
+	@Test
+	void testSameAsTreeParser() throws IOException, PacketParseException {
+		AtomicInteger streamingErrorCount = new AtomicInteger();
+		AtomicInteger treeErrorCount = new AtomicInteger();
+		CouchDbStoredPacketGroupParser streamingParser = new CouchDbStoredPacketGroupParser(MAPPER, ex -> streamingErrorCount.incrementAndGet());
+		SimplePacketGroupParser treeParser = new SimplePacketGroupParser(MAPPER, ex -> treeErrorCount.incrementAndGet());
+
+		String json = createDocument(1000L, 4, true);
+		VersionedPacket<StoredPacketGroup> versionedPacket = parseStreaming(streamingParser, json);
+		PacketGroup expected = parseTree(treeParser, json);
+
+		StoredPacketGroup storedPacketGroup = versionedPacket.getPacket();
+		assertEquals(1000L, storedPacketGroup.getDateMillis());
+		assertEquals(new CouchDbStoredIdentifier(1000L, "packet_collection-1000", "1-1000"), storedPacketGroup.getStoredIdentifier());
+		assertEquals(new RevisionUpdateToken("1-1000"), versionedPacket.getUpdateToken());
+
+		assertEquals(1, streamingErrorCount.get());
+		assertEquals(treeErrorCount.get(), streamingErrorCount.get());
+		assertEquals(3, storedPacketGroup.getPackets().size());
+		assertEquals(MAPPER.writeValueAsString(expected.getPackets()), MAPPER.writeValueAsString(storedPacketGroup.getPackets()));
+	}
+
+	@Test
+	void testErrorHandlerCanThrow() {
+		CouchDbStoredPacketGroupParser parser = new CouchDbStoredPacketGroupParser(MAPPER, ex -> { throw new PacketParseException(ex); });
+		assertThrows(PacketParseException.class, () -> parseStreaming(parser, createDocument(1000L, 0, true)));
+	}
+
+	@Test
+	void testInvalidDocuments() {
+		CouchDbStoredPacketGroupParser parser = new CouchDbStoredPacketGroupParser(MAPPER, PacketParsingErrorHandler.DO_NOTHING);
+		for (String json : Arrays.asList(
+				"[]",
+				"{\"_id\": \"a\", \"_rev\": \"1-a\", \"packets\": []}",
+				"{\"_id\": \"a\", \"_rev\": \"1-a\", \"dateMillis\": \"5\", \"packets\": []}",
+				"{\"_id\": \"a\", \"_rev\": \"1-a\", \"dateMillis\": 5, \"packets\": {}}",
+				"{\"_id\": \"a\", \"dateMillis\": 5, \"packets\": []}"
+		)) {
+			assertThrows(PacketParseException.class, () -> parseStreaming(parser, json), json);
+		}
+	}
+}
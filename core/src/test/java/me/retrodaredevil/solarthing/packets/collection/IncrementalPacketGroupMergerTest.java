@@ -0,0 +1,154 @@
+package me.retrodaredevil.solarthing.packets.collection;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalPacketGroupMergerTest {
+	private static final long MAX_TIME_DISTANCE = Duration.ofMinutes(4).toMillis();
+	private static final long MASTER_ID_IGNORE_DISTANCE = Duration.ofMinutes(2).toMillis();
+	private static final long VOLATILE_WINDOW = Duration.ofMinutes(15).toMillis();
+
+	private static InstancePacketGroup create(long dateMillis, int fragmentId) {
+		return create(dateMillis, "default", fragmentId);
+	}
+	private static InstancePacketGroup create(long dateMillis, String sourceId, int fragmentId) {
+		return PacketGroups.createInstancePacketGroup(Collections.singleton(new Packet() {}), dateMillis, sourceId, fragmentId);
+	}
+
+	/**
+	 * Creates packets for 3 fragments over 4 hours. Fragment 1 (the master) has a gap in the middle, and fragment 2 has a gap that overlaps with it
+	 */
+	private static List<InstancePacketGroup> createPackets() {
+		List<InstancePacketGroup> r = new ArrayList<>();
+		long end = Duration.ofHours(4).toMillis();
+		for (long dateMillis = 0; dateMillis < end; dateMillis += 5_000) {
+			boolean inMasterGap = dateMillis > Duration.ofMinutes(90).toMillis() && dateMillis < Duration.ofMinutes(120).toMillis();
+			boolean inSecondGap = dateMillis > Duration.ofMinutes(100).toMillis() && dateMillis < Duration.ofMinutes(110).toMillis();
+			if (!inMasterGap) {
+				r.add(create(dateMillis, 1));
+			}
+			if (!inSecondGap) {
+				r.add(create(dateMillis + 1_700, 2));
+			}
+			if (dateMillis % 15_000 == 0) {
+				r.add(create(dateMillis + 3_100, 3));
+			}
+		}
+		r.sort(Comparator.comparingLong(PacketGroup::getDateMillis));
+		return r;
+	}
+
+	private static List<InstancePacketGroup> inRange(List<InstancePacketGroup> packets, long startInclusive, long endInclusive) {
+		return packets.stream()
+				.filter(packetGroup -> packetGroup.getDateMillis() >= startInclusive && packetGroup.getDateMillis() <= endInclusive)
+				.collect(Collectors.toList());
+	}
+
+	private static void assertSame(List<FragmentedPacketGroup> expected, List<FragmentedPacketGroup> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			FragmentedPacketGroup expectedGroup = expected.get(i);
+			FragmentedPacketGroup actualGroup = actual.get(i);
+			assertEquals(expectedGroup.getDateMillis(), actualGroup.getDateMillis());
+			assertEquals(describe(expectedGroup), describe(actualGroup));
+		}
+	}
+	private static List<String> describe(FragmentedPacketGroup packetGroup) {
+		return packetGroup.getPackets().stream()
+				.map(packet -> packetGroup.getFragmentId(packet) + "@" + packetGroup.getDateMillis(packet))
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	void testMatchesFullMerge() {
+		List<InstancePacketGroup> packets = createPackets();
+		IncrementalPacketGroupMerger merger = new IncrementalPacketGroupMerger(DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE);
+
+		long now = Duration.ofMinutes(30).toMillis();
+		merger.feed(inRange(packets, 0, now), 0);
+		long end = Duration.ofHours(4).toMillis();
+		while (now < end) {
+			now += 30_000;
+			long queryStart = now - VOLATILE_WINDOW;
+			merger.feed(inRange(packets, queryStart, now), queryStart);
+
+			List<FragmentedPacketGroup> expected = PacketGroups.mergePackets(inRange(packets, 0, now), MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE);
+			Map<String, List<FragmentedPacketGroup>> packetGroupsMap = merger.getPacketGroupsMap();
+			assertEquals(1, packetGroupsMap.size());
+			assertSame(expected, packetGroupsMap.get("default"));
+		}
+	}
+
+	@Test
+	void testPurge() {
+		List<InstancePacketGroup> packets = createPackets();
+		IncrementalPacketGroupMerger merger = new IncrementalPacketGroupMerger(DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE);
+		merger.feed(packets, 0);
+
+		long purgeBefore = Duration.ofHours(1).toMillis();
+		merger.purgeBefore(purgeBefore);
+		List<FragmentedPacketGroup> packetGroups = merger.getPacketGroupsMap().get("default");
+		assertTrue(packetGroups.get(0).getDateMillis() >= purgeBefore);
+		List<FragmentedPacketGroup> expected = PacketGroups.mergePackets(packets, MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE);
+		assertEquals(expected.get(expected.size() - 1).getDateMillis(), packetGroups.get(packetGroups.size() - 1).getDateMillis());
+
+		merger.purgeBefore(Long.MAX_VALUE);
+		assertTrue(merger.getPacketGroupsMap().isEmpty());
+	}
+
+	@Test
+	void testPurgeMatchesFullMerge() {
+		List<InstancePacketGroup> packets = createPackets();
+		IncrementalPacketGroupMerger merger = new IncrementalPacketGroupMerger(DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE);
+		long end = Duration.ofHours(4).toMillis();
+		merger.feed(packets, 0);
+
+		// Purge in small steps so that some purges land inside of each gap and cut off the fragments that the head was merged with
+		for (long purgeBefore = Duration.ofMinutes(80).toMillis(); purgeBefore < Duration.ofMinutes(130).toMillis(); purgeBefore += 37_000) {
+			merger.purgeBefore(purgeBefore);
+
+			List<FragmentedPacketGroup> expected = PacketGroups.mergePackets(inRange(packets, purgeBefore, end), MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE);
+			assertSame(expected, merger.getPacketGroupsMap().get("default"));
+		}
+	}
+
+	@Test
+	void testPurgeBeforeGap() {
+		List<InstancePacketGroup> packets = createPackets();
+		// This source stops sending for over 2 hours, so none of its packets are near the purge date, which is decided by the other source
+		long gapStart = Duration.ofMinutes(10).toMillis();
+		long gapEnd = Duration.ofHours(3).toMillis();
+		long end = Duration.ofHours(4).toMillis();
+		List<InstancePacketGroup> otherPackets = new ArrayList<>();
+		for (long dateMillis = 0; dateMillis < end; dateMillis += 5_000) {
+			if (dateMillis < gapStart || dateMillis >= gapEnd) {
+				otherPackets.add(create(dateMillis, "other", 1));
+				otherPackets.add(create(dateMillis + 2_300, "other", 2));
+			}
+		}
+		List<InstancePacketGroup> allPackets = new ArrayList<>(packets);
+		allPackets.addAll(otherPackets);
+		allPackets.sort(Comparator.comparingLong(PacketGroup::getDateMillis));
+
+		IncrementalPacketGroupMerger merger = new IncrementalPacketGroupMerger(DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE);
+		merger.feed(allPackets, 0);
+
+		long purgeBefore = Duration.ofHours(1).toMillis();
+		merger.purgeBefore(purgeBefore);
+		Map<String, List<FragmentedPacketGroup>> packetGroupsMap = merger.getPacketGroupsMap();
+		assertEquals(2, packetGroupsMap.size());
+		assertSame(PacketGroups.mergePackets(inRange(packets, purgeBefore, end), MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE), packetGroupsMap.get("default"));
+		assertSame(PacketGroups.mergePackets(inRange(otherPackets, purgeBefore, end), MAX_TIME_DISTANCE, MASTER_ID_IGNORE_DISTANCE), packetGroupsMap.get("other"));
+	}
+}
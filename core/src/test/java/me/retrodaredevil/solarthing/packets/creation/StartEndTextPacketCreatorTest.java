@@ -0,0 +1,74 @@
+package me.retrodaredevil.solarthing.packets.creation;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePacket;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StartEndTextPacketCreatorTest {
+
+	/** Creates packets that start with '[' and end with ']' and have 3 to 10 characters */
+	private static final class BracketPacketCreator extends StartEndTextPacketCreator {
+		BracketPacketCreator() {
+			super('[', ']', 10, 3);
+		}
+
+		@Override
+		protected Collection<Packet> create(char[] bytes) {
+			return Collections.singleton(InstanceSourcePackets.create(new String(bytes, 1, bytes.length - 2)));
+		}
+	}
+
+	private static String getText(Packet packet) {
+		return ((InstanceSourcePacket) packet).getSourceId();
+	}
+	private static List<String> getTexts(Collection<? extends Packet> packets) {
+		return packets.stream().map(StartEndTextPacketCreatorTest::getText).collect(Collectors.toList());
+	}
+
+	@Test
+	void testBytesSplitAcrossReads() throws PacketCreationException {
+		TextPacketCreator creator = new BracketPacketCreator();
+		byte[] bytes = "garbage[hello]between[abcdefgh]".getBytes(StandardCharsets.ISO_8859_1);
+		List<Packet> packets = new ArrayList<>();
+		for (int offset = 0; offset < bytes.length; offset += 4) {
+			packets.addAll(creator.add(bytes, offset, Math.min(4, bytes.length - offset)));
+		}
+		assertEquals(2, packets.size());
+		assertEquals("hello", getText(packets.get(0)));
+		assertEquals("abcdefgh", getText(packets.get(1))); // fills the entire buffer
+	}
+
+	@Test
+	void testBytesAndCharsAreTheSame() throws PacketCreationException {
+		String text = "[one][two]";
+		byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+		Collection<? extends Packet> fromBytes = new BracketPacketCreator().add(bytes, 0, bytes.length);
+		Collection<? extends Packet> fromChars = new BracketPacketCreator().add(text.toCharArray());
+		assertEquals(2, fromBytes.size());
+		assertEquals(getTexts(fromChars), getTexts(fromBytes));
+	}
+
+	@Test
+	void testInvalidSizes() throws PacketCreationException {
+		TextPacketCreator creator = new BracketPacketCreator();
+		assertThrows(PacketTooSmallException.class, () -> creator.add("[]".toCharArray()));
+		assertThrows(PacketTooBigException.class, () -> creator.add("[abcdefghijk]".toCharArray()));
+		assertTrue(creator.add("[abc".toCharArray()).isEmpty());
+		// the partial packet is thrown away once a new one starts
+		Collection<? extends Packet> packets = creator.add("[def]".toCharArray());
+		assertEquals(1, packets.size());
+		assertEquals("def", getText(packets.iterator().next()));
+	}
+}
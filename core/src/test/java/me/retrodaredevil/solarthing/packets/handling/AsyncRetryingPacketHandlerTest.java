@@ -0,0 +1,138 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.handling.spool.PacketCollectionSpool;
+import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AsyncRetryingPacketHandlerTest {
+	private static final ObjectMapper MAPPER = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+
+	static {
+		MAPPER.getSubtypeResolver().registerSubtypes(InstancePacket.class);
+	}
+
+	private static PacketCollectionSpool open(Path directory) throws IOException {
+		return PacketCollectionSpool.open(directory, MAPPER, PacketParsingErrorHandler.DO_NOTHING, 1024 * 1024, Duration.ofDays(1).toMillis());
+	}
+	private static PacketCollection create(long dateMillis) {
+		return PacketCollections.create(Instant.ofEpochMilli(dateMillis), Collections.singletonList(InstanceSourcePackets.create("default")), "id-" + dateMillis);
+	}
+
+	/**
+	 * A {@link BulkPacketHandler} that fails to upload the packet collections with the given IDs and remembers the IDs given to each call of {@link #handleAll(List)}
+	 */
+	private static final class FakeBulkPacketHandler implements BulkPacketHandler {
+		private final Set<String> failingIds = new HashSet<>();
+		private final List<List<String>> handleAllCalls = new ArrayList<>();
+		private boolean unreachable = false;
+
+		@Override
+		public List<PacketCollection> handleAll(List<PacketCollection> packetCollections) throws PacketHandleException {
+			handleAllCalls.add(packetCollections.stream().map(PacketCollection::getDbId).collect(Collectors.toList()));
+			if (unreachable) {
+				throw new PacketHandleException("Database could not be reached");
+			}
+			return packetCollections.stream().filter(packetCollection -> failingIds.contains(packetCollection.getDbId())).collect(Collectors.toList());
+		}
+
+		@Override
+		public void handle(PacketCollection packetCollection) throws PacketHandleException {
+			throw new UnsupportedOperationException("Only bulk uploads are expected");
+		}
+	}
+
+	@Test
+	void testPartialFailureOnlyAcknowledgesUploadedPrefix(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		FakeBulkPacketHandler bulkPacketHandler = new FakeBulkPacketHandler();
+		try (PacketCollectionSpool spool = open(directory)) {
+			for (int i = 0; i < 5; i++) {
+				spool.append(create(now + i));
+			}
+			AsyncRetryingPacketHandler packetHandler = new AsyncRetryingPacketHandler(bulkPacketHandler, spool);
+			bulkPacketHandler.failingIds.add("id-" + (now + 2));
+			bulkPacketHandler.failingIds.add("id-" + (now + 4));
+
+			packetHandler.reupload();
+			assertEquals(1, bulkPacketHandler.handleAllCalls.size());
+			assertEquals(3, packetHandler.getBacklogCount()); // only the two before the first failure were acknowledged
+			assertEquals(now + 2, spool.getOldestDateMillis());
+		}
+		try (PacketCollectionSpool spool = open(directory)) { // the acknowledge cursor survives a restart
+			assertEquals(3, spool.getBacklogCount());
+			assertEquals(now + 2, spool.getOldestDateMillis());
+		}
+	}
+
+	@Test
+	void testRetriedInOrderAfterFailurePartway(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		FakeBulkPacketHandler bulkPacketHandler = new FakeBulkPacketHandler();
+		try (PacketCollectionSpool spool = open(directory)) {
+			for (int i = 0; i < 5; i++) {
+				spool.append(create(now + i));
+			}
+			AsyncRetryingPacketHandler packetHandler = new AsyncRetryingPacketHandler(bulkPacketHandler, spool);
+			bulkPacketHandler.failingIds.add("id-" + (now + 2));
+
+			packetHandler.reupload();
+			bulkPacketHandler.failingIds.clear();
+			packetHandler.reupload();
+
+			assertEquals(Arrays.asList(
+					Arrays.asList("id-" + now, "id-" + (now + 1), "id-" + (now + 2), "id-" + (now + 3), "id-" + (now + 4)),
+					// id-3 was uploaded the first time, but it is after the first failure, so it is retried. Retried uploads ignore conflicts, so that's fine.
+					Arrays.asList("id-" + (now + 2), "id-" + (now + 3), "id-" + (now + 4))
+			), bulkPacketHandler.handleAllCalls);
+			assertEquals(0, packetHandler.getBacklogCount());
+			assertNull(packetHandler.getBacklogAgeMillis());
+
+			packetHandler.reupload();
+			assertEquals(2, bulkPacketHandler.handleAllCalls.size()); // nothing left to upload
+		}
+	}
+
+	@Test
+	void testNothingAcknowledgedWhenDatabaseUnreachable(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		FakeBulkPacketHandler bulkPacketHandler = new FakeBulkPacketHandler();
+		try (PacketCollectionSpool spool = open(directory)) {
+			for (int i = 0; i < 3; i++) {
+				spool.append(create(now + i));
+			}
+			AsyncRetryingPacketHandler packetHandler = new AsyncRetryingPacketHandler(bulkPacketHandler, spool);
+			bulkPacketHandler.unreachable = true;
+
+			packetHandler.reupload();
+			assertEquals(3, packetHandler.getBacklogCount());
+			assertEquals(now, spool.getOldestDateMillis());
+
+			bulkPacketHandler.unreachable = false;
+			packetHandler.reupload();
+			assertEquals(Arrays.asList("id-" + now, "id-" + (now + 1), "id-" + (now + 2)), bulkPacketHandler.handleAllCalls.get(1));
+			assertEquals(0, packetHandler.getBacklogCount());
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePacket;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentPacketListReceiverTest {
+
+	private static PacketListReceiver sleeping(String sourceId, long sleepMillis) {
+		return packets -> {
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+			packets.add(InstanceSourcePackets.create(sourceId));
+		};
+	}
+	/** @return Each {@link PacketListReceiver} in its own group */
+	private static List<List<PacketListReceiver>> eachAlone(PacketListReceiver... packetListReceivers) {
+		List<List<PacketListReceiver>> r = new ArrayList<>();
+		for (PacketListReceiver packetListReceiver : packetListReceivers) {
+			r.add(Collections.singletonList(packetListReceiver));
+		}
+		return r;
+	}
+	private static List<String> sourceIds(List<Packet> packets) {
+		List<String> r = new ArrayList<>();
+		for (Packet packet : packets) {
+			r.add(((InstanceSourcePacket) packet).getSourceId());
+		}
+		return r;
+	}
+
+	@Test
+	void testRunsInParallelAndKeepsOrder() {
+		ConcurrentPacketListReceiver receiver = new ConcurrentPacketListReceiver(eachAlone(
+				sleeping("a", 300),
+				sleeping("b", 300),
+				sleeping("c", 10)
+		), Duration.ofSeconds(10));
+		long startNanos = System.nanoTime();
+		List<Packet> packets = new ArrayList<>();
+		receiver.receive(packets);
+		long takenMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		assertTrue(takenMillis < 550, "took " + takenMillis + "ms");
+		assertEquals(Arrays.asList("a", "b", "c"), sourceIds(packets));
+	}
+
+	@Test
+	void testGroupRunsSerially() {
+		AtomicInteger runningCount = new AtomicInteger();
+		AtomicInteger maxRunningCount = new AtomicInteger();
+		PacketListReceiver sharedBus = packets -> {
+			maxRunningCount.accumulateAndGet(runningCount.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+			runningCount.decrementAndGet();
+			packets.add(InstanceSourcePackets.create("shared"));
+		};
+		ConcurrentPacketListReceiver receiver = new ConcurrentPacketListReceiver(Arrays.asList(
+				Arrays.asList(sharedBus, sharedBus, sharedBus),
+				Collections.singletonList(sleeping("other", 200))
+		), Duration.ofSeconds(10));
+		long startNanos = System.nanoTime();
+		List<Packet> packets = new ArrayList<>();
+		receiver.receive(packets);
+		long takenMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		assertEquals(1, maxRunningCount.get());
+		assertTrue(takenMillis >= 590, "took " + takenMillis + "ms");
+		assertEquals(Arrays.asList("shared", "shared", "shared", "other"), sourceIds(packets));
+	}
+
+	@Test
+	void testSlowReceiverIsSkipped() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger slowRunCount = new AtomicInteger();
+		PacketListReceiver slow = packets -> {
+			slowRunCount.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+			packets.add(InstanceSourcePackets.create("slow"));
+		};
+		ConcurrentPacketListReceiver receiver = new ConcurrentPacketListReceiver(eachAlone(slow, sleeping("fast", 0)), Duration.ofMillis(100));
+
+		List<Packet> packets = new ArrayList<>();
+		receiver.receive(packets);
+		assertEquals(Arrays.asList("fast"), sourceIds(packets));
+
+		packets.clear();
+		receiver.receive(packets); // slow is still running, so it is not run again
+		assertEquals(Arrays.asList("fast"), sourceIds(packets));
+		assertEquals(1, slowRunCount.get());
+
+		release.countDown();
+		Thread.sleep(100);
+		packets.clear();
+		receiver.receive(packets); // the late packets from slow are discarded, and slow is run again
+		assertEquals(Arrays.asList("slow", "fast"), sourceIds(packets));
+		assertEquals(2, slowRunCount.get());
+	}
+
+	@Test
+	void testOthersAreCollectedWhenOneThrows() {
+		AtomicInteger fastRunCount = new AtomicInteger();
+		PacketListReceiver failing = packets -> {
+			throw new IllegalStateException("failed");
+		};
+		PacketListReceiver fast = packets -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+			fastRunCount.incrementAndGet();
+			packets.add(InstanceSourcePackets.create("fast"));
+		};
+		ConcurrentPacketListReceiver receiver = new ConcurrentPacketListReceiver(eachAlone(failing, fast), Duration.ofSeconds(10));
+
+		List<Packet> packets = new ArrayList<>();
+		assertThrows(IllegalStateException.class, () -> receiver.receive(packets));
+		assertEquals(1, fastRunCount.get());
+		// fast was collected even though failing threw first, so it is run again right away
+		assertThrows(IllegalStateException.class, () -> receiver.receive(packets));
+		assertEquals(2, fastRunCount.get());
+		assertEquals(Collections.emptyList(), packets);
+	}
+
+	@Test
+	void testRemainingAreCancelledWhenInterrupted() throws InterruptedException {
+		CountDownLatch interrupted = new CountDownLatch(1);
+		PacketListReceiver blocking = packets -> {
+			try {
+				new CountDownLatch(1).await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+		};
+		ConcurrentPacketListReceiver receiver = new ConcurrentPacketListReceiver(eachAlone(blocking, sleeping("fast", 0)), Duration.ofSeconds(10));
+
+		List<Packet> packets = new ArrayList<>();
+		Thread.currentThread().interrupt();
+		receiver.receive(packets);
+		assertTrue(Thread.interrupted());
+		assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+		assertEquals(Collections.emptyList(), packets);
+	}
+}
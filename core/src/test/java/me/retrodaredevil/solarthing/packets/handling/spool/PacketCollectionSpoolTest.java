@@ -0,0 +1,157 @@
+package me.retrodaredevil.solarthing.packets.handling.spool;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacketCollectionSpoolTest {
+	private static final ObjectMapper MAPPER = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+	private static final long RETENTION_MILLIS = Duration.ofDays(1).toMillis();
+
+	static {
+		MAPPER.getSubtypeResolver().registerSubtypes(InstancePacket.class);
+	}
+
+	private static PacketCollectionSpool open(Path directory, long maxTotalBytes) throws IOException {
+		return PacketCollectionSpool.open(directory, MAPPER, PacketParsingErrorHandler.DO_NOTHING, maxTotalBytes, RETENTION_MILLIS);
+	}
+	private static PacketCollection create(long dateMillis) {
+		return PacketCollections.create(Instant.ofEpochMilli(dateMillis), Collections.singletonList(InstanceSourcePackets.create("default")), "id-" + dateMillis);
+	}
+	private static List<String> ids(List<SpooledPacketCollection> spooledPacketCollections) {
+		return spooledPacketCollections.stream().map(spooled -> spooled.getPacketCollection().getDbId()).collect(Collectors.toList());
+	}
+	private static long countSegments(Path directory) throws IOException {
+		try (Stream<Path> stream = Files.list(directory)) {
+			return stream.filter(path -> path.getFileName().toString().startsWith("segment-")).count();
+		}
+	}
+
+	@Test
+	void testAcknowledgeSurvivesRestart(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		try (PacketCollectionSpool spool = open(directory, 1024 * 1024)) {
+			assertNull(spool.getOldestDateMillis());
+			for (int i = 0; i < 5; i++) {
+				spool.append(create(now + i));
+			}
+			assertEquals(5, spool.getBacklogCount());
+			assertEquals(now, spool.getOldestDateMillis());
+
+			List<SpooledPacketCollection> batch = spool.read(3);
+			assertEquals(Arrays.asList("id-" + now, "id-" + (now + 1), "id-" + (now + 2)), ids(batch));
+			assertEquals(now, batch.get(0).getPacketCollection().getDateMillis());
+			assertEquals(1, batch.get(0).getPacketCollection().getPackets().size());
+			spool.acknowledge(batch.get(1));
+			assertEquals(3, spool.getBacklogCount());
+			assertEquals(now + 2, spool.getOldestDateMillis());
+		}
+		try (PacketCollectionSpool spool = open(directory, 1024 * 1024)) {
+			assertEquals(3, spool.getBacklogCount());
+			List<SpooledPacketCollection> batch = spool.read(10);
+			assertEquals(3, batch.size());
+			spool.acknowledge(batch.get(2));
+			assertEquals(0, spool.getBacklogCount());
+			assertEquals(0, spool.getBacklogBytes());
+			assertTrue(spool.read(10).isEmpty());
+			assertEquals(0, countSegments(directory));
+
+			spool.append(create(now + 10)); // a new segment is started after everything has been acknowledged
+			assertEquals(Arrays.asList("id-" + (now + 10)), ids(spool.read(10)));
+		}
+	}
+
+	@Test
+	void testIncompleteLineIsRemoved(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		try (PacketCollectionSpool spool = open(directory, 1024 * 1024)) {
+			spool.append(create(now));
+			spool.append(create(now + 1));
+		}
+		Path segment;
+		try (Stream<Path> stream = Files.list(directory)) {
+			segment = stream.filter(path -> path.getFileName().toString().startsWith("segment-")).findFirst().get();
+		}
+		Files.write(segment, "{\"_id\":\"id-incomplete\",\"dateMi".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		try (PacketCollectionSpool spool = open(directory, 1024 * 1024)) {
+			assertEquals(2, spool.getBacklogCount());
+			spool.append(create(now + 2));
+			assertEquals(Arrays.asList("id-" + now, "id-" + (now + 1), "id-" + (now + 2)), ids(spool.read(10)));
+		}
+	}
+
+	@Test
+	void testSizeBudgetDiscardsOldest(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		long maxTotalBytes = 4096;
+		try (PacketCollectionSpool spool = open(directory, maxTotalBytes)) {
+			for (int i = 0; i < 200; i++) {
+				spool.append(create(now + i));
+			}
+			assertTrue(spool.getBacklogBytes() <= maxTotalBytes);
+			assertTrue(spool.getBacklogCount() < 200);
+			List<SpooledPacketCollection> batch = spool.read(1000);
+			assertEquals(spool.getBacklogCount(), batch.size());
+			assertEquals("id-" + (now + 199), batch.get(batch.size() - 1).getPacketCollection().getDbId());
+		}
+	}
+
+	@Test
+	void testOldPacketsAreDiscarded(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		try (PacketCollectionSpool spool = open(directory, 1024 * 1024)) {
+			spool.append(create(now - RETENTION_MILLIS - 1000));
+			spool.append(create(now));
+			assertEquals(Arrays.asList("id-" + now), ids(spool.read(10)));
+			assertEquals(1, spool.getBacklogCount());
+		}
+	}
+
+	@Test
+	void testGetOldestDateMillisDoesNotChangeReadState(@TempDir Path directory) throws IOException {
+		long now = System.currentTimeMillis();
+		try (PacketCollectionSpool spool = open(directory, 1024 * 1024)) {
+			spool.append(create(now - RETENTION_MILLIS - 1000));
+			spool.append(create(now));
+			spool.append(create(now + 1));
+		}
+		try (PacketCollectionSpool spool = open(directory, 1024 * 1024)) {
+			assertEquals(now, spool.getOldestDateMillis());
+			// the expired packet collection is skipped, but it is still in the backlog until it is read
+			assertEquals(3, spool.getBacklogCount());
+			assertEquals(Arrays.asList("id-" + now, "id-" + (now + 1)), ids(spool.read(10)));
+			assertEquals(2, spool.getBacklogCount());
+		}
+	}
+
+	@Test
+	void testDirectoryCannotBeSharedWhileOpen(@TempDir Path directory) throws IOException {
+		try (PacketCollectionSpool ignored = open(directory, 1024 * 1024)) {
+			assertThrows(IOException.class, () -> open(directory, 1024 * 1024));
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package me.retrodaredevil.solarthing.solar.accumulation;
+
+import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.identification.Identifier;
+import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+import me.retrodaredevil.solarthing.packets.identification.IdentityInfo;
+import me.retrodaredevil.solarthing.solar.common.DailyData;
+import me.retrodaredevil.solarthing.solar.renogy.rover.RoverIdentifier;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AccumulationPairTrackerTest {
+	private static final AccumulationConfig CONFIG = AccumulationConfig.createDefault(0);
+
+	private static final class CounterPacket implements Packet, DailyData {
+		private final Identifier identifier;
+		private final int counter;
+
+		private CounterPacket(int number, int counter) {
+			this.identifier = RoverIdentifier.getFromNumber(number);
+			this.counter = counter;
+		}
+
+		@Override
+		public boolean isNewDay(DailyData previousDailyData) {
+			return counter < ((CounterPacket) previousDailyData).counter;
+		}
+
+		@Override
+		public @NotNull Identifier getIdentifier() {
+			return identifier;
+		}
+
+		@Override
+		public @NotNull IdentityInfo getIdentityInfo() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static FragmentedPacketGroup create(long dateMillis, int counter) {
+		// counter resets every 10 packets for device 1 and every 7 packets for device 2
+		List<Packet> packets = Arrays.asList(new CounterPacket(1, counter % 10), new CounterPacket(2, counter % 7));
+		return PacketGroups.createFragmentedPacketGroup(
+				Collections.singletonList(PacketGroups.createInstancePacketGroup(packets, dateMillis, "default", 1)),
+				dateMillis
+		);
+	}
+
+	private static void assertSameResult(List<FragmentedPacketGroup> packetGroups, AccumulationPairTracker<CounterPacket> tracker) {
+		Map<IdentifierFragment, List<AccumulationPair<CounterPacket>>> expected = AccumulationUtil.getAccumulationPairs(AccumulationUtil.mapPackets(CounterPacket.class, packetGroups), CONFIG);
+		Map<IdentifierFragment, List<AccumulationPair<CounterPacket>>> actual = tracker.getAccumulationPairs(CONFIG);
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<IdentifierFragment, List<AccumulationPair<CounterPacket>>> entry : expected.entrySet()) {
+			List<AccumulationPair<CounterPacket>> expectedPairs = entry.getValue();
+			List<AccumulationPair<CounterPacket>> actualPairs = actual.get(entry.getKey());
+			assertEquals(expectedPairs.size(), actualPairs.size());
+			for (int i = 0; i < expectedPairs.size(); i++) {
+				assertSame(expectedPairs.get(i).getStartPacket().getPacket(), actualPairs.get(i).getStartPacket().getPacket());
+				assertSame(expectedPairs.get(i).getLatestPacket().getPacket(), actualPairs.get(i).getLatestPacket().getPacket());
+				assertEquals(expectedPairs.get(i).getStartPacketType(), actualPairs.get(i).getStartPacketType());
+			}
+		}
+	}
+
+	@Test
+	void testAddingInChunksMatchesFullCalculation() {
+		List<FragmentedPacketGroup> packetGroups = new ArrayList<>();
+		AccumulationPairTracker<CounterPacket> tracker = new AccumulationPairTracker<>(CounterPacket.class);
+		for (int chunk = 0; chunk < 5; chunk++) {
+			List<FragmentedPacketGroup> newPacketGroups = new ArrayList<>();
+			for (int i = 0; i < 9; i++) {
+				int counter = packetGroups.size() + newPacketGroups.size();
+				newPacketGroups.add(create(counter * 1000L, counter));
+			}
+			packetGroups.addAll(newPacketGroups);
+			tracker.addAll(newPacketGroups);
+			assertSameResult(packetGroups, tracker);
+		}
+		assertEquals(packetGroups.size(), tracker.getPacketGroupCount());
+	}
+
+	@Test
+	void testTruncateThenReplace() {
+		List<FragmentedPacketGroup> packetGroups = new ArrayList<>();
+		for (int counter = 0; counter < 30; counter++) {
+			packetGroups.add(create(counter * 1000L, counter));
+		}
+		AccumulationPairTracker<CounterPacket> tracker = new AccumulationPairTracker<>(CounterPacket.class);
+		tracker.addAll(packetGroups);
+
+		// replace everything after index 21 (right after device 1 resets and right before device 2 resets) with new packet groups
+		packetGroups.subList(21, packetGroups.size()).clear();
+		tracker.truncate(21);
+		assertSameResult(packetGroups, tracker);
+		List<FragmentedPacketGroup> newPacketGroups = new ArrayList<>();
+		for (int counter = 21; counter < 40; counter += 2) {
+			newPacketGroups.add(create(counter * 1000L, counter));
+		}
+		packetGroups.addAll(newPacketGroups);
+		tracker.addAll(newPacketGroups);
+		assertSameResult(packetGroups, tracker);
+
+		tracker.truncate(0);
+		assertEquals(0, tracker.getPacketGroupCount());
+		assertEquals(0, tracker.getAccumulationPairs(CONFIG).size());
+	}
+}
@@ -0,0 +1,136 @@
+package me.retrodaredevil.solarthing.util.sync;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoundedSerialExecutorTest {
+
+	/**
+	 * Runs a task that blocks until the returned latch is counted down, then queues tasks 0 to {@code count - 1}.
+	 * @return The latch that releases the first task
+	 */
+	private static CountDownLatch queueBehindBlockedTask(BoundedSerialExecutor executor, List<Integer> ran, int count) throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < count; i++) {
+			int number = i;
+			executor.execute(() -> ran.add(number));
+		}
+		return release;
+	}
+
+	private static void awaitCompleted(BoundedSerialExecutor executor, long completedCount) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (executor.getStatistics().getCompletedCount() < completedCount) {
+			assertTrue(System.nanoTime() < deadline, "Timed out. " + executor.getStatistics());
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	void testDropOldest() throws InterruptedException {
+		ExecutorService shared = Executors.newCachedThreadPool();
+		try {
+			BoundedSerialExecutor executor = new BoundedSerialExecutor("test", shared, BoundedSerialExecutor.OverflowPolicy.DROP_OLDEST, 3);
+			List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch release = queueBehindBlockedTask(executor, ran, 5);
+			assertEquals(3, executor.getStatistics().getQueueSize());
+			assertEquals(2, executor.getStatistics().getDroppedCount());
+			release.countDown();
+			awaitCompleted(executor, 4);
+			assertEquals(Arrays.asList(2, 3, 4), ran);
+			assertEquals(0, executor.getStatistics().getQueueSize());
+		} finally {
+			shared.shutdown();
+		}
+	}
+
+	@Test
+	void testCoalesceLatest() throws InterruptedException {
+		ExecutorService shared = Executors.newCachedThreadPool();
+		try {
+			BoundedSerialExecutor executor = new BoundedSerialExecutor("test", shared, BoundedSerialExecutor.OverflowPolicy.COALESCE_LATEST, 10);
+			List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch release = queueBehindBlockedTask(executor, ran, 5);
+			assertEquals(4, executor.getStatistics().getDroppedCount());
+			release.countDown();
+			awaitCompleted(executor, 2);
+			assertEquals(Collections.singletonList(4), ran);
+		} finally {
+			shared.shutdown();
+		}
+	}
+
+	@Test
+	void testBlock() throws InterruptedException {
+		ExecutorService shared = Executors.newCachedThreadPool();
+		try {
+			BoundedSerialExecutor executor = new BoundedSerialExecutor("test", shared, BoundedSerialExecutor.OverflowPolicy.BLOCK, 2);
+			List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch release = queueBehindBlockedTask(executor, ran, 2);
+
+			CountDownLatch queuedThird = new CountDownLatch(1);
+			Thread producer = new Thread(() -> {
+				executor.execute(() -> ran.add(2));
+				queuedThird.countDown();
+			});
+			producer.start();
+			assertTrue(!queuedThird.await(100, TimeUnit.MILLISECONDS), "The producer should be blocked while the queue is full");
+			release.countDown();
+			assertTrue(queuedThird.await(5, TimeUnit.SECONDS));
+			awaitCompleted(executor, 4);
+			assertEquals(Arrays.asList(0, 1, 2), ran);
+			assertEquals(0, executor.getStatistics().getDroppedCount());
+		} finally {
+			shared.shutdown();
+		}
+	}
+
+	@Test
+	void testContinuesAfterError() throws InterruptedException {
+		ExecutorService shared = Executors.newCachedThreadPool();
+		try {
+			BoundedSerialExecutor executor = new BoundedSerialExecutor("test", shared, BoundedSerialExecutor.OverflowPolicy.BLOCK, 2);
+			List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch release = queueBehindBlockedTask(executor, ran, 0);
+			executor.execute(() -> {
+				throw new AssertionError("Expected error thrown by a task");
+			});
+			executor.execute(() -> ran.add(0));
+			release.countDown();
+			awaitCompleted(executor, 3);
+			assertEquals(Collections.singletonList(0), ran);
+
+			// the queue is empty now, so a new task has to start a new drain
+			executor.execute(() -> {
+				throw new AssertionError("Expected error thrown by a task");
+			});
+			awaitCompleted(executor, 4);
+			executor.execute(() -> ran.add(1));
+			awaitCompleted(executor, 5);
+			assertEquals(Arrays.asList(0, 1), ran);
+		} finally {
+			shared.shutdown();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package me.retrodaredevil.solarthing.rest.graphql.packets;
+
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares resolving a number of fields by scanning every packet for each field with
+ * indexing the packets once and resolving each field from the index. Each invocation resolves {@link #fieldCount} fields over 7 days of packets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketNodeIndexBenchmark {
+	@Param({"1", "3", "6", "12"})
+	public int fieldCount;
+
+	private List<InstancePacketGroup> packetGroups;
+	private List<Class<?>> requestedClasses;
+
+	@Setup
+	public void setup() {
+		packetGroups = PacketNodeIndexTest.createPacketGroups(Duration.ofDays(7));
+		requestedClasses = PacketNodeIndexTest.REQUESTED_CLASSES.subList(0, fieldCount);
+	}
+
+	@Benchmark
+	public void scan(Blackhole blackhole) {
+		for (Class<?> clazz : requestedClasses) {
+			blackhole.consume(PacketUtil.convertPackets(packetGroups, clazz, PacketFilter.KEEP_ALL));
+		}
+	}
+
+	@Benchmark
+	public void index(Blackhole blackhole) {
+		PacketNodeIndex index = PacketNodeIndex.create(packetGroups);
+		for (Class<?> clazz : requestedClasses) {
+			blackhole.consume(index.getPacketNodes(clazz, PacketFilter.KEEP_ALL));
+		}
+	}
+}
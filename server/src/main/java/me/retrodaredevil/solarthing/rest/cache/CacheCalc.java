@@ -1,6 +1,8 @@
 package me.retrodaredevil.solarthing.rest.cache;
 
 import me.retrodaredevil.solarthing.annotations.UtilityClass;
+import me.retrodaredevil.solarthing.type.cache.packets.DefaultIdentificationCacheDataPacket;
+import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheDataPacket;
 import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheNode;
 import me.retrodaredevil.solarthing.type.cache.packets.data.IdentificationCacheData;
 import me.retrodaredevil.solarthing.packets.TimestampedPacket;
@@ -13,6 +15,8 @@ import me.retrodaredevil.solarthing.solar.common.DailyData;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 
@@ -44,9 +48,59 @@ public final class CacheCalc {
 			TotalGetter<PACKET, VALUE> totalGetter,
 			AccumulationValueFactory<VALUE> accumulationValueFactory, Function<VALUE, ACCEPTED_VALUE> converter, DataCreator<DATA, ACCEPTED_VALUE> dataCreator) {
 
+		List<AccumulationCalc.SumNode<VALUE>> sumNodes = getSumNodes(timestampedPackets, periodStart, totalGetter, accumulationValueFactory);
+		return createNode(identifierFragment, sumNodes, 0, periodStart, periodDuration, accumulationValueFactory, converter, dataCreator);
+	}
+
+	/**
+	 * Does the same thing as {@link #calculateCache(IdentifierFragment, List, Instant, Duration, TotalGetter, AccumulationValueFactory, Function, DataCreator)}
+	 * for {@code periodCount} consecutive periods, but only calculates the sum of each packet once.
+	 * <p>
+	 * Each period only uses the difference between two sums, so the sums do not have to be calculated again for each period.
+	 *
+	 * @param timestampedPackets The list of timestamped packets. This should support fast random access.
+	 * @param firstPeriodStart The start of the first period
+	 * @param periodCount The number of periods
+	 * @return A list of size {@code periodCount}, where each element is the node for the corresponding period
+	 */
+	public static <DATA extends IdentificationCacheData, PACKET extends DailyData, VALUE extends AccumulationValue<VALUE>, ACCEPTED_VALUE> List<IdentificationCacheNode<DATA>> calculateCaches(
+			IdentifierFragment identifierFragment, List<TimestampedPacket<PACKET>> timestampedPackets, Instant firstPeriodStart, Duration periodDuration, int periodCount,
+			TotalGetter<PACKET, VALUE> totalGetter,
+			AccumulationValueFactory<VALUE> accumulationValueFactory, Function<VALUE, ACCEPTED_VALUE> converter, DataCreator<DATA, ACCEPTED_VALUE> dataCreator) {
+
+		List<AccumulationCalc.SumNode<VALUE>> sumNodes = getSumNodes(timestampedPackets, firstPeriodStart, totalGetter, accumulationValueFactory);
+		List<IdentificationCacheNode<DATA>> r = new ArrayList<>(periodCount);
+		long infoDurationMillis = CacheHandler.INFO_DURATION.toMillis();
+		int startIndex = 0;
+		for (int i = 0; i < periodCount; i++) {
+			Instant periodStart = firstPeriodStart.plus(periodDuration.multipliedBy(i));
+			long unknownCutOffDateMillis = periodStart.toEpochMilli() - infoDurationMillis;
+			while (startIndex < sumNodes.size() && sumNodes.get(startIndex).getDateMillis() < unknownCutOffDateMillis) {
+				startIndex++;
+			}
+			r.add(createNode(identifierFragment, sumNodes, startIndex, periodStart, periodDuration, accumulationValueFactory, converter, dataCreator));
+		}
+		return r;
+	}
+
+	private static <PACKET extends DailyData, VALUE extends AccumulationValue<VALUE>> List<AccumulationCalc.SumNode<VALUE>> getSumNodes(
+			List<TimestampedPacket<PACKET>> timestampedPackets, Instant periodStart,
+			TotalGetter<PACKET, VALUE> totalGetter, AccumulationValueFactory<VALUE> accumulationValueFactory) {
+		if (timestampedPackets.isEmpty()) {
+			return Collections.emptyList();
+		}
 		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(periodStart.toEpochMilli());
 		List<AccumulationPair<PACKET>> accumulationPairs = AccumulationUtil.getAccumulationPairs(timestampedPackets, accumulationConfig);
-		List<AccumulationCalc.SumNode<VALUE>> sumNodes = AccumulationCalc.getTotals(accumulationPairs, totalGetter, timestampedPackets, accumulationValueFactory);
+		return AccumulationCalc.getTotals(accumulationPairs, totalGetter, timestampedPackets, accumulationValueFactory);
+	}
+
+	/**
+	 * @param sumNodes The sum nodes sorted in ascending order
+	 * @param startIndex The index to start looking at. Every sum node before this index must be before the unknown cut off of this period.
+	 */
+	private static <DATA extends IdentificationCacheData, VALUE extends AccumulationValue<VALUE>, ACCEPTED_VALUE> IdentificationCacheNode<DATA> createNode(
+			IdentifierFragment identifierFragment, List<AccumulationCalc.SumNode<VALUE>> sumNodes, int startIndex, Instant periodStart, Duration periodDuration,
+			AccumulationValueFactory<VALUE> accumulationValueFactory, Function<VALUE, ACCEPTED_VALUE> converter, DataCreator<DATA, ACCEPTED_VALUE> dataCreator) {
 		long periodStartDateMillis = periodStart.toEpochMilli();
 		long previousPeriodStartDateMillis = periodStartDateMillis - periodDuration.toMillis();
 		long unknownCutOffDateMillis = periodStartDateMillis - CacheHandler.INFO_DURATION.toMillis();
@@ -55,7 +109,8 @@ public final class CacheCalc {
 		AccumulationCalc.SumNode<VALUE> lastDataBeforePeriodStart = null;
 		AccumulationCalc.SumNode<VALUE> firstDataAfterPeriodStart = null;
 		AccumulationCalc.SumNode<VALUE> lastDataBeforePeriodEnd = null;
-		for (AccumulationCalc.SumNode<VALUE> sumNode : sumNodes) {
+		for (int i = startIndex; i < sumNodes.size(); i++) {
+			AccumulationCalc.SumNode<VALUE> sumNode = sumNodes.get(i);
 			long dateMillis = sumNode.getDateMillis();
 			if (dateMillis >= periodEndDateMillis) {
 				break;
@@ -110,6 +165,30 @@ public final class CacheCalc {
 		return new IdentificationCacheNode<>(identifierFragment.getFragmentId(), data);
 	}
 
+	/**
+	 * Combines packets that are back to back into a single packet that covers the given period.
+	 * <p>
+	 * Packets without any nodes do not change the combined nodes, so they are skipped. Because the period is given,
+	 * the result covers the entire period even when the first or last packets have no nodes.
+	 * @param packets The packets in order. These should be inside the given period.
+	 * @return The combined packet. If no packet has any nodes, this is a packet without nodes.
+	 */
+	public static <T extends IdentificationCacheData> IdentificationCacheDataPacket<T> combinePackets(
+			long periodStartDateMillis, long periodDurationMillis, String sourceId, String cacheName, Iterable<? extends IdentificationCacheDataPacket<T>> packets) {
+		IdentificationCacheDataPacket<T> combined = null;
+		for (IdentificationCacheDataPacket<T> packet : packets) {
+			if (packet.getNodes().isEmpty()) {
+				continue;
+			}
+			combined = combined == null ? packet : combined.combine(packet);
+		}
+		return new DefaultIdentificationCacheDataPacket<>(
+				periodStartDateMillis, periodDurationMillis,
+				sourceId, cacheName,
+				combined == null ? Collections.emptyList() : combined.getNodes()
+		);
+	}
+
 	@FunctionalInterface
 	public interface DataCreator<T, U> {
 		T create(Identifier identifier, U mainData, Long firstDateMillis, Long lastDateMillis, U unknownData, Long unknownStartDateMillis);
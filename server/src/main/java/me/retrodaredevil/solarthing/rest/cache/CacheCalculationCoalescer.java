@@ -0,0 +1,171 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import me.retrodaredevil.solarthing.type.cache.packets.CacheDataPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Makes sure that concurrent requests for the same caches only calculate and save them once.
+ * <p>
+ * If a request needs a range of periods that is inside a range that is already being calculated, it waits for that calculation instead of starting its own.
+ * A failed calculation is forgotten once it finishes, so the next request for that range calculates it again.
+ */
+final class CacheCalculationCoalescer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheCalculationCoalescer.class);
+
+	private final long durationMillis;
+	private final PeriodCalculator calculator;
+	/** A map of period ranges that are being calculated to their calculation */
+	private final ConcurrentMap<PeriodRange, Calculation> calculationsInProgress = new ConcurrentHashMap<>();
+	/** The IDs of documents that are currently being saved to the cache database */
+	private final Set<String> documentIdsBeingSaved = ConcurrentHashMap.newKeySet();
+	private final AtomicLong calculationCount = new AtomicLong();
+	private final AtomicLong coalescedCalculationCount = new AtomicLong();
+
+	CacheCalculationCoalescer(Duration duration, PeriodCalculator calculator) {
+		this.durationMillis = duration.toMillis();
+		this.calculator = requireNonNull(calculator);
+	}
+
+	/** @return The number of times caches have been calculated */
+	public long getCalculationCount() {
+		return calculationCount.get();
+	}
+	/** @return The number of times a request waited for a calculation that was already in progress instead of calculating caches itself */
+	public long getCoalescedCalculationCount() {
+		return coalescedCalculationCount.get();
+	}
+
+	/**
+	 * Calculates the caches for the given range of periods. If a range containing this range is already being calculated by another thread, this waits for that calculation instead.
+	 * @return The result of the calculation. Its packets only include the periods from {@code startPeriodNumber} to {@code endPeriodNumber}.
+	 */
+	public Result calculateOrWait(long startPeriodNumber, long endPeriodNumber) {
+		PeriodRange periodRange = new PeriodRange(startPeriodNumber, endPeriodNumber);
+		Calculation calculation = new Calculation();
+		Calculation inProgress = calculationsInProgress.putIfAbsent(periodRange, calculation);
+		if (inProgress == null) {
+			inProgress = findContaining(periodRange);
+		}
+		if (inProgress != null) {
+			coalescedCalculationCount.incrementAndGet();
+			LOGGER.debug("Waiting for calculation of " + periodRange + " that is already in progress");
+			try {
+				List<CacheDataPacket> packets = filter(inProgress.future.join(), periodRange);
+				// another request may have found our calculation before we found the one we are waiting for, so it should share the same claims
+				calculation.claimedDocumentIds = inProgress.claimedDocumentIds;
+				calculation.future.complete(packets);
+				return new Result(inProgress, packets);
+			} catch (CompletionException e) {
+				calculation.future.completeExceptionally(e.getCause());
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException runtimeException) {
+					throw runtimeException;
+				}
+				throw e;
+			} finally {
+				calculationsInProgress.remove(periodRange, calculation);
+			}
+		}
+		try {
+			calculationCount.incrementAndGet();
+			List<CacheDataPacket> r = Collections.unmodifiableList(calculator.calculate(startPeriodNumber, endPeriodNumber));
+			calculation.future.complete(r);
+			return new Result(calculation, r);
+		} catch (RuntimeException e) {
+			calculation.future.completeExceptionally(e);
+			throw e;
+		} finally {
+			calculationsInProgress.remove(periodRange, calculation);
+		}
+	}
+	private Calculation findContaining(PeriodRange periodRange) {
+		for (Map.Entry<PeriodRange, Calculation> entry : calculationsInProgress.entrySet()) {
+			PeriodRange range = entry.getKey();
+			if (!range.equals(periodRange) && range.startPeriodNumber() <= periodRange.startPeriodNumber() && periodRange.endPeriodNumber() <= range.endPeriodNumber()) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+	private List<CacheDataPacket> filter(List<CacheDataPacket> packets, PeriodRange periodRange) {
+		long startDateMillis = periodRange.startPeriodNumber() * durationMillis;
+		long endDateMillis = (periodRange.endPeriodNumber() + 1) * durationMillis;
+		List<CacheDataPacket> r = new ArrayList<>();
+		for (CacheDataPacket packet : packets) {
+			if (startDateMillis <= packet.getPeriodStartDateMillis() && packet.getPeriodStartDateMillis() < endDateMillis) {
+				r.add(packet);
+			}
+		}
+		return r;
+	}
+
+	@FunctionalInterface
+	interface PeriodCalculator {
+		List<CacheDataPacket> calculate(long startPeriodNumber, long endPeriodNumber);
+	}
+
+	private static final class Calculation {
+		private final CompletableFuture<List<CacheDataPacket>> future = new CompletableFuture<>();
+		/** The IDs of documents that a request sharing this calculation has already decided to save. This is only changed before {@link #future} is completed */
+		private Set<String> claimedDocumentIds = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * The packets from a calculation, which may be shared with other requests.
+	 */
+	final class Result {
+		private final Calculation calculation;
+		private final List<CacheDataPacket> packets;
+
+		private Result(Calculation calculation, List<CacheDataPacket> packets) {
+			this.calculation = calculation;
+			this.packets = packets;
+		}
+
+		public List<CacheDataPacket> getPackets() {
+			return packets;
+		}
+
+		/**
+		 * If this returns true, the caller must save the document, then call {@link #saveFinished(Collection)} with it once it is done.
+		 * @return true if the caller should save the document, false if another request that shares this calculation or another request is saving it
+		 */
+		public boolean claimSave(String documentId) {
+			Set<String> claimedDocumentIds = calculation.claimedDocumentIds;
+			if (!claimedDocumentIds.add(documentId)) {
+				return false;
+			}
+			if (!documentIdsBeingSaved.add(documentId)) { // a request with a different calculation is saving it
+				claimedDocumentIds.remove(documentId);
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Should be called after the documents returned by successful calls to {@link #claimSave(String)} have been saved, or have failed to save.
+		 * Calling this with documents whose save is done lets requests with other calculations save them again.
+		 */
+		public void saveFinished(Collection<String> documentIds) {
+			documentIdsBeingSaved.removeAll(documentIds);
+		}
+	}
+
+	private record PeriodRange(long startPeriodNumber, long endPeriodNumber) {}
+}
@@ -47,4 +47,26 @@ public class CacheController {
 		final TypeReference<IdentificationCacheDataPacket<BatteryRecordDataCache>> typeReference = new TypeReference<>() {};
 		return cacheHandler.getCachesFromDateMillis(typeReference, BatteryRecordDataCache.CACHE_NAME, sourceId, startMillis, endMillis);
 	}
+
+	/**
+	 * @return The combination of every cache that {@link #getChargeControllerAccumulation(String, long, long)} would return, which has no nodes if there is no data
+	 */
+	public @NotNull IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> getChargeControllerAccumulationCombined(String sourceId, long startMillis, long endMillis) {
+		final TypeReference<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> typeReference = new TypeReference<>() {};
+		return cacheHandler.getCombinedCacheFromDateMillis(typeReference, ChargeControllerAccumulationDataCache.CACHE_NAME, sourceId, startMillis, endMillis);
+	}
+	/**
+	 * @return The combination of every cache that {@link #getFXAccumulation(String, long, long)} would return, which has no nodes if there is no data
+	 */
+	public @NotNull IdentificationCacheDataPacket<FXAccumulationDataCache> getFXAccumulationCombined(String sourceId, long startMillis, long endMillis) {
+		final TypeReference<IdentificationCacheDataPacket<FXAccumulationDataCache>> typeReference = new TypeReference<>() {};
+		return cacheHandler.getCombinedCacheFromDateMillis(typeReference, FXAccumulationDataCache.CACHE_NAME, sourceId, startMillis, endMillis);
+	}
+	/**
+	 * @return The combination of every cache that {@link #getBatteryRecord(String, long, long)} would return, which has no nodes if there is no data
+	 */
+	public @NotNull IdentificationCacheDataPacket<BatteryRecordDataCache> getBatteryRecordCombined(String sourceId, long startMillis, long endMillis) {
+		final TypeReference<IdentificationCacheDataPacket<BatteryRecordDataCache>> typeReference = new TypeReference<>() {};
+		return cacheHandler.getCombinedCacheFromDateMillis(typeReference, BatteryRecordDataCache.CACHE_NAME, sourceId, startMillis, endMillis);
+	}
 }
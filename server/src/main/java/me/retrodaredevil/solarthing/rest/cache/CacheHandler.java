@@ -23,6 +23,8 @@ import me.retrodaredevil.solarthing.annotations.NotNull;
 import me.retrodaredevil.solarthing.rest.cache.creators.BatteryRecordCacheNodeCreator;
 import me.retrodaredevil.solarthing.type.cache.CacheUtil;
 import me.retrodaredevil.solarthing.type.cache.packets.CacheDataPacket;
+import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheDataPacket;
+import me.retrodaredevil.solarthing.type.cache.packets.data.IdentificationCacheData;
 import me.retrodaredevil.solarthing.database.MillisQuery;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
@@ -36,6 +38,7 @@ import me.retrodaredevil.solarthing.rest.cache.creators.CacheCreator;
 import me.retrodaredevil.solarthing.rest.cache.creators.ChargeControllerAccumulationCacheNodeCreator;
 import me.retrodaredevil.solarthing.rest.cache.creators.DefaultIdentificationCacheCreator;
 import me.retrodaredevil.solarthing.rest.cache.creators.FXAccumulationCacheNodeCreator;
+import me.retrodaredevil.solarthing.rest.cache.creators.PartitionedPackets;
 import me.retrodaredevil.solarthing.rest.exceptions.DatabaseException;
 import me.retrodaredevil.solarthing.rest.exceptions.UnexpectedResponseException;
 import org.slf4j.Logger;
@@ -53,6 +56,10 @@ public class CacheHandler {
 	/** This duration represents the amount of time to go "backwards" for calculating data for a single given period. If this is 4 and the period is from 10:00 to 11:00, then
 	 * that period actually requires data from 6:00 to 11:00 */
 	public static final Duration INFO_DURATION = Duration.ofHours(4);
+	/** The default number of caches to keep in memory. A year of caches for a single source is about 35,000 caches for each cache name. */
+	public static final int DEFAULT_MEMORY_CACHE_SIZE = 150_000;
+	/** The durations of roll-up caches. Each roll-up is created by combining the caches of the level before it. */
+	private static final List<Duration> ROLL_UP_DURATIONS = List.of(Duration.ofHours(1), Duration.ofDays(1), Duration.ofDays(30));
 	private static final List<CacheCreator> CACHE_CREATORS = List.of(
 			new DefaultIdentificationCacheCreator<>(new ChargeControllerAccumulationCacheNodeCreator()),
 			new DefaultIdentificationCacheCreator<>(new FXAccumulationCacheNodeCreator()),
@@ -65,13 +72,38 @@ public class CacheHandler {
 	private final DefaultInstanceOptions defaultInstanceOptions;
 	private final SolarThingDatabase database;
 	private final CouchDbDatabase cacheDatabase;
+	private final MemoryCacheStore memoryCacheStore;
+	private final CacheRollUpPlanner rollUpPlanner;
+	/** Used so that concurrent requests do not calculate or save the same caches */
+	private final CacheCalculationCoalescer calculationCoalescer;
 
-	public CacheHandler(ObjectMapper mapper, DefaultInstanceOptions defaultInstanceOptions, CouchDbInstance couchDbInstance) {
+	public CacheHandler(ObjectMapper mapper, DefaultInstanceOptions defaultInstanceOptions, CouchDbInstance couchDbInstance, int memoryCacheSize) {
 		this.mapper = mapper;
 		this.defaultInstanceOptions = defaultInstanceOptions;
 		database = CouchDbSolarThingDatabase.create(couchDbInstance);
 
 		cacheDatabase = couchDbInstance.getDatabase(SolarThingConstants.CACHE_DATABASE);
+		memoryCacheStore = new MemoryCacheStore(memoryCacheSize);
+		rollUpPlanner = new CacheRollUpPlanner(duration, ROLL_UP_DURATIONS);
+		calculationCoalescer = new CacheCalculationCoalescer(duration, this::calculatePeriod);
+	}
+	public CacheHandler(ObjectMapper mapper, DefaultInstanceOptions defaultInstanceOptions, CouchDbInstance couchDbInstance) {
+		this(mapper, defaultInstanceOptions, couchDbInstance, DEFAULT_MEMORY_CACHE_SIZE);
+	}
+
+	/**
+	 * @return The in memory store of caches that have already been saved to the database. This can be used to get hit and miss counts.
+	 */
+	public MemoryCacheStore getMemoryCacheStore() {
+		return memoryCacheStore;
+	}
+	/** @return The number of times caches have been calculated */
+	public long getCalculationCount() {
+		return calculationCoalescer.getCalculationCount();
+	}
+	/** @return The number of times a request waited for a calculation that was already in progress instead of calculating caches itself */
+	public long getCoalescedCalculationCount() {
+		return calculationCoalescer.getCoalescedCalculationCount();
 	}
 
 	public Duration getDuration() {
@@ -121,6 +153,195 @@ public class CacheHandler {
 		}
 		return r;
 	}
+
+	/**
+	 * Gets a single cache that is the combination of each cache that {@link #getCachesFromDateMillis(TypeReference, String, String, long, long)} would return.
+	 * <p>
+	 * Instead of combining every 15 minute cache, this uses roll-up caches (hourly, daily and 30 days) for the parts of the range they cover.
+	 * Roll-up caches are saved to the database, so a long range only needs a few documents once they have been created.
+	 * @return The combined cache, which covers every period in the given range. If there is no data in the given range, it has no nodes.
+	 * @see CacheCalc#combinePackets(long, long, String, String, Iterable)
+	 */
+	public <T extends IdentificationCacheData> @NotNull IdentificationCacheDataPacket<T> getCombinedCacheFromDateMillis(
+			TypeReference<IdentificationCacheDataPacket<T>> typeReference, String cacheName, String sourceId, long startMillis, long endMillis) {
+		requireNonNull(typeReference);
+		requireNonNull(cacheName);
+		requireNonNull(sourceId, "The source cannot be null!");
+		if (endMillis < startMillis) {
+			throw new IllegalArgumentException("endMillis cannot be less than startMillis! startMillis: " + startMillis + " endMillis: " + endMillis);
+		}
+		long maxPeriodNumber = getMaxPeriodNumber();
+		long startPeriodNumber = Math.min(getPeriodNumber(startMillis), maxPeriodNumber);
+		long endPeriodNumber = Math.min(getPeriodNumber(endMillis), maxPeriodNumber);
+		List<CacheRollUpPlanner.Segment> segments = rollUpPlanner.plan(startPeriodNumber, endPeriodNumber);
+
+		Map<Integer, List<Long>> levelPeriodNumbersMap = new TreeMap<>();
+		for (CacheRollUpPlanner.Segment segment : segments) {
+			if (segment.level() != 0) {
+				levelPeriodNumbersMap.computeIfAbsent(segment.level(), k -> new ArrayList<>()).add(segment.levelPeriodNumber());
+			}
+		}
+		Map<Integer, Map<Long, IdentificationCacheDataPacket<T>>> rollUpMap = new HashMap<>();
+		for (Map.Entry<Integer, List<Long>> entry : levelPeriodNumbersMap.entrySet()) {
+			rollUpMap.put(entry.getKey(), getRollUps(typeReference, cacheName, sourceId, entry.getKey(), entry.getValue()));
+		}
+		LOGGER.debug("Using " + segments.size() + " segments to combine periods " + startPeriodNumber + " to " + endPeriodNumber + ". Roll-up levels used: " + levelPeriodNumbersMap.keySet());
+
+		List<IdentificationCacheDataPacket<T>> packets = new ArrayList<>();
+		int i = 0;
+		while (i < segments.size()) {
+			CacheRollUpPlanner.Segment segment = segments.get(i);
+			if (segment.level() == 0) { // base periods are next to each other, so get them all at once
+				int lastIndex = i;
+				while (lastIndex + 1 < segments.size() && segments.get(lastIndex + 1).level() == 0) {
+					lastIndex++;
+				}
+				packets.addAll(getCaches(typeReference, cacheName, sourceId, segment.startPeriodNumber(), segments.get(lastIndex).endPeriodNumber()));
+				i = lastIndex + 1;
+			} else {
+				packets.add(rollUpMap.get(segment.level()).get(segment.levelPeriodNumber()));
+				i++;
+			}
+		}
+		long durationMillis = duration.toMillis();
+		return CacheCalc.combinePackets(startPeriodNumber * durationMillis, (endPeriodNumber - startPeriodNumber + 1) * durationMillis, sourceId, cacheName, packets);
+	}
+
+	/**
+	 * Gets roll-up caches from memory or the database. Roll-ups that do not exist yet are created from the level before them and saved.
+	 * @param level The roll-up level. Must be greater than 0.
+	 * @param levelPeriodNumbers The period numbers in terms of the duration of {@code level}. Each period must have already been completed.
+	 * @return A map of each period number to its roll-up cache
+	 */
+	private <T extends IdentificationCacheData> Map<Long, IdentificationCacheDataPacket<T>> getRollUps(
+			TypeReference<IdentificationCacheDataPacket<T>> typeReference, String cacheName, String sourceId, int level, List<Long> levelPeriodNumbers) {
+		Duration levelDuration = rollUpPlanner.getDuration(level);
+		long levelDurationMillis = levelDuration.toMillis();
+		Map<Long, IdentificationCacheDataPacket<T>> r = new HashMap<>();
+		Map<String, Long> documentIdPeriodNumberMap = new HashMap<>();
+		List<String> documentIds = new ArrayList<>();
+		for (long levelPeriodNumber : levelPeriodNumbers) {
+			long periodStartDateMillis = levelPeriodNumber * levelDurationMillis;
+			CacheDataPacket memoryPacket = memoryCacheStore.get(cacheName, sourceId, periodStartDateMillis, levelDurationMillis);
+			if (memoryPacket != null) {
+				@SuppressWarnings("unchecked")
+				IdentificationCacheDataPacket<T> packet = (IdentificationCacheDataPacket<T>) memoryPacket;
+				r.put(levelPeriodNumber, packet);
+				continue;
+			}
+			String documentId = CacheUtil.getDocumentId(Instant.ofEpochMilli(periodStartDateMillis), levelDuration, sourceId, cacheName);
+			documentIds.add(documentId);
+			documentIdPeriodNumberMap.put(documentId, levelPeriodNumber);
+		}
+		if (documentIds.isEmpty()) {
+			return r;
+		}
+		final BulkGetResponse response;
+		try {
+			response = cacheDatabase.getDocumentsBulk(BulkGetRequest.from(documentIds));
+		} catch (CouchDbException e) {
+			throw new DatabaseException("CouchDB exception | message: " + e.getMessage(), e);
+		}
+		Map<String, String> documentIdRevisionMapForUpdate = new HashMap<>();
+		SortedSet<Long> missingPeriodNumbers = new TreeSet<>();
+		for (BulkGetResponse.Result result : response.getResults()) {
+			if (result.hasConflicts()) {
+				throw new UnexpectedResponseException("cache document with conflict! doc id: " + result.getDocumentId());
+			}
+			Long levelPeriodNumber = documentIdPeriodNumberMap.get(result.getDocumentId());
+			if (levelPeriodNumber == null) {
+				throw new IllegalStateException("Could not get period number for doc id: " + result.getDocumentId() + ". This should never happen.");
+			}
+			if (!result.isError()) {
+				JsonData jsonData = result.getJsonDataAssertNotConflicted();
+				try {
+					IdentificationCacheDataPacket<T> value = CouchDbJacksonUtil.readValue(mapper, jsonData, typeReference);
+					r.put(levelPeriodNumber, value);
+					memoryCacheStore.put(value);
+					continue;
+				} catch (JsonProcessingException ex) {
+					documentIdRevisionMapForUpdate.put(result.getDocumentId(), getRevisionFromJsonData(jsonData));
+				}
+			}
+			missingPeriodNumbers.add(levelPeriodNumber);
+		}
+		if (missingPeriodNumbers.isEmpty()) {
+			return r;
+		}
+
+		// Create the missing roll-ups by combining the caches from the level before
+		int childLevel = level - 1;
+		long childrenPerPeriod = rollUpPlanner.getBasePeriodCount(level) / rollUpPlanner.getBasePeriodCount(childLevel);
+		Map<Long, List<IdentificationCacheDataPacket<T>>> childrenMap = new HashMap<>();
+		if (childLevel == 0) {
+			List<IdentificationCacheDataPacket<T>> children = new ArrayList<>();
+			long runStart = missingPeriodNumbers.first();
+			long runEnd = runStart;
+			for (long levelPeriodNumber : missingPeriodNumbers.tailSet(runStart + 1)) { // get base caches for periods next to each other all at once
+				if (levelPeriodNumber != runEnd + 1) {
+					children.addAll(getCaches(typeReference, cacheName, sourceId, runStart * childrenPerPeriod, (runEnd + 1) * childrenPerPeriod - 1));
+					runStart = levelPeriodNumber;
+				}
+				runEnd = levelPeriodNumber;
+			}
+			children.addAll(getCaches(typeReference, cacheName, sourceId, runStart * childrenPerPeriod, (runEnd + 1) * childrenPerPeriod - 1));
+			for (IdentificationCacheDataPacket<T> child : children) {
+				long levelPeriodNumber = Math.floorDiv(child.getPeriodStartDateMillis(), levelDurationMillis);
+				childrenMap.computeIfAbsent(levelPeriodNumber, k -> new ArrayList<>()).add(child);
+			}
+		} else {
+			List<Long> childPeriodNumbers = new ArrayList<>();
+			for (long levelPeriodNumber : missingPeriodNumbers) {
+				for (long i = 0; i < childrenPerPeriod; i++) {
+					childPeriodNumbers.add(levelPeriodNumber * childrenPerPeriod + i);
+				}
+			}
+			Map<Long, IdentificationCacheDataPacket<T>> childMap = getRollUps(typeReference, cacheName, sourceId, childLevel, childPeriodNumbers);
+			for (long childPeriodNumber : childPeriodNumbers) {
+				childrenMap.computeIfAbsent(Math.floorDiv(childPeriodNumber, childrenPerPeriod), k -> new ArrayList<>()).add(childMap.get(childPeriodNumber));
+			}
+		}
+
+		List<JsonData> jsonDataList = new ArrayList<>();
+		Map<String, IdentificationCacheDataPacket<T>> documentIdPacketMapToSave = new HashMap<>();
+		for (long levelPeriodNumber : missingPeriodNumbers) {
+			IdentificationCacheDataPacket<T> rollUp = CacheCalc.combinePackets(
+					levelPeriodNumber * levelDurationMillis, levelDurationMillis,
+					sourceId, cacheName,
+					childrenMap.getOrDefault(levelPeriodNumber, Collections.emptyList())
+			);
+			r.put(levelPeriodNumber, rollUp);
+			try {
+				String revision = documentIdRevisionMapForUpdate.get(rollUp.getDbId());
+				if (revision == null) {
+					jsonDataList.add(new StringJsonData(mapper.writeValueAsString(rollUp)));
+				} else {
+					jsonDataList.add(new StringJsonData(mapper.writeValueAsString(new DocumentRevisionWrapper(revision, rollUp))));
+				}
+			} catch (JsonProcessingException e) {
+				throw new RuntimeException("Should be able to serialize!", e);
+			}
+			documentIdPacketMapToSave.put(rollUp.getDbId(), rollUp);
+		}
+		final List<BulkDocumentResponse> postResponse;
+		try {
+			postResponse = cacheDatabase.postDocumentsBulk(new BulkPostRequest(jsonDataList));
+		} catch (CouchDbException e) {
+			throw new DatabaseException("Could not save roll-up caches", e);
+		}
+		for (BulkDocumentResponse documentResponse : postResponse) {
+			if (documentResponse.isOk()) {
+				IdentificationCacheDataPacket<T> savedPacket = documentIdPacketMapToSave.get(documentResponse.getId());
+				if (savedPacket != null) {
+					memoryCacheStore.put(savedPacket);
+				}
+			} else {
+				LOGGER.info("Error: " + documentResponse.getError() + " reason: " + documentResponse.getReason() + " on id: " + documentResponse.getId());
+			}
+		}
+		LOGGER.debug("Created " + missingPeriodNumbers.size() + " roll-up caches with a duration of " + levelDuration + " for " + cacheName);
+		return r;
+	}
 	private String getRevisionFromJsonData(JsonData jsonData) {
 		final JsonNode node;
 		try {
@@ -142,14 +363,28 @@ public class CacheHandler {
 		return revisionNode.asText();
 	}
 	private <T extends CacheDataPacket> List<T> queryOrCalculateCaches(TypeReference<T> typeReference, String cacheName, String sourceId, long startPeriodNumber, long endPeriodNumber) {
+		Map<Long, T> periodNumberPacketMap = new TreeMap<>(); // Map for period number -> cached data. This helps us make sure we only return a single piece of data for each period
 		List<String> documentIds = new ArrayList<>(); // the document IDs needed to return data
 		Map<String, Long> documentIdPeriodNumberMap = new HashMap<>(); // a map from a document ID to a period number
+		Set<String> doNotUpdateDocumentIdsSet = new HashSet<>(); // Set for document IDs that we already have and do not need to be updated
 
 		for (long periodNumber = startPeriodNumber; periodNumber <= endPeriodNumber; periodNumber++) {
 			Instant periodStart = getPeriodStartFromNumber(periodNumber);
 			String documentId = CacheUtil.getDocumentId(periodStart, duration, sourceId, cacheName);
-			documentIds.add(documentId);
 			documentIdPeriodNumberMap.put(documentId, periodNumber);
+			CacheDataPacket memoryPacket = memoryCacheStore.get(cacheName, sourceId, periodStart.toEpochMilli(), duration.toMillis());
+			if (memoryPacket != null) {
+				@SuppressWarnings("unchecked")
+				T packet = (T) memoryPacket;
+				periodNumberPacketMap.put(periodNumber, packet);
+				doNotUpdateDocumentIdsSet.add(documentId);
+			} else {
+				documentIds.add(documentId);
+			}
+		}
+		if (documentIds.isEmpty()) {
+			LOGGER.trace("All caches were in memory");
+			return new ArrayList<>(periodNumberPacketMap.values());
 		}
 		BulkGetRequest request = BulkGetRequest.from(documentIds);
 		final BulkGetResponse response;
@@ -159,8 +394,6 @@ public class CacheHandler {
 			throw new DatabaseException("CouchDB exception | message: " + e.getMessage(), e);
 		}
 		Map<String, String> documentIdRevisionMapForUpdate = new HashMap<>(); // map for documents that need to be updated. The value represents the revision that needs to be used to update it
-		Map<Long, T> periodNumberPacketMap = new TreeMap<>(); // Map for period number -> cached data. This helps us make sure we only return a single piece of data for each period
-		Set<String> doNotUpdateDocumentIdsSet = new HashSet<>(); // Set for document IDs that we already have and do not need to be updated
 		Long queryStartPeriodNumber = null;
 		Long queryEndPeriodNumber = null;
 		for (BulkGetResponse.Result result : response.getResults()) {
@@ -180,6 +413,7 @@ public class CacheHandler {
 					value = CouchDbJacksonUtil.readValue(mapper, jsonData, typeReference);
 					if (value.getSourceId().equals(sourceId) && value.getCacheName().equals(cacheName)) {
 						periodNumberPacketMap.put(periodNumber, value);
+						memoryCacheStore.put(value);
 					}
 					doNotUpdateDocumentIdsSet.add(value.getDbId());
 				} catch (JsonProcessingException ex) {
@@ -201,54 +435,67 @@ public class CacheHandler {
 			}
 		}
 		if (queryStartPeriodNumber != null) {
-			List<CacheDataPacket> calculatedPackets = calculatePeriod(queryStartPeriodNumber, queryEndPeriodNumber);
+			CacheCalculationCoalescer.Result calculation = calculationCoalescer.calculateOrWait(queryStartPeriodNumber, queryEndPeriodNumber);
+			List<CacheDataPacket> calculatedPackets = calculation.getPackets();
 
 			List<JsonData> calculatedPacketsJsonDataList = new ArrayList<>();
+			Map<String, CacheDataPacket> documentIdPacketMapToSave = new HashMap<>();
 			int updateAttemptCount = 0;
-			for (CacheDataPacket packet : calculatedPackets) {
-				if (doNotUpdateDocumentIdsSet.contains(packet.getDbId())) {
-					continue;
-				}
-				if (!sourceId.equals(packet.getSourceId()) || !cacheName.equals(packet.getCacheName())) {
-					// Although we should be able to update packets from other sources, the logic above only gets
-					//   revisions for documents of sourceId.
-					// Also, the doNotUpdateDocumentIdsSet does not contain docuent IDs from other sources, so
-					//   most of the time we have no idea if we actually need to update a packet from another source ID, which
-					//   leads to conflicts
-					// This is the same with different cache names, we don't know which ones we need to update and which ones we cannot
-					continue;
+			try {
+				for (CacheDataPacket packet : calculatedPackets) {
+					if (doNotUpdateDocumentIdsSet.contains(packet.getDbId())) {
+						continue;
+					}
+					if (!sourceId.equals(packet.getSourceId()) || !cacheName.equals(packet.getCacheName())) {
+						// Although we should be able to update packets from other sources, the logic above only gets
+						//   revisions for documents of sourceId.
+						// Also, the doNotUpdateDocumentIdsSet does not contain docuent IDs from other sources, so
+						//   most of the time we have no idea if we actually need to update a packet from another source ID, which
+						//   leads to conflicts
+						// This is the same with different cache names, we don't know which ones we need to update and which ones we cannot
+						continue;
+					}
+					if (!calculation.claimSave(packet.getDbId())) {
+						// Another request calculated this at the same time and is already saving it
+						continue;
+					}
+					documentIdPacketMapToSave.put(packet.getDbId(), packet);
+					JsonData json;
+					try {
+						String revision = documentIdRevisionMapForUpdate.get(packet.getDbId());
+						if (revision == null) {
+							json = new StringJsonData(mapper.writeValueAsString(packet));
+						} else {
+							json = new StringJsonData(mapper.writeValueAsString(new DocumentRevisionWrapper(revision, packet)));
+							updateAttemptCount++;
+						}
+					} catch (JsonProcessingException e) {
+						throw new RuntimeException("Should be able to serialize!", e);
+					}
+					calculatedPacketsJsonDataList.add(json);
 				}
-				JsonData json;
-				try {
-					String revision = documentIdRevisionMapForUpdate.get(packet.getDbId());
-					if (revision == null) {
-						json = new StringJsonData(mapper.writeValueAsString(packet));
+				List<BulkDocumentResponse> postResponse = cacheDatabase.postDocumentsBulk(new BulkPostRequest(calculatedPacketsJsonDataList));
+				int successCount = 0;
+				int failCount = 0;
+				for (BulkDocumentResponse documentResponse : postResponse) {
+					if (documentResponse.isOk()) {
+						successCount++;
+						CacheDataPacket savedPacket = documentIdPacketMapToSave.get(documentResponse.getId());
+						if (savedPacket != null) {
+							memoryCacheStore.put(savedPacket);
+						}
 					} else {
-						json = new StringJsonData(mapper.writeValueAsString(new DocumentRevisionWrapper(revision, packet)));
-						updateAttemptCount++;
+						failCount++;
+						LOGGER.info("Error: " + documentResponse.getError() + " reason: " + documentResponse.getReason() + " on id: " + documentResponse.getId());
 					}
-				} catch (JsonProcessingException e) {
-					throw new RuntimeException("Should be able to serialize!", e);
 				}
-				calculatedPacketsJsonDataList.add(json);
-			}
-			final List<BulkDocumentResponse> postResponse;
-			try {
-				postResponse = cacheDatabase.postDocumentsBulk(new BulkPostRequest(calculatedPacketsJsonDataList));
+				LOGGER.debug("(Cache updating) Success: " + successCount + " fail: " + failCount + ". Tried to update: " + updateAttemptCount);
 			} catch (CouchDbException e) {
 				throw new DatabaseException("Could not update cache", e);
+			} finally {
+				// This is done after saved packets are put in the memory store, so the next request finds them there instead of saving them again
+				calculation.saveFinished(documentIdPacketMapToSave.keySet());
 			}
-			int successCount = 0;
-			int failCount = 0;
-			for (BulkDocumentResponse documentResponse : postResponse) {
-				if (documentResponse.isOk()) {
-					successCount++;
-				} else {
-					failCount++;
-					LOGGER.info("Error: " + documentResponse.getError() + " reason: " + documentResponse.getReason() + " on id: " + documentResponse.getId());
-				}
-			}
-			LOGGER.debug("(Cache updating) Success: " + successCount + " fail: " + failCount + ". Tried to update: " + updateAttemptCount);
 
 			int numberOfWantedType = 0;
 			for (CacheDataPacket cacheDataPacket : calculatedPackets) {
@@ -263,7 +510,7 @@ public class CacheHandler {
 					numberOfWantedType++;
 				}
 			}
-			LOGGER.debug("Calculated " + calculatedPackets.size() + " and " + numberOfWantedType + " were of type " + cacheName);
+			LOGGER.debug("Calculated " + calculatedPackets.size() + " and " + numberOfWantedType + " were of type " + cacheName + ". " + memoryCacheStore);
 		} else {
 			LOGGER.trace("Didn't have to get any data");
 		}
@@ -288,21 +535,21 @@ public class CacheHandler {
 			// The consumers of this API may be ok if there are holes in the data rather than getting no data at all, so maybe change this later?
 			throw new DatabaseException("Couldn't query status packets for period. startPeriodNumber: " + startPeriodNumber + " endPeriodNumber: " + endPeriodNumber + " firstPeriodStart: " + firstPeriodStart, e);
 		}
+		int periodCount = (int) (endPeriodNumber - startPeriodNumber + 1);
 		List<CacheDataPacket> r = new ArrayList<>();
 		Map<String, List<InstancePacketGroup>> sourceMap = PacketGroups.parsePackets(packetGroups, defaultInstanceOptions);
 		for (Map.Entry<String, List<InstancePacketGroup>> entry : sourceMap.entrySet()) {
 			String sourceId = entry.getKey();
-			List<InstancePacketGroup> packets = entry.getValue();
+			// The packets are partitioned once, then each creator calculates every period at once
+			PartitionedPackets packets = PartitionedPackets.create(entry.getValue());
 
-			for (long periodNumber = startPeriodNumber; periodNumber <= endPeriodNumber; periodNumber++) {
-				Instant periodStart = getPeriodStartFromNumber(periodNumber);
-				for (CacheCreator creator : CACHE_CREATORS) {
-					r.add(creator.createFrom(sourceId, packets, periodStart, duration));
-				}
+			for (CacheCreator creator : CACHE_CREATORS) {
+				r.addAll(creator.createFrom(sourceId, packets, firstPeriodStart, duration, periodCount));
 			}
 		}
 		return r;
 	}
+
 	@JsonExplicit
 	private static class DocumentRevisionWrapper {
 		private final String revision;
@@ -5,6 +5,7 @@ import me.retrodaredevil.couchdbjava.CouchDbInstance;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
 import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
@@ -16,6 +17,9 @@ public class CacheHandlerProvider {
 	private final DefaultInstanceOptions defaultInstanceOptions;
 	private final CouchDbDatabaseSettings couchDbDatabaseSettings;
 
+	@Value("${solarthing.cache.memory_size:" + CacheHandler.DEFAULT_MEMORY_CACHE_SIZE + "}")
+	private int memoryCacheSize;
+
 	private CacheHandler cacheHandler;
 
 	public CacheHandlerProvider(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings) {
@@ -26,7 +30,7 @@ public class CacheHandlerProvider {
 	@PostConstruct
 	public void init() {
 		CouchDbInstance instance = CouchDbUtil.createInstance(couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties());
-		cacheHandler = new CacheHandler(JacksonUtil.defaultMapper(), defaultInstanceOptions, instance);
+		cacheHandler = new CacheHandler(JacksonUtil.defaultMapper(), defaultInstanceOptions, instance, memoryCacheSize);
 
 	}
 	@Bean
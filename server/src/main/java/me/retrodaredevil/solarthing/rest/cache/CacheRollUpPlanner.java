@@ -0,0 +1,86 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decides which cache levels to use to cover a range of periods. Level 0 is the base period duration, and each level after that
+ * is a roll-up whose duration is a multiple of the level before it. Each period of each level starts at a multiple of its duration since the epoch.
+ * <p>
+ * The coarsest levels that fit inside the range are used, so a range that covers many periods only needs a few caches.
+ */
+public final class CacheRollUpPlanner {
+	private final List<Duration> durations;
+	/** The number of base periods in a single period of each level */
+	private final long[] basePeriodCounts;
+
+	/**
+	 * @param baseDuration The duration of each base period
+	 * @param rollUpDurations The durations of each roll-up level in ascending order. Each must be a multiple of the one before it.
+	 */
+	public CacheRollUpPlanner(Duration baseDuration, List<Duration> rollUpDurations) {
+		requireNonNull(baseDuration);
+		List<Duration> durations = new ArrayList<>();
+		durations.add(baseDuration);
+		durations.addAll(rollUpDurations);
+		basePeriodCounts = new long[durations.size()];
+		basePeriodCounts[0] = 1;
+		for (int level = 1; level < durations.size(); level++) {
+			long previousMillis = durations.get(level - 1).toMillis();
+			long millis = durations.get(level).toMillis();
+			if (millis <= previousMillis || millis % previousMillis != 0) {
+				throw new IllegalArgumentException("Each duration must be a multiple of the one before it! durations: " + durations);
+			}
+			basePeriodCounts[level] = millis / baseDuration.toMillis();
+		}
+		this.durations = Collections.unmodifiableList(durations);
+	}
+
+	public int getLevelCount() {
+		return durations.size();
+	}
+	public Duration getDuration(int level) {
+		return durations.get(level);
+	}
+	/** @return The number of base periods in a single period of {@code level} */
+	public long getBasePeriodCount(int level) {
+		return basePeriodCounts[level];
+	}
+
+	/**
+	 * @param startPeriodNumber The first base period number
+	 * @param endPeriodNumber The last base period number (inclusive)
+	 * @return The segments, in order, that exactly cover the given base periods
+	 */
+	public List<Segment> plan(long startPeriodNumber, long endPeriodNumber) {
+		List<Segment> r = new ArrayList<>();
+		long periodNumber = startPeriodNumber;
+		while (periodNumber <= endPeriodNumber) {
+			int level = 0;
+			for (int candidate = basePeriodCounts.length - 1; candidate > 0; candidate--) {
+				long count = basePeriodCounts[candidate];
+				if (Math.floorMod(periodNumber, count) == 0 && periodNumber + count - 1 <= endPeriodNumber) {
+					level = candidate;
+					break;
+				}
+			}
+			long count = basePeriodCounts[level];
+			r.add(new Segment(level, Math.floorDiv(periodNumber, count), periodNumber, periodNumber + count - 1));
+			periodNumber += count;
+		}
+		return r;
+	}
+
+	/**
+	 * @param level The level of this segment. 0 is the base level.
+	 * @param levelPeriodNumber The period number in terms of the duration of {@code level}
+	 * @param startPeriodNumber The first base period number
+	 * @param endPeriodNumber The last base period number (inclusive)
+	 */
+	public record Segment(int level, long levelPeriodNumber, long startPeriodNumber, long endPeriodNumber) {
+	}
+}
@@ -0,0 +1,96 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.type.cache.packets.CacheDataPacket;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A size bounded, in memory store of {@link CacheDataPacket}s. When full, the least recently used packet is removed.
+ * <p>
+ * Only packets for periods that have been completed and saved to the database should be put in here, as those will never change.
+ * <p>
+ * This is thread safe.
+ */
+public class MemoryCacheStore {
+	private final int maxSize;
+	private final Map<Key, CacheDataPacket> map;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	/**
+	 * @param maxSize The maximum number of packets to keep in memory. If 0, nothing is kept in memory.
+	 */
+	public MemoryCacheStore(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize cannot be negative! maxSize: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		map = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CacheDataPacket> eldest) {
+				if (size() > MemoryCacheStore.this.maxSize) {
+					evictionCount++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public synchronized @Nullable CacheDataPacket get(String cacheName, String sourceId, long periodStartDateMillis, long periodDurationMillis) {
+		CacheDataPacket packet = map.get(new Key(cacheName, sourceId, periodStartDateMillis, periodDurationMillis));
+		if (packet == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return packet;
+	}
+
+	public synchronized void put(CacheDataPacket packet) {
+		if (maxSize == 0) {
+			return;
+		}
+		map.put(new Key(packet.getCacheName(), packet.getSourceId(), packet.getPeriodStartDateMillis(), packet.getPeriodDurationMillis()), packet);
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/** @return The number of times {@link #get(String, String, long, long)} returned a packet */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return The number of times {@link #get(String, String, long, long)} returned null */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/** @return The number of packets that have been removed to make room for newer packets */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "MemoryCacheStore(size=" + map.size() + " maxSize=" + maxSize + " hitCount=" + hitCount + " missCount=" + missCount + " evictionCount=" + evictionCount + ")";
+	}
+
+	private record Key(String cacheName, String sourceId, long periodStartDateMillis, long periodDurationMillis) {
+		private Key {
+			requireNonNull(cacheName);
+			requireNonNull(sourceId);
+		}
+	}
+}
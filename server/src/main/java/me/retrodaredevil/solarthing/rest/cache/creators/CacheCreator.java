@@ -1,7 +1,6 @@
 package me.retrodaredevil.solarthing.rest.cache.creators;
 
 import me.retrodaredevil.solarthing.type.cache.packets.CacheDataPacket;
-import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -9,12 +8,13 @@ import java.util.List;
 
 public interface CacheCreator {
 	/**
-	 * Creates a {@link CacheDataPacket} to be stored in the database for a given period.
+	 * Creates a {@link CacheDataPacket} to be stored in the database for each of {@code periodCount} consecutive periods.
 	 * @param sourceId The source ID
-	 * @param packetGroups The queried packet groups. Note that packets here may and will be out of the range of the current period.
-	 * @param periodStart The start of the period
-	 * @param periodDuration The duration of the period
-	 * @return The created packet
+	 * @param packets The queried packets from the source. Note that packets here may and will be out of the range of each period.
+	 * @param firstPeriodStart The start of the first period
+	 * @param periodDuration The duration of each period
+	 * @param periodCount The number of periods
+	 * @return The created packets, one for each period in order
 	 */
-	CacheDataPacket createFrom(String sourceId, List<InstancePacketGroup> packetGroups, Instant periodStart, Duration periodDuration);
+	List<? extends CacheDataPacket> createFrom(String sourceId, PartitionedPackets packets, Instant firstPeriodStart, Duration periodDuration, int periodCount);
 }
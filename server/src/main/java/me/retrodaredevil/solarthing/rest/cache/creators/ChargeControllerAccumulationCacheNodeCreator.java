@@ -32,4 +32,13 @@ public class ChargeControllerAccumulationCacheNodeCreator implements Identificat
 				FloatAccumulationValue::getValue, ChargeControllerAccumulationDataCache::new
 		);
 	}
+
+	@Override
+	public List<IdentificationCacheNode<ChargeControllerAccumulationDataCache>> createAll(IdentifierFragment identifierFragment, List<TimestampedPacket<DailyChargeController>> timestampedPackets, Instant firstPeriodStart, Duration periodDuration, int periodCount) {
+		return CacheCalc.calculateCaches(
+				identifierFragment, timestampedPackets, firstPeriodStart, periodDuration, periodCount,
+				FloatAccumulationValue.convert(DailyChargeController::getDailyKWH), FloatAccumulationValueFactory.getInstance(),
+				FloatAccumulationValue::getValue, ChargeControllerAccumulationDataCache::new
+		);
+	}
 }
@@ -4,12 +4,8 @@ import me.retrodaredevil.solarthing.type.cache.packets.DefaultIdentificationCach
 import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheDataPacket;
 import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheNode;
 import me.retrodaredevil.solarthing.type.cache.packets.data.IdentificationCacheData;
-import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.TimestampedPacket;
-import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
-import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
 import me.retrodaredevil.solarthing.packets.identification.Identifiable;
-import me.retrodaredevil.solarthing.packets.identification.Identifier;
 import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
 
 import java.time.Duration;
@@ -32,45 +28,27 @@ public class DefaultIdentificationCacheCreator<T extends IdentificationCacheData
 	}
 
 	@Override
-	public IdentificationCacheDataPacket<T> createFrom(String sourceId, List<InstancePacketGroup> packetGroups, Instant periodStart, Duration periodDuration) {
-		Class<U> acceptedType = identificationCacheNodeCreator.getAcceptedType();
-		Map<String, Map<IdentifierFragment, List<TimestampedPacket<U>>>> mappedPackets = convertPackets(packetGroups, acceptedType);
-		Map<IdentifierFragment, List<TimestampedPacket<U>>> identifierFragmentMap = mappedPackets.getOrDefault(sourceId, Collections.emptyMap());
+	public List<IdentificationCacheDataPacket<T>> createFrom(String sourceId, PartitionedPackets packets, Instant firstPeriodStart, Duration periodDuration, int periodCount) {
+		Map<IdentifierFragment, List<TimestampedPacket<U>>> identifierFragmentMap = packets.getPackets(identificationCacheNodeCreator.getAcceptedType());
 
-		List<IdentificationCacheNode<T>> nodes = new ArrayList<>(identifierFragmentMap.size());
+		List<List<IdentificationCacheNode<T>>> nodesForEachIdentifierFragment = new ArrayList<>(identifierFragmentMap.size());
 		for (Map.Entry<IdentifierFragment, List<TimestampedPacket<U>>> entry : identifierFragmentMap.entrySet()) {
-			IdentifierFragment identifierFragment = entry.getKey();
-			List<TimestampedPacket<U>> packets = entry.getValue();
-			IdentificationCacheNode<T> node = identificationCacheNodeCreator.create(identifierFragment, packets, periodStart, periodDuration);
-			nodes.add(node);
+			nodesForEachIdentifierFragment.add(identificationCacheNodeCreator.createAll(entry.getKey(), entry.getValue(), firstPeriodStart, periodDuration, periodCount));
 		}
-		return new DefaultIdentificationCacheDataPacket<>(
-				periodStart.toEpochMilli(),
-				periodDuration.toMillis(),
-				sourceId,
-				identificationCacheNodeCreator.getCacheName(),
-				nodes
-		);
-	}
-	@SuppressWarnings("unchecked")
-	private static <T extends Identifiable> Map<String, Map<IdentifierFragment, List<TimestampedPacket<T>>>> convertPackets(List<? extends FragmentedPacketGroup> packetGroups, Class<T> acceptedType) {
-		Map<String, Map<IdentifierFragment, List<TimestampedPacket<T>>>> r = new HashMap<>();
-		for (FragmentedPacketGroup packetGroup : packetGroups) {
-			for (Packet packet : packetGroup.getPackets()) {
-				if (!acceptedType.isInstance(packet)) {
-					continue;
-				}
-				T identifiablePacket = (T) packet;
-				String sourceId = packetGroup.getSourceId(packet);
-				int fragmentId = packetGroup.getFragmentId(packet);
-				Identifier identifier = identifiablePacket.getIdentifier();
-				IdentifierFragment identifierFragment = IdentifierFragment.create(fragmentId, identifier);
-				List<TimestampedPacket<T>> list = r
-						.computeIfAbsent(sourceId, k -> new HashMap<>())
-						.computeIfAbsent(identifierFragment, k -> new ArrayList<>());
-				long dateMillis = packetGroup.getDateMillisOrKnown(packet);
-				list.add(new TimestampedPacket<>(identifiablePacket, dateMillis));
+		List<IdentificationCacheDataPacket<T>> r = new ArrayList<>(periodCount);
+		for (int i = 0; i < periodCount; i++) {
+			Instant periodStart = firstPeriodStart.plus(periodDuration.multipliedBy(i));
+			List<IdentificationCacheNode<T>> nodes = new ArrayList<>(nodesForEachIdentifierFragment.size());
+			for (List<IdentificationCacheNode<T>> identifierFragmentNodes : nodesForEachIdentifierFragment) {
+				nodes.add(identifierFragmentNodes.get(i));
 			}
+			r.add(new DefaultIdentificationCacheDataPacket<>(
+					periodStart.toEpochMilli(),
+					periodDuration.toMillis(),
+					sourceId,
+					identificationCacheNodeCreator.getCacheName(),
+					nodes
+			));
 		}
 		return r;
 	}
@@ -30,4 +30,13 @@ public class FXAccumulationCacheNodeCreator implements IdentificationCacheNodeCr
 				data -> data, FXAccumulationDataCache::createFromIdentifier
 		);
 	}
+
+	@Override
+	public List<IdentificationCacheNode<FXAccumulationDataCache>> createAll(IdentifierFragment identifierFragment, List<TimestampedPacket<DailyFXPacket>> timestampedPackets, Instant firstPeriodStart, Duration periodDuration, int periodCount) {
+		return CacheCalc.calculateCaches(
+				identifierFragment, timestampedPackets, firstPeriodStart, periodDuration, periodCount,
+				FXAccumulationDataCache::convert, FXAccumulationDataCache.getDataFactory(),
+				data -> data, FXAccumulationDataCache::createFromIdentifier
+		);
+	}
 }
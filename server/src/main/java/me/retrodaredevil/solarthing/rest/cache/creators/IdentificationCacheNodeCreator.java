@@ -5,9 +5,11 @@ import me.retrodaredevil.solarthing.type.cache.packets.data.IdentificationCacheD
 import me.retrodaredevil.solarthing.packets.TimestampedPacket;
 import me.retrodaredevil.solarthing.packets.identification.Identifiable;
 import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+import me.retrodaredevil.solarthing.rest.cache.CacheHandler;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
 public interface IdentificationCacheNodeCreator<T extends IdentificationCacheData, U extends Identifiable> {
@@ -24,4 +26,40 @@ public interface IdentificationCacheNodeCreator<T extends IdentificationCacheDat
 	 * @param periodDuration The duration of the period
 	 */
 	IdentificationCacheNode<T> create(IdentifierFragment identifierFragment, List<TimestampedPacket<U>> packets, Instant periodStart, Duration periodDuration);
+
+	/**
+	 * Creates an {@link IdentificationCacheNode} for each of {@code periodCount} consecutive periods.
+	 * <p>
+	 * By default, this slides a window over {@code packets} and calls {@link #create(IdentifierFragment, List, Instant, Duration)} with only the packets
+	 * that are within {@link CacheHandler#INFO_DURATION} before a given period through the end of that period. Implementations may override this if
+	 * they can share calculations between periods.
+	 *
+	 * @param identifierFragment The identifier fragment for the identifier of each packet
+	 * @param packets The packets of the generic type, sorted in ascending order. This list should support fast random access.
+	 * @param firstPeriodStart The start of the first period
+	 * @param periodDuration The duration of each period
+	 * @param periodCount The number of periods
+	 * @return A list of size {@code periodCount}, where each element is the node for the corresponding period
+	 */
+	default List<IdentificationCacheNode<T>> createAll(IdentifierFragment identifierFragment, List<TimestampedPacket<U>> packets, Instant firstPeriodStart, Duration periodDuration, int periodCount) {
+		List<IdentificationCacheNode<T>> r = new ArrayList<>(periodCount);
+		long infoDurationMillis = CacheHandler.INFO_DURATION.toMillis();
+		int size = packets.size();
+		int startIndex = 0;
+		int endIndex = 0;
+		for (int i = 0; i < periodCount; i++) {
+			Instant periodStart = firstPeriodStart.plus(periodDuration.multipliedBy(i));
+			long unknownCutOffDateMillis = periodStart.toEpochMilli() - infoDurationMillis;
+			long periodEndDateMillis = periodStart.toEpochMilli() + periodDuration.toMillis();
+			while (startIndex < size && packets.get(startIndex).getDateMillis() < unknownCutOffDateMillis) {
+				startIndex++;
+			}
+			endIndex = Math.max(endIndex, startIndex);
+			while (endIndex < size && packets.get(endIndex).getDateMillis() < periodEndDateMillis) {
+				endIndex++;
+			}
+			r.add(create(identifierFragment, packets.subList(startIndex, endIndex), periodStart, periodDuration));
+		}
+		return r;
+	}
 }
@@ -0,0 +1,79 @@
+package me.retrodaredevil.solarthing.rest.cache.creators;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.identification.Identifiable;
+import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The packets from a single source, partitioned by {@link IdentifierFragment}, where each list is sorted by date in ascending order.
+ * <p>
+ * This is created once for each source so that each {@link CacheCreator} does not have to go through every packet for every period.
+ */
+public final class PartitionedPackets {
+	private final Map<IdentifierFragment, List<TimestampedPacket<Identifiable>>> packetMap;
+	private final Map<Class<?>, Map<IdentifierFragment, ? extends List<?>>> typeMapCache = new HashMap<>();
+
+	private PartitionedPackets(Map<IdentifierFragment, List<TimestampedPacket<Identifiable>>> packetMap) {
+		this.packetMap = packetMap;
+	}
+
+	/**
+	 * @param packetGroups The packet groups. These should all be from the same source.
+	 */
+	public static PartitionedPackets create(List<? extends FragmentedPacketGroup> packetGroups) {
+		Map<IdentifierFragment, List<TimestampedPacket<Identifiable>>> packetMap = new LinkedHashMap<>();
+		for (FragmentedPacketGroup packetGroup : packetGroups) {
+			for (Packet packet : packetGroup.getPackets()) {
+				if (!(packet instanceof Identifiable)) {
+					continue;
+				}
+				Identifiable identifiablePacket = (Identifiable) packet;
+				int fragmentId = packetGroup.getFragmentId(packet);
+				IdentifierFragment identifierFragment = IdentifierFragment.create(fragmentId, identifiablePacket.getIdentifier());
+				long dateMillis = packetGroup.getDateMillisOrKnown(packet);
+				packetMap.computeIfAbsent(identifierFragment, k -> new ArrayList<>()).add(new TimestampedPacket<>(identifiablePacket, dateMillis));
+			}
+		}
+		for (List<TimestampedPacket<Identifiable>> packets : packetMap.values()) {
+			// packet groups are usually already in order, in which case this is cheap
+			packets.sort(Comparator.comparingLong(TimestampedPacket::getDateMillis));
+		}
+		return new PartitionedPackets(packetMap);
+	}
+
+	/**
+	 * @param acceptedType The type of packet
+	 * @return A map of each {@link IdentifierFragment} to the packets of the given type, sorted by date in ascending order. The lists support fast random access.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Identifiable> Map<IdentifierFragment, List<TimestampedPacket<T>>> getPackets(Class<T> acceptedType) {
+		return (Map<IdentifierFragment, List<TimestampedPacket<T>>>) (Map<?, ?>) typeMapCache.computeIfAbsent(acceptedType, k -> {
+			Map<IdentifierFragment, List<TimestampedPacket<T>>> r = new LinkedHashMap<>();
+			for (Map.Entry<IdentifierFragment, List<TimestampedPacket<Identifiable>>> entry : packetMap.entrySet()) {
+				List<TimestampedPacket<T>> packets = null;
+				for (TimestampedPacket<Identifiable> packet : entry.getValue()) {
+					if (acceptedType.isInstance(packet.getPacket())) {
+						if (packets == null) {
+							packets = new ArrayList<>();
+						}
+						packets.add((TimestampedPacket<T>) (TimestampedPacket<?>) packet);
+					}
+				}
+				if (packets != null) {
+					r.put(entry.getKey(), Collections.unmodifiableList(packets));
+				}
+			}
+			return Collections.unmodifiableMap(r);
+		});
+	}
+}
@@ -37,6 +37,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.Collections;
@@ -53,6 +54,8 @@ public class GraphQLProvider {
 
 	@Value("${solarthing.config.solcast_file:config/solcast.json}")
 	private Path solcastFile;
+	@Value("${solarthing.graphql.recent_packet_window:PT48H}")
+	private Duration recentPacketWindow;
 
 	private GraphQL graphQL;
 
@@ -117,7 +120,7 @@ public class GraphQLProvider {
 			solcastConfig = new SolcastConfig(Collections.emptyMap());
 		}
 
-		GraphQLSchema schema = createGraphQLSchemaGenerator(objectMapper, couchDbDatabaseSettings, defaultInstanceOptions, solcastConfig, cacheController).generate();
+		GraphQLSchema schema = createGraphQLSchemaGenerator(objectMapper, couchDbDatabaseSettings, defaultInstanceOptions, solcastConfig, cacheController, recentPacketWindow).generate();
 
 		this.graphQL = GraphQL.newGraphQL(schema)
 				.defaultDataFetcherExceptionHandler(new SolarThingExceptionHandler())
@@ -125,11 +128,14 @@ public class GraphQLProvider {
 	}
 
 	static GraphQLSchemaGenerator createGraphQLSchemaGenerator(ObjectMapper objectMapper, CouchDbDatabaseSettings couchDbDatabaseSettings, DefaultInstanceOptions defaultInstanceOptions, @NotNull SolcastConfig solcastConfig, CacheController cacheController) {
+		return createGraphQLSchemaGenerator(objectMapper, couchDbDatabaseSettings, defaultInstanceOptions, solcastConfig, cacheController, Duration.ZERO);
+	}
+	static GraphQLSchemaGenerator createGraphQLSchemaGenerator(ObjectMapper objectMapper, CouchDbDatabaseSettings couchDbDatabaseSettings, DefaultInstanceOptions defaultInstanceOptions, @NotNull SolcastConfig solcastConfig, CacheController cacheController, Duration recentPacketWindow) {
 		JacksonValueMapperFactory jacksonValueMapperFactory = JacksonValueMapperFactory.builder()
 				.withPrototype(objectMapper)
 				.build();
 		ResolverBuilder resolverBuilder = new SolarThingAnnotatedResolverBuilder();
-		SimpleQueryHandler simpleQueryHandler = new SimpleQueryHandler(defaultInstanceOptions, couchDbDatabaseSettings, objectMapper);
+		SimpleQueryHandler simpleQueryHandler = new SimpleQueryHandler(defaultInstanceOptions, couchDbDatabaseSettings, objectMapper, recentPacketWindow);
 		ZoneId zoneId = ZoneId.systemDefault(); // In the future, we could make this customizable, but like, bro just make sure your system time is correct
 		LOGGER.debug("Using timezone: " + zoneId);
 		return new GraphQLSchemaGenerator()
@@ -0,0 +1,178 @@
+package me.retrodaredevil.solarthing.rest.graphql;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.MillisChangesFollower;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.cache.SimpleDatabaseCache;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import me.retrodaredevil.solarthing.util.TimeRange;
+import me.retrodaredevil.solarthing.util.sync.BasicResourceManager;
+import me.retrodaredevil.solarthing.util.sync.ResourceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps the packets from the last {@link #getWindowDuration()} of a {@link MillisDatabase} in memory so that queries for recent data
+ * do not have to go to the database.
+ * <p>
+ * The first query downloads the entire window. After that, only the volatile part of the window is queried again, and only
+ * when the data is older than the update period. Documents that are uploaded late, such as packets that were retried or replayed from a spool,
+ * may be older than the volatile part of the window, so changes to the database are followed using a {@link MillisChangesFollower}.
+ * The window is only used while the {@link MillisChangesFollower} is following the database.
+ * <p>
+ * This is thread safe. Many threads may read from the window at the same time.
+ */
+public class RecentPacketWindow {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RecentPacketWindow.class);
+	public static final Duration DEFAULT_UPDATE_PERIOD = Duration.ofSeconds(5);
+
+	private final MillisDatabase database;
+	private final MillisChangesFollower changesFollower;
+	private final Duration windowDuration;
+	private final long updatePeriodNanos;
+	private final Clock clock;
+
+	private final ResourceManager<SimpleDatabaseCache> databaseCacheManager;
+	private final Lock updateLock = new ReentrantLock();
+
+	/** The first date millis that is known to be in the window, or null if the last update was not successful */
+	private volatile Long windowStartDateMillis = null;
+	private volatile Long lastUpdateNanos = null;
+	/** The start of the query that loaded the whole window, or null if it has not been loaded yet. Guarded by {@link #updateLock} */
+	private Long firstQueryStartDateMillis = null;
+
+	/**
+	 * @param changesFollower The {@link MillisChangesFollower} that follows the changes of {@code database}. This adds itself as a subscriber.
+	 */
+	public RecentPacketWindow(MillisDatabase database, MillisChangesFollower changesFollower, Duration windowDuration, Duration updatePeriod, Clock clock) {
+		this.database = requireNonNull(database);
+		this.changesFollower = requireNonNull(changesFollower);
+		if (windowDuration.isNegative() || windowDuration.isZero()) {
+			throw new IllegalArgumentException("windowDuration must be positive! windowDuration: " + windowDuration);
+		}
+		this.windowDuration = windowDuration;
+		this.updatePeriodNanos = updatePeriod.toNanos();
+		this.clock = requireNonNull(clock);
+		// At least the window is always queried, and packets are purged once they are a couple of hours older than the window
+		SimpleDatabaseCache databaseCache = new SimpleDatabaseCache(
+				windowDuration.plus(Duration.ofHours(2)),
+				windowDuration.plus(Duration.ofHours(1)),
+				windowDuration,
+				SimpleDatabaseCache.DEFAULT_VOLATILE_WINDOW_DURATION,
+				clock
+		);
+		// SimpleDatabaseCache can be read while it is being fed, so readers never wait for an update
+		databaseCacheManager = new BasicResourceManager<>(databaseCache);
+		changesFollower.addSubscriber(this::receiveChanges);
+	}
+	public RecentPacketWindow(MillisDatabase database, MillisChangesFollower changesFollower, Duration windowDuration) {
+		this(database, changesFollower, windowDuration, DEFAULT_UPDATE_PERIOD, Clock.systemUTC());
+	}
+
+	public Duration getWindowDuration() {
+		return windowDuration;
+	}
+
+	/**
+	 * @param from The date millis from (inclusive)
+	 * @param to The date millis to (inclusive)
+	 * @return The packets between {@code from} and {@code to} or null if that range is not in the window. If null, the caller should query the database.
+	 */
+	public @Nullable List<StoredPacketGroup> query(long from, long to) {
+		if (from > to) {
+			return null;
+		}
+		if (!changesFollower.isFollowing()) {
+			return null; // late documents may be missing, and we don't want to load the window until we are following
+		}
+		updateIfNeeded();
+		Long windowStartDateMillis = this.windowStartDateMillis;
+		if (windowStartDateMillis == null || from < windowStartDateMillis) {
+			return null;
+		}
+		return databaseCacheManager.access((SimpleDatabaseCache databaseCache) -> databaseCache.getCachedPacketsInRange(TimeRange.create(from, to), false));
+	}
+
+	private boolean isUpdateNeeded() {
+		Long lastUpdateNanos = this.lastUpdateNanos;
+		return lastUpdateNanos == null || System.nanoTime() - lastUpdateNanos >= updatePeriodNanos;
+	}
+
+	/**
+	 * Queries the volatile part of the window if it has not been updated recently.
+	 * If another thread is already updating, this waits for that update to finish rather than starting another.
+	 */
+	public void updateIfNeeded() {
+		if (!isUpdateNeeded()) {
+			return;
+		}
+		updateLock.lock();
+		try {
+			if (!isUpdateNeeded()) {
+				return; // another thread updated while we were waiting
+			}
+			update();
+		} finally {
+			updateLock.unlock();
+		}
+	}
+
+	private void receiveChanges(List<StoredPacketGroup> packetGroups) {
+		updateLock.lock();
+		try {
+			if (firstQueryStartDateMillis == null) {
+				return; // the whole window has not been loaded yet. When it is, it will include these changes
+			}
+			long nowDateMillis = clock.millis();
+			List<StoredPacketGroup> changedPacketGroups = new ArrayList<>();
+			for (StoredPacketGroup packetGroup : packetGroups) {
+				// Packet groups from the future will be queried once they are in the volatile part of the window
+				if (packetGroup.getDateMillis() <= nowDateMillis) {
+					changedPacketGroups.add(packetGroup);
+				}
+			}
+			databaseCacheManager.update(databaseCache -> {
+				databaseCache.feedChanged(changedPacketGroups);
+			});
+		} finally {
+			updateLock.unlock();
+		}
+	}
+
+	private void update() {
+		MillisQuery query = databaseCacheManager.access((SimpleDatabaseCache databaseCache) -> databaseCache.getRecommendedQuery());
+		final List<StoredPacketGroup> packetGroups;
+		try {
+			packetGroups = database.query(query);
+		} catch (SolarThingDatabaseException e) {
+			LOGGER.error("Could not update recent packets from " + database, e);
+			// Until the next successful update, queries go to the database so that we never return stale data.
+			//   We still set lastUpdateNanos so that we don't try again on every single query
+			windowStartDateMillis = null;
+			lastUpdateNanos = System.nanoTime();
+			return;
+		}
+		databaseCacheManager.update(databaseCache -> {
+			databaseCache.feed(packetGroups, query.getStartKey(), query.getEndKey());
+		});
+		long queryStartDateMillis = requireNonNull(query.getStartKey());
+		if (firstQueryStartDateMillis == null) {
+			firstQueryStartDateMillis = queryStartDateMillis;
+		}
+		// The database cache never purges anything newer than the window
+		windowStartDateMillis = Math.max(firstQueryStartDateMillis, clock.millis() - windowDuration.toMillis());
+		lastUpdateNanos = System.nanoTime();
+		LOGGER.debug("Updated recent packets from " + database + ". Got " + packetGroups.size() + " packet groups");
+	}
+}
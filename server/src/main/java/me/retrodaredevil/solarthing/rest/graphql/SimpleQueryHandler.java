@@ -3,15 +3,19 @@ package me.retrodaredevil.solarthing.rest.graphql;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import me.retrodaredevil.couchdb.CouchDbUtil;
 import me.retrodaredevil.couchdbjava.CouchDbInstance;
+import me.retrodaredevil.okhttp3.OkHttpUtil;
 import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
+import me.retrodaredevil.solarthing.database.MillisChangesFollower;
 import me.retrodaredevil.solarthing.database.MillisDatabase;
 import me.retrodaredevil.solarthing.database.MillisQuery;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
 import me.retrodaredevil.solarthing.database.UpdateToken;
 import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbChangesFeed;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbSolarThingDatabase;
 import me.retrodaredevil.solarthing.database.exception.NotFoundSolarThingDatabaseException;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
@@ -49,6 +53,8 @@ public class SimpleQueryHandler {
 	private final DefaultInstanceOptions defaultInstanceOptions;
 
 	private final SolarThingDatabase database;
+	private final @Nullable RecentPacketWindow statusWindow;
+	private final @Nullable RecentPacketWindow eventWindow;
 
 	private VersionedPacket<RootMetaPacket> metadataCache = null;
 	private Long lastMetadataCacheNanos = null;
@@ -56,11 +62,46 @@ public class SimpleQueryHandler {
 	private final Map<UniqueQuery, Future<? extends List<? extends PacketGroup>>> executingQueryMap = new HashMap<>();
 	private final Lock executingQueryMutex = new ReentrantLock();
 
-	public SimpleQueryHandler(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings, ObjectMapper objectMapper) {
+	/**
+	 * @param recentPacketWindow The duration of recent status and event packets to keep in memory, or {@link Duration#ZERO} to always query the database
+	 */
+	public SimpleQueryHandler(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings, ObjectMapper objectMapper, Duration recentPacketWindow) {
 		this.defaultInstanceOptions = defaultInstanceOptions;
 		CouchDbInstance instance = CouchDbUtil.createInstance(couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties());
 		// Notice that objectMapper is likely not lenient, but that's OK. We expect the user to keep this program up to date
 		database = new CouchDbSolarThingDatabase(instance, PacketParsingErrorHandler.DO_NOTHING, objectMapper);
+		if (recentPacketWindow.isZero()) {
+			statusWindow = null;
+			eventWindow = null;
+		} else {
+			statusWindow = new RecentPacketWindow(
+					database.getStatusDatabase(),
+					startChangesFollower(couchDbDatabaseSettings, objectMapper, SolarThingConstants.STATUS_DATABASE),
+					recentPacketWindow
+			);
+			eventWindow = new RecentPacketWindow(
+					database.getEventDatabase(),
+					startChangesFollower(couchDbDatabaseSettings, objectMapper, SolarThingConstants.EVENT_DATABASE),
+					recentPacketWindow
+			);
+		}
+	}
+	public SimpleQueryHandler(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings, ObjectMapper objectMapper) {
+		this(defaultInstanceOptions, couchDbDatabaseSettings, objectMapper, Duration.ZERO);
+	}
+
+	private static MillisChangesFollower startChangesFollower(CouchDbDatabaseSettings couchDbDatabaseSettings, ObjectMapper objectMapper, String databaseName) {
+		MillisChangesFollower changesFollower = new MillisChangesFollower(new CouchDbChangesFeed(
+				OkHttpUtil.createBuilder(couchDbDatabaseSettings.getOkHttpProperties()).build(),
+				couchDbDatabaseSettings.getCouchProperties(),
+				databaseName,
+				objectMapper,
+				PacketParsingErrorHandler.DO_NOTHING
+		));
+		Thread thread = new Thread(changesFollower, "changes-follower-" + databaseName);
+		thread.setDaemon(true);
+		thread.start();
+		return changesFollower;
 	}
 
 	/**
@@ -84,13 +125,36 @@ public class SimpleQueryHandler {
 	}
 	/**
 	 *
+	 * @param window The recent packets of {@code database} or null. If the range is inside the window, the database is not queried.
 	 * @param from The date millis from
 	 * @param to The date millis to
 	 * @param sourceId The source ID or null. If null, the returned List may contain packet groups from multiple sources
 	 * @return The resulting packets
 	 */
-	private List<? extends InstancePacketGroup> queryPackets(MillisDatabase database, long from, long to, String sourceId) {
+	private List<? extends InstancePacketGroup> queryPackets(MillisDatabase database, @Nullable RecentPacketWindow window, long from, long to, String sourceId) {
+		List<? extends PacketGroup> rawPacketGroups = window == null ? null : window.query(from, to);
+		if (rawPacketGroups == null) {
+			rawPacketGroups = queryRawPackets(database, from, to);
+		}
 
+		if(rawPacketGroups.isEmpty()){
+			if (to - from > 60 * 1000) {
+				// Only debug this message if the requester is actually asking for a decent chunk of data
+				LOGGER.debug("No packets were queried between " + from + " and " + to);
+			}
+			return Collections.emptyList();
+		}
+		if (sourceId == null) {
+			return PacketGroups.parseToInstancePacketGroups(rawPacketGroups, defaultInstanceOptions);
+		}
+		Map<String, List<InstancePacketGroup>> map = PacketGroups.parsePackets(rawPacketGroups, defaultInstanceOptions);
+		if(map.containsKey(sourceId)){
+			List<InstancePacketGroup> instancePacketGroupList = map.get(sourceId);
+			return PacketGroups.orderByFragment(instancePacketGroupList);
+		}
+		throw new NoSuchElementException("No element with sourceId: '" + sourceId + "' available keys are: " + map.keySet());
+	}
+	private List<? extends PacketGroup> queryRawPackets(MillisDatabase database, long from, long to) {
 		MillisQuery millisQuery = new MillisQueryBuilder()
 				.startKey(from)
 				.endKey(to)
@@ -128,9 +192,8 @@ public class SimpleQueryHandler {
 			}
 		}
 
-		final List<? extends PacketGroup> rawPacketGroups;
 		try {
-			rawPacketGroups = future.get();
+			return future.get();
 		} catch (InterruptedException e) {
 			throw new DatabaseException("Interrupted!", e);
 		} catch (ExecutionException e) {
@@ -140,29 +203,12 @@ public class SimpleQueryHandler {
 			}
 			throw new DatabaseException("Unknown execution exception", e);
 		}
-
-		if(rawPacketGroups.isEmpty()){
-			if (to - from > 60 * 1000) {
-				// Only debug this message if the requester is actually asking for a decent chunk of data
-				LOGGER.debug("No packets were queried between " + from + " and " + to);
-			}
-			return Collections.emptyList();
-		}
-		if (sourceId == null) {
-			return PacketGroups.parseToInstancePacketGroups(rawPacketGroups, defaultInstanceOptions);
-		}
-		Map<String, List<InstancePacketGroup>> map = PacketGroups.parsePackets(rawPacketGroups, defaultInstanceOptions);
-		if(map.containsKey(sourceId)){
-			List<InstancePacketGroup> instancePacketGroupList = map.get(sourceId);
-			return PacketGroups.orderByFragment(instancePacketGroupList);
-		}
-		throw new NoSuchElementException("No element with sourceId: '" + sourceId + "' available keys are: " + map.keySet());
 	}
 	public List<? extends InstancePacketGroup> queryStatus(long from, long to, String sourceId) {
-		return queryPackets(database.getStatusDatabase(), from, to, sourceId);
+		return queryPackets(database.getStatusDatabase(), statusWindow, from, to, sourceId);
 	}
 	public List<? extends InstancePacketGroup> queryEvent(long from, long to, String sourceId) {
-		return queryPackets(database.getEventDatabase(), from, to, sourceId);
+		return queryPackets(database.getEventDatabase(), eventWindow, from, to, sourceId);
 	}
 
 	public MetaDatabase queryMeta() {
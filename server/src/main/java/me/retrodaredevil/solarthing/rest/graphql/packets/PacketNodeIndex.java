@@ -0,0 +1,120 @@
+package me.retrodaredevil.solarthing.rest.graphql.packets;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.rest.graphql.packets.nodes.PacketNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of the packets in a list of packet groups by their class. Each packet is converted to a {@link PacketNode} once, when this is created.
+ * <p>
+ * Getting the packets of a certain type (which may be an interface) only looks at the packets of classes that are assignable to that type.
+ * The result for each requested type is cached, so a query that asks for the same type many times only resolves it once.
+ * <p>
+ * This is thread safe.
+ */
+public final class PacketNodeIndex {
+	/** Every packet node, in the same order as {@link PacketUtil#convertPackets(List, Class, PacketFilter)} */
+	private final List<PacketNode<Packet>> packetNodes;
+	/** Maps each concrete class to the indices of its packet nodes in {@link #packetNodes}, in ascending order */
+	private final Map<Class<?>, int[]> classIndicesMap;
+	private final Map<Class<?>, List<PacketNode<?>>> requestedClassCache = new ConcurrentHashMap<>();
+
+	private PacketNodeIndex(List<PacketNode<Packet>> packetNodes, Map<Class<?>, int[]> classIndicesMap) {
+		this.packetNodes = packetNodes;
+		this.classIndicesMap = classIndicesMap;
+	}
+
+	public static PacketNodeIndex create(List<? extends FragmentedPacketGroup> packetGroups) {
+		List<PacketNode<Packet>> packetNodes = new ArrayList<>();
+		Map<Class<?>, IndexList> indexListMap = new LinkedHashMap<>();
+		for (FragmentedPacketGroup packetGroup : packetGroups) {
+			for (Packet packet : packetGroup.getPackets()) {
+				indexListMap.computeIfAbsent(packet.getClass(), clazz -> new IndexList()).add(packetNodes.size());
+				packetNodes.add(new PacketNode<>(packet, packetGroup.getDateMillisOrKnown(packet), packetGroup.getSourceId(packet), packetGroup.getFragmentId(packet)));
+			}
+		}
+		Map<Class<?>, int[]> classIndicesMap = new LinkedHashMap<>();
+		for (Map.Entry<Class<?>, IndexList> entry : indexListMap.entrySet()) {
+			classIndicesMap.put(entry.getKey(), entry.getValue().toArray());
+		}
+		return new PacketNodeIndex(packetNodes, classIndicesMap);
+	}
+
+	/**
+	 * @return An unmodifiable list of every packet node whose packet is an instance of {@code clazz}, in the order the packets were given
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<PacketNode<T>> getPacketNodes(Class<T> clazz) {
+		List<PacketNode<?>> r = requestedClassCache.computeIfAbsent(clazz, this::resolve);
+		return (List<PacketNode<T>>) (List<?>) r;
+	}
+
+	/**
+	 * @return A mutable list of every packet node whose packet is an instance of {@code clazz} and that {@code filter} keeps
+	 */
+	public <T> List<PacketNode<T>> getPacketNodes(Class<T> clazz, PacketFilter filter) {
+		List<PacketNode<T>> packetNodes = getPacketNodes(clazz);
+		List<PacketNode<T>> r = new ArrayList<>(packetNodes.size());
+		for (PacketNode<T> packetNode : packetNodes) {
+			if (filter.keep(packetNode)) {
+				r.add(packetNode);
+			}
+		}
+		return r;
+	}
+
+	private List<PacketNode<?>> resolve(Class<?> requestedClass) {
+		List<int[]> matchingIndices = new ArrayList<>();
+		int size = 0;
+		for (Map.Entry<Class<?>, int[]> entry : classIndicesMap.entrySet()) {
+			if (requestedClass.isAssignableFrom(entry.getKey())) {
+				matchingIndices.add(entry.getValue());
+				size += entry.getValue().length;
+			}
+		}
+		if (matchingIndices.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final int[] indices;
+		if (matchingIndices.size() == 1) {
+			indices = matchingIndices.get(0);
+		} else {
+			// Multiple classes implement the requested interface, so put their packets back in their original order
+			indices = new int[size];
+			int offset = 0;
+			for (int[] classIndices : matchingIndices) {
+				System.arraycopy(classIndices, 0, indices, offset, classIndices.length);
+				offset += classIndices.length;
+			}
+			Arrays.sort(indices);
+		}
+		List<PacketNode<?>> r = new ArrayList<>(indices.length);
+		for (int index : indices) {
+			r.add(packetNodes.get(index));
+		}
+		return Collections.unmodifiableList(r);
+	}
+
+	private static final class IndexList {
+		private int[] array = new int[16];
+		private int size = 0;
+
+		private void add(int index) {
+			if (size == array.length) {
+				array = Arrays.copyOf(array, size * 2);
+			}
+			array[size++] = index;
+		}
+		private int[] toArray() {
+			return Arrays.copyOf(array, size);
+		}
+	}
+}
@@ -2,24 +2,44 @@ package me.retrodaredevil.solarthing.rest.graphql.service;
 
 import me.retrodaredevil.solarthing.annotations.NotNull;
 import me.retrodaredevil.solarthing.rest.graphql.packets.PacketFilter;
+import me.retrodaredevil.solarthing.rest.graphql.packets.PacketNodeIndex;
 import me.retrodaredevil.solarthing.rest.graphql.packets.nodes.PacketNode;
-import me.retrodaredevil.solarthing.rest.graphql.packets.PacketUtil;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
 
 import java.util.List;
 
 import static java.util.Objects.requireNonNull;
 
+/**
+ * A {@link PacketGetter} that indexes its packets by class the first time packets are requested.
+ * A single instance is shared by every field of a query, so the packets are only looked at once, no matter how many fields are requested.
+ */
 public class BasicPacketGetter implements PacketGetter {
 	private final List<? extends FragmentedPacketGroup> packets;
 	private final PacketFilter packetFilter;
+	private volatile PacketNodeIndex packetNodeIndex = null;
 
 	public BasicPacketGetter(List<? extends FragmentedPacketGroup> packets, PacketFilter packetFilter) {
 		requireNonNull(this.packets = packets);
 		requireNonNull(this.packetFilter = packetFilter);
 	}
+
+	private PacketNodeIndex getPacketNodeIndex() {
+		PacketNodeIndex packetNodeIndex = this.packetNodeIndex;
+		if (packetNodeIndex == null) {
+			synchronized (this) {
+				packetNodeIndex = this.packetNodeIndex;
+				if (packetNodeIndex == null) {
+					packetNodeIndex = PacketNodeIndex.create(packets);
+					this.packetNodeIndex = packetNodeIndex;
+				}
+			}
+		}
+		return packetNodeIndex;
+	}
+
 	@Override
 	public <T> @NotNull List<@NotNull PacketNode<T>> getPackets(Class<T> clazz) {
-		return PacketUtil.convertPackets(packets, clazz, packetFilter);
+		return getPacketNodeIndex().getPacketNodes(clazz, packetFilter);
 	}
 }
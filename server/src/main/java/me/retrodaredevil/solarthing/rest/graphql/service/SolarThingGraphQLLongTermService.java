@@ -63,19 +63,7 @@ public class SolarThingGraphQLLongTermService {
 		}
 		@GraphQLQuery
 		public @Nullable IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> chargeControllerAccumulation() {
-			List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> raw = chargeControllerAccumulationRaw();
-			if (raw.isEmpty()) {
-				return null;
-			}
-			IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> result = null;
-			for (IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> packet : raw) {
-				if (result == null) {
-					result = packet;
-				} else {
-					result = result.combine(packet);
-				}
-			}
-			return result;
+			return cacheController.getChargeControllerAccumulationCombined(sourceId, startMillis, endMillis);
 		}
 		// TODO percent
 		// TODO total
@@ -0,0 +1,118 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import me.retrodaredevil.solarthing.packets.identification.Identifier;
+import me.retrodaredevil.solarthing.packets.identification.SingleTypeIdentifier;
+import me.retrodaredevil.solarthing.type.cache.packets.DefaultIdentificationCacheDataPacket;
+import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheDataPacket;
+import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheNode;
+import me.retrodaredevil.solarthing.type.cache.packets.data.ChargeControllerAccumulationDataCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CacheCalcTest {
+	private static final long PERIOD_DURATION_MILLIS = Duration.ofMinutes(15).toMillis();
+	private static final long FIRST_PERIOD_NUMBER = 1_000_000;
+	private static final Identifier IDENTIFIER = new SingleTypeIdentifier("test");
+
+	/**
+	 * @param generations The generation of each period. A null value means that period has no nodes.
+	 */
+	private static List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> createPackets(Float... generations) {
+		List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> r = new ArrayList<>();
+		for (int i = 0; i < generations.length; i++) {
+			long periodStartDateMillis = (FIRST_PERIOD_NUMBER + i) * PERIOD_DURATION_MILLIS;
+			Float generation = generations[i];
+			List<IdentificationCacheNode<ChargeControllerAccumulationDataCache>> nodes = new ArrayList<>();
+			if (generation != null) {
+				long firstDateMillis = periodStartDateMillis + 1000;
+				nodes.add(new IdentificationCacheNode<>(1, new ChargeControllerAccumulationDataCache(IDENTIFIER, generation, firstDateMillis, firstDateMillis + 60_000, 0.0f, null)));
+				nodes.add(new IdentificationCacheNode<>(2, new ChargeControllerAccumulationDataCache(IDENTIFIER, 2 * generation, firstDateMillis, firstDateMillis + 60_000, 0.0f, null)));
+			}
+			r.add(new DefaultIdentificationCacheDataPacket<>(periodStartDateMillis, PERIOD_DURATION_MILLIS, "default", ChargeControllerAccumulationDataCache.CACHE_NAME, nodes));
+		}
+		return r;
+	}
+
+	/** The way caches were combined before roll-ups existed: every 15 minute cache is combined, including the ones without nodes */
+	private static IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> oldFold(List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> packets) {
+		IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> r = null;
+		for (IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> packet : packets) {
+			r = r == null ? packet : r.combine(packet);
+		}
+		return r;
+	}
+	private static IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> combine(List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> packets) {
+		return CacheCalc.combinePackets(
+				FIRST_PERIOD_NUMBER * PERIOD_DURATION_MILLIS, packets.size() * PERIOD_DURATION_MILLIS,
+				"default", ChargeControllerAccumulationDataCache.CACHE_NAME, packets
+		);
+	}
+
+	private static void assertSamePacket(IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> expected, IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> actual) {
+		assertEquals(expected.getPeriodStartDateMillis(), actual.getPeriodStartDateMillis());
+		assertEquals(expected.getPeriodDurationMillis(), actual.getPeriodDurationMillis());
+		assertEquals(expected.getSourceId(), actual.getSourceId());
+		assertEquals(expected.getCacheName(), actual.getCacheName());
+		assertEquals(describeNodes(expected), describeNodes(actual));
+	}
+	private static Map<Integer, String> describeNodes(IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> packet) {
+		Map<Integer, String> r = new TreeMap<>(); // nodes are not in any particular order
+		for (IdentificationCacheNode<ChargeControllerAccumulationDataCache> node : packet.getNodes()) {
+			ChargeControllerAccumulationDataCache data = node.getData();
+			r.put(node.getFragmentId(), data.getGenerationKWH() + " " + data.getUnknownGenerationKWH() + " " + data.getFirstDateMillis() + " " + data.getLastDateMillis() + " " + data.getUnknownStartDateMillis());
+		}
+		return r;
+	}
+
+	@Test
+	void testMatchesOldFold() {
+		List<List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>>> cases = List.of(
+				createPackets(1.0f, 2.0f, 3.0f),
+				createPackets(null, null, 1.0f, 2.5f), // leading empty caches
+				createPackets(1.0f, 2.5f, null, null), // trailing empty caches
+				createPackets(null, 1.0f, null, 0.5f, null), // empty caches everywhere
+				createPackets(null, null, null), // all empty caches
+				createPackets(4.0f)
+		);
+		for (List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> packets : cases) {
+			assertSamePacket(oldFold(packets), combine(packets));
+		}
+	}
+
+	@Test
+	void testRollUpsMatchOldFold() {
+		List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> packets = createPackets(
+				null, null, 0.25f, 0.5f,
+				null, null, null, null,
+				1.0f, 0.25f, null, null
+		);
+		List<IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache>> hourly = new ArrayList<>();
+		for (int i = 0; i < packets.size(); i += 4) {
+			hourly.add(CacheCalc.combinePackets(
+					packets.get(i).getPeriodStartDateMillis(), 4 * PERIOD_DURATION_MILLIS,
+					"default", ChargeControllerAccumulationDataCache.CACHE_NAME, packets.subList(i, i + 4)
+			));
+		}
+		assertEquals(Collections.emptyList(), hourly.get(1).getNodes());
+		assertEquals(4 * PERIOD_DURATION_MILLIS, hourly.get(1).getPeriodDurationMillis());
+		assertSamePacket(oldFold(packets), CacheCalc.combinePackets(
+				FIRST_PERIOD_NUMBER * PERIOD_DURATION_MILLIS, packets.size() * PERIOD_DURATION_MILLIS,
+				"default", ChargeControllerAccumulationDataCache.CACHE_NAME, hourly
+		));
+	}
+
+	@Test
+	void testNoPacketsIsEmptyPacketForWholePeriod() {
+		IdentificationCacheDataPacket<ChargeControllerAccumulationDataCache> packet = combine(createPackets());
+		assertEquals(FIRST_PERIOD_NUMBER * PERIOD_DURATION_MILLIS, packet.getPeriodStartDateMillis());
+		assertEquals(Collections.emptyList(), packet.getNodes());
+	}
+}
@@ -0,0 +1,128 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import me.retrodaredevil.solarthing.type.cache.packets.CacheDataPacket;
+import me.retrodaredevil.solarthing.type.cache.packets.DefaultIdentificationCacheDataPacket;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheCalculationCoalescerTest {
+	private static final Duration DURATION = Duration.ofMinutes(15);
+
+	private static List<CacheDataPacket> createPackets(long startPeriodNumber, long endPeriodNumber) {
+		List<CacheDataPacket> r = new ArrayList<>();
+		for (long periodNumber = startPeriodNumber; periodNumber <= endPeriodNumber; periodNumber++) {
+			r.add(new DefaultIdentificationCacheDataPacket<>(periodNumber * DURATION.toMillis(), DURATION.toMillis(), "default", "cache", Collections.emptyList()));
+		}
+		return r;
+	}
+
+	private static List<String> documentIds(List<CacheDataPacket> packets) {
+		List<String> r = new ArrayList<>();
+		for (CacheDataPacket packet : packets) {
+			r.add(packet.getDbId());
+		}
+		return r;
+	}
+
+	/** Does what CacheHandler does with a result: saves each packet it is allowed to claim */
+	private static List<CacheDataPacket> calculateAndSave(CacheCalculationCoalescer coalescer, long startPeriodNumber, long endPeriodNumber, List<String> savedDocumentIds) {
+		CacheCalculationCoalescer.Result result = coalescer.calculateOrWait(startPeriodNumber, endPeriodNumber);
+		List<String> claimed = new ArrayList<>();
+		for (CacheDataPacket packet : result.getPackets()) {
+			if (result.claimSave(packet.getDbId())) {
+				claimed.add(packet.getDbId());
+			}
+		}
+		synchronized (savedDocumentIds) {
+			savedDocumentIds.addAll(claimed);
+		}
+		result.saveFinished(claimed);
+		return result.getPackets();
+	}
+
+	@Test
+	void testOverlappingRequestsCalculateAndSaveOnce() throws Exception {
+		CountDownLatch calculationStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calculatorCallCount = new AtomicInteger();
+		CacheCalculationCoalescer coalescer = new CacheCalculationCoalescer(DURATION, (startPeriodNumber, endPeriodNumber) -> {
+			calculatorCallCount.incrementAndGet();
+			calculationStarted.countDown();
+			try {
+				assertTrue(release.await(5, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+			return createPackets(startPeriodNumber, endPeriodNumber);
+		});
+		List<String> savedDocumentIds = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Future<List<CacheDataPacket>> whole = executor.submit(() -> calculateAndSave(coalescer, 0, 9, savedDocumentIds));
+			assertTrue(calculationStarted.await(5, TimeUnit.SECONDS));
+			Future<List<CacheDataPacket>> inside = executor.submit(() -> calculateAndSave(coalescer, 2, 5, savedDocumentIds));
+			Future<List<CacheDataPacket>> same = executor.submit(() -> calculateAndSave(coalescer, 0, 9, savedDocumentIds));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (coalescer.getCoalescedCalculationCount() < 2) {
+				assertTrue(System.nanoTime() < deadline, "Requests never waited for the calculation in progress");
+				Thread.sleep(1);
+			}
+			release.countDown();
+
+			assertEquals(documentIds(createPackets(0, 9)), documentIds(whole.get(5, TimeUnit.SECONDS)));
+			assertEquals(documentIds(createPackets(2, 5)), documentIds(inside.get(5, TimeUnit.SECONDS)));
+			assertEquals(documentIds(createPackets(0, 9)), documentIds(same.get(5, TimeUnit.SECONDS)));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, calculatorCallCount.get());
+		assertEquals(1, coalescer.getCalculationCount());
+		List<String> expectedDocumentIds = documentIds(createPackets(0, 9));
+		Collections.sort(savedDocumentIds);
+		Collections.sort(expectedDocumentIds);
+		assertEquals(expectedDocumentIds, savedDocumentIds); // each document is saved exactly once
+	}
+
+	@Test
+	void testFailedCalculationIsNotReused() {
+		AtomicInteger calculatorCallCount = new AtomicInteger();
+		CacheCalculationCoalescer coalescer = new CacheCalculationCoalescer(DURATION, (startPeriodNumber, endPeriodNumber) -> {
+			if (calculatorCallCount.incrementAndGet() == 1) {
+				throw new IllegalStateException("Database is down");
+			}
+			return createPackets(startPeriodNumber, endPeriodNumber);
+		});
+		assertThrows(IllegalStateException.class, () -> coalescer.calculateOrWait(0, 3));
+		assertEquals(documentIds(createPackets(0, 3)), documentIds(coalescer.calculateOrWait(0, 3).getPackets()));
+		assertEquals(2, calculatorCallCount.get());
+		assertEquals(0, coalescer.getCoalescedCalculationCount());
+	}
+
+	@Test
+	void testSeparateCalculationsDoNotSaveAtTheSameTime() {
+		CacheCalculationCoalescer coalescer = new CacheCalculationCoalescer(DURATION, CacheCalculationCoalescerTest::createPackets);
+		CacheCalculationCoalescer.Result first = coalescer.calculateOrWait(0, 1);
+		CacheCalculationCoalescer.Result second = coalescer.calculateOrWait(0, 1);
+		String documentId = first.getPackets().get(0).getDbId();
+
+		assertTrue(first.claimSave(documentId));
+		assertFalse(second.claimSave(documentId)); // first is still saving it
+		first.saveFinished(List.of(documentId));
+		assertTrue(second.claimSave(documentId));
+	}
+}
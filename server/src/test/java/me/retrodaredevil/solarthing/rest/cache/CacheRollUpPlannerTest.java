@@ -0,0 +1,55 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheRollUpPlannerTest {
+	private static final CacheRollUpPlanner PLANNER = new CacheRollUpPlanner(Duration.ofMinutes(15), List.of(Duration.ofHours(1), Duration.ofDays(1), Duration.ofDays(30)));
+
+	private static void assertCovers(long startPeriodNumber, long endPeriodNumber, List<CacheRollUpPlanner.Segment> segments) {
+		long next = startPeriodNumber;
+		for (CacheRollUpPlanner.Segment segment : segments) {
+			assertEquals(next, segment.startPeriodNumber());
+			long count = PLANNER.getBasePeriodCount(segment.level());
+			assertEquals(segment.levelPeriodNumber() * count, segment.startPeriodNumber());
+			assertEquals(segment.startPeriodNumber() + count - 1, segment.endPeriodNumber());
+			next = segment.endPeriodNumber() + 1;
+		}
+		assertEquals(endPeriodNumber + 1, next);
+	}
+
+	@Test
+	void testSmallRangeUsesBasePeriods() {
+		List<CacheRollUpPlanner.Segment> segments = PLANNER.plan(5, 6);
+		assertEquals(List.of(new CacheRollUpPlanner.Segment(0, 5, 5, 5), new CacheRollUpPlanner.Segment(0, 6, 6, 6)), segments);
+	}
+
+	@Test
+	void testAlignedDayUsesSingleRollUp() {
+		long periodsPerDay = 4 * 24;
+		List<CacheRollUpPlanner.Segment> segments = PLANNER.plan(10 * periodsPerDay, 11 * periodsPerDay - 1);
+		assertEquals(List.of(new CacheRollUpPlanner.Segment(2, 10, 10 * periodsPerDay, 11 * periodsPerDay - 1)), segments);
+	}
+
+	@Test
+	void testYearUsesFewSegments() {
+		long startPeriodNumber = 1_000_003; // not aligned to anything
+		long endPeriodNumber = startPeriodNumber + 365 * 4 * 24 + 7;
+		List<CacheRollUpPlanner.Segment> segments = PLANNER.plan(startPeriodNumber, endPeriodNumber);
+		assertCovers(startPeriodNumber, endPeriodNumber, segments);
+		// At most 3 base periods, 23 hours and 29 days are needed on each side
+		assertTrue(segments.size() < 2 * (3 + 23 + 29) + 13, "segments: " + segments.size());
+	}
+
+	@Test
+	void testInvalidDurations() {
+		assertThrows(IllegalArgumentException.class, () -> new CacheRollUpPlanner(Duration.ofMinutes(15), List.of(Duration.ofMinutes(20))));
+		assertThrows(IllegalArgumentException.class, () -> new CacheRollUpPlanner(Duration.ofMinutes(15), List.of(Duration.ofHours(1), Duration.ofMinutes(30))));
+	}
+}
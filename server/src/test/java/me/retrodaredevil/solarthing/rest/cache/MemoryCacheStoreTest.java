@@ -0,0 +1,54 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import me.retrodaredevil.solarthing.type.cache.packets.CacheDataPacket;
+import me.retrodaredevil.solarthing.type.cache.packets.DefaultIdentificationCacheDataPacket;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class MemoryCacheStoreTest {
+	private static final long PERIOD_DURATION_MILLIS = Duration.ofMinutes(15).toMillis();
+
+	private static CacheDataPacket createPacket(String cacheName, long periodNumber) {
+		return new DefaultIdentificationCacheDataPacket<>(periodNumber * PERIOD_DURATION_MILLIS, PERIOD_DURATION_MILLIS, "default", cacheName, Collections.emptyList());
+	}
+
+	private static CacheDataPacket get(MemoryCacheStore store, String cacheName, String sourceId, long periodNumber) {
+		return store.get(cacheName, sourceId, periodNumber * PERIOD_DURATION_MILLIS, PERIOD_DURATION_MILLIS);
+	}
+
+	@Test
+	void testLeastRecentlyUsedIsEvicted() {
+		MemoryCacheStore store = new MemoryCacheStore(2);
+		CacheDataPacket first = createPacket("a", 1);
+		CacheDataPacket second = createPacket("a", 2);
+		store.put(first);
+		store.put(second);
+		assertSame(first, get(store, "a", "default", 1)); // first is now the most recently used
+
+		store.put(createPacket("a", 3));
+		assertEquals(2, store.size());
+		assertEquals(1, store.getEvictionCount());
+		assertNull(get(store, "a", "default", 2));
+		assertSame(first, get(store, "a", "default", 1));
+
+		assertNull(get(store, "b", "default", 1)); // different cache name
+		assertNull(get(store, "a", "other", 1)); // different source
+		assertEquals(2, store.getHitCount());
+		assertEquals(3, store.getMissCount());
+	}
+
+	@Test
+	void testZeroSizeStoresNothing() {
+		MemoryCacheStore store = new MemoryCacheStore(0);
+		store.put(createPacket("a", 1));
+		assertEquals(0, store.size());
+		assertNull(get(store, "a", "default", 1));
+		assertEquals(0, store.getEvictionCount());
+	}
+}
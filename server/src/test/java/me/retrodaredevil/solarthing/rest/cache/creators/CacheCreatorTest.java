@@ -0,0 +1,122 @@
+package me.retrodaredevil.solarthing.rest.cache.creators;
+
+import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.packets.identification.Identifier;
+import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+import me.retrodaredevil.solarthing.packets.identification.IdentityInfo;
+import me.retrodaredevil.solarthing.packets.identification.SingleTypeIdentifier;
+import me.retrodaredevil.solarthing.rest.cache.CacheHandler;
+import me.retrodaredevil.solarthing.solar.batteryvoltage.BatteryVoltageOnlyIdentityInfo;
+import me.retrodaredevil.solarthing.solar.common.BatteryVoltage;
+import me.retrodaredevil.solarthing.solar.common.DailyChargeController;
+import me.retrodaredevil.solarthing.solar.common.DailyData;
+import me.retrodaredevil.solarthing.type.cache.packets.IdentificationCacheNode;
+import me.retrodaredevil.solarthing.type.cache.packets.data.BatteryRecordDataCache;
+import me.retrodaredevil.solarthing.type.cache.packets.data.ChargeControllerAccumulationDataCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CacheCreatorTest {
+	private static final Identifier IDENTIFIER = new SingleTypeIdentifier("test");
+	private static final IdentifierFragment IDENTIFIER_FRAGMENT = IdentifierFragment.create(1, IDENTIFIER);
+	private static final Duration PERIOD_DURATION = Duration.ofMinutes(15);
+	private static final int PERIOD_COUNT = 96;
+	private static final Instant FIRST_PERIOD_START = Instant.parse("2022-01-02T00:00:00Z");
+
+	private static final class TestPacket implements DailyChargeController, BatteryVoltage {
+		private final float dailyKWH;
+		private final float batteryVoltage;
+
+		private TestPacket(float dailyKWH, float batteryVoltage) {
+			this.dailyKWH = dailyKWH;
+			this.batteryVoltage = batteryVoltage;
+		}
+
+		@Override public float getDailyKWH() { return dailyKWH; }
+		@Override public int getDailyAH() { return 0; }
+		@Override public float getBatteryVoltage() { return batteryVoltage; }
+		@Override public @NotNull Identifier getIdentifier() { return IDENTIFIER; }
+		@Override public @NotNull IdentityInfo getIdentityInfo() { return new BatteryVoltageOnlyIdentityInfo(0); }
+		@Override public boolean isNewDay(DailyData previousDailyData) { return dailyKWH < ((TestPacket) previousDailyData).dailyKWH; }
+	}
+
+	/**
+	 * @return Packets starting before {@link CacheHandler#INFO_DURATION} before the first period. The daily kWH resets at 05:00 and there is a gap from 10:00 to 11:30.
+	 */
+	private static List<TimestampedPacket<TestPacket>> createPackets() {
+		List<TimestampedPacket<TestPacket>> r = new ArrayList<>();
+		long startDateMillis = FIRST_PERIOD_START.minus(CacheHandler.INFO_DURATION).minus(Duration.ofHours(2)).toEpochMilli();
+		long endDateMillis = FIRST_PERIOD_START.plus(PERIOD_DURATION.multipliedBy(PERIOD_COUNT)).toEpochMilli();
+		float dailyKWH = 3.0f;
+		for (long dateMillis = startDateMillis; dateMillis < endDateMillis; dateMillis += Duration.ofMinutes(7).toMillis()) {
+			long hourOfDay = (dateMillis / Duration.ofHours(1).toMillis()) % 24;
+			if (hourOfDay == 5 && dailyKWH > 1.0f) {
+				dailyKWH = 0.0f;
+			} else {
+				dailyKWH += 0.01f;
+			}
+			if (hourOfDay == 10 || (hourOfDay == 11 && (dateMillis / Duration.ofMinutes(1).toMillis()) % 60 < 30)) {
+				continue;
+			}
+			r.add(new TimestampedPacket<>(new TestPacket(dailyKWH, 24.0f + (dateMillis % 1000) / 1000.0f), dateMillis));
+		}
+		return r;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T> List<TimestampedPacket<T>> cast(List<TimestampedPacket<TestPacket>> packets) {
+		return (List) packets;
+	}
+
+	@Test
+	void testChargeControllerAccumulationCreateAllMatchesCreate() {
+		ChargeControllerAccumulationCacheNodeCreator creator = new ChargeControllerAccumulationCacheNodeCreator();
+		List<TimestampedPacket<DailyChargeController>> packets = cast(createPackets());
+		List<IdentificationCacheNode<ChargeControllerAccumulationDataCache>> nodes = creator.createAll(IDENTIFIER_FRAGMENT, packets, FIRST_PERIOD_START, PERIOD_DURATION, PERIOD_COUNT);
+		assertEquals(PERIOD_COUNT, nodes.size());
+		for (int i = 0; i < PERIOD_COUNT; i++) {
+			Instant periodStart = FIRST_PERIOD_START.plus(PERIOD_DURATION.multipliedBy(i));
+			ChargeControllerAccumulationDataCache expected = creator.create(IDENTIFIER_FRAGMENT, packets, periodStart, PERIOD_DURATION).getData();
+			ChargeControllerAccumulationDataCache actual = nodes.get(i).getData();
+			assertEquals(expected.getGenerationKWH(), actual.getGenerationKWH(), 1e-4f);
+			assertEquals(expected.getUnknownGenerationKWH(), actual.getUnknownGenerationKWH(), 1e-4f);
+			assertEquals(expected.getFirstDateMillis(), actual.getFirstDateMillis());
+			assertEquals(expected.getLastDateMillis(), actual.getLastDateMillis());
+			assertEquals(expected.getUnknownStartDateMillis(), actual.getUnknownStartDateMillis());
+		}
+	}
+
+	@Test
+	void testBatteryRecordCreateAllMatchesCreate() {
+		BatteryRecordCacheNodeCreator creator = new BatteryRecordCacheNodeCreator();
+		List<TimestampedPacket<BatteryVoltage>> packets = cast(createPackets());
+		List<IdentificationCacheNode<BatteryRecordDataCache>> nodes = creator.createAll(IDENTIFIER_FRAGMENT, packets, FIRST_PERIOD_START, PERIOD_DURATION, PERIOD_COUNT);
+		assertEquals(PERIOD_COUNT, nodes.size());
+		for (int i = 0; i < PERIOD_COUNT; i++) {
+			Instant periodStart = FIRST_PERIOD_START.plus(PERIOD_DURATION.multipliedBy(i));
+			BatteryRecordDataCache expected = creator.create(IDENTIFIER_FRAGMENT, packets, periodStart, PERIOD_DURATION).getData();
+			BatteryRecordDataCache actual = nodes.get(i).getData();
+			assertEquals(expected.getFirstDateMillis(), actual.getFirstDateMillis());
+			assertEquals(expected.getLastDateMillis(), actual.getLastDateMillis());
+			assertEquals(expected.getUnknownStartDateMillis(), actual.getUnknownStartDateMillis());
+			BatteryRecordDataCache.Record expectedRecord = expected.getRecord();
+			BatteryRecordDataCache.Record actualRecord = actual.getRecord();
+			if (expectedRecord == null) {
+				assertNull(actualRecord);
+			} else {
+				assertEquals(expectedRecord.getMinBatteryVoltage(), actualRecord.getMinBatteryVoltage());
+				assertEquals(expectedRecord.getMaxBatteryVoltageDateMillis(), actualRecord.getMaxBatteryVoltageDateMillis());
+				assertEquals(expectedRecord.getBatteryVoltageHours(), actualRecord.getBatteryVoltageHours(), 1e-9);
+				assertEquals(expectedRecord.getUnknownBatteryVoltageHours(), actualRecord.getUnknownBatteryVoltageHours(), 1e-9);
+			}
+		}
+	}
+}
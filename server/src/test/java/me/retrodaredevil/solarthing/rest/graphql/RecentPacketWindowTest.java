@@ -0,0 +1,197 @@
+package me.retrodaredevil.solarthing.rest.graphql;
+
+import me.retrodaredevil.solarthing.database.DatabaseSource;
+import me.retrodaredevil.solarthing.database.MillisChangesFeed;
+import me.retrodaredevil.solarthing.database.MillisChangesFollower;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.database.cache.SimpleDatabaseCache;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.DateMillisStoredIdentifier;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.collection.StoredPacketGroup;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecentPacketWindowTest {
+	private static final Instant NOW = Instant.parse("2022-03-04T12:00:00Z");
+	private static final Duration WINDOW = Duration.ofHours(48);
+
+	private static final class FakeMillisDatabase implements MillisDatabase {
+		private final List<StoredPacketGroup> packetGroups = new ArrayList<>();
+		private final List<MillisQuery> queries = new ArrayList<>();
+		private boolean failing = false;
+
+		@Override
+		public List<StoredPacketGroup> query(MillisQuery query) throws SolarThingDatabaseException {
+			queries.add(query);
+			if (failing) {
+				throw new SolarThingDatabaseException("Could not connect");
+			}
+			return packetGroups.stream()
+					.filter(packetGroup -> query.getStartKey() == null || packetGroup.getDateMillis() >= query.getStartKey())
+					.filter(packetGroup -> query.getEndKey() == null || packetGroup.getDateMillis() <= query.getEndKey())
+					.collect(Collectors.toList());
+		}
+
+		@Override
+		public UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public VersionedPacket<StoredPacketGroup> getPacketCollection(String documentId) {
+			throw new UnsupportedOperationException();
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public UpdateToken getCurrentUpdateToken(String documentId) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public DatabaseSource getDatabaseSource() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static final class FakeMillisChangesFeed implements MillisChangesFeed {
+		private final List<StoredPacketGroup> changes = new ArrayList<>();
+		private boolean failing = false;
+
+		@Override
+		public List<StoredPacketGroup> poll(Duration timeout) throws SolarThingDatabaseException {
+			if (failing) {
+				throw new SolarThingDatabaseException("Could not connect");
+			}
+			List<StoredPacketGroup> r = new ArrayList<>(changes);
+			changes.clear();
+			return r;
+		}
+	}
+
+	/** @return A {@link MillisChangesFollower} that is following {@code changesFeed} */
+	private static MillisChangesFollower createFollower(FakeMillisChangesFeed changesFeed) {
+		MillisChangesFollower changesFollower = new MillisChangesFollower(changesFeed);
+		try {
+			changesFollower.pollOnce();
+		} catch (SolarThingDatabaseException e) {
+			throw new AssertionError(e);
+		}
+		return changesFollower;
+	}
+
+	private static StoredPacketGroup create(Instant instant) {
+		long dateMillis = instant.toEpochMilli();
+		return PacketGroups.createStoredPacketGroup(Collections.emptyList(), dateMillis, new DateMillisStoredIdentifier(dateMillis));
+	}
+
+	@Test
+	void testRangesInsideWindowDoNotQueryDatabase() {
+		FakeMillisDatabase database = new FakeMillisDatabase();
+		for (Instant instant = NOW.minus(Duration.ofHours(60)); instant.isBefore(NOW); instant = instant.plus(Duration.ofMinutes(5))) {
+			database.packetGroups.add(create(instant));
+		}
+		// a very long update period so that only the first query updates the window
+		RecentPacketWindow window = new RecentPacketWindow(database, createFollower(new FakeMillisChangesFeed()), WINDOW, Duration.ofDays(1), Clock.fixed(NOW, ZoneOffset.UTC));
+
+		List<StoredPacketGroup> lastSixHours = window.query(NOW.minus(Duration.ofHours(6)).toEpochMilli(), NOW.toEpochMilli());
+		assertNotNull(lastSixHours);
+		assertEquals(6 * 12, lastSixHours.size());
+		assertEquals(1, database.queries.size());
+		assertEquals(NOW.minus(WINDOW).toEpochMilli(), database.queries.get(0).getStartKey());
+
+		List<StoredPacketGroup> lastDay = window.query(NOW.minus(Duration.ofHours(24)).toEpochMilli(), NOW.toEpochMilli());
+		assertNotNull(lastDay);
+		assertEquals(24 * 12, lastDay.size());
+		assertEquals(1, database.queries.size());
+
+		assertNull(window.query(NOW.minus(Duration.ofHours(49)).toEpochMilli(), NOW.toEpochMilli())); // not entirely inside the window
+	}
+
+	@Test
+	void testUpdatesOnlyQueryVolatileData() {
+		FakeMillisDatabase database = new FakeMillisDatabase();
+		database.packetGroups.add(create(NOW.minus(Duration.ofHours(3))));
+		// an update period of zero means that every query updates the window
+		RecentPacketWindow window = new RecentPacketWindow(database, createFollower(new FakeMillisChangesFeed()), WINDOW, Duration.ZERO, Clock.fixed(NOW, ZoneOffset.UTC));
+		assertEquals(1, window.query(NOW.minus(Duration.ofHours(6)).toEpochMilli(), NOW.toEpochMilli()).size());
+
+		database.packetGroups.add(create(NOW.minusSeconds(30)));
+		assertEquals(2, window.query(NOW.minus(Duration.ofHours(6)).toEpochMilli(), NOW.toEpochMilli()).size());
+		assertEquals(2, database.queries.size());
+		assertEquals(NOW.minus(SimpleDatabaseCache.DEFAULT_VOLATILE_WINDOW_DURATION).toEpochMilli(), database.queries.get(1).getStartKey());
+	}
+
+	@Test
+	void testFailedUpdateFallsBackToDatabase() {
+		FakeMillisDatabase database = new FakeMillisDatabase();
+		RecentPacketWindow window = new RecentPacketWindow(database, createFollower(new FakeMillisChangesFeed()), WINDOW, Duration.ZERO, Clock.fixed(NOW, ZoneOffset.UTC));
+		assertNotNull(window.query(NOW.minus(Duration.ofHours(1)).toEpochMilli(), NOW.toEpochMilli()));
+
+		database.failing = true;
+		assertNull(window.query(NOW.minus(Duration.ofHours(1)).toEpochMilli(), NOW.toEpochMilli()));
+
+		database.failing = false;
+		assertNotNull(window.query(NOW.minus(Duration.ofHours(1)).toEpochMilli(), NOW.toEpochMilli()));
+	}
+
+	@Test
+	void testLateDocumentIsPickedUp() throws SolarThingDatabaseException {
+		FakeMillisDatabase database = new FakeMillisDatabase();
+		database.packetGroups.add(create(NOW.minus(Duration.ofHours(3))));
+		FakeMillisChangesFeed changesFeed = new FakeMillisChangesFeed();
+		MillisChangesFollower changesFollower = createFollower(changesFeed);
+		RecentPacketWindow window = new RecentPacketWindow(database, changesFollower, WINDOW, Duration.ZERO, Clock.fixed(NOW, ZoneOffset.UTC));
+		assertEquals(1, window.query(NOW.minus(Duration.ofHours(6)).toEpochMilli(), NOW.toEpochMilli()).size());
+
+		// A document that is much older than the volatile part of the window is uploaded late, such as one that was replayed from a spool
+		StoredPacketGroup late = create(NOW.minus(Duration.ofHours(2)));
+		database.packetGroups.add(late);
+		assertEquals(1, window.query(NOW.minus(Duration.ofHours(6)).toEpochMilli(), NOW.toEpochMilli()).size()); // the volatile query does not find it
+
+		changesFeed.changes.add(late);
+		changesFollower.pollOnce();
+		List<StoredPacketGroup> packetGroups = window.query(NOW.minus(Duration.ofHours(6)).toEpochMilli(), NOW.toEpochMilli());
+		assertEquals(2, packetGroups.size());
+		assertEquals(late.getDateMillis(), packetGroups.get(1).getDateMillis());
+		for (MillisQuery query : database.queries.subList(1, database.queries.size())) {
+			assertEquals(NOW.minus(SimpleDatabaseCache.DEFAULT_VOLATILE_WINDOW_DURATION).toEpochMilli(), query.getStartKey()); // the whole window was never queried again
+		}
+	}
+
+	@Test
+	void testNotFollowingChangesFallsBackToDatabase() {
+		FakeMillisDatabase database = new FakeMillisDatabase();
+		FakeMillisChangesFeed changesFeed = new FakeMillisChangesFeed();
+		MillisChangesFollower changesFollower = createFollower(changesFeed);
+		RecentPacketWindow window = new RecentPacketWindow(database, changesFollower, WINDOW, Duration.ZERO, Clock.fixed(NOW, ZoneOffset.UTC));
+		assertNotNull(window.query(NOW.minus(Duration.ofHours(1)).toEpochMilli(), NOW.toEpochMilli()));
+
+		changesFeed.failing = true;
+		assertThrows(SolarThingDatabaseException.class, changesFollower::pollOnce);
+		assertNull(window.query(NOW.minus(Duration.ofHours(1)).toEpochMilli(), NOW.toEpochMilli()));
+
+		changesFeed.failing = false;
+		assertDoesNotThrow(changesFollower::pollOnce);
+		assertNotNull(window.query(NOW.minus(Duration.ofHours(1)).toEpochMilli(), NOW.toEpochMilli()));
+	}
+}
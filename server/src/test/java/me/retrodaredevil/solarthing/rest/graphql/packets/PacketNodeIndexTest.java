@@ -0,0 +1,76 @@
+package me.retrodaredevil.solarthing.rest.graphql.packets;
+
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.rest.graphql.packets.nodes.PacketNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacketNodeIndexTest {
+	private interface Voltage extends Packet {}
+	private interface Device extends Packet {}
+	private static final class ChargeControllerPacket implements Voltage, Device {}
+	private static final class InverterPacket implements Voltage, Device {}
+	private static final class BatteryPacket implements Voltage {}
+	private static final class TemperaturePacket implements Packet {}
+	private static final class UnusedPacket implements Packet {}
+
+	static final List<Class<?>> REQUESTED_CLASSES = Arrays.asList(
+			Voltage.class, Device.class, Packet.class,
+			ChargeControllerPacket.class, InverterPacket.class, BatteryPacket.class, TemperaturePacket.class, UnusedPacket.class,
+			Voltage.class, Device.class, ChargeControllerPacket.class, InverterPacket.class
+	);
+
+	/**
+	 * Creates packet groups for two fragments, one every 30 seconds for each fragment
+	 */
+	static List<InstancePacketGroup> createPacketGroups(Duration duration) {
+		List<InstancePacketGroup> r = new ArrayList<>();
+		for (long dateMillis = 0; dateMillis < duration.toMillis(); dateMillis += 30_000) {
+			r.add(PacketGroups.createInstancePacketGroup(
+					Arrays.asList(new ChargeControllerPacket(), new ChargeControllerPacket(), new InverterPacket(), new TemperaturePacket()),
+					dateMillis, "default", 1
+			));
+			List<Packet> packets = new ArrayList<>(Arrays.asList(new InverterPacket(), new BatteryPacket()));
+			if (dateMillis % 120_000 == 0) {
+				packets.add(new TemperaturePacket());
+			}
+			r.add(PacketGroups.createInstancePacketGroup(packets, dateMillis + 10_000, "other", 2));
+		}
+		return r;
+	}
+
+	private static void assertSameNodes(List<? extends PacketNode<?>> expected, List<? extends PacketNode<?>> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			PacketNode<?> expectedNode = expected.get(i);
+			PacketNode<?> actualNode = actual.get(i);
+			assertSame(expectedNode.getPacket(), actualNode.getPacket());
+			assertEquals(expectedNode.getDateMillis(), actualNode.getDateMillis());
+			assertEquals(expectedNode.getSourceId(), actualNode.getSourceId());
+			assertEquals(expectedNode.getFragmentId(), actualNode.getFragmentId());
+		}
+	}
+
+	@Test
+	void testSameAsConvertPackets() {
+		List<InstancePacketGroup> packetGroups = createPacketGroups(Duration.ofHours(2));
+		PacketNodeIndex index = PacketNodeIndex.create(packetGroups);
+		PacketFilter filter = new FragmentFilter(2);
+		for (Class<?> clazz : REQUESTED_CLASSES) {
+			assertSameNodes(PacketUtil.convertPackets(packetGroups, clazz, PacketFilter.KEEP_ALL), index.getPacketNodes(clazz));
+			assertSameNodes(PacketUtil.convertPackets(packetGroups, clazz, filter), index.getPacketNodes(clazz, filter));
+		}
+		assertTrue(index.getPacketNodes(UnusedPacket.class).isEmpty());
+		assertSame(index.getPacketNodes(Voltage.class), index.getPacketNodes(Voltage.class));
+	}
+}